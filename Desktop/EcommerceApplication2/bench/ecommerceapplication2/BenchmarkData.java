@@ -0,0 +1,166 @@
+package ecommerceapplication2;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+/**
+ * Generates synthetic {@code products.txt} and {@code users.txt} files for the
+ * benchmarks. The output is the same for the same seed, so numbers from
+ * different runs are measured on identical data.
+ *
+ * <p>Products get the IDs {@code P0000000}, {@code P0000001}, ... so a
+ * benchmark can pick existing and missing IDs without reading the file back.
+ * About one name in ten contains a comma or quote, which exercises the
+ * quoting paths. Users are registered with
+ * {@code user<n>@bench.example} and the password {@link #USER_PASSWORD}.
+ *
+ * <p>Usage:
+ * <pre>
+ *     java ecommerceapplication2.BenchmarkData &lt;directory&gt; &lt;products&gt; &lt;users&gt;
+ * </pre>
+ */
+public final class BenchmarkData {
+    /** The password every generated user has. */
+    public static final String USER_PASSWORD = "Bench$1234";
+
+    private static final long SEED = 20241110L;
+    private static final String[] WORDS = {
+        "glass", "lamp", "chair", "desk", "cable", "phone", "guide", "album", "poster", "kettle",
+        "mug", "novel", "course", "mouse", "screen", "jacket", "boots", "speaker", "camera", "sofa"
+    };
+    private static final String[] FORMATS = {"mp3", "pdf", "epub", "mp4", "zip"};
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Returns the ID of the product on the given line of a generated catalog.
+     *
+     * @param line The zero-based line number.
+     * @return The product ID.
+     */
+    public static String productId(long line) {
+        return String.format("P%07d", line);
+    }
+
+    /**
+     * Returns the email of the given generated user.
+     *
+     * @param index The zero-based user number.
+     * @return The email address.
+     */
+    public static String userEmail(long index) {
+        return "user" + index + "@bench.example";
+    }
+
+    /**
+     * Returns a generated catalog with the given number of lines, writing it
+     * to {@code products-<lines>.txt} in the directory if it does not exist yet.
+     *
+     * @param directory The directory to keep generated files in.
+     * @param lines     The number of products.
+     * @return The path of the catalog.
+     * @throws IOException if the file cannot be written.
+     */
+    public static Path products(Path directory, int lines) throws IOException {
+        Path file = directory.resolve("products-" + lines + ".txt");
+        if (!Files.exists(file)) {
+            writeProducts(file, lines);
+        }
+        return file;
+    }
+
+    /**
+     * Writes a catalog of generated products. The file is replaced atomically,
+     * so an interrupted run never leaves a truncated catalog behind.
+     *
+     * @param file  The file to write.
+     * @param lines The number of products.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void writeProducts(Path file, int lines) throws IOException {
+        Random random = new Random(SEED);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < lines; i++) {
+                String name = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)];
+                if (random.nextInt(10) == 0) {
+                    name = random.nextBoolean() ? name + ", large" : name + " \"classic\"";
+                }
+                double price = (1 + random.nextInt(99_999)) / 100.0;
+                Product product = random.nextInt(3) == 0
+                        ? new DigitalProduct(productId(i), name, price, (1 + random.nextInt(900)) + "mb",
+                                FORMATS[random.nextInt(FORMATS.length)])
+                        : new PhysicalProduct(productId(i), name, price, (1 + random.nextInt(4999)) / 100.0,
+                                (10 + random.nextInt(90)) + "x" + (10 + random.nextInt(90)));
+                out.write(product.toFileFormat());
+                out.newLine();
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes a user file of generated users, all with valid details.
+     *
+     * @param file  The file to write.
+     * @param users The number of users.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void writeUsers(Path file, int users) throws IOException {
+        Random random = new Random(SEED);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < users; i++) {
+                String phone = String.format("0%09d", random.nextInt(1_000_000_000));
+                out.write(String.join(",", "" + (102 + i % 7), "First" + i, "Last" + i, userEmail(i), USER_PASSWORD,
+                        phone, (1 + random.nextInt(200)) + " Bench Street", i % 5 == 0 ? "seller" : "buyer"));
+                out.newLine();
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Discards console output, so the messages printed by the measured code
+     * neither flood the benchmark log nor dominate the timings.
+     *
+     * @return The previous {@code System.out}, to restore after the benchmark.
+     */
+    public static PrintStream muteConsole() {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        return console;
+    }
+
+    /**
+     * Writes {@code products.txt} and {@code users.txt} to a directory.
+     *
+     * @param args The directory, the number of products and the number of users.
+     */
+    public static void main(String[] args) {
+        if (args.length != 3) {
+            System.out.println("Usage: BenchmarkData <directory> <products> <users>");
+            return;
+        }
+        try {
+            Path directory = Paths.get(args[0]);
+            Files.createDirectories(directory);
+            writeProducts(directory.resolve("products.txt"), Integer.parseInt(args[1]));
+            writeUsers(directory.resolve("users.txt"), Integer.parseInt(args[2]));
+            System.out.println("Wrote " + args[1] + " products and " + args[2] + " users to " + directory.toAbsolutePath());
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid count: " + e.getMessage());
+        } catch (IOException e) {
+            System.out.println("Error writing benchmark data: " + e.getMessage());
+        }
+    }
+}
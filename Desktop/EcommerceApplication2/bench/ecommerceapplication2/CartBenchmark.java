@@ -0,0 +1,82 @@
+package ecommerceapplication2;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link Buyer#addProductToCart} and {@link Buyer#viewCart} for carts
+ * of different sizes. Must run in a directory prepared by
+ * {@link BenchmarkData}, since the buyer looks products up in its
+ * {@code products.txt}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CartBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int cartLines;
+
+    private Buyer buyer;
+    private String[] productIds;
+    private int next;
+    private PrintStream console;
+
+    @Setup(Level.Trial)
+    public void createBuyer() {
+        buyer = new Buyer("buyer1", "Bench", "Buyer", "bench@bench.example", BenchmarkData.USER_PASSWORD,
+                "0123456789", "1 Bench Street");
+        productIds = new String[cartLines];
+        for (int i = 0; i < cartLines; i++) {
+            productIds[i] = BenchmarkData.productId(i);
+        }
+        console = BenchmarkData.muteConsole();
+    }
+
+    /**
+     * Refills the cart, so each iteration starts with one unit of every line.
+     */
+    @Setup(Level.Iteration)
+    public void fillCart() {
+        buyer.getCart().clear();
+        for (String productId : productIds) {
+            buyer.addProductToCart(productId, 1);
+        }
+        if (buyer.getCart().lineCount() != cartLines) {
+            throw new IllegalStateException("products.txt has fewer than " + cartLines + " generated products.");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void restoreConsole() {
+        System.setOut(console);
+    }
+
+    @Benchmark
+    public long addProductToCart() {
+        buyer.addProductToCart(productIds[next++ % cartLines], 1);
+        return buyer.getCart().totalCents();
+    }
+
+    @Benchmark
+    public long viewCart() {
+        buyer.viewCart();
+        return buyer.getCart().totalCents();
+    }
+}
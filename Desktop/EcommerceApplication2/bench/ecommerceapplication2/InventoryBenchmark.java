@@ -0,0 +1,126 @@
+package ecommerceapplication2;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link Inventory} reservations with hundreds of threads buying a
+ * few hot products at once.
+ *
+ * <p>{@code reserveAndRelease} reserves a unit and hands it back, so the
+ * stock never runs out and every call contends for the same counters.
+ * {@code sellOut} only reserves: the threads race for a limited stock, and
+ * once it is gone the remaining calls are refused. After every iteration the
+ * units each thread obtained are added up and checked against the stock, so a
+ * run that oversold even one unit fails.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Threads(256)
+@Fork(1)
+public class InventoryBenchmark {
+    private static final int STOCK = 1_000_000; // Units of each hot product
+    private static final String FILE = "inventory-products.txt";
+
+    @Param({"1", "4", "16"})
+    public int hotProducts;
+
+    private Inventory inventory;
+    private String[] productIds;
+    private LongAdder[] reserved;
+
+    /**
+     * The random product choice of one thread.
+     */
+    @State(Scope.Thread)
+    public static class Shopper {
+        private final SplittableRandom random = new SplittableRandom(Thread.currentThread().threadId());
+
+        int next(int bound) {
+            return random.nextInt(bound);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void createProducts() throws IOException {
+        Path file = Paths.get(FILE);
+        Files.deleteIfExists(Paths.get(ProductJournal.journalFileName(FILE)));
+        productIds = new String[hotProducts];
+        reserved = new LongAdder[hotProducts];
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < hotProducts; i++) {
+            productIds[i] = BenchmarkData.productId(i);
+            reserved[i] = new LongAdder();
+            lines.add(new PhysicalProduct(productIds[i], "hot item " + i, 9.99, 1.0, "10x10", STOCK).toFileFormat());
+        }
+        Files.write(file, lines, StandardCharsets.UTF_8);
+        inventory = Inventory.forFile(FILE);
+        if (inventory.available(productIds[0]) != STOCK) {
+            throw new IllegalStateException("Generated catalog " + file + " does not hold " + STOCK + " units");
+        }
+    }
+
+    /**
+     * Fails the run if any product was oversold, then hands every reserved
+     * unit back for the next iteration.
+     */
+    @TearDown(Level.Iteration)
+    public void checkNoOversell() {
+        for (int i = 0; i < hotProducts; i++) {
+            long units = reserved[i].sumThenReset();
+            int available = inventory.available(productIds[i]);
+            if (units > STOCK || available != STOCK - units) {
+                throw new IllegalStateException(productIds[i] + ": " + units + " units reserved of " + STOCK
+                        + ", " + available + " still available");
+            }
+            if (units > 0) {
+                inventory.release(productIds[i], (int) units);
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean reserveAndRelease(Shopper shopper) {
+        String productId = productIds[shopper.next(hotProducts)];
+        if (inventory.reserve(productId, 1)) {
+            inventory.release(productId, 1);
+            return true;
+        }
+        return false;
+    }
+
+    @Benchmark
+    public boolean sellOut(Shopper shopper) {
+        int product = shopper.next(hotProducts);
+        if (inventory.reserve(productIds[product], 1)) {
+            reserved[product].increment();
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,44 @@
+package ecommerceapplication2;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link Product#toFileFormat()}, the serialization behind every
+ * product written to the product file or its journal. Names with commas and
+ * quotes take the quoting path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ProductFormatBenchmark {
+    private final Product physical = new PhysicalProduct("P0000001", "glass lamp", 23.0, 3.0, "23x40");
+    private final Product digital = new DigitalProduct("P0000002", "The Move - Merci Chinwo", 2.0, "24mb", "mp3");
+    private final Product quoted = new PhysicalProduct("P0000003", "chair, \"classic\"", 149.99, 12.5, "60x60");
+
+    @Benchmark
+    public String physicalProduct() {
+        return physical.toFileFormat();
+    }
+
+    @Benchmark
+    public String digitalProduct() {
+        return digital.toFileFormat();
+    }
+
+    @Benchmark
+    public String quotedName() {
+        return quoted.toFileFormat();
+    }
+}
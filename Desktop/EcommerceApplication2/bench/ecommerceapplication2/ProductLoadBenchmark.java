@@ -0,0 +1,56 @@
+package ecommerceapplication2;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link FileHandler#loadProductsFromFile} on generated catalogs.
+ * Every call parses the whole file, so the time per operation is the time
+ * to load a catalog of that many lines.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx12g"})
+public class ProductLoadBenchmark {
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int lines;
+
+    private String file;
+    private PrintStream console;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        file = BenchmarkData.products(Paths.get(""), lines).toString();
+        console = BenchmarkData.muteConsole();
+    }
+
+    @TearDown(Level.Trial)
+    public void restoreConsole() {
+        System.setOut(console);
+    }
+
+    @Benchmark
+    public ArrayList<Product> loadProductsFromFile() {
+        return FileHandler.loadProductsFromFile(file);
+    }
+}
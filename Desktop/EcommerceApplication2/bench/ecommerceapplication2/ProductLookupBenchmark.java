@@ -0,0 +1,78 @@
+package ecommerceapplication2;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link FileHandler#productExists} on generated catalogs, for IDs
+ * that exist and IDs that do not, in each {@link FileHandler.LookupMode}.
+ * In {@code CATALOG} mode the catalog is loaded during setup, so only the
+ * lookup itself is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx12g"})
+public class ProductLookupBenchmark {
+    private static final int SAMPLE = 1024; // IDs cycled through, so lookups are not all cache hits
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int lines;
+
+    @Param({"CATALOG", "MAPPED"})
+    public FileHandler.LookupMode mode;
+
+    private String file;
+    private final String[] present = new String[SAMPLE];
+    private final String[] missing = new String[SAMPLE];
+    private int next;
+    private PrintStream console;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        file = BenchmarkData.products(Paths.get(""), lines).toString();
+        Random random = new Random(lines);
+        for (int i = 0; i < SAMPLE; i++) {
+            present[i] = BenchmarkData.productId(random.nextInt(lines));
+            missing[i] = BenchmarkData.productId(lines + random.nextInt(lines));
+        }
+        console = BenchmarkData.muteConsole();
+        FileHandler.setLookupMode(mode);
+        if (!FileHandler.productExists(file, present[0])) {
+            throw new IllegalStateException("Generated catalog " + file + " is missing " + present[0]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void restoreConsole() {
+        System.setOut(console);
+    }
+
+    @Benchmark
+    public boolean productExistsHit() {
+        return FileHandler.productExists(file, present[next++ & (SAMPLE - 1)]);
+    }
+
+    @Benchmark
+    public boolean productExistsMiss() {
+        return FileHandler.productExists(file, missing[next++ & (SAMPLE - 1)]);
+    }
+}
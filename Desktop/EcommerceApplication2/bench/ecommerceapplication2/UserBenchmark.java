@@ -0,0 +1,82 @@
+package ecommerceapplication2;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link User#signup} and {@link User#login}. Must run in a
+ * directory prepared by {@link BenchmarkData}, whose {@code users.txt} is
+ * indexed by {@link UserRepository} when {@code User} is first used.
+ *
+ * <p>{@code signup} registers a new user per call and waits for the record to
+ * be written to {@code users.txt}. The {@code Invalid} variants stop at the
+ * validators, so they measure the validators alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UserBenchmark {
+    private static final int USERS = 1000; // Generated users cycled through by login
+
+    private long nextSignup;
+    private int nextLogin;
+    private PrintStream console;
+
+    @Setup(Level.Trial)
+    public void checkUsers() {
+        if (User.findByEmail(BenchmarkData.userEmail(USERS - 1)) == null) {
+            throw new IllegalStateException("Run from a directory written by BenchmarkData with at least "
+                    + USERS + " users.");
+        }
+        nextSignup = System.nanoTime(); // Unique across forks sharing users.txt
+        console = BenchmarkData.muteConsole();
+    }
+
+    @TearDown(Level.Trial)
+    public void restoreConsole() {
+        System.setOut(console);
+    }
+
+    @Benchmark
+    public boolean signup() {
+        return User.signup("123", "Bench", "User", "signup" + nextSignup++ + "@bench.example",
+                BenchmarkData.USER_PASSWORD, "0123456789", "1 Bench Street", "buyer");
+    }
+
+    @Benchmark
+    public boolean signupInvalidPassword() {
+        return User.signup("123", "Bench", "User", "weak@bench.example", "password", "0123456789",
+                "1 Bench Street", "buyer");
+    }
+
+    @Benchmark
+    public boolean signupInvalidEmail() {
+        return User.signup("123", "Bench", "User", "not an email", BenchmarkData.USER_PASSWORD, "0123456789",
+                "1 Bench Street", "buyer");
+    }
+
+    @Benchmark
+    public boolean login() {
+        return User.login(BenchmarkData.userEmail(nextLogin++ % USERS), BenchmarkData.USER_PASSWORD);
+    }
+
+    @Benchmark
+    public boolean loginWrongPassword() {
+        return User.login(BenchmarkData.userEmail(nextLogin++ % USERS), "Wrong$1234");
+    }
+}
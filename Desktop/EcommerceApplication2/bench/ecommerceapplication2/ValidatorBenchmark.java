@@ -0,0 +1,80 @@
+package ecommerceapplication2;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link Validators} with the {@code String.matches} checks they
+ * replaced, which compiled a regular expression on every call. The
+ * {@code signup} and {@code card} benchmarks validate all fields of one
+ * signup or one card, as {@link User#signup} and {@link CardDetails} do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ValidatorBenchmark {
+    private static final String EMAIL_REGEX = "^[A-Za-z0-9+_.-]+@[A-Za-z0-9.-]+$";
+    private static final String PASSWORD_REGEX =
+            "^(?=.*[a-z])(?=.*[A-Z])(?=.*\\d)(?=.*[@$!%*?&])[A-Za-z\\d@$!%*?&]{8,}$";
+
+    private final String userId = "123";
+    private final String email = "user12345@bench.example";
+    private final String password = BenchmarkData.USER_PASSWORD;
+    private final String phoneNumber = "0123456789";
+    private final String cardNumber = "4111111111111111";
+    private final String expiryDate = "12/49";
+    private final String cvv = "123";
+
+    @Benchmark
+    public boolean emailRegex() {
+        return email.matches(EMAIL_REGEX);
+    }
+
+    @Benchmark
+    public ValidationResult emailScanner() {
+        return Validators.email(email);
+    }
+
+    @Benchmark
+    public boolean passwordRegex() {
+        return password.matches(PASSWORD_REGEX);
+    }
+
+    @Benchmark
+    public ValidationResult passwordScanner() {
+        return Validators.password(password);
+    }
+
+    @Benchmark
+    public boolean signupRegex() {
+        return userId.matches("\\d{3}") && email.matches(EMAIL_REGEX) && password.matches(PASSWORD_REGEX)
+                && phoneNumber.matches("0\\d{9}");
+    }
+
+    @Benchmark
+    public boolean signupScanner() {
+        return Validators.userId(userId).isValid() && Validators.email(email).isValid()
+                && Validators.password(password).isValid() && Validators.phoneNumber(phoneNumber).isValid();
+    }
+
+    @Benchmark
+    public boolean cardRegex() {
+        return cardNumber.matches("\\d{16}") && expiryDate.matches("(0[1-9]|1[0-2])/\\d{2}") && cvv.matches("\\d{3}");
+    }
+
+    @Benchmark
+    public ValidationResult cardScanner() {
+        return CardDetails.validate(cardNumber, expiryDate, cvv);
+    }
+}
@@ -0,0 +1,250 @@
+package ecommerceapplication2;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Coalesces single payment authorizations into batches for a
+ * {@link BatchPaymentGateway}, so a burst of checkouts costs a few round
+ * trips instead of one per buyer. It is itself a {@link PaymentGateway}, so
+ * {@link PaymentProcessor} sends payments to it as usual and keeps handling
+ * timeouts and retries.
+ *
+ * <p>A batch is sent when {@code maxBatchSize} payments are waiting, or
+ * {@code windowMillis} after the first of them arrived, whichever comes
+ * first. The window therefore bounds the latency batching adds, as long as
+ * fewer than {@code maxBatchesInFlight} batches are waiting for the gateway;
+ * beyond that, full batches queue until a round trip finishes. Each caller's
+ * future is completed with the result for its own payment.
+ *
+ * <p>Batch sizes and the time each payment waited before being sent are
+ * recorded; see {@link #metricsReport()}.
+ */
+public class AuthorizationBatcher implements PaymentGateway {
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "authorization-batcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final BatchPaymentGateway gateway;
+    private final long windowNanos;           // Longest time a payment waits for its batch to fill
+    private final int maxBatchSize;           // Payments that make a batch full
+    private final long timeoutMillis;         // Time a batch is given to answer
+    private final Semaphore permits;          // One permit per batch allowed in flight
+    private final Queue<List<Pending>> ready = new ConcurrentLinkedQueue<>(); // Batches waiting for a permit
+    private final ThreadLocal<Boolean> sending = ThreadLocal.withInitial(() -> false); // Inside sendReady
+
+    private final ReentrantLock lock = new ReentrantLock(); // Guards the batch being filled
+    private List<Pending> filling = new ArrayList<>();
+    private ScheduledFuture<?> windowTimer;
+
+    private final LongAdder batchCount = new LongAdder();
+    private final LongAdder paymentCount = new LongAdder();
+    private final LatencyHistogram batchSizes = new LatencyHistogram();
+    private final LatencyHistogram addedLatencyMicros = new LatencyHistogram(); // Time from arrival to sending
+
+    /**
+     * A payment waiting for its batch to be answered.
+     */
+    private static final class Pending {
+        final BatchPaymentGateway.Request request;
+        final long arrivedNanos;
+        final CompletableFuture<PaymentResult> answer = new CompletableFuture<>();
+
+        Pending(BatchPaymentGateway.Request request, long arrivedNanos) {
+            this.request = request;
+            this.arrivedNanos = arrivedNanos;
+        }
+    }
+
+    /**
+     * Creates a batcher for the given gateway.
+     *
+     * @param gateway            The gateway to send batches to.
+     * @param windowMillis       The longest time a payment waits for its batch to fill, in milliseconds.
+     * @param maxBatchSize       The number of payments that makes a batch full.
+     * @param maxBatchesInFlight The most batches allowed to wait for the gateway at once.
+     * @param timeoutMillis      The time each batch is given to answer, in milliseconds.
+     * @throws IllegalArgumentException if a limit is not positive.
+     */
+    public AuthorizationBatcher(BatchPaymentGateway gateway, long windowMillis, int maxBatchSize,
+                                int maxBatchesInFlight, long timeoutMillis) {
+        if (windowMillis < 0 || maxBatchSize <= 0 || maxBatchesInFlight <= 0 || timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Invalid batcher settings.");
+        }
+        this.gateway = gateway;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxBatchSize = maxBatchSize;
+        this.permits = new Semaphore(maxBatchesInFlight);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public CompletableFuture<PaymentResult> authorize(String paymentId, double amount, CardDetails card) {
+        Pending pending = new Pending(new BatchPaymentGateway.Request(paymentId, amount, card), System.nanoTime());
+        List<Pending> full = null;
+        lock.lock();
+        try {
+            filling.add(pending);
+            if (filling.size() >= maxBatchSize) {
+                full = takeFilling();
+            } else if (filling.size() == 1) {
+                windowTimer = timer.schedule(this::windowClosed, windowNanos, TimeUnit.NANOSECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (full != null) {
+            ready.add(full);
+            sendReady();
+        }
+        return pending.answer;
+    }
+
+    // Metrics
+    public long batchCount() {
+        return batchCount.sum();
+    }
+
+    public long paymentCount() {
+        return paymentCount.sum();
+    }
+
+    public double averageBatchSize() {
+        return batchSizes.mean();
+    }
+
+    public long batchSizePercentile(double percentile) {
+        return batchSizes.percentile(percentile);
+    }
+
+    public long addedLatencyPercentileMicros(double percentile) {
+        return addedLatencyMicros.percentile(percentile);
+    }
+
+    /**
+     * Describes the batches sent so far.
+     *
+     * @return A one-line summary of batch sizes and added latency.
+     */
+    public String metricsReport() {
+        return String.format("%d batches, %d payments, batch size avg %.1f p50 %d p99 %d, "
+                        + "added latency p50 %.2f ms p99 %.2f ms max %.2f ms",
+                batchCount(), paymentCount(), averageBatchSize(), batchSizePercentile(50), batchSizePercentile(99),
+                addedLatencyPercentileMicros(50) / 1000.0, addedLatencyPercentileMicros(99) / 1000.0,
+                addedLatencyPercentileMicros(100) / 1000.0);
+    }
+
+    /**
+     * Sends the batch being filled when its window closes. A timer that
+     * fires just after its batch was sent full may send the next batch
+     * early, which only shortens that batch's wait.
+     */
+    private void windowClosed() {
+        List<Pending> batch = null;
+        lock.lock();
+        try {
+            if (!filling.isEmpty()) {
+                batch = takeFilling();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (batch != null) {
+            ready.add(batch);
+            sendReady();
+        }
+    }
+
+    private List<Pending> takeFilling() {
+        List<Pending> batch = filling;
+        filling = new ArrayList<>(Math.min(maxBatchSize, 1024));
+        if (windowTimer != null) {
+            windowTimer.cancel(false);
+            windowTimer = null;
+        }
+        return batch;
+    }
+
+    /**
+     * Sends ready batches while permits are free, the same way
+     * {@link PaymentProcessor} sends waiting payments.
+     */
+    private void sendReady() {
+        if (sending.get()) {
+            return;
+        }
+        sending.set(true);
+        try {
+            while (!ready.isEmpty() && permits.tryAcquire()) {
+                List<Pending> batch = ready.poll();
+                if (batch == null) {
+                    permits.release();
+                } else {
+                    send(batch);
+                }
+            }
+        } finally {
+            sending.set(false);
+        }
+    }
+
+    private void send(List<Pending> batch) {
+        long now = System.nanoTime();
+        List<BatchPaymentGateway.Request> requests = new ArrayList<>(batch.size());
+        for (Pending pending : batch) {
+            requests.add(pending.request);
+            addedLatencyMicros.record((now - pending.arrivedNanos) / 1000);
+        }
+        batchCount.increment();
+        paymentCount.add(batch.size());
+        batchSizes.record(batch.size());
+
+        CompletableFuture<List<PaymentResult>> call;
+        try {
+            call = gateway.authorizeBatch(requests).copy().orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            call = CompletableFuture.failedFuture(e);
+        }
+        call.whenComplete((results, error) -> {
+            permits.release();
+            sendReady();
+            deliver(batch, results, error);
+        });
+    }
+
+    /**
+     * Completes each payment's future with its own result.
+     */
+    private static void deliver(List<Pending> batch, List<PaymentResult> results, Throwable error) {
+        if (error != null) {
+            for (Pending pending : batch) {
+                pending.answer.completeExceptionally(error);
+            }
+            return;
+        }
+        Map<String, PaymentResult> byId = new HashMap<>(results.size() * 2);
+        for (PaymentResult result : results) {
+            byId.put(result.getPaymentId(), result);
+        }
+        for (Pending pending : batch) {
+            String paymentId = pending.request.getPaymentId();
+            PaymentResult result = byId.get(paymentId);
+            pending.answer.complete(result != null ? result
+                    : PaymentResult.failed(paymentId, "The payment gateway returned no result for this payment."));
+        }
+    }
+}
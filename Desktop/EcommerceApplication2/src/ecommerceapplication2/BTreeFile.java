@@ -0,0 +1,685 @@
+package ecommerceapplication2;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * A single-file B+tree mapping string keys to small byte-array values.
+ * The file is made of fixed-size pages: page 0 holds the header, every other
+ * page holds one node. Leaves store the entries and are linked to their right
+ * sibling, so range scans walk the leaves in key order; internal nodes store
+ * separator keys and child page numbers.
+ *
+ * <p>Pages are kept in a bounded cache with clock (second-chance) eviction.
+ * Each change writes only the pages it touched, followed by the header, so
+ * updating one entry of a large tree costs a few page writes. Deletes are lazy:
+ * the entry is removed from its leaf, but underfull pages are not merged.
+ *
+ * <p>Pages are rewritten in place, so each change first writes the new images
+ * of its pages as one checksummed record to a redo log, {@code <fileName>.wal},
+ * and empties the log once the pages are written. A crash half way through a
+ * change, such as a split that rewrote the leaf but not its parent, is
+ * repaired when the tree is next opened by writing the logged pages again;
+ * an incomplete log record means no page was touched yet and is dropped.
+ *
+ * <p>When the {@code ecommerce.durability} system property is {@code fsync},
+ * the log record is forced to disk before the pages are written and the pages
+ * before the log is emptied, so the tree also survives a power failure. The
+ * cache size in pages can be set with {@code ecommerce.btree.cachePages}.
+ */
+public class BTreeFile {
+    static final int PAGE_SIZE = 4096;
+    static final int MAX_KEY_BYTES = 256;      // Keeps a split node within one page
+    static final int MAX_VALUE_BYTES = 1024;
+
+    private static final int MAGIC = 0x45425054;    // "EBPT"
+    private static final int VERSION = 1;
+    private static final byte LEAF = 1;
+    private static final byte INTERNAL = 2;
+    private static final int NODE_HEADER = 7;       // Type, key count, next leaf or first child
+    private static final int NO_PAGE = -1;
+    private static final int DEFAULT_CACHE_PAGES = 1024;
+    private static final String LOG_SUFFIX = ".wal";
+
+    private static final Map<String, BTreeFile> trees = new ConcurrentHashMap<>();
+
+    private final String fileName;
+    private final FileChannel channel;
+    private final FileChannel log;      // Redo log of the change being written
+    private static final Metrics.Counter BYTES_WRITTEN = Metrics.counter("file.bytesWritten");
+
+    private final Metrics.Timer writeTimer; // Times each page write
+    private final PageCache cache;
+    private final boolean sync;         // Force pages to disk after each change
+    private int rootPage;
+    private int pageCount;              // Pages in the file, including the header
+    private long entryCount;
+    private boolean headerDirty;
+    private boolean replaced;           // Whether the last put replaced an entry
+
+    /**
+     * Opens or creates the tree stored in the given file.
+     *
+     * @param fileName The name of the tree file.
+     * @throws IOException if the file cannot be opened or is not a tree file.
+     */
+    private BTreeFile(String fileName) throws IOException {
+        this.fileName = fileName;
+        this.writeTimer = Metrics.timer("file.write." + Paths.get(fileName).getFileName());
+        this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.cache = new PageCache(Math.max(16, Integer.getInteger("ecommerce.btree.cachePages", DEFAULT_CACHE_PAGES)));
+        this.sync = "fsync".equalsIgnoreCase(System.getProperty("ecommerce.durability"));
+        try {
+            this.log = FileChannel.open(Paths.get(fileName + LOG_SUFFIX), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        try {
+            recover();
+            if (channel.size() == 0) {
+                pageCount = 1;
+                rootPage = newNode(true).page;
+                commit();
+                cache.unpinAll();
+            } else {
+                readHeader();
+            }
+        } catch (IOException e) {
+            channel.close();
+            log.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the shared tree for the given file, opening it if needed.
+     *
+     * @param fileName The name of the tree file.
+     * @return The tree.
+     * @throws IOException if the file cannot be opened or is not a tree file.
+     */
+    public static BTreeFile forFile(String fileName) throws IOException {
+        try {
+            return trees.computeIfAbsent(fileName, name -> {
+                try {
+                    return new BTreeFile(name);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Returns the number of entries in the tree.
+     *
+     * @return The entry count.
+     */
+    public synchronized long size() {
+        return entryCount;
+    }
+
+    /**
+     * Looks up the value stored under a key.
+     *
+     * @param key The key to look for.
+     * @return The value, or {@code null} if the key is not in the tree.
+     * @throws IOException if a page cannot be read.
+     */
+    public synchronized byte[] get(String key) throws IOException {
+        try {
+            Node leaf = findLeaf(key);
+            int i = Collections.binarySearch(leaf.keys, key);
+            return i >= 0 ? leaf.values.get(i) : null;
+        } finally {
+            cache.unpinAll();
+        }
+    }
+
+    /**
+     * Stores a value under a key, replacing any previous value.
+     *
+     * @param key   The key, at most {@link #MAX_KEY_BYTES} bytes in UTF-8.
+     * @param value The value, at most {@link #MAX_VALUE_BYTES} bytes.
+     * @return {@code true} if a previous value was replaced.
+     * @throws IOException if the changed pages cannot be written.
+     * @throws IllegalArgumentException if the key or value is too large.
+     */
+    public synchronized boolean put(String key, byte[] value) throws IOException {
+        if (key.getBytes(StandardCharsets.UTF_8).length > MAX_KEY_BYTES || value.length > MAX_VALUE_BYTES) {
+            throw new IllegalArgumentException("Entry too large for a B+tree page: " + key);
+        }
+        try {
+            replaced = false;
+            Split split = insert(cache.get(rootPage), key, value);
+            if (split != null) {
+                Node root = newNode(false);
+                root.children.add(rootPage);
+                root.keys.add(split.key);
+                root.children.add(split.rightPage);
+                root.bytes = measure(root);
+                rootPage = root.page;
+                headerDirty = true;
+            }
+            commit();
+            return replaced;
+        } finally {
+            cache.unpinAll();
+        }
+    }
+
+    /**
+     * Removes the entry stored under a key.
+     *
+     * @param key The key to remove.
+     * @return {@code true} if an entry was removed.
+     * @throws IOException if the changed page cannot be written.
+     */
+    public synchronized boolean delete(String key) throws IOException {
+        try {
+            Node leaf = findLeaf(key);
+            int i = Collections.binarySearch(leaf.keys, key);
+            if (i < 0) {
+                return false;
+            }
+            leaf.keys.remove(i);
+            leaf.values.remove(i);
+            leaf.bytes = measure(leaf);
+            leaf.dirty = true;
+            entryCount--;
+            headerDirty = true;
+            commit();
+            return true;
+        } finally {
+            cache.unpinAll();
+        }
+    }
+
+    /**
+     * Visits the entries with keys in {@code [fromKey, toKey)} in ascending key order.
+     * The visitor must not modify the tree.
+     *
+     * @param fromKey The smallest key to visit, or {@code null} to start at the first entry.
+     * @param toKey   The key to stop before, or {@code null} to continue to the last entry.
+     * @param visitor Receives the entries; returning {@code false} ends the scan.
+     * @throws IOException if a page cannot be read.
+     */
+    public synchronized void scan(String fromKey, String toKey, EntryVisitor visitor) throws IOException {
+        try {
+            Node leaf = findLeaf(fromKey);
+            int i = 0;
+            if (fromKey != null) {
+                i = Collections.binarySearch(leaf.keys, fromKey);
+                if (i < 0) {
+                    i = -i - 1;
+                }
+            }
+            while (true) {
+                for (; i < leaf.keys.size(); i++) {
+                    String key = leaf.keys.get(i);
+                    if (toKey != null && key.compareTo(toKey) >= 0) {
+                        return;
+                    }
+                    if (!visitor.visit(key, leaf.values.get(i))) {
+                        return;
+                    }
+                }
+                if (leaf.next == NO_PAGE) {
+                    return;
+                }
+                int next = leaf.next;
+                cache.unpinAll(); // Leaves already visited may be evicted during long scans
+                leaf = cache.get(next);
+                i = 0;
+            }
+        } finally {
+            cache.unpinAll();
+        }
+    }
+
+    /**
+     * Receives entries from {@link #scan}.
+     */
+    public interface EntryVisitor {
+        /**
+         * Called for each entry in the range.
+         *
+         * @param key   The entry's key.
+         * @param value The entry's value.
+         * @return {@code true} to continue the scan, {@code false} to stop it.
+         */
+        boolean visit(String key, byte[] value);
+    }
+
+    private Node findLeaf(String key) throws IOException {
+        Node node = cache.get(rootPage);
+        while (!node.leaf) {
+            node = cache.get(node.children.get(key == null ? 0 : childIndex(node, key)));
+        }
+        return node;
+    }
+
+    /**
+     * Returns the index of the child that covers the key. A separator is the
+     * smallest key of the subtree to its right.
+     */
+    private static int childIndex(Node node, String key) {
+        int i = Collections.binarySearch(node.keys, key);
+        return i >= 0 ? i + 1 : -i - 1;
+    }
+
+    private Split insert(Node node, String key, byte[] value) throws IOException {
+        if (node.leaf) {
+            int i = Collections.binarySearch(node.keys, key);
+            if (i >= 0) {
+                node.values.set(i, value);
+                replaced = true;
+            } else {
+                i = -i - 1;
+                node.keys.add(i, key);
+                node.values.add(i, value);
+                entryCount++;
+                headerDirty = true;
+            }
+            node.bytes = measure(node);
+            node.dirty = true;
+            return node.bytes > PAGE_SIZE ? splitLeaf(node) : null;
+        }
+        int c = childIndex(node, key);
+        Split split = insert(cache.get(node.children.get(c)), key, value);
+        if (split == null) {
+            return null;
+        }
+        node.keys.add(c, split.key);
+        node.children.add(c + 1, split.rightPage);
+        node.bytes = measure(node);
+        node.dirty = true;
+        return node.bytes > PAGE_SIZE ? splitInternal(node) : null;
+    }
+
+    private Split splitLeaf(Node node) throws IOException {
+        int m = splitIndex(node);
+        Node right = newNode(true);
+        move(node.keys, m, right.keys);
+        move(node.values, m, right.values);
+        right.next = node.next;
+        node.next = right.page;
+        node.bytes = measure(node);
+        right.bytes = measure(right);
+        return new Split(right.keys.get(0), right.page);
+    }
+
+    private Split splitInternal(Node node) throws IOException {
+        int m = splitIndex(node);
+        String separator = node.keys.get(m);
+        Node right = newNode(false);
+        move(node.keys, m + 1, right.keys);
+        move(node.children, m + 1, right.children);
+        node.keys.remove(m);
+        node.bytes = measure(node);
+        right.bytes = measure(right);
+        return new Split(separator, right.page);
+    }
+
+    /**
+     * Picks the first key of the upper half by size, leaving at least one key on each side.
+     */
+    private static int splitIndex(Node node) {
+        int half = (node.bytes - NODE_HEADER) / 2;
+        int used = 0;
+        for (int i = 0; i < node.keys.size() - 1; i++) {
+            used += entrySize(node, i);
+            if (used >= half) {
+                return Math.max(1, i);
+            }
+        }
+        return node.keys.size() - 1;
+    }
+
+    private static <T> void move(List<T> from, int start, List<T> to) {
+        List<T> tail = from.subList(start, from.size());
+        to.addAll(tail);
+        tail.clear();
+    }
+
+    private static int entrySize(Node node, int i) {
+        int keyBytes = 2 + node.keys.get(i).getBytes(StandardCharsets.UTF_8).length;
+        return node.leaf ? keyBytes + 2 + node.values.get(i).length : keyBytes + 4;
+    }
+
+    private static int measure(Node node) {
+        int bytes = NODE_HEADER;
+        for (int i = 0; i < node.keys.size(); i++) {
+            bytes += entrySize(node, i);
+        }
+        return bytes;
+    }
+
+    private Node newNode(boolean leaf) throws IOException {
+        Node node = new Node(pageCount++, leaf);
+        node.dirty = true;
+        headerDirty = true;
+        cache.add(node);
+        return node;
+    }
+
+    /**
+     * Writes the pages changed by the current operation, then the header.
+     * Their images are logged first as {@code [int count]([int page][page])*[int crc32]},
+     * so the pages are either all written or all rewritten on recovery.
+     */
+    private void commit() throws IOException {
+        List<Node> changed = new ArrayList<>();
+        for (Node node : cache.pinned) {
+            if (node.dirty) {
+                changed.add(node);
+            }
+        }
+        int count = changed.size() + (headerDirty ? 1 : 0);
+        if (count == 0) {
+            return;
+        }
+        ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + count * (Integer.BYTES + PAGE_SIZE) + Integer.BYTES);
+        record.putInt(count);
+        List<ByteBuffer> pages = new ArrayList<>(count);
+        for (Node node : changed) {
+            ByteBuffer page = encode(node);
+            record.putInt(node.page).put(page.duplicate());
+            pages.add(page);
+        }
+        ByteBuffer header = headerDirty ? encodeHeader() : null;
+        if (header != null) {
+            record.putInt(0).put(header.duplicate());
+        }
+        record.putInt(checksum(record, record.position()));
+        record.flip();
+        writeFully(log, record, 0);
+        if (sync) {
+            log.force(false);
+        }
+        for (int i = 0; i < changed.size(); i++) {
+            writeFully(channel, pages.get(i), (long) changed.get(i).page * PAGE_SIZE);
+            changed.get(i).dirty = false;
+        }
+        if (header != null) {
+            writeFully(channel, header, 0);
+            headerDirty = false;
+        }
+        if (sync) {
+            channel.force(false);
+        }
+        log.truncate(0);
+    }
+
+    /**
+     * Finishes a change cut short by a crash. If the redo log holds a whole
+     * record, its pages are written in place again, which is harmless if they
+     * already were; an incomplete or corrupt record is dropped.
+     */
+    private void recover() throws IOException {
+        long size = log.size();
+        if (size == 0) {
+            return;
+        }
+        ByteBuffer record = ByteBuffer.allocate((int) Math.min(size, Integer.MAX_VALUE - 8));
+        readFully(log, record, 0);
+        int count = size >= Integer.BYTES ? record.getInt(0) : 0;
+        long length = Integer.BYTES + (long) count * (Integer.BYTES + PAGE_SIZE) + Integer.BYTES;
+        if (count > 0 && length <= record.capacity()
+                && record.getInt((int) length - Integer.BYTES) == checksum(record, (int) length - Integer.BYTES)) {
+            for (int i = 0; i < count; i++) {
+                int position = Integer.BYTES + i * (Integer.BYTES + PAGE_SIZE);
+                int page = record.getInt(position);
+                ByteBuffer image = record.duplicate();
+                image.limit(position + Integer.BYTES + PAGE_SIZE).position(position + Integer.BYTES);
+                writeFully(channel, image, (long) page * PAGE_SIZE);
+            }
+            channel.force(false);
+            System.out.println("Recovered " + count + " pages of " + fileName + " from its redo log.");
+        }
+        log.truncate(0);
+        log.force(false);
+    }
+
+    /**
+     * Returns the checksum of the first bytes of a log record.
+     */
+    private static int checksum(ByteBuffer record, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, length);
+        return (int) crc.getValue();
+    }
+
+    private ByteBuffer encodeHeader() {
+        ByteBuffer header = ByteBuffer.allocate(PAGE_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(PAGE_SIZE).putInt(rootPage).putInt(pageCount).putLong(entryCount);
+        return header.clear();
+    }
+
+    private void readHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(PAGE_SIZE);
+        readFully(channel, header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getInt(8) != PAGE_SIZE) {
+            throw new IOException("Not a B+tree file: " + fileName);
+        }
+        rootPage = header.getInt(12);
+        pageCount = header.getInt(16);
+        entryCount = header.getLong(20);
+    }
+
+    /**
+     * Writes a single page in place, without the redo log. Used only to evict
+     * a page left dirty by a failed change.
+     */
+    private void writePage(Node node) throws IOException {
+        writeFully(channel, encode(node), (long) node.page * PAGE_SIZE);
+        node.dirty = false;
+    }
+
+    private static ByteBuffer encode(Node node) {
+        ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE);
+        page.put(node.leaf ? LEAF : INTERNAL);
+        page.putShort((short) node.keys.size());
+        page.putInt(node.leaf ? node.next : node.children.get(0));
+        for (int i = 0; i < node.keys.size(); i++) {
+            byte[] key = node.keys.get(i).getBytes(StandardCharsets.UTF_8);
+            page.putShort((short) key.length).put(key);
+            if (node.leaf) {
+                byte[] value = node.values.get(i);
+                page.putShort((short) value.length).put(value);
+            } else {
+                page.putInt(node.children.get(i + 1));
+            }
+        }
+        return page.clear();
+    }
+
+    private Node readPage(int pageNumber) throws IOException {
+        ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE);
+        readFully(channel, page, (long) pageNumber * PAGE_SIZE);
+        page.flip();
+        byte type = page.get();
+        if (type != LEAF && type != INTERNAL) {
+            throw new IOException("Corrupt page " + pageNumber + " in " + fileName);
+        }
+        Node node = new Node(pageNumber, type == LEAF);
+        int count = page.getShort() & 0xffff;
+        int first = page.getInt();
+        if (node.leaf) {
+            node.next = first;
+        } else {
+            node.children.add(first);
+        }
+        for (int i = 0; i < count; i++) {
+            byte[] key = new byte[page.getShort() & 0xffff];
+            page.get(key);
+            node.keys.add(new String(key, StandardCharsets.UTF_8));
+            if (node.leaf) {
+                byte[] value = new byte[page.getShort() & 0xffff];
+                page.get(value);
+                node.values.add(value);
+            } else {
+                node.children.add(page.getInt());
+            }
+        }
+        node.bytes = page.position();
+        return node;
+    }
+
+    private void writeFully(FileChannel target, ByteBuffer buffer, long position) throws IOException {
+        long start = writeTimer.start();
+        try {
+            BYTES_WRITTEN.add(buffer.remaining());
+            while (buffer.hasRemaining()) {
+                position += target.write(buffer, position);
+            }
+        } finally {
+            writeTimer.stop(start);
+        }
+    }
+
+    private void readFully(FileChannel source, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = source.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of " + fileName + " at byte " + position);
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * A node of the tree as held in the page cache.
+     */
+    private static final class Node {
+        final int page;
+        final boolean leaf;
+        final ArrayList<String> keys = new ArrayList<>();
+        final ArrayList<byte[]> values;      // Leaf only, parallel to keys
+        final ArrayList<Integer> children;   // Internal only, one more than keys
+        int next = NO_PAGE;                  // Leaf only, the right sibling
+        int bytes = NODE_HEADER;             // Size when written to a page
+        boolean dirty;                       // Changed since last written
+        boolean referenced;                  // Clock bit, set on every access
+        boolean pinned;                      // In use by the current operation
+
+        Node(int page, boolean leaf) {
+            this.page = page;
+            this.leaf = leaf;
+            this.values = leaf ? new ArrayList<>() : null;
+            this.children = leaf ? null : new ArrayList<>();
+        }
+    }
+
+    /**
+     * The result of splitting a node: the separator to insert into the
+     * parent and the page of the new right node.
+     */
+    private static final class Split {
+        final String key;
+        final int rightPage;
+
+        Split(String key, int rightPage) {
+            this.key = key;
+            this.rightPage = rightPage;
+        }
+    }
+
+    /**
+     * A bounded set of nodes replaced with the clock algorithm. Nodes touched by
+     * the current operation are pinned and never evicted; if every slot is
+     * pinned the clock grows.
+     */
+    private final class PageCache {
+        private final Map<Integer, Node> nodes = new HashMap<>();
+        private final List<Node> pinned = new ArrayList<>();
+        private Node[] clock;
+        private int used;
+        private int hand;
+
+        PageCache(int capacity) {
+            clock = new Node[capacity];
+        }
+
+        Node get(int pageNumber) throws IOException {
+            Node node = nodes.get(pageNumber);
+            if (node == null) {
+                node = readPage(pageNumber);
+                install(node);
+            }
+            node.referenced = true;
+            pin(node);
+            return node;
+        }
+
+        void add(Node node) throws IOException {
+            install(node);
+            node.referenced = true;
+            pin(node);
+        }
+
+        void unpinAll() {
+            for (Node node : pinned) {
+                node.pinned = false;
+            }
+            pinned.clear();
+        }
+
+        private void pin(Node node) {
+            if (!node.pinned) {
+                node.pinned = true;
+                pinned.add(node);
+            }
+        }
+
+        private void install(Node node) throws IOException {
+            int slot = used < clock.length ? used++ : victim();
+            clock[slot] = node;
+            nodes.put(node.page, node);
+        }
+
+        /**
+         * Advances the hand past pinned and recently used nodes, clearing
+         * their reference bits, and frees the first slot it can.
+         */
+        private int victim() throws IOException {
+            for (int step = 0; step < 2 * clock.length; step++) {
+                int slot = hand;
+                Node node = clock[slot];
+                hand = (hand + 1) % clock.length;
+                if (node.pinned) {
+                    continue;
+                }
+                if (node.referenced) {
+                    node.referenced = false;
+                    continue;
+                }
+                if (node.dirty) {
+                    writePage(node); // Left dirty by a failed commit
+                }
+                nodes.remove(node.page);
+                return slot;
+            }
+            clock = Arrays.copyOf(clock, clock.length * 2);
+            return used++;
+        }
+    }
+}
@@ -0,0 +1,398 @@
+package ecommerceapplication2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stores products in a {@link BTreeFile} keyed by product ID, so a lookup,
+ * insert or delete touches a few pages instead of the whole catalog.
+ * The tree for a product file is kept next to it, in {@code <fileName>.btree}.
+ * When the tree is first created, the products already in the product file
+ * are copied into it.
+ *
+ * <p>Each record ends with the product's stock, kept as a running balance of
+ * the changes made through {@link #adjustStock}. The balance may dip below
+ * zero while a sale and a delivery are applied out of order; the product is
+ * then shown with no stock until the balance is positive again.
+ *
+ * <p>Listeners added through {@link #addListener} are told of each change
+ * while the tree is locked, so they see the changes in the order they are
+ * written. Only changes made through this storage are seen; the tree is not
+ * followed for changes made by other processes.
+ */
+public class BTreeFileStorage implements FileHandlerInterface {
+    private static final String TREE_SUFFIX = ".btree";
+    private static final byte PHYSICAL = 1;
+    private static final byte DIGITAL = 2;
+    private static final int NOT_TRACKED = Integer.MIN_VALUE; // Stock balance of a product whose stock is not tracked
+
+    private final Map<String, Listeners> listeners = new ConcurrentHashMap<>(); // By product file
+
+    /**
+     * The listeners of one product file and the products they were last
+     * given, so that a product is removed with the same instance it was added
+     * with. Guarded by the file's tree.
+     */
+    private static final class Listeners {
+        final List<ProductCatalog.Listener> listeners = new ArrayList<>();
+        final TreeMap<String, Product> reported = new TreeMap<>(); // By product ID
+    }
+
+    @Override
+    public boolean productExists(String fileName, String productId) {
+        try {
+            return tree(fileName).get(productId) != null;
+        } catch (IOException e) {
+            System.out.println("Error reading products: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Parses a record in the product file format and stores the product it describes.
+     *
+     * @param filename    The name of the product file.
+     * @param productData The product record.
+     */
+    @Override
+    public void saveToFile(String filename, String productData) {
+        try {
+            CsvCursor cursor = new CsvCursor(new StringReader(productData));
+            Product product = cursor.nextRecord() ? FileHandler.parseProduct(cursor) : null;
+            if (product != null) {
+                putProduct(filename, product);
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error in product data format: " + e.getMessage());
+        } catch (IOException e) {
+            System.out.println("Error writing to file: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void displayFromFile(String filename) {
+        FileHandler.displayProducts(loadProductsFromFile(filename));
+    }
+
+    /**
+     * Returns all products in ascending ID order.
+     *
+     * @param filename The name of the product file.
+     * @return The products.
+     */
+    @Override
+    public ArrayList<Product> loadProductsFromFile(String filename) {
+        try {
+            return scanProducts(filename, null, null, Integer.MAX_VALUE);
+        } catch (IOException e) {
+            System.out.println("Error reading products: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    @Override
+    public Product getProduct(String fileName, String productId) throws IOException {
+        byte[] value = tree(fileName).get(productId);
+        return value == null ? null : decode(productId, value);
+    }
+
+    @Override
+    public void putProduct(String fileName, Product product) throws IOException {
+        byte[] value = encode(product);
+        if (value.length > BTreeFile.MAX_VALUE_BYTES
+                || product.getProductId().getBytes(StandardCharsets.UTF_8).length > BTreeFile.MAX_KEY_BYTES) {
+            throw new IOException("Product " + product.getProductId() + " is too large to store.");
+        }
+        BTreeFile tree = tree(fileName);
+        synchronized (tree) {
+            tree.put(product.getProductId(), value);
+            replaced(fileName, product.getProductId(), decode(product.getProductId(), value), 0, 0, false);
+        }
+    }
+
+    /**
+     * Deletes the products that are not among the new ones and puts the new
+     * ones, while the tree is locked.
+     */
+    @Override
+    public void replaceProducts(String fileName, List<Product> products) throws IOException {
+        Map<String, byte[]> values = new TreeMap<>();
+        for (Product product : products) {
+            byte[] value = encode(product);
+            if (value.length > BTreeFile.MAX_VALUE_BYTES
+                    || product.getProductId().getBytes(StandardCharsets.UTF_8).length > BTreeFile.MAX_KEY_BYTES) {
+                throw new IOException("Product " + product.getProductId() + " is too large to store.");
+            }
+            values.put(product.getProductId(), value);
+        }
+        BTreeFile tree = tree(fileName);
+        synchronized (tree) {
+            List<String> stale = new ArrayList<>();
+            tree.scan(null, null, (key, value) -> {
+                if (!values.containsKey(key)) {
+                    stale.add(key);
+                }
+                return true;
+            });
+            for (String productId : stale) {
+                tree.delete(productId);
+            }
+            for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+                tree.put(entry.getKey(), entry.getValue());
+            }
+            Listeners file = listeners.get(fileName);
+            if (file != null) {
+                file.reported.clear();
+                for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+                    file.reported.put(entry.getKey(), decode(entry.getKey(), entry.getValue()));
+                }
+                for (ProductCatalog.Listener listener : file.listeners) {
+                    listener.catalogReplaced(new ArrayList<>(file.reported.values()));
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean deleteProduct(String fileName, String productId) throws IOException {
+        BTreeFile tree = tree(fileName);
+        synchronized (tree) {
+            if (!tree.delete(productId)) {
+                return false;
+            }
+            replaced(fileName, productId, null, 0, 0, false);
+            return true;
+        }
+    }
+
+    /**
+     * Adds units to or takes units from the stock of a product by rewriting
+     * its record. The change is written when this method returns.
+     *
+     * @param fileName  The name of the product file.
+     * @param productId The ID of the product.
+     * @param delta     The units added, or taken if negative.
+     * @return A completed future, or a failed one if the record cannot be rewritten.
+     */
+    @Override
+    public CompletableFuture<Void> adjustStock(String fileName, String productId, int delta) {
+        try {
+            BTreeFile tree = tree(fileName);
+            synchronized (tree) {
+                byte[] value = tree.get(productId);
+                if (value != null) {
+                    int balance = stockBalance(value);
+                    int newBalance = (balance == NOT_TRACKED ? 0 : balance) + delta;
+                    byte[] newValue = encode(decode(productId, value), newBalance, true);
+                    tree.put(productId, newValue);
+                    replaced(fileName, productId, decode(productId, newValue), newBalance, delta, true);
+                }
+            }
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @Override
+    public ArrayList<Product> scanProducts(String fileName, String fromId, String toId, int limit) throws IOException {
+        ArrayList<Product> products = new ArrayList<>();
+        IOException[] failure = new IOException[1];
+        tree(fileName).scan(fromId, toId, (key, value) -> {
+            try {
+                products.add(decode(key, value));
+            } catch (IOException e) {
+                failure[0] = e;
+                return false;
+            }
+            return products.size() < limit;
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        return products;
+    }
+
+    /**
+     * Adds a listener, first giving it all products in ascending ID order.
+     *
+     * @param fileName The name of the product file.
+     * @param listener The listener.
+     */
+    @Override
+    public void addListener(String fileName, ProductCatalog.Listener listener) {
+        try {
+            BTreeFile tree = tree(fileName);
+            synchronized (tree) {
+                Listeners file = listeners.get(fileName);
+                if (file == null) {
+                    file = new Listeners();
+                    for (Product product : scanProducts(fileName, null, null, Integer.MAX_VALUE)) {
+                        file.reported.put(product.getProductId(), product);
+                    }
+                    listeners.put(fileName, file);
+                }
+                file.listeners.add(listener);
+                listener.catalogReplaced(new ArrayList<>(file.reported.values()));
+            }
+        } catch (IOException e) {
+            System.out.println("Error reading products: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Tells the listeners of a file that a product was put, restocked or,
+     * if {@code product} is {@code null}, removed. Must be called while
+     * holding the file's tree.
+     *
+     * @param balance The stock balance of a restocked product.
+     * @param delta   The units a restock added, or 0 if the product was put.
+     * @param local   Whether the product was restocked rather than put.
+     */
+    private void replaced(String fileName, String productId, Product product, int balance, int delta, boolean local) {
+        Listeners file = listeners.get(fileName);
+        if (file == null) {
+            return;
+        }
+        Product old = product == null ? file.reported.remove(productId) : file.reported.put(productId, product);
+        for (ProductCatalog.Listener listener : file.listeners) {
+            if (old != null) {
+                listener.productRemoved(old);
+            }
+            if (product != null) {
+                listener.productAdded(product);
+                listener.stockChanged(product, local ? balance : product.getStock(), delta, local);
+            }
+        }
+    }
+
+    /**
+     * Opens the tree for a product file, copying the file's products into it
+     * if the tree is new.
+     */
+    private BTreeFile tree(String fileName) throws IOException {
+        String treeName = fileName + TREE_SUFFIX;
+        synchronized (BTreeFileStorage.class) {
+            boolean created = !Files.exists(Paths.get(treeName));
+            BTreeFile tree = BTreeFile.forFile(treeName);
+            if (created && Files.exists(Paths.get(fileName))) {
+                List<Product> existing = ProductCatalog.forFile(fileName).getProducts();
+                int skipped = 0;
+                for (Product product : existing) {
+                    try {
+                        tree.put(product.getProductId(), encode(product));
+                    } catch (IllegalArgumentException e) {
+                        skipped++; // Too large for a page
+                    }
+                }
+                System.out.println("Copied " + (existing.size() - skipped) + " products from " + fileName
+                        + " into " + treeName + (skipped > 0 ? ", skipped " + skipped + " too large to store." : "."));
+            }
+            return tree;
+        }
+    }
+
+    private static byte[] encode(Product product) throws IOException {
+        return encode(product, product.getStock(), product.isStockTracked());
+    }
+
+    /**
+     * Encodes a product: its type, name and price, the fields of its type,
+     * then whether its stock is tracked and the stock balance.
+     */
+    private static byte[] encode(Product product, int balance, boolean tracked) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            if (product instanceof PhysicalProduct) {
+                PhysicalProduct physical = (PhysicalProduct) product;
+                out.writeByte(PHYSICAL);
+                writeString(out, product.getName());
+                out.writeDouble(product.getPrice());
+                out.writeDouble(physical.getWeight());
+                writeString(out, physical.getDimensions());
+            } else {
+                DigitalProduct digital = (DigitalProduct) product;
+                out.writeByte(DIGITAL);
+                writeString(out, product.getName());
+                out.writeDouble(product.getPrice());
+                writeString(out, digital.getFileSize());
+                writeString(out, digital.getFormat());
+            }
+            out.writeBoolean(tracked);
+            out.writeInt(balance);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeUTF(value == null ? "" : value);
+    }
+
+    /**
+     * Decodes a record. Records written before the stock was stored have no
+     * stock fields; their products are not stock tracked.
+     */
+    private static Product decode(String productId, byte[] value) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(value))) {
+            byte type = in.readByte();
+            String name = in.readUTF();
+            double price = in.readDouble();
+            if (type == PHYSICAL) {
+                double weight = in.readDouble();
+                String dimensions = in.readUTF();
+                return new PhysicalProduct(productId, name, price, weight, dimensions, readStock(in));
+            }
+            if (type == DIGITAL) {
+                String fileSize = in.readUTF();
+                String format = in.readUTF();
+                return new DigitalProduct(productId, name, price, fileSize, format, readStock(in));
+            }
+            throw new IOException("Unknown product type " + type + " for ID " + productId);
+        }
+    }
+
+    private static int readStock(DataInputStream in) throws IOException {
+        int balance = readBalance(in);
+        return balance == NOT_TRACKED ? Product.UNTRACKED : Math.max(0, balance);
+    }
+
+    private static int readBalance(DataInputStream in) throws IOException {
+        if (in.available() < 1 + Integer.BYTES || !in.readBoolean()) {
+            return NOT_TRACKED;
+        }
+        return in.readInt();
+    }
+
+    /**
+     * Returns the stock balance stored in a record, which may be negative,
+     * or {@link #NOT_TRACKED}.
+     */
+    private static int stockBalance(byte[] value) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(value))) {
+            byte type = in.readByte();
+            in.readUTF();
+            in.readDouble();
+            if (type == PHYSICAL) {
+                in.readDouble();
+                in.readUTF();
+            } else {
+                in.readUTF();
+                in.readUTF();
+            }
+            return readBalance(in);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package ecommerceapplication2;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A payment service that authorizes many payments in one round trip.
+ * {@link AuthorizationBatcher} groups single payments into batches for it.
+ *
+ * <p>Like {@link PaymentGateway}, implementations must not block the calling
+ * thread and must treat payment IDs as idempotency keys.
+ *
+ * @see SimulatedPaymentGateway
+ */
+public interface BatchPaymentGateway {
+
+    /**
+     * One payment in a batch.
+     */
+    final class Request {
+        private final String paymentId;   // Unique ID of the payment
+        private final double amount;      // Amount to charge
+        private final CardDetails card;   // Card to charge
+
+        public Request(String paymentId, double amount, CardDetails card) {
+            this.paymentId = paymentId;
+            this.amount = amount;
+            this.card = card;
+        }
+
+        // Getters
+        public String getPaymentId() {
+            return paymentId;
+        }
+
+        public double getAmount() {
+            return amount;
+        }
+
+        public CardDetails getCard() {
+            return card;
+        }
+    }
+
+    /**
+     * Asks the provider to authorize a batch of payments.
+     *
+     * @param requests The payments to authorize.
+     * @return A future completed with one result per payment, matched to the
+     *         requests by payment ID. It completes exceptionally when the
+     *         provider cannot be reached, which fails every payment in the batch.
+     */
+    CompletableFuture<List<PaymentResult>> authorizeBatch(List<Request> requests);
+}
@@ -0,0 +1,441 @@
+package ecommerceapplication2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A shared, group-committing appender for a data file.
+ * Records from all callers are queued and written together in one batch once
+ * enough bytes are pending or a short delay has passed, so a burst of appends
+ * pays for a single write (and a single fsync) instead of one file open,
+ * write and close each. Every append returns a future that completes when the
+ * record has reached the requested {@link Durability} level.
+ *
+ * <p>Batches are written under a file lock, so several processes can append to
+ * the same file. The lock is taken on a companion {@code <file>.lock} file
+ * rather than the data file: closing any channel of a file releases every
+ * lock the process holds on it, and readers in the same process open and
+ * close the data file all the time. If a write fails partway, the part of the batch that reached
+ * the file is cut off again, so later batches never follow a torn record. If
+ * the file is replaced, for example rotated or rewritten by another process,
+ * the next batch goes to the new file. Pending records are written when the
+ * JVM shuts down.
+ */
+public class BatchedFileWriter {
+
+    /**
+     * How far a record must get before its append is considered complete.
+     */
+    public enum Durability {
+        /** Accepted into the pending batch; written shortly afterwards. */
+        BUFFERED,
+        /** Written to the file, so other readers and processes can see it. */
+        FLUSH,
+        /** Written and forced to the storage device. */
+        FSYNC
+    }
+
+    private static final int MAX_BATCH_BYTES = 256 * 1024;                     // Write as soon as this much is pending
+    private static final long MAX_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(2); // Longest a record waits for company
+    private static final String LOCK_SUFFIX = ".lock";
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private static final Map<String, BatchedFileWriter> writers = new ConcurrentHashMap<>();
+    private static final Metrics.Counter BYTES_WRITTEN = Metrics.counter("file.bytesWritten");
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (BatchedFileWriter writer : writers.values()) {
+                writer.drain();
+            }
+        }, "batched-writer-shutdown"));
+    }
+
+    private final String fileName;           // The file records are appended to
+    private final Metrics.Timer writeTimer;  // Times each batch written to this file
+    private volatile Durability durability;  // Default level for appends that do not name one
+    private final ReentrantLock queueLock = new ReentrantLock();
+    private final Condition recordsPending = queueLock.newCondition();
+    private final Object ioLock = new Object(); // Serializes writes to the channel
+    private List<PendingRecord> pending = new ArrayList<>();
+    private int pendingBytes;
+    private long firstPendingNanos;
+    private boolean flushRequested;
+    private FileChannel channel;             // Opened on first write
+    private Object channelKey;               // Identity of the file the channel is open on
+    private FileChannel lockFile;            // The companion lock file, opened on first write and never closed
+
+    /**
+     * Constructs a writer and starts its background flusher.
+     *
+     * @param fileName The file to append to.
+     */
+    private BatchedFileWriter(String fileName) {
+        this.fileName = fileName;
+        this.writeTimer = Metrics.timer("file.write." + new File(fileName).getName());
+        this.durability = defaultDurability();
+        Thread flusher = new Thread(this::runFlusher, "batched-writer-" + fileName);
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Returns the shared writer for the given file, creating it if needed.
+     *
+     * @param fileName The file to append to.
+     * @return The writer for the file.
+     */
+    public static BatchedFileWriter forFile(String fileName) {
+        return writers.computeIfAbsent(fileName, BatchedFileWriter::new);
+    }
+
+    /**
+     * Reads the default durability level from the {@code ecommerce.durability}
+     * system property ({@code buffered}, {@code flush} or {@code fsync}).
+     */
+    private static Durability defaultDurability() {
+        String configured = System.getProperty("ecommerce.durability", "flush");
+        try {
+            return Durability.valueOf(configured.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Unknown durability level '" + configured + "', using FLUSH.");
+            return Durability.FLUSH;
+        }
+    }
+
+    /**
+     * Sets the durability level used by appends that do not name one.
+     *
+     * @param durability The new default durability level.
+     */
+    public void setDurability(Durability durability) {
+        this.durability = durability;
+    }
+
+    /**
+     * Returns the durability level used by appends that do not name one.
+     *
+     * @return The default durability level.
+     */
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Queues a line of text, followed by a line separator, with the default durability.
+     *
+     * @param line The line to append.
+     * @return A future completed once the line is durable.
+     */
+    public CompletableFuture<Void> appendLine(String line) {
+        byte[] text = line.getBytes(StandardCharsets.UTF_8);
+        byte[] record = new byte[text.length + LINE_SEPARATOR.length];
+        System.arraycopy(text, 0, record, 0, text.length);
+        System.arraycopy(LINE_SEPARATOR, 0, record, text.length, LINE_SEPARATOR.length);
+        return append(record, durability);
+    }
+
+    /**
+     * Queues raw bytes with the default durability.
+     *
+     * @param record The bytes to append.
+     * @return A future completed once the bytes are durable.
+     */
+    public CompletableFuture<Void> append(byte[] record) {
+        return append(record, durability);
+    }
+
+    /**
+     * Queues raw bytes. Records are written in the order they were queued.
+     *
+     * @param record     The bytes to append.
+     * @param durability The level the record must reach before the future completes.
+     * @return A future completed once the bytes are durable, or completed
+     *         exceptionally if they could not be written.
+     */
+    public CompletableFuture<Void> append(byte[] record, Durability durability) {
+        PendingRecord entry = new PendingRecord(record, durability);
+        queueLock.lock();
+        try {
+            if (pending.isEmpty()) {
+                firstPendingNanos = System.nanoTime();
+                recordsPending.signal();
+            }
+            pending.add(entry);
+            pendingBytes += record.length;
+            if (pendingBytes >= MAX_BATCH_BYTES) {
+                recordsPending.signal();
+            }
+        } finally {
+            queueLock.unlock();
+        }
+        if (durability == Durability.BUFFERED) {
+            entry.future.complete(null);
+        }
+        return entry.future;
+    }
+
+    /**
+     * Asks for the pending batch to be written without waiting for the delay.
+     *
+     * @return A future completed once everything queued so far is written.
+     */
+    public CompletableFuture<Void> flush() {
+        CompletableFuture<Void> marker = append(new byte[0], Durability.FLUSH);
+        queueLock.lock();
+        try {
+            flushRequested = true;
+            recordsPending.signal();
+        } finally {
+            queueLock.unlock();
+        }
+        return marker;
+    }
+
+    /**
+     * Writes everything pending, then runs an action on the file while holding
+     * both the writer's lock and a file lock, so no append can interleave with it.
+     *
+     * @param action The action to run with the open channel.
+     * @throws IOException if writing the pending records or the action fails.
+     */
+    public void runExclusive(ChannelAction action) throws IOException {
+        List<PendingRecord> batch;
+        IOException failure;
+        synchronized (ioLock) {
+            batch = takePending();
+            failure = writeBatch(batch);
+            if (failure == null) {
+                FileLock lock = lockChannel();
+                try {
+                    action.run(channel);
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+        complete(batch, failure);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * An operation performed on the writer's channel by {@link #runExclusive}.
+     */
+    public interface ChannelAction {
+        /**
+         * Runs the operation.
+         *
+         * @param channel The open, append-mode channel of the file.
+         * @throws IOException if the operation fails.
+         */
+        void run(FileChannel channel) throws IOException;
+    }
+
+    private void runFlusher() {
+        while (true) {
+            try {
+                queueLock.lock();
+                try {
+                    while (pending.isEmpty()) {
+                        recordsPending.await();
+                    }
+                    long waitNanos = firstPendingNanos + MAX_DELAY_NANOS - System.nanoTime();
+                    while (waitNanos > 0 && pendingBytes < MAX_BATCH_BYTES && !flushRequested) {
+                        waitNanos = recordsPending.awaitNanos(waitNanos);
+                    }
+                } finally {
+                    queueLock.unlock();
+                }
+                List<PendingRecord> batch;
+                IOException failure;
+                synchronized (ioLock) {
+                    batch = takePending(); // Taken under the I/O lock so batches are written in order
+                    failure = writeBatch(batch);
+                }
+                complete(batch, failure);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private List<PendingRecord> takePending() {
+        queueLock.lock();
+        try {
+            List<PendingRecord> batch = pending;
+            pending = new ArrayList<>();
+            pendingBytes = 0;
+            flushRequested = false;
+            return batch;
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    /**
+     * Writes whatever is pending on the calling thread. Used at shutdown.
+     */
+    private void drain() {
+        List<PendingRecord> batch;
+        IOException failure;
+        synchronized (ioLock) {
+            batch = takePending();
+            failure = writeBatch(batch);
+        }
+        complete(batch, failure);
+    }
+
+    /**
+     * Writes a batch with one gathering write under a file lock and forces it
+     * if any record asked for it. Must be called while holding {@link #ioLock}.
+     *
+     * @return {@code null} on success, otherwise the failure.
+     */
+    private IOException writeBatch(List<PendingRecord> batch) {
+        if (batch.isEmpty()) {
+            return null;
+        }
+        boolean force = false;
+        long remaining = 0;
+        ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+        for (int i = 0; i < buffers.length; i++) {
+            PendingRecord record = batch.get(i);
+            buffers[i] = ByteBuffer.wrap(record.bytes);
+            remaining += record.bytes.length;
+            force |= record.durability == Durability.FSYNC;
+        }
+        long start = writeTimer.start();
+        try {
+            FileLock lock = lockChannel();
+            FileChannel out = channel;
+            try {
+                long bytes = remaining;
+                long before = out.size();
+                try {
+                    while (remaining > 0) {
+                        remaining -= out.write(buffers);
+                    }
+                } catch (IOException e) {
+                    discardPartialWrite(out, before, e);
+                    throw e;
+                }
+                if (force) {
+                    out.force(false);
+                }
+                BYTES_WRITTEN.add(bytes);
+            } finally {
+                lock.release();
+            }
+            return null;
+        } catch (IOException e) {
+            System.out.println("Error writing to file: " + e.getMessage());
+            return e;
+        } finally {
+            writeTimer.stop(start);
+        }
+    }
+
+    /**
+     * Cuts off whatever part of a failed batch reached the file, so that the
+     * records appended after it do not sit behind a torn record where readers
+     * of the file would stop. Called while still holding the file lock.
+     */
+    private static void discardPartialWrite(FileChannel out, long before, IOException failure) {
+        try {
+            if (out.size() > before) {
+                out.truncate(before);
+            }
+        } catch (IOException e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Completes the futures of a written batch. Called without holding any lock,
+     * so callbacks attached by callers cannot block other writers.
+     */
+    private static void complete(List<PendingRecord> batch, IOException failure) {
+        for (PendingRecord record : batch) {
+            if (failure == null) {
+                record.future.complete(null);
+            } else {
+                record.future.completeExceptionally(failure);
+            }
+        }
+    }
+
+    /**
+     * Locks the companion lock file and opens the data file if needed. If
+     * another file has taken its name since it was opened, the channel is
+     * reopened on the new file.
+     * Must be called while holding {@link #ioLock}.
+     */
+    private FileLock lockChannel() throws IOException {
+        if (lockFile == null) {
+            lockFile = FileChannel.open(Paths.get(fileName + LOCK_SUFFIX), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE);
+        }
+        FileLock lock = lockFile.lock();
+        try {
+            if (channel != null && channel.isOpen() && !Objects.equals(currentFileKey(), channelKey)) {
+                channel.close();
+            }
+            openChannel();
+        } catch (IOException e) {
+            lock.release();
+            throw e;
+        }
+        return lock;
+    }
+
+    private FileChannel openChannel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            channelKey = currentFileKey();
+        }
+        return channel;
+    }
+
+    private Object currentFileKey() throws IOException {
+        try {
+            return Files.readAttributes(Paths.get(fileName), BasicFileAttributes.class).fileKey();
+        } catch (NoSuchFileException e) {
+            return null; // Deleted: reopening creates it again
+        }
+    }
+
+    /**
+     * A record waiting to be written, with the future of its caller.
+     */
+    private static final class PendingRecord {
+        final byte[] bytes;
+        final Durability durability;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        PendingRecord(byte[] bytes, Durability durability) {
+            this.bytes = bytes;
+            this.durability = durability;
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package ecommerceapplication2;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact, versioned binary file format for the product catalog.
+ * Prices and weights are stored as raw doubles, every record has the same size
+ * and a sorted index maps product IDs to record numbers, so a point lookup is
+ * a binary search over the memory-mapped index plus one record read, and a
+ * full load never parses a number.
+ *
+ * <p>File layout (big-endian):
+ * <pre>
+ *     header   magic "ECAT", version, record count, record size, and the
+ *              offsets of the three blocks below
+ *     records  one fixed-size record per product:
+ *              type, flags, id ref, price, weight, name ref, dimensions/file size ref,
+ *              format ref, stock
+ *     index    (id ref, record number) pairs sorted by product ID
+ *     strings  deduplicated UTF-8 strings, each prefixed by its byte length;
+ *              a "ref" is the offset of a string within this block
+ * </pre>
+ * The flags byte marks products whose stock is tracked; the stock is
+ * meaningless for the others. Version 1 files, which left the flags and the
+ * stock as padding, are still read, with no stock tracked.
+ */
+public class BinaryCatalog implements Closeable {
+    private static final int MAGIC = 0x45434154;    // "ECAT"
+    private static final short VERSION = 2;
+    private static final short FIRST_VERSION = 1; // Records without stock
+    private static final int HEADER_SIZE = 48;
+    private static final int RECORD_SIZE = 40;
+    private static final int INDEX_ENTRY_SIZE = 8;
+    private static final byte PHYSICAL = 1;
+    private static final byte DIGITAL = 2;
+    private static final byte STOCK_TRACKED = 1; // Flag: the record's stock is counted
+    private static final int NO_STRING = -1;
+    private static final Metrics.Counter BYTES_WRITTEN = Metrics.counter("file.bytesWritten");
+
+    private final FileChannel channel;   // The open catalog file
+    private final MappedByteBuffer data; // The whole file, mapped read-only
+    private final short version;         // Format version of the file
+    private final int recordCount;
+    private final int recordsOffset;
+    private final int indexOffset;
+    private final int stringsOffset;
+
+    /**
+     * Opens a binary catalog for reading.
+     *
+     * @param fileName The name of the binary catalog file.
+     * @throws IOException if the file cannot be read or is not a binary catalog.
+     */
+    public BinaryCatalog(String fileName) throws IOException {
+        channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        try {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Binary catalog larger than 2 GB: " + fileName);
+            }
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (data.limit() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+                throw new IOException("Not a binary catalog: " + fileName);
+            }
+            version = data.getShort(4);
+            if (version != VERSION && version != FIRST_VERSION) {
+                throw new IOException("Unsupported binary catalog version " + version + ": " + fileName);
+            }
+            recordCount = data.getInt(8);
+            if (data.getInt(12) != RECORD_SIZE) {
+                throw new IOException("Unexpected record size in " + fileName);
+            }
+            recordsOffset = (int) data.getLong(16);
+            indexOffset = (int) data.getLong(24);
+            stringsOffset = (int) data.getLong(32);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of products in the catalog.
+     *
+     * @return The product count.
+     */
+    public int size() {
+        return recordCount;
+    }
+
+    /**
+     * Looks up a product by ID with a binary search over the index.
+     *
+     * @param productId The product ID to look for.
+     * @return The product, or {@code null} if no product has this ID.
+     */
+    public Product find(String productId) {
+        byte[] key = productId.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = recordCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int entry = indexOffset + middle * INDEX_ENTRY_SIZE;
+            int comparison = compareString(data.getInt(entry), key);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return get(data.getInt(entry + 4));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the product stored in the given record.
+     *
+     * @param recordNumber The zero-based record number.
+     * @return The product.
+     */
+    public Product get(int recordNumber) {
+        int record = recordsOffset + recordNumber * RECORD_SIZE;
+        byte type = data.get(record);
+        String productId = string(data.getInt(record + 4));
+        double price = data.getDouble(record + 8);
+        double weight = data.getDouble(record + 16);
+        String name = string(data.getInt(record + 24));
+        String detail = string(data.getInt(record + 28));
+        boolean tracked = version != FIRST_VERSION && (data.get(record + 1) & STOCK_TRACKED) != 0;
+        int stock = tracked ? data.getInt(record + 36) : Product.UNTRACKED;
+        if (type == PHYSICAL) {
+            return new PhysicalProduct(productId, name, price, weight, detail, stock);
+        }
+        return new DigitalProduct(productId, name, price, detail, string(data.getInt(record + 32)), stock);
+    }
+
+    /**
+     * Reads every product, in the order they were written.
+     *
+     * @return The products.
+     */
+    public ArrayList<Product> readAll() {
+        ArrayList<Product> products = new ArrayList<>(recordCount);
+        for (int i = 0; i < recordCount; i++) {
+            products.add(get(i));
+        }
+        return products;
+    }
+
+    /**
+     * Closes the catalog file.
+     *
+     * @throws IOException if closing fails.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private String string(int ref) {
+        if (ref == NO_STRING) {
+            return null;
+        }
+        int position = stringsOffset + ref;
+        int length = data.getInt(position);
+        byte[] bytes = new byte[length];
+        data.get(position + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compares a stored string with a key by unsigned byte order, without decoding it.
+     */
+    private int compareString(int ref, byte[] key) {
+        int position = stringsOffset + ref;
+        int length = data.getInt(position);
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (data.get(position + 4 + i) & 0xff) - (key[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return length - key.length;
+    }
+
+    /**
+     * Writes products to a binary catalog file. If several products share an ID,
+     * the last one is kept. The file is written next to the target and moved
+     * into place when complete.
+     *
+     * @param products The products to write.
+     * @param fileName The name of the binary catalog file.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void write(List<? extends Product> products, String fileName) throws IOException {
+        Map<String, Product> byId = new LinkedHashMap<>();
+        for (Product product : products) {
+            byId.remove(product.getProductId()); // Keep the position of the last occurrence
+            byId.put(product.getProductId(), product);
+        }
+        List<Product> unique = new ArrayList<>(byId.values());
+
+        StringTable strings = new StringTable();
+        ByteBuffer records = ByteBuffer.allocate(unique.size() * RECORD_SIZE);
+        int[] idRefs = new int[unique.size()];
+        for (int i = 0; i < unique.size(); i++) {
+            Product product = unique.get(i);
+            idRefs[i] = strings.add(product.getProductId());
+            records.put(product instanceof PhysicalProduct ? PHYSICAL : DIGITAL);
+            records.put(product.isStockTracked() ? STOCK_TRACKED : 0).put(new byte[2]);
+            records.putInt(idRefs[i]);
+            records.putDouble(product.getPrice());
+            if (product instanceof PhysicalProduct) {
+                PhysicalProduct physical = (PhysicalProduct) product;
+                records.putDouble(physical.getWeight());
+                records.putInt(strings.add(product.getName()));
+                records.putInt(strings.add(physical.getDimensions()));
+                records.putInt(NO_STRING);
+            } else {
+                DigitalProduct digital = (DigitalProduct) product;
+                records.putDouble(0);
+                records.putInt(strings.add(product.getName()));
+                records.putInt(strings.add(digital.getFileSize()));
+                records.putInt(strings.add(digital.getFormat()));
+            }
+            records.putInt(product.isStockTracked() ? product.getStock() : 0);
+        }
+
+        Integer[] order = new Integer[unique.size()];
+        byte[][] ids = new byte[unique.size()][];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+            ids[i] = unique.get(i).getProductId().getBytes(StandardCharsets.UTF_8);
+        }
+        Arrays.sort(order, Comparator.comparing((Integer i) -> ids[i], Arrays::compareUnsigned));
+
+        long recordsOffset = HEADER_SIZE;
+        long indexOffset = recordsOffset + (long) unique.size() * RECORD_SIZE;
+        long stringsOffset = indexOffset + (long) unique.size() * INDEX_ENTRY_SIZE;
+        if (stringsOffset + strings.size() > Integer.MAX_VALUE) {
+            throw new IOException("Catalog too large for the binary format.");
+        }
+
+        Path target = Paths.get(fileName).toAbsolutePath();
+        Metrics.Timer writeTimer = Metrics.timer("file.write." + target.getFileName());
+        long start = writeTimer.start();
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream file = Files.newOutputStream(temp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeShort(VERSION);
+                out.writeShort(0);
+                out.writeInt(unique.size());
+                out.writeInt(RECORD_SIZE);
+                out.writeLong(recordsOffset);
+                out.writeLong(indexOffset);
+                out.writeLong(stringsOffset);
+                out.writeLong(strings.size());
+                out.write(records.array());
+                for (Integer i : order) {
+                    out.writeInt(idRefs[i]);
+                    out.writeInt(i);
+                }
+                strings.writeTo(out);
+            }
+            BYTES_WRITTEN.add(Files.size(temp));
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+            writeTimer.stop(start);
+        }
+    }
+
+    /**
+     * Exports the products the {@link FileHandler#getStorage() storage} keeps
+     * for a product file to a binary catalog.
+     *
+     * @param productFile The name of the CSV product file.
+     * @param binaryFile  The name of the binary catalog to write.
+     * @return The number of products exported.
+     * @throws IOException if the binary catalog cannot be written.
+     */
+    public static int exportFromCsv(String productFile, String binaryFile) throws IOException {
+        List<Product> products = FileHandler.getStorage().loadProductsFromFile(productFile);
+        write(products, binaryFile);
+        return products.size();
+    }
+
+    /**
+     * Imports a binary catalog into the products the {@link FileHandler#getStorage()
+     * storage} keeps for a product file, replacing the previous ones. For the
+     * text storage the CSV file is rewritten in the format written by
+     * {@code toFileFormat()} and its journal is replaced under the journal's
+     * lock; for the B-tree storage the tree itself is updated.
+     *
+     * @param binaryFile  The name of the binary catalog to read.
+     * @param productFile The name of the CSV product file the products belong to.
+     * @return The number of products imported.
+     * @throws IOException if either file cannot be accessed.
+     */
+    public static int importToCsv(String binaryFile, String productFile) throws IOException {
+        ArrayList<Product> products;
+        try (BinaryCatalog catalog = new BinaryCatalog(binaryFile)) {
+            products = catalog.readAll();
+        }
+        FileHandler.getStorage().replaceProducts(productFile, products);
+        return products.size();
+    }
+
+    /**
+     * Collects deduplicated strings for the string block.
+     */
+    private static final class StringTable {
+        private final Map<String, Integer> refs = new HashMap<>();
+        private final List<byte[]> entries = new ArrayList<>();
+        private int size;
+
+        int add(String value) {
+            if (value == null) {
+                return NO_STRING;
+            }
+            Integer ref = refs.get(value);
+            if (ref == null) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                ref = size;
+                refs.put(value, ref);
+                entries.add(bytes);
+                size += Integer.BYTES + bytes.length;
+            }
+            return ref;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            for (byte[] entry : entries) {
+                out.writeInt(entry.length);
+                out.write(entry);
+            }
+        }
+    }
+}
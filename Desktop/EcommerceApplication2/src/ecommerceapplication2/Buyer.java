@@ -1,17 +1,30 @@
 package ecommerceapplication2;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.UUID;
+import java.util.concurrent.CompletionException;
 
 /**
  * Represents a Buyer in the e-commerce application.
  * A Buyer can add products to their cart, view the cart, remove items from it,
- * and proceed to checkout.
+ * and proceed to checkout. Checkout reserves the stock of every product in the
+ * cart through the {@link Inventory} before paying, so nothing is sold twice.
+ * Units added to the cart are also held for a while by the buyer's
+ * {@link CartHolds}; products whose hold ran out are taken out of the cart,
+ * with a notice, the next time the cart is used. Every paid order is recorded
+ * in the {@link OrderJournal}, where the buyer can look it up later.
  */
 public class Buyer extends User {
-    private ArrayList<Product> cart; // List to store products added to the cart
-    private static final int CHECKOUT_LIMIT = 3; // Minimum number of items to allow checkout
+    private Cart cart; // Products added to the cart, with their quantities
+    private final CartHolds holds; // Stock held for the products in the cart
+    private static final int CHECKOUT_LIMIT = 3; // Minimum number of items (counting quantities) to allow checkout
+    private static final Metrics.Timer ADD_TO_CART_TIMER = Metrics.timer("cart.add");
+    private static final Metrics.Timer CHECKOUT_TIMER = Metrics.timer("cart.checkout");
+    private static final Inventory INVENTORY = Inventory.forFile("products.txt");
+    private static final OrderJournal ORDERS = OrderJournal.forFile("orders.journal");
 
     /**
      * Constructs a Buyer object with the specified details.
@@ -27,7 +40,8 @@ public class Buyer extends User {
     public Buyer(String userId, String firstName, String lastName, String email, String password,
                  String phoneNumber, String address) {
         super(userId, firstName, lastName, email, password, phoneNumber, address, "Buyer");
-        this.cart = new ArrayList<>();
+        this.cart = new Cart();
+        this.holds = new CartHolds(INVENTORY);
     }
 
     /**
@@ -36,15 +50,22 @@ public class Buyer extends User {
      */
     public void displayAvailableProducts() {
         try {
-            ArrayList<Product> productList = FileHandler.loadProductsFromFile("products.txt");
-            if (productList == null || productList.isEmpty()) {
+            int[] shown = {0};
+            StringBuilder page = new StringBuilder(); // Written to the console once per batch of products
+            FileHandler.getStorage().forEachProduct("products.txt", product -> {
+                if (shown[0]++ == 0) {
+                    page.append("\nAvailable Products:\n");
+                }
+                page.append(shown[0]).append(". ").append(product.getName())
+                        .append(" - $").append(product.getPrice()).append('\n');
+                if (shown[0] % FileHandler.RENDER_BATCH == 0) {
+                    System.out.print(page);
+                    page.setLength(0);
+                }
+            });
+            System.out.print(page);
+            if (shown[0] == 0) {
                 System.out.println("No products available.");
-                return;
-            }
-            System.out.println("\nAvailable Products:");
-            for (int i = 0; i < productList.size(); i++) {
-                Product product = productList.get(i);
-                System.out.println((i + 1) + ". " + product.getName() + " - $" + product.getPrice());
             }
         } catch (Exception e) {
             System.out.println("An error occurred while displaying products: " + e.getMessage());
@@ -52,28 +73,132 @@ public class Buyer extends User {
     }
 
     /**
-     * Adds a product to the cart based on its product ID.
-     * Checks if the product ID exists in the product list.
+     * Searches the product names and attributes and lists the best matches
+     * with their IDs, so they can be added to the cart.
      *
-     * @param productId   The ID of the product to add to the cart.
-     * @param productList The list of available products.
+     * @param query The words to look for; the last one may be the start of a word.
+     * @param limit The most products to list.
      */
-    public void addProductToCart(String productId, ArrayList<Product> productList) {
+    public static void searchProducts(String query, int limit) {
         try {
-            // Load the latest products from the file to ensure it has the current data
-            productList = FileHandler.loadProductsFromFile("products.txt");
+            List<Product> results = ProductSearchIndex.forFile("products.txt").search(query, limit);
+            if (results.isEmpty()) {
+                System.out.println("No products match '" + query.trim() + "'.");
+                return;
+            }
+            System.out.println("\nSearch Results:");
+            listProducts(results);
+        } catch (Exception e) {
+            System.out.println("An error occurred while searching products: " + e.getMessage());
+        }
+    }
 
-            for (Product product : productList) {
-                if (product.getProductId().equals(productId)) {
-                    cart.add(product);
-                    System.out.println("Added " + product.getName() + " to your cart.");
-                    return;
+    /**
+     * Lists the products whose price, weight or file size lies in a range,
+     * smallest first.
+     *
+     * @param field The attribute to filter and order by.
+     * @param min   The smallest value to include.
+     * @param max   The largest value to include.
+     * @param limit The most products to list.
+     */
+    public static void browseProducts(ProductRangeIndex.Field field, double min, double max, int limit) {
+        try {
+            List<Product> results = ProductRangeIndex.forFile("products.txt").range(field, min, max, limit);
+            if (results.isEmpty()) {
+                System.out.println("No products in that range.");
+                return;
+            }
+            System.out.println("\nProducts by " + field.name().toLowerCase().replace('_', ' ') + ":");
+            listProducts(results);
+        } catch (Exception e) {
+            System.out.println("An error occurred while browsing products: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Lists the products matching a facet filter, with the number of matches
+     * for each type, format, size and price bucket.
+     *
+     * @param filter The filter, such as {@code type=digital AND format=mp3 AND price=0-5}.
+     * @param limit  The most products to list.
+     */
+    public static void filterProducts(String filter, int limit) {
+        try {
+            ProductFacets.Result result = ProductFacets.forFile("products.txt").filter(filter, limit);
+            System.out.println("\n" + result.getCount() + " product(s) match.");
+            for (Map.Entry<String, Map<String, Integer>> facet : result.getCounts().entrySet()) {
+                if (!facet.getValue().isEmpty()) {
+                    StringBuilder line = new StringBuilder("  " + facet.getKey() + ":");
+                    facet.getValue().forEach((value, count) ->
+                            line.append(' ').append(value).append(" (").append(count).append(')'));
+                    System.out.println(line);
                 }
             }
+            listProducts(result.getProducts());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid filter: " + e.getMessage());
+        } catch (Exception e) {
+            System.out.println("An error occurred while filtering products: " + e.getMessage());
+        }
+    }
 
-            System.out.println("Product not found.");
+    private static void listProducts(List<Product> products) {
+        StringBuilder list = new StringBuilder();
+        for (int i = 0; i < products.size(); i++) {
+            Product product = products.get(i);
+            list.append(i + 1).append(". ").append(product.getName()).append(" - $").append(product.getPrice())
+                    .append(" (ID: ").append(product.getProductId()).append(")\n");
+        }
+        System.out.print(list);
+    }
+
+    /**
+     * Adds a product to the cart based on its product ID.
+     * The product is looked up in the configured {@link FileHandler#getStorage() storage},
+     * which always reflects the current contents of the product file.
+     *
+     * @param productId   The ID of the product to add to the cart.
+     * @param productList The list of available products (unused, the product file is authoritative).
+     */
+    public void addProductToCart(String productId, List<Product> productList) {
+        addProductToCart(productId, 1);
+    }
+
+    /**
+     * Adds a quantity of a product to the cart. Adding a product that is
+     * already in the cart increases its quantity and starts its hold again.
+     * More units than are available are refused.
+     *
+     * @param productId The ID of the product to add to the cart.
+     * @param quantity  The number of units to add.
+     */
+    public void addProductToCart(String productId, int quantity) {
+        long start = ADD_TO_CART_TIMER.start();
+        try {
+            Product product = FileHandler.getStorage().getProduct("products.txt", productId);
+            if (product == null) {
+                System.out.println("Product not found.");
+                return;
+            }
+            dropExpiredHolds();
+            int available = INVENTORY.available(productId);
+            long wanted = holds.isEnabled() ? quantity : cart.quantityOf(productId) + (long) quantity; // Held units are not available
+            if (available != Product.UNTRACKED && (available < wanted || !holds.hold(productId, quantity))) {
+                reportShortage(product.getName(), INVENTORY.available(productId));
+                return;
+            }
+            cart.add(product, quantity);
+            if (holds.held(productId) > 0) {
+                System.out.println("Added " + product.getName() + " to your cart. It is held for you for "
+                        + minutes(holds.getTtlMillis()) + ".");
+            } else {
+                System.out.println("Added " + product.getName() + " to your cart.");
+            }
         } catch (Exception e) {
             System.out.println("An error occurred while adding the product to the cart: " + e.getMessage());
+        } finally {
+            ADD_TO_CART_TIMER.stop(start);
         }
     }
 
@@ -83,16 +208,22 @@ public class Buyer extends User {
      */
     public void viewCart() {
         try {
+            dropExpiredHolds();
             if (cart.isEmpty()) {
                 System.out.println("Your cart is empty.");
             } else {
                 System.out.println("\nYour Cart:");
-                double total = 0;
-                for (Product product : cart) {
-                    System.out.println(product.getName() + " - $" + product.getPrice());
-                    total += product.getPrice();
+                for (int i = 0; i < cart.lineCount(); i++) {
+                    long heldMillis = holds.remainingMillis(cart.productId(i));
+                    String held = heldMillis < 0 ? "" : " (held for " + minutes(heldMillis) + ")";
+                    if (cart.quantity(i) == 1) {
+                        System.out.println(cart.name(i) + " - $" + cart.unitPrice(i) + held);
+                    } else {
+                        System.out.println(cart.name(i) + " - " + cart.quantity(i) + " x $" + cart.unitPrice(i)
+                                + " = $" + cart.lineTotal(i) + held);
+                    }
                 }
-                System.out.println("Total: $" + total);
+                System.out.println("Total: $" + cart.getTotal());
             }
         } catch (Exception e) {
             System.out.println("An error occurred while viewing the cart: " + e.getMessage());
@@ -105,51 +236,222 @@ public class Buyer extends User {
      */
     public void checkout() {
         try {
-            if (cart.size() < CHECKOUT_LIMIT) {
-                System.out.println("You need at least " + CHECKOUT_LIMIT + " items in your cart to checkout.");
+            if (!readyForCheckout()) {
                 return;
             }
-            System.out.println("Checking out " + cart.size() + " items...");
-            double totalAmount = 0;
-            for (Product product : cart) {
-                totalAmount += product.getPrice();
-            }
-
             Scanner scanner = new Scanner(System.in);
             System.out.println("Enter your payment method (e.g., Credit Card, PayPal):");
             String paymentMethod = scanner.nextLine();
-            String paymentId = UUID.randomUUID().toString();
-            Payment payment = new Payment(paymentId, totalAmount, paymentMethod);
-            payment.processPayment();
-
-            if (payment.isPaymentStatus()) {
-                cart.clear();
-                System.out.println("Total price: $" + totalAmount);
-                System.out.println("Thank you for your purchase!");
-            } else {
-                System.out.println("Payment failed or was cancelled. Please try again.");
+            pay(paymentMethod, CardDetails.read(scanner));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Payment Error: " + e.getMessage());
+        } catch (Exception e) {
+            System.out.println("An unexpected error occurred during checkout: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Checks out with payment details that were collected elsewhere, for
+     * example from a request to the shop server.
+     *
+     * @param paymentMethod The payment method (e.g., Credit Card, PayPal).
+     * @param cardNumber    The card number (16 digits).
+     * @param expiryDate    The expiry date (MM/YY).
+     * @param cvv           The CVV (3 digits).
+     */
+    public void checkout(String paymentMethod, String cardNumber, String expiryDate, String cvv) {
+        try {
+            if (!readyForCheckout()) {
+                return;
             }
+            pay(paymentMethod, new CardDetails(cardNumber, expiryDate, cvv));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Payment Error: " + e.getMessage());
         } catch (Exception e) {
             System.out.println("An unexpected error occurred during checkout: " + e.getMessage());
         }
     }
 
     /**
-     * Removes a product from the cart by its index.
+     * Reserves the stock of the whole cart on top of what it holds, takes the
+     * payment, and then either commits the reservation or releases it if the
+     * payment did not go through. The holds cannot expire in between.
+     */
+    private void pay(String paymentMethod, CardDetails card) {
+        long start = CHECKOUT_TIMER.start();
+        Inventory.Reservation reservation;
+        holds.pin();
+        try {
+            reservation = INVENTORY.reserve(cart, holds);
+        } catch (IllegalStateException e) {
+            holds.unpin(false);
+            System.out.println("Checkout Error: " + e.getMessage());
+            CHECKOUT_TIMER.stop(start);
+            return;
+        }
+        System.out.println("\nProcessing Payment...");
+        boolean sold = false;
+        try {
+            Payment payment = new Payment(UUID.randomUUID().toString(), cart.getTotal(), paymentMethod);
+            payment.processPayment(card);
+            if (payment.isPaymentStatus() && payment.isProcessed()) {
+                sold = true;
+                try {
+                    reservation.commit().join();
+                } catch (CompletionException e) { // The sale stands; only the stock count is off
+                    System.out.println("Error updating the stock: " + e.getCause().getMessage());
+                }
+            }
+            completeCheckout(payment);
+        } finally {
+            reservation.release(); // Does nothing once committed
+            holds.unpin(sold);
+            CHECKOUT_TIMER.stop(start);
+        }
+    }
+
+    private boolean readyForCheckout() {
+        dropExpiredHolds();
+        if (cart.totalQuantity() < CHECKOUT_LIMIT) {
+            System.out.println("You need at least " + CHECKOUT_LIMIT + " items in your cart to checkout.");
+            return false;
+        }
+        System.out.println("Checking out " + cart.totalQuantity() + " items...");
+        return true;
+    }
+
+    private void completeCheckout(Payment payment) {
+        if (payment.isPaymentStatus() && payment.isProcessed()) {
+            try {
+                ORDERS.record(Order.of(payment, getUserId(), cart)).join();
+                System.out.println("Order number: " + payment.getPaymentId());
+            } catch (CompletionException e) {
+                System.out.println("Error recording the order: " + e.getCause().getMessage());
+            }
+            cart.clear();
+            System.out.println("Total price: $" + payment.getAmount());
+            System.out.println("Thank you for your purchase!");
+        } else {
+            System.out.println("Payment failed or was cancelled. Please try again.");
+        }
+    }
+
+    /**
+     * Removes a product from the cart by its line number.
      * If the index is invalid or out of bounds, an error message is displayed.
      *
-     * @param index The index of the product to be removed from the cart.
+     * @param index The index of the cart line to be removed.
      */
     public void removeFromCart(int index) {
         try {
-            if (index < 0 || index >= cart.size()) {
+            if (index < 0 || index >= cart.lineCount()) {
                 System.out.println("Invalid index. Please select a valid product number.");
                 return;
             }
-            Product removedProduct = cart.remove(index);
-            System.out.println("Removed " + removedProduct.getName() + " from your cart.");
+            String removedName = cart.name(index);
+            holds.release(cart.productId(index), cart.quantity(index));
+            cart.removeLine(index);
+            System.out.println("Removed " + removedName + " from your cart.");
+            dropExpiredHolds();
         } catch (Exception e) {
             System.out.println("An unexpected error occurred while removing the product: " + e.getMessage());
         }
     }
+
+    /**
+     * Changes the quantity of a product in the cart. A quantity of zero
+     * removes the product from the cart. Raising it holds the extra units,
+     * and is refused if they are not available.
+     *
+     * @param productId The ID of the product in the cart.
+     * @param quantity  The new quantity.
+     */
+    public void setCartQuantity(String productId, int quantity) {
+        try {
+            dropExpiredHolds();
+            int current = cart.quantityOf(productId);
+            if (current > 0 && quantity > current) {
+                int available = INVENTORY.available(productId);
+                int wanted = holds.isEnabled() ? quantity - current : quantity; // Held units are not available
+                if (available != Product.UNTRACKED && (available < wanted || !holds.hold(productId, quantity - current))) {
+                    Product product = FileHandler.getStorage().getProduct("products.txt", productId);
+                    reportShortage(product == null ? productId : product.getName(), INVENTORY.available(productId));
+                    return;
+                }
+            }
+            if (cart.setQuantity(productId, quantity)) {
+                if (quantity < current) {
+                    holds.release(productId, current - quantity);
+                }
+                System.out.println(quantity == 0 ? "Removed the product from your cart." : "Cart updated.");
+            } else {
+                System.out.println("That product is not in your cart.");
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        } catch (IOException e) {
+            System.out.println("Error reading products: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Displays the buyer's past orders, newest first.
+     */
+    public void viewOrders() {
+        try {
+            List<Order> orders = ORDERS.ordersOf(getUserId());
+            if (orders.isEmpty()) {
+                System.out.println("You have not placed any orders yet.");
+                return;
+            }
+            System.out.println("\nYour Orders:");
+            for (Order order : orders) {
+                order.displayDetails();
+            }
+        } catch (IOException e) {
+            System.out.println("Error reading your orders: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gives back the stock held for the cart, for example when the buyer
+     * leaves. The cart itself is not changed.
+     */
+    public void releaseHolds() {
+        holds.releaseAll();
+    }
+
+    /**
+     * Takes the products whose hold ran out out of the cart and tells the
+     * buyer about each of them.
+     */
+    private void dropExpiredHolds() {
+        for (String productId : holds.takeExpired()) {
+            for (int i = 0; i < cart.lineCount(); i++) {
+                if (cart.productId(i).equals(productId)) {
+                    System.out.println("Your hold on " + cart.name(i) + " ran out, so it was removed from your cart.");
+                    cart.removeLine(i);
+                    break;
+                }
+            }
+        }
+    }
+
+    private static void reportShortage(String name, int available) {
+        System.out.println(available <= 0 ? name + " is sold out." : "Only " + available + " of " + name + " left in stock.");
+    }
+
+    private static String minutes(long millis) {
+        long minutes = (millis + 59_999) / 60_000;
+        return minutes == 1 ? "1 minute" : minutes + " minutes";
+    }
+
+    /**
+     * Returns the buyer's cart.
+     *
+     * @return The cart.
+     */
+    public Cart getCart() {
+        return cart;
+    }
 }
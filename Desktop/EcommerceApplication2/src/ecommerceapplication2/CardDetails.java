@@ -0,0 +1,107 @@
+package ecommerceapplication2;
+
+import java.util.Scanner;
+
+/**
+ * The card details a buyer pays with. Collecting them, from the console or
+ * from a request, is kept apart from authorizing them with a
+ * {@link PaymentGateway}, so no thread waits on the buyer while a payment is
+ * in flight or on the gateway while details are typed in.
+ *
+ * <p>A {@code CardDetails} object is always valid: the constructor rejects
+ * malformed or expired details using {@link Validators}.
+ */
+public final class CardDetails {
+    private final String cardNumber;    // Card number (16 digits, Luhn-checked)
+    private final String expiryDate;    // Expiry date (MM/YY)
+    private final String cvv;           // CVV (3 digits)
+
+    /**
+     * Creates card details after validating them.
+     *
+     * @param cardNumber The card number (16 digits passing the Luhn checksum).
+     * @param expiryDate The expiry date (MM/YY, not in the past).
+     * @param cvv        The CVV (3 digits).
+     * @throws IllegalArgumentException if any of the details is invalid.
+     */
+    public CardDetails(String cardNumber, String expiryDate, String cvv) {
+        ValidationResult result = validate(cardNumber, expiryDate, cvv);
+        if (!result.isValid()) {
+            throw new IllegalArgumentException(result.getMessage());
+        }
+        this.cardNumber = cardNumber;
+        this.expiryDate = expiryDate;
+        this.cvv = cvv;
+    }
+
+    /**
+     * Checks card details without creating them.
+     *
+     * @param cardNumber The card number (16 digits passing the Luhn checksum).
+     * @param expiryDate The expiry date (MM/YY, not in the past).
+     * @param cvv        The CVV (3 digits).
+     * @return {@link ValidationResult#VALID}, or the problem with the first invalid value.
+     */
+    public static ValidationResult validate(String cardNumber, String expiryDate, String cvv) {
+        ValidationResult result = Validators.cardNumber(cardNumber);
+        if (result.isValid()) {
+            result = Validators.expiryDate(expiryDate);
+        }
+        return result.isValid() ? Validators.cvv(cvv) : result;
+    }
+
+    /**
+     * Prompts for card details on the console, rejecting each malformed value
+     * as soon as it is entered.
+     *
+     * @param scanner The scanner to read from.
+     * @return The card details.
+     * @throws IllegalArgumentException if a value is malformed.
+     */
+    public static CardDetails read(Scanner scanner) {
+        System.out.print("Enter card number (16 digits): ");
+        String cardNumber = scanner.nextLine();
+        ValidationResult result = Validators.cardNumber(cardNumber);
+        if (!result.isValid()) {
+            throw new IllegalArgumentException(result.getMessage());
+        }
+
+        System.out.print("Enter expiry date (MM/YY): ");
+        String expiryDate = scanner.nextLine();
+        result = Validators.expiryDate(expiryDate);
+        if (!result.isValid()) {
+            throw new IllegalArgumentException(result.getMessage());
+        }
+
+        System.out.print("Enter CVV (3 digits): ");
+        String cvv = scanner.nextLine();
+        return new CardDetails(cardNumber, expiryDate, cvv);
+    }
+
+    // Getters
+    public String getCardNumber() {
+        return cardNumber;
+    }
+
+    public String getExpiryDate() {
+        return expiryDate;
+    }
+
+    public String getCvv() {
+        return cvv;
+    }
+
+    /**
+     * Returns the card number with all but the last four digits hidden.
+     *
+     * @return The masked card number.
+     */
+    public String maskedNumber() {
+        return "************" + cardNumber.substring(12);
+    }
+
+    @Override
+    public String toString() {
+        return "Card " + maskedNumber() + " expiring " + expiryDate;
+    }
+}
@@ -0,0 +1,284 @@
+package ecommerceapplication2;
+
+import java.util.Arrays;
+
+/**
+ * A shopping cart holding one line per product, with a quantity for each.
+ * Lines live in parallel primitive arrays and are found by product ID through
+ * an open-addressing hash table, so adding, changing or removing a line is
+ * O(1). Amounts are kept in whole cents: every line total, the grand total
+ * and the item count are updated as lines change, so reading them never
+ * walks the cart.
+ *
+ * <p>Removing a line moves the last line into its place, so line order is
+ * only stable while no line is removed.
+ */
+public class Cart {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private String[] productIds = new String[INITIAL_CAPACITY];  // ID of each line
+    private String[] names = new String[INITIAL_CAPACITY];       // Product name of each line
+    private long[] unitCents = new long[INITIAL_CAPACITY];       // Unit price of each line
+    private int[] quantities = new int[INITIAL_CAPACITY];        // Quantity of each line
+    private long[] lineCents = new long[INITIAL_CAPACITY];       // Unit price times quantity
+    private int[] table = new int[INITIAL_CAPACITY * 2];         // Line index + 1 by ID hash, 0 when empty
+    private int lines;              // Number of lines in use
+    private long totalCents;        // Sum of the line totals
+    private long totalQuantity;     // Sum of the quantities
+
+    /**
+     * Adds a quantity of a product. If the product is already in the cart,
+     * its quantity is increased and the unit price is updated to the product's current price.
+     *
+     * @param product  The product to add.
+     * @param quantity The quantity to add, greater than zero.
+     * @throws IllegalArgumentException if the quantity is not positive.
+     */
+    public void add(Product product, int quantity) {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Quantity must be greater than zero.");
+        }
+        int line = indexOf(product.getProductId());
+        if (line < 0) {
+            line = addLine(product.getProductId());
+        }
+        names[line] = product.getName();
+        unitCents[line] = toCents(product.getPrice());
+        update(line, Math.addExact(quantities[line], quantity));
+    }
+
+    /**
+     * Sets the quantity of a product already in the cart. A quantity of zero removes the line.
+     *
+     * @param productId The ID of the product.
+     * @param quantity  The new quantity, zero or more.
+     * @return {@code true} if the product was in the cart.
+     * @throws IllegalArgumentException if the quantity is negative.
+     */
+    public boolean setQuantity(String productId, int quantity) {
+        if (quantity < 0) {
+            throw new IllegalArgumentException("Quantity cannot be negative.");
+        }
+        int line = indexOf(productId);
+        if (line < 0) {
+            return false;
+        }
+        if (quantity == 0) {
+            removeLine(line);
+        } else {
+            update(line, quantity);
+        }
+        return true;
+    }
+
+    /**
+     * Removes the line of a product.
+     *
+     * @param productId The ID of the product.
+     * @return {@code true} if the product was in the cart.
+     */
+    public boolean remove(String productId) {
+        return setQuantity(productId, 0);
+    }
+
+    /**
+     * Removes the line at the given position. The last line takes its place.
+     *
+     * @param line The zero-based line index.
+     * @throws IndexOutOfBoundsException if there is no such line.
+     */
+    public void removeLine(int line) {
+        checkLine(line);
+        totalCents -= lineCents[line];
+        totalQuantity -= quantities[line];
+        int last = lines - 1;
+        unlink(line);
+        if (line != last) {
+            unlink(last);
+            productIds[line] = productIds[last];
+            names[line] = names[last];
+            unitCents[line] = unitCents[last];
+            quantities[line] = quantities[last];
+            lineCents[line] = lineCents[last];
+            link(line);
+        }
+        productIds[last] = null;
+        names[last] = null;
+        lines--;
+    }
+
+    /**
+     * Empties the cart.
+     */
+    public void clear() {
+        Arrays.fill(productIds, 0, lines, null);
+        Arrays.fill(names, 0, lines, null);
+        Arrays.fill(table, 0);
+        lines = 0;
+        totalCents = 0;
+        totalQuantity = 0;
+    }
+
+    public boolean isEmpty() {
+        return lines == 0;
+    }
+
+    /**
+     * Returns the number of distinct products in the cart.
+     *
+     * @return The line count.
+     */
+    public int lineCount() {
+        return lines;
+    }
+
+    /**
+     * Returns the number of items in the cart, counting every unit.
+     *
+     * @return The sum of the quantities.
+     */
+    public long totalQuantity() {
+        return totalQuantity;
+    }
+
+    /**
+     * Returns the price of everything in the cart.
+     *
+     * @return The grand total in cents.
+     */
+    public long totalCents() {
+        return totalCents;
+    }
+
+    /**
+     * Returns the price of everything in the cart.
+     *
+     * @return The grand total in dollars.
+     */
+    public double getTotal() {
+        return totalCents / 100.0;
+    }
+
+    /**
+     * Returns the quantity of a product.
+     *
+     * @param productId The ID of the product.
+     * @return The quantity, or 0 if the product is not in the cart.
+     */
+    public int quantityOf(String productId) {
+        int line = indexOf(productId);
+        return line < 0 ? 0 : quantities[line];
+    }
+
+    // Line accessors, by zero-based line index
+    public String productId(int line) {
+        checkLine(line);
+        return productIds[line];
+    }
+
+    public String name(int line) {
+        checkLine(line);
+        return names[line];
+    }
+
+    public int quantity(int line) {
+        checkLine(line);
+        return quantities[line];
+    }
+
+    public double unitPrice(int line) {
+        checkLine(line);
+        return unitCents[line] / 100.0;
+    }
+
+    public double lineTotal(int line) {
+        checkLine(line);
+        return lineCents[line] / 100.0;
+    }
+
+    private void update(int line, int quantity) {
+        long newLineCents = Math.multiplyExact(unitCents[line], (long) quantity);
+        totalCents += newLineCents - lineCents[line];
+        totalQuantity += quantity - quantities[line];
+        quantities[line] = quantity;
+        lineCents[line] = newLineCents;
+    }
+
+    private int addLine(String productId) {
+        if (lines == productIds.length) {
+            int capacity = lines * 2;
+            productIds = Arrays.copyOf(productIds, capacity);
+            names = Arrays.copyOf(names, capacity);
+            unitCents = Arrays.copyOf(unitCents, capacity);
+            quantities = Arrays.copyOf(quantities, capacity);
+            lineCents = Arrays.copyOf(lineCents, capacity);
+            table = new int[capacity * 2];
+            for (int i = 0; i < lines; i++) {
+                link(i);
+            }
+        }
+        int line = lines++;
+        productIds[line] = productId;
+        quantities[line] = 0;
+        lineCents[line] = 0;
+        link(line);
+        return line;
+    }
+
+    private int indexOf(String productId) {
+        int mask = table.length - 1;
+        for (int slot = slot(productId); table[slot] != 0; slot = (slot + 1) & mask) {
+            int line = table[slot] - 1;
+            if (productIds[line].equals(productId)) {
+                return line;
+            }
+        }
+        return -1;
+    }
+
+    private void link(int line) {
+        int mask = table.length - 1;
+        int slot = slot(productIds[line]);
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = line + 1;
+    }
+
+    /**
+     * Removes a line from the hash table, shifting back later entries of the
+     * same probe run so lookups never stop early at the freed slot.
+     */
+    private void unlink(int line) {
+        int mask = table.length - 1;
+        int slot = slot(productIds[line]);
+        while (table[slot] != line + 1) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = 0;
+        for (int next = (slot + 1) & mask; table[next] != 0; next = (next + 1) & mask) {
+            int home = slot(productIds[table[next] - 1]);
+            // Move the entry into the gap if its home slot is not between the gap and its position
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                table[slot] = table[next];
+                table[next] = 0;
+                slot = next;
+            }
+        }
+    }
+
+    private int slot(String productId) {
+        int h = productId.hashCode() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (table.length - 1);
+    }
+
+    private void checkLine(int line) {
+        if (line < 0 || line >= lines) {
+            throw new IndexOutOfBoundsException("No cart line " + line);
+        }
+    }
+
+    private static long toCents(double price) {
+        return Math.round(price * 100);
+    }
+}
@@ -0,0 +1,244 @@
+package ecommerceapplication2;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the units in one buyer's cart reserved in the {@link Inventory} for a
+ * limited time, so they cannot sell out while the buyer is still shopping.
+ *
+ * <p>Adding a product with a tracked stock to the cart reserves the units and
+ * starts a hold of {@code ecommerce.cart.holdSeconds} seconds (default 900);
+ * adding more of it reserves those too and starts the hold again. When a hold
+ * runs out, its units are released and the product is reported by
+ * {@link #takeExpired()}, so the buyer can take it out of the cart with a
+ * notice. Setting the property to 0 turns holds off, and stock is then only
+ * reserved at checkout.
+ *
+ * <p>Holds expire through one shared {@link TimingWheel}, so millions of open
+ * holds cost one small timer each and one ticker thread between them.
+ *
+ * <p>While a checkout is in progress the holds are pinned: holds that run out
+ * meanwhile are only expired if the checkout fails, so units being paid for
+ * are never released under it.
+ */
+public final class CartHolds {
+    private static final long TTL_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("ecommerce.cart.holdSeconds", 900));
+    private static final TimingWheel EXPIRY = new TimingWheel("cart-hold-expiry", 100, TimeUnit.MILLISECONDS);
+    private static final Metrics.Counter EXPIRED_COUNTER = Metrics.counter("cart.holdsExpired");
+
+    private final Inventory inventory;
+    private final long ttlMillis;
+    private final Map<String, Hold> holds = new HashMap<>();   // Open holds by product ID
+    private final List<String> expired = new ArrayList<>();    // Products whose hold ran out, not yet reported
+    private final List<Runnable> deferred = new ArrayList<>(); // Expiries that came due during a checkout
+    private boolean pinned;                                    // A checkout is in progress
+
+    /**
+     * The reserved units of one product.
+     */
+    private static final class Hold {
+        final String productId;
+        int quantity;
+        TimingWheel.Timeout timeout;
+        int generation; // Counts the times the hold was started; older expiries are ignored
+        long expiresAt; // System.currentTimeMillis() when the hold runs out
+
+        Hold(String productId) {
+            this.productId = productId;
+        }
+    }
+
+    /**
+     * Creates the holds of one cart with the configured hold time.
+     *
+     * @param inventory The inventory to reserve units in.
+     */
+    public CartHolds(Inventory inventory) {
+        this(inventory, TTL_MILLIS);
+    }
+
+    /**
+     * Creates the holds of one cart.
+     *
+     * @param inventory The inventory to reserve units in.
+     * @param ttlMillis How long a hold lasts, in milliseconds; 0 turns holds off.
+     */
+    public CartHolds(Inventory inventory, long ttlMillis) {
+        this.inventory = inventory;
+        this.ttlMillis = Math.max(0, ttlMillis);
+    }
+
+    /**
+     * Tells whether units are held while they are in the cart.
+     *
+     * @return {@code false} if holds are turned off.
+     */
+    public boolean isEnabled() {
+        return ttlMillis > 0;
+    }
+
+    /**
+     * Returns how long a hold lasts.
+     *
+     * @return The hold time in milliseconds.
+     */
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    /**
+     * Reserves more units of a product and starts its hold again. Products
+     * whose stock is not tracked are never held.
+     *
+     * @param productId The ID of the product.
+     * @param quantity  The units to add to the hold, greater than zero.
+     * @return {@code false} if that many units are not available.
+     */
+    public synchronized boolean hold(String productId, int quantity) {
+        if (!isEnabled() || inventory.available(productId) == Product.UNTRACKED) {
+            return true;
+        }
+        if (!inventory.reserve(productId, quantity)) {
+            return false;
+        }
+        Hold hold = holds.get(productId);
+        if (hold == null) {
+            hold = new Hold(productId);
+            holds.put(productId, hold);
+        } else {
+            hold.timeout.cancel();
+        }
+        hold.quantity += quantity;
+        schedule(hold);
+        return true;
+    }
+
+    /**
+     * Gives back units of a product, for example when the buyer lowers its
+     * quantity in the cart. Releasing all of them ends the hold.
+     *
+     * @param productId The ID of the product.
+     * @param quantity  The units to give back.
+     */
+    public synchronized void release(String productId, int quantity) {
+        Hold hold = holds.get(productId);
+        if (hold == null || quantity <= 0) {
+            return;
+        }
+        int released = Math.min(quantity, hold.quantity);
+        inventory.release(productId, released);
+        hold.quantity -= released;
+        if (hold.quantity == 0) {
+            hold.timeout.cancel();
+            holds.remove(productId);
+        }
+    }
+
+    /**
+     * Gives back the units of every hold.
+     */
+    public synchronized void releaseAll() {
+        for (Hold hold : holds.values()) {
+            hold.timeout.cancel();
+            inventory.release(hold.productId, hold.quantity);
+        }
+        holds.clear();
+    }
+
+    /**
+     * Returns the units of a product held for the cart.
+     *
+     * @param productId The ID of the product.
+     * @return The held units, or 0 if the product is not held.
+     */
+    public synchronized int held(String productId) {
+        Hold hold = holds.get(productId);
+        return hold == null ? 0 : hold.quantity;
+    }
+
+    /**
+     * Returns how long the hold on a product has left.
+     *
+     * @param productId The ID of the product.
+     * @return The time left in milliseconds, or -1 if the product is not held.
+     */
+    public synchronized long remainingMillis(String productId) {
+        Hold hold = holds.get(productId);
+        return hold == null ? -1 : Math.max(0, hold.expiresAt - System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the products whose hold ran out since the last call. Their
+     * units have already been released.
+     *
+     * @return The product IDs, possibly none.
+     */
+    public synchronized List<String> takeExpired() {
+        if (expired.isEmpty()) {
+            return List.of();
+        }
+        List<String> productIds = new ArrayList<>(expired);
+        expired.clear();
+        return productIds;
+    }
+
+    /**
+     * Keeps the holds from expiring until {@link #unpin} is called, while a
+     * checkout pays for the held units.
+     */
+    synchronized void pin() {
+        pinned = true;
+    }
+
+    /**
+     * Ends a checkout. After a sale the holds are dropped without releasing
+     * their units, which the sale committed; otherwise the holds stay, and
+     * those that ran out during the checkout expire now.
+     *
+     * @param sold {@code true} if the held units were sold.
+     */
+    synchronized void unpin(boolean sold) {
+        pinned = false;
+        if (sold) {
+            for (Hold hold : holds.values()) {
+                hold.timeout.cancel();
+            }
+            holds.clear();
+            deferred.clear();
+            return;
+        }
+        for (Runnable expiry : deferred) {
+            expiry.run();
+        }
+        deferred.clear();
+    }
+
+    private void schedule(Hold hold) {
+        int generation = ++hold.generation;
+        hold.expiresAt = System.currentTimeMillis() + ttlMillis;
+        hold.timeout = EXPIRY.schedule(() -> expire(hold, generation), ttlMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs on the expiry thread when a hold runs out. The timer may fire just
+     * as the hold is started again, too late to be cancelled; the generation
+     * tells such a stale expiry apart from the current one.
+     */
+    private synchronized void expire(Hold hold, int generation) {
+        if (holds.get(hold.productId) != hold || hold.generation != generation) {
+            return; // Released, sold or started again since
+        }
+        if (pinned) {
+            deferred.add(() -> expire(hold, generation));
+            return;
+        }
+        holds.remove(hold.productId);
+        inventory.release(hold.productId, hold.quantity);
+        expired.add(hold.productId);
+        EXPIRED_COUNTER.add(1);
+    }
+}
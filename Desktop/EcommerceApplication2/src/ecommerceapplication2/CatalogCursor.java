@@ -0,0 +1,156 @@
+package ecommerceapplication2;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Reads the products of a catalog a page at a time. Each page comes with a
+ * resume token for the page after it, so a listing can be continued later,
+ * by another request or another session, without keeping any state here.
+ *
+ * <p>Products can be listed in catalog order, by product ID as the
+ * {@link FileHandler#getStorage() storage} keeps them, or by price, weight or
+ * file size through the catalog's {@link ProductRangeIndex}. Each page is
+ * read with a range scan, so it costs O(log n + page size) in either order.
+ *
+ * <p>A token holds the ID of the last product listed, and in value order its
+ * value too, so the listing continues right after that product however the
+ * catalog changed in between.
+ *
+ * <p>Usage example:
+ * <pre>
+ *     CatalogCursor cursor = new CatalogCursor("products.txt", CatalogCursor.SortKey.PRICE, 20);
+ *     CatalogCursor.Page page = cursor.page(null);
+ *     CatalogCursor.Page next = cursor.page(page.getNextToken());
+ * </pre>
+ */
+public final class CatalogCursor {
+    /**
+     * The orders products can be listed in.
+     */
+    public enum SortKey {
+        /** By product ID. */
+        CATALOG(null),
+        /** Cheapest first. */
+        PRICE(ProductRangeIndex.Field.PRICE),
+        /** Lightest first; only physical products. */
+        WEIGHT(ProductRangeIndex.Field.WEIGHT),
+        /** Smallest first; only digital products. */
+        FILE_SIZE(ProductRangeIndex.Field.FILE_SIZE);
+
+        private final ProductRangeIndex.Field field;
+
+        SortKey(ProductRangeIndex.Field field) {
+            this.field = field;
+        }
+    }
+
+    /**
+     * One page of products and the token for the next page.
+     */
+    public static final class Page {
+        private final List<Product> products;
+        private final String nextToken;
+
+        Page(List<Product> products, String nextToken) {
+            this.products = products;
+            this.nextToken = nextToken;
+        }
+
+        // Getters
+        public List<Product> getProducts() {
+            return products;
+        }
+
+        /**
+         * Returns the token to pass to {@link CatalogCursor#page} for the next page.
+         *
+         * @return The token, or {@code null} if this is the last page.
+         */
+        public String getNextToken() {
+            return nextToken;
+        }
+    }
+
+    private final String fileName;
+    private final SortKey sortKey;
+    private final int pageSize;
+
+    /**
+     * Creates a cursor over a product file.
+     *
+     * @param fileName The name of the product file.
+     * @param sortKey  The order to list the products in.
+     * @param pageSize The number of products per page.
+     */
+    public CatalogCursor(String fileName, SortKey sortKey, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("The page size must be positive.");
+        }
+        this.fileName = fileName;
+        this.sortKey = sortKey;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Returns the page that a token points to.
+     *
+     * @param token A token from {@link Page#getNextToken()}, or {@code null} for the first page.
+     * @return The page.
+     * @throws IllegalArgumentException if the token is not valid for this sort key.
+     * @throws IOException if the storage cannot be read.
+     */
+    public Page page(String token) throws IOException {
+        String[] position = token == null ? null : decode(token);
+        List<Product> products;
+        // One extra product tells whether there is a next page
+        if (sortKey == SortKey.CATALOG) {
+            String fromId = position == null ? null : position[1] + '\0'; // The first ID after the last one listed
+            products = FileHandler.getStorage().scanProducts(fileName, fromId, null, pageSize + 1);
+        } else {
+            ProductRangeIndex index = ProductRangeIndex.forFile(fileName);
+            products = position == null
+                    ? index.range(sortKey.field, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, pageSize + 1)
+                    : index.pageAfter(sortKey.field, parseValue(position[0]), position[1], pageSize + 1);
+        }
+        if (products.size() <= pageSize) {
+            return new Page(List.copyOf(products), null);
+        }
+        products = products.subList(0, pageSize);
+        Product last = products.get(pageSize - 1);
+        String value = sortKey == SortKey.CATALOG ? "0" : Double.toString(sortKey.field.valueOf(last));
+        return new Page(List.copyOf(products), encode(value, last));
+    }
+
+    private String encode(String value, Product last) {
+        String token = sortKey.name() + "\n" + value + "\n" + last.getProductId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the value and product ID held by a token.
+     */
+    private String[] decode(String token) {
+        String[] parts;
+        try {
+            parts = new String(Base64.getUrlDecoder().decode(token.trim()), StandardCharsets.UTF_8).split("\n", 3);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid page token.");
+        }
+        if (parts.length != 3 || !parts[0].equals(sortKey.name())) {
+            throw new IllegalArgumentException("Invalid page token.");
+        }
+        parseValue(parts[1]);
+        return new String[] {parts[1], parts[2]};
+    }
+
+    private static double parseValue(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid page token.");
+        }
+    }
+}
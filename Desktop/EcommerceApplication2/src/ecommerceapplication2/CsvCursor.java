@@ -0,0 +1,416 @@
+package ecommerceapplication2;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * A reusable cursor over comma-separated records.
+ * The cursor reads records into a single growable character buffer and walks
+ * the fields of the current record in place, so scanning a file allocates
+ * nothing per line. Fields may be enclosed in double quotes, in which case
+ * they can contain commas, line breaks and doubled quotes ({@code ""}).
+ *
+ * <p>Typical usage:
+ * <pre>
+ *     CsvCursor cursor = new CsvCursor(reader);
+ *     while (cursor.nextRecord()) {
+ *         if (cursor.nextField() &amp;&amp; cursor.fieldEquals("PhysicalProduct")) {
+ *             // ...
+ *         }
+ *     }
+ * </pre>
+ */
+public class CsvCursor {
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final Reader reader;   // Source of characters, or null for a fixed buffer
+    private char[] buffer;         // Characters read but not yet consumed
+    private int limit;             // Number of valid characters in the buffer
+    private boolean endOfInput;    // Whether the reader has been exhausted
+
+    private int recordStart;       // Start of the current record in the buffer
+    private int recordEnd;         // End (exclusive) of the current record, line break excluded
+    private int nextRecordStart;   // Where the following record begins
+    private boolean endedInQuotes; // Whether the input ended inside a quoted field
+
+    private int position;          // Start of the next field to visit, or -1 when done
+    private int fieldStart;        // Start of the current field's content
+    private int fieldEnd;          // End (exclusive) of the current field's content
+    private boolean fieldEscaped;  // Whether the current field contains doubled quotes
+
+    /**
+     * Constructs a cursor that reads records from the given reader.
+     *
+     * @param reader The reader to read from. It is not closed by the cursor.
+     */
+    public CsvCursor(Reader reader) {
+        this.reader = reader;
+        this.buffer = new char[DEFAULT_BUFFER_SIZE];
+        this.endOfInput = false;
+    }
+
+    /**
+     * Constructs a cursor over a fixed range of characters.
+     *
+     * @param chars The characters holding the records.
+     * @param start The index of the first character.
+     * @param end   The index after the last character.
+     */
+    public CsvCursor(char[] chars, int start, int end) {
+        this.reader = null;
+        this.buffer = chars;
+        this.limit = end;
+        this.nextRecordStart = start;
+        this.endOfInput = true;
+    }
+
+    /**
+     * Advances to the next record. A record ends at a line break that is not
+     * inside a quoted field; a trailing carriage return is not part of the record.
+     *
+     * @return {@code true} if a record was read, {@code false} at the end of input.
+     * @throws IOException if the underlying reader fails.
+     */
+    public boolean nextRecord() throws IOException {
+        int scan = nextRecordStart;
+        boolean inQuotes = false;
+        while (true) {
+            while (scan < limit) {
+                char c = buffer[scan];
+                if (c == '"') {
+                    inQuotes = !inQuotes;
+                } else if (c == '\n' && !inQuotes) {
+                    startRecord(nextRecordStart, scan, scan + 1);
+                    return true;
+                }
+                scan++;
+            }
+            if (endOfInput) {
+                if (nextRecordStart >= limit) {
+                    return false;
+                }
+                endedInQuotes = inQuotes;
+                startRecord(nextRecordStart, limit, limit);
+                return true;
+            }
+            scan -= fill();
+        }
+    }
+
+    /**
+     * Reads more characters from the reader, first moving the unconsumed part
+     * of the buffer to the front and growing the buffer if a single record fills it.
+     *
+     * @return The number of positions the unconsumed characters were shifted by.
+     * @throws IOException if the underlying reader fails.
+     */
+    private int fill() throws IOException {
+        int shift = nextRecordStart;
+        int remaining = limit - shift;
+        if (shift > 0) {
+            System.arraycopy(buffer, shift, buffer, 0, remaining);
+        } else if (remaining == buffer.length) {
+            char[] larger = new char[buffer.length * 2];
+            System.arraycopy(buffer, 0, larger, 0, remaining);
+            buffer = larger;
+        }
+        nextRecordStart = 0;
+        limit = remaining;
+        int read = reader.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            endOfInput = true;
+        } else {
+            limit += read;
+        }
+        return shift;
+    }
+
+    private void startRecord(int start, int end, int next) {
+        if (end > start && buffer[end - 1] == '\r') {
+            end--;
+        }
+        recordStart = start;
+        recordEnd = end;
+        nextRecordStart = next;
+        position = start;
+        fieldStart = start;
+        fieldEnd = start;
+        fieldEscaped = false;
+    }
+
+    /**
+     * Tells whether the input ended in the middle of a quoted field, meaning the
+     * last record is unterminated. Only meaningful once {@link #nextRecord()}
+     * has returned the last record.
+     *
+     * @return {@code true} if the last record has an unclosed quote.
+     */
+    public boolean endedInsideQuotes() {
+        return endedInQuotes;
+    }
+
+    /**
+     * Advances to the next field of the current record.
+     *
+     * @return {@code true} if there was another field, {@code false} otherwise.
+     */
+    public boolean nextField() {
+        if (position < 0) {
+            return false;
+        }
+        int i = position;
+        fieldEscaped = false;
+        if (i < recordEnd && buffer[i] == '"') {
+            fieldStart = ++i;
+            while (i < recordEnd) {
+                if (buffer[i] == '"') {
+                    if (i + 1 < recordEnd && buffer[i + 1] == '"') {
+                        fieldEscaped = true;
+                        i += 2;
+                        continue;
+                    }
+                    break;
+                }
+                i++;
+            }
+            fieldEnd = i;
+            while (i < recordEnd && buffer[i] != ',') {
+                i++; // Ignore anything between the closing quote and the separator
+            }
+        } else {
+            fieldStart = i;
+            while (i < recordEnd && buffer[i] != ',') {
+                i++;
+            }
+            fieldEnd = i;
+        }
+        position = i < recordEnd ? i + 1 : -1;
+        return true;
+    }
+
+    /**
+     * Moves to the field with the given index in the current record.
+     *
+     * @param index The zero-based field index.
+     * @return {@code true} if the record has such a field, {@code false} otherwise.
+     */
+    public boolean seekField(int index) {
+        position = recordStart;
+        for (int i = 0; i <= index; i++) {
+            if (!nextField()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Counts the fields of the current record without moving the cursor.
+     *
+     * @return The number of fields in the record.
+     */
+    public int fieldCount() {
+        int savedPosition = position;
+        int savedStart = fieldStart;
+        int savedEnd = fieldEnd;
+        boolean savedEscaped = fieldEscaped;
+        position = recordStart;
+        int count = 0;
+        while (nextField()) {
+            count++;
+        }
+        position = savedPosition;
+        fieldStart = savedStart;
+        fieldEnd = savedEnd;
+        fieldEscaped = savedEscaped;
+        return count;
+    }
+
+    /**
+     * Compares the current field with the given key without materializing the field.
+     *
+     * @param key The value to compare with.
+     * @return {@code true} if the field's value equals the key.
+     */
+    public boolean fieldEquals(CharSequence key) {
+        int length = key.length();
+        int i = fieldStart;
+        for (int k = 0; k < length; k++) {
+            if (i >= fieldEnd || buffer[i] != key.charAt(k)) {
+                return false;
+            }
+            i += fieldEscaped && buffer[i] == '"' ? 2 : 1;
+        }
+        return i == fieldEnd;
+    }
+
+    /**
+     * Compares the current field, ignoring surrounding whitespace, with the given key.
+     *
+     * @param key The value to compare with.
+     * @return {@code true} if the trimmed field's value equals the key.
+     */
+    public boolean trimmedFieldEquals(CharSequence key) {
+        int savedStart = fieldStart;
+        int savedEnd = fieldEnd;
+        while (fieldStart < fieldEnd && buffer[fieldStart] <= ' ') {
+            fieldStart++;
+        }
+        while (fieldEnd > fieldStart && buffer[fieldEnd - 1] <= ' ') {
+            fieldEnd--;
+        }
+        boolean equal = fieldEquals(key);
+        fieldStart = savedStart;
+        fieldEnd = savedEnd;
+        return equal;
+    }
+
+    /**
+     * Returns the current field's value with any quoting removed.
+     *
+     * @return The field value.
+     */
+    public String fieldString() {
+        if (!fieldEscaped) {
+            return new String(buffer, fieldStart, fieldEnd - fieldStart);
+        }
+        StringBuilder value = new StringBuilder(fieldEnd - fieldStart);
+        for (int i = fieldStart; i < fieldEnd; i++) {
+            value.append(buffer[i]);
+            if (buffer[i] == '"') {
+                i++; // Skip the second quote of the pair
+            }
+        }
+        return value.toString();
+    }
+
+    /**
+     * Returns the current field's value with quoting and surrounding whitespace removed.
+     *
+     * @return The trimmed field value.
+     */
+    public String trimmedFieldString() {
+        int start = fieldStart;
+        int end = fieldEnd;
+        while (start < end && buffer[start] <= ' ') {
+            start++;
+        }
+        while (end > start && buffer[end - 1] <= ' ') {
+            end--;
+        }
+        if (start == fieldStart && end == fieldEnd) {
+            return fieldString();
+        }
+        if (!fieldEscaped) {
+            return new String(buffer, start, end - start);
+        }
+        return fieldString().trim();
+    }
+
+    /**
+     * Parses the current field as a {@code double} directly from the buffer.
+     * Plain decimal values are converted without creating a string; anything
+     * else is handed to {@link Double#parseDouble(String)}.
+     *
+     * @return The parsed value.
+     * @throws NumberFormatException if the field is not a valid number.
+     */
+    public double fieldDouble() {
+        int start = fieldStart;
+        int end = fieldEnd;
+        while (start < end && buffer[start] <= ' ') {
+            start++;
+        }
+        while (end > start && buffer[end - 1] <= ' ') {
+            end--;
+        }
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+            negative = buffer[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int significantDigits = 0;
+        int fractionDigits = 0;
+        boolean seenDigit = false;
+        boolean seenPoint = false;
+        for (; i < end; i++) {
+            char c = buffer[i];
+            if (c >= '0' && c <= '9') {
+                seenDigit = true;
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa != 0) {
+                    significantDigits++;
+                }
+                if (seenPoint) {
+                    fractionDigits++;
+                }
+                if (significantDigits > 15 || fractionDigits >= POWERS_OF_TEN.length) {
+                    break;
+                }
+            } else if (c == '.' && !seenPoint) {
+                seenPoint = true;
+            } else {
+                break;
+            }
+        }
+        if (i != end || !seenDigit || fieldEscaped) {
+            return Double.parseDouble(fieldString()); // Exponents, special values and errors
+        }
+        double value = mantissa / POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
+
+    /**
+     * Appends the current record, exactly as it was read, to the given destination.
+     *
+     * @param out The destination to append to.
+     * @throws IOException if appending fails.
+     */
+    public void appendRecord(Appendable out) throws IOException {
+        if (out instanceof Writer) {
+            ((Writer) out).write(buffer, recordStart, recordEnd - recordStart);
+        } else {
+            for (int i = recordStart; i < recordEnd; i++) {
+                out.append(buffer[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the current record as a string, exactly as it was read.
+     *
+     * @return The raw record.
+     */
+    public String recordString() {
+        return new String(buffer, recordStart, recordEnd - recordStart);
+    }
+
+    /**
+     * Quotes a value for writing into a record if it contains a separator,
+     * a quote or a line break. Other values are returned unchanged.
+     *
+     * @param value The value to quote.
+     * @return The value, quoted if necessary.
+     */
+    public static String quote(String value) {
+        if (value == null) {
+            return "";
+        }
+        boolean needsQuotes = false;
+        for (int i = 0; i < value.length() && !needsQuotes; i++) {
+            char c = value.charAt(i);
+            needsQuotes = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!needsQuotes) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -1,5 +1,7 @@
 package ecommerceapplication2;
 
+import java.io.IOException;
+
 /**
  * Represents a digital product in the e-commerce application.
  * This class extends the {@code Product} class and adds attributes specific to digital products,
@@ -19,7 +21,21 @@ public class DigitalProduct extends Product {
      * @param format    The format of the digital product (e.g., PDF, MP4).
      */
     public DigitalProduct(String productId, String name, double price, String fileSize, String format) {
-        super(productId, name, price);
+        this(productId, name, price, fileSize, format, UNTRACKED);
+    }
+
+    /**
+     * Constructs a {@code DigitalProduct} object with a stock quantity, such as a number of licences.
+     *
+     * @param productId The unique identifier for the product.
+     * @param name      The name of the product.
+     * @param price     The price of the product.
+     * @param fileSize  The size of the digital file.
+     * @param format    The format of the digital product (e.g., PDF, MP4).
+     * @param stock     The units in stock, or {@link #UNTRACKED}.
+     */
+    public DigitalProduct(String productId, String name, double price, String fileSize, String format, int stock) {
+        super(productId, name, price, stock);
         this.fileSize = fileSize;
         this.format = format;
     }
@@ -27,24 +43,113 @@ public class DigitalProduct extends Product {
     /**
      * Returns a string representation of the digital product's details in a format suitable for file storage.
      *
-     * @return A comma-separated string containing the product type, product ID, name, price, file size, and format.
+     * @return A comma-separated string containing the product type, product ID, name, price, file size, format,
+     * and the stock if it is tracked.
      */
     @Override
     public String toFileFormat() {
-        return "DigitalProduct," + getProductId() + "," + getName() + "," + getPrice() + "," + this.fileSize + "," + this.format;
+        return "DigitalProduct," + CsvCursor.quote(getProductId()) + "," + CsvCursor.quote(getName()) + "," + getPrice()
+                + "," + CsvCursor.quote(this.fileSize) + "," + CsvCursor.quote(this.format) + stockField();
+    }
+
+    /**
+     * Writes the details of the digital product.
+     * The information includes the product's ID, name, price, file size, format, and stock.
+     *
+     * @param out The output to write to.
+     * @throws IOException if the output cannot be written.
+     */
+    @Override
+    public void displayDetails(Appendable out) throws IOException {
+        out.append("\nDigital Product - ").append(getName())
+                .append("\n  Product ID: ").append(getProductId())
+                .append("\n  Price: $").append(Double.toString(getPrice()))
+                .append("\n  File Size: ").append(fileSize)
+                .append("\n  Format: ").append(format).append('\n');
+        if (isStockTracked()) {
+            out.append("  In Stock: ").append(Integer.toString(getStock())).append('\n');
+        }
     }
 
     /**
-     * Displays the details of the digital product.
-     * The information includes the product's ID, name, price, file size, and format.
+     * Creates a copy of this digital product with a different price.
+     *
+     * @param newPrice The price of the copy.
+     * @return A new {@code DigitalProduct} with the same details and the new price.
      */
     @Override
-    public void displayDetails() {
-        System.out.println("\nDigital Product - " + getName());
-        System.out.println("  Product ID: " + getProductId());
-        System.out.println("  Price: $" + getPrice());
-        System.out.println("  File Size: " + fileSize);
-        System.out.println("  Format: " + format);
+    public DigitalProduct withPrice(double newPrice) {
+        return new DigitalProduct(getProductId(), getName(), newPrice, fileSize, format, getStock());
+    }
+
+    /**
+     * Creates a copy of this digital product with a different stock quantity.
+     *
+     * @param newStock The stock of the copy.
+     * @return A new {@code DigitalProduct} with the same details and the new stock.
+     */
+    @Override
+    public DigitalProduct withStock(int newStock) {
+        return new DigitalProduct(getProductId(), getName(), getPrice(), fileSize, format, newStock);
+    }
+
+    /**
+     * Returns the file size in bytes, read from sizes such as "24mb", "1.5 GB"
+     * or "800KB". Units are powers of 1024; a bare number counts bytes.
+     *
+     * @return The size in bytes, or -1 if the size cannot be read.
+     */
+    public long getFileSizeBytes() {
+        return parseFileSize(fileSize);
+    }
+
+    /**
+     * Reads a file size such as "24mb" as a number of bytes.
+     *
+     * @param size The size, a number followed by an optional unit (b, kb, mb, gb or tb).
+     * @return The size in bytes, or -1 if it cannot be read.
+     */
+    public static long parseFileSize(String size) {
+        if (size == null) {
+            return -1;
+        }
+        String text = size.trim().toLowerCase();
+        int end = 0;
+        while (end < text.length() && (Character.isDigit(text.charAt(end)) || text.charAt(end) == '.')) {
+            end++;
+        }
+        if (end == 0) {
+            return -1;
+        }
+        double amount;
+        try {
+            amount = Double.parseDouble(text.substring(0, end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+        long unit;
+        switch (text.substring(end).trim()) {
+            case "":
+            case "b":
+            case "bytes":
+                unit = 1;
+                break;
+            case "kb":
+                unit = 1L << 10;
+                break;
+            case "mb":
+                unit = 1L << 20;
+                break;
+            case "gb":
+                unit = 1L << 30;
+                break;
+            case "tb":
+                unit = 1L << 40;
+                break;
+            default:
+                return -1;
+        }
+        return Math.round(amount * unit);
     }
 
     // Getters
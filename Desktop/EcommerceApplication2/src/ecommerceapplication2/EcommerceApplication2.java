@@ -1,8 +1,12 @@
 package ecommerceapplication2;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.InputMismatchException;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.CompletionException;
 
 /**
  * Main class for the E-commerce application.
@@ -10,16 +14,32 @@ import java.util.Scanner;
  * various actions based on their role (Buyer or Seller).
  */
 public class EcommerceApplication2 {
-    private static ArrayList<Product> productList = new ArrayList<>();
+    private static List<Product> productList = Collections.synchronizedList(new ArrayList<>()); // Shared by all sessions
 
     /**
      * The main method that serves as the entry point to the application.
      * It initializes the application, creates test accounts, and handles
      * user interactions in a continuous loop.
      *
-     * @param args Command-line arguments (not used).
+     * @param args Command-line arguments. {@code --export-binary <csv> <bin>} and
+     *             {@code --import-binary <bin> <csv>} convert between the product
+     *             file and the binary catalog format instead of starting the menu.
+     *             {@code --server [port]} serves the shop over HTTP (port 8080 by
+     *             default) instead of the console menu.
      */
     public static void main(String[] args) {
+        if (args.length == 3 && (args[0].equals("--export-binary") || args[0].equals("--import-binary"))) {
+            convertCatalog(args[0], args[1], args[2]);
+            return;
+        }
+        if (args.length >= 1 && args[0].equals("--server")) {
+            try {
+                ShopServer.run(args.length > 1 ? Integer.parseInt(args[1]) : 8080);
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid port: " + args[1]);
+            }
+            return;
+        }
         Scanner scanner = new Scanner(System.in);
         System.out.println("Welcome to the E-commerce Application!");
 
@@ -71,6 +91,27 @@ public class EcommerceApplication2 {
         }
     }
 
+    /**
+     * Converts between the CSV product file and the binary catalog format.
+     *
+     * @param option The conversion option given on the command line.
+     * @param source The file to read.
+     * @param target The file to write.
+     */
+    private static void convertCatalog(String option, String source, String target) {
+        try {
+            if (option.equals("--export-binary")) {
+                int count = BinaryCatalog.exportFromCsv(source, target);
+                System.out.println("Exported " + count + " products to " + target + ".");
+            } else {
+                int count = BinaryCatalog.importToCsv(source, target);
+                System.out.println("Imported " + count + " products into " + target + ".");
+            }
+        } catch (IOException e) {
+            System.out.println("Error converting catalog: " + e.getMessage());
+        }
+    }
+
     /**
      * Handles the sign-up process for a new user.
      *
@@ -125,7 +166,8 @@ public class EcommerceApplication2 {
                     System.out.println("1. Add Physical Product");
                     System.out.println("2. Add Digital Product");
                     System.out.println("3. Display Products");
-                    System.out.println("4. Logout");
+                    System.out.println("4. Update Stock");
+                    System.out.println("5. Logout");
                     System.out.print("Enter your choice: ");
 
                     int sellerChoice = scanner.nextInt();
@@ -141,10 +183,14 @@ public class EcommerceApplication2 {
                             break;
 
                         case 3:
-                            seller.displayProducts();
+                            browseCatalog(scanner);
                             break;
 
                         case 4:
+                            updateStock(scanner);
+                            break;
+
+                        case 5:
                             System.out.println("Logging out as Seller...");
                             sellerLoggedIn = false;
                             break;
@@ -180,7 +226,12 @@ public class EcommerceApplication2 {
                     System.out.println("2. Add Product to Cart");
                     System.out.println("3. View Cart");
                     System.out.println("4. Checkout");
-                    System.out.println("5. Logout");
+                    System.out.println("5. Change Quantity in Cart");
+                    System.out.println("6. Search Products");
+                    System.out.println("7. Browse Products by Price");
+                    System.out.println("8. Filter Products");
+                    System.out.println("9. My Orders");
+                    System.out.println("10. Logout");
                     System.out.print("Enter your choice: ");
 
                     int buyerChoice = scanner.nextInt();
@@ -188,13 +239,13 @@ public class EcommerceApplication2 {
 
                     switch (buyerChoice) {
                         case 1:
-                            FileHandler.displayFromFile("products.txt");
+                            browseCatalog(scanner);
                             break;
 
                         case 2:
                             System.out.print("Enter Product ID to add to cart: ");
                             String cartProductId = scanner.nextLine();
-                            if (FileHandler.productExists("products.txt", cartProductId)) {
+                            if (FileHandler.getStorage().productExists("products.txt", cartProductId)) {
                                 buyer.addProductToCart(cartProductId, productList);
                             } else {
                                 System.out.println("Product not found in catalog.");
@@ -210,7 +261,42 @@ public class EcommerceApplication2 {
                             break;
 
                         case 5:
+                            System.out.print("Enter Product ID in cart: ");
+                            String quantityProductId = scanner.nextLine();
+                            System.out.print("Enter new quantity (0 to remove): ");
+                            int newQuantity = scanner.nextInt();
+                            scanner.nextLine();
+                            buyer.setCartQuantity(quantityProductId, newQuantity);
+                            break;
+
+                        case 6:
+                            System.out.print("Search for: ");
+                            Buyer.searchProducts(scanner.nextLine(), 20);
+                            break;
+
+                        case 7:
+                            System.out.print("Lowest price: ");
+                            double lowestPrice = scanner.nextDouble();
+                            System.out.print("Highest price: ");
+                            double highestPrice = scanner.nextDouble();
+                            scanner.nextLine();
+                            Buyer.browseProducts(ProductRangeIndex.Field.PRICE, lowestPrice, highestPrice, 20);
+                            break;
+
+                        case 8:
+                            System.out.println("Combine type, format, size and price with AND, OR and NOT,");
+                            System.out.println("e.g. type=digital AND format=mp3 AND price=0-5");
+                            System.out.print("Filter: ");
+                            Buyer.filterProducts(scanner.nextLine(), 20);
+                            break;
+
+                        case 9:
+                            buyer.viewOrders();
+                            break;
+
+                        case 10:
                             System.out.println("Logging out as Buyer...");
+                            buyer.releaseHolds();
                             buyerLoggedIn = false;
                             break;
 
@@ -226,6 +312,36 @@ public class EcommerceApplication2 {
         }
     }
 
+    /**
+     * Lists the catalog a page at a time, in the order the user picks, until
+     * the last page or until the user stops.
+     *
+     * @param scanner The Scanner object for reading user input.
+     */
+    private static void browseCatalog(Scanner scanner) {
+        System.out.print("Sort by (1) product ID, (2) price, (3) weight, (4) file size: ");
+        String sort = scanner.nextLine().trim();
+        CatalogCursor.SortKey sortKey = sort.equals("2") ? CatalogCursor.SortKey.PRICE
+                : sort.equals("3") ? CatalogCursor.SortKey.WEIGHT
+                : sort.equals("4") ? CatalogCursor.SortKey.FILE_SIZE : CatalogCursor.SortKey.CATALOG;
+        CatalogCursor cursor = new CatalogCursor("products.txt", sortKey, 10);
+        System.out.println("\nList of Products:");
+        try {
+            CatalogCursor.Page page = cursor.page(null);
+            FileHandler.displayPage(page);
+            while (page.getNextToken() != null) {
+                System.out.print("Press Enter for more, or q to stop: ");
+                if (scanner.nextLine().trim().equalsIgnoreCase("q")) {
+                    break;
+                }
+                page = cursor.page(page.getNextToken());
+                FileHandler.displayPage(page);
+            }
+        } catch (IOException e) {
+            System.out.println("Error reading products: " + e.getMessage());
+        }
+    }
+
     /**
      * Adds a physical product to the product list and saves it to file.
      *
@@ -244,14 +360,17 @@ public class EcommerceApplication2 {
             scanner.nextLine();
             System.out.print("Enter Product Dimensions: ");
             String dimensions = scanner.nextLine();
+            int stock = readStock(scanner);
 
-            PhysicalProduct physicalProduct = new PhysicalProduct(productId, productName, price, weight, dimensions);
+            PhysicalProduct physicalProduct = new PhysicalProduct(productId, productName, price, weight, dimensions, stock);
             productList.add(physicalProduct);
-            FileHandler.saveToFile("products.txt", physicalProduct.toFileFormat());
+            FileHandler.getStorage().putProduct("products.txt", physicalProduct);
             System.out.println("Physical product added and saved to file.");
         } catch (InputMismatchException e) {
             System.out.println("Invalid input for product details. Please enter the correct data.");
             scanner.nextLine(); // Clear invalid input
+        } catch (IOException e) {
+            System.out.println("Error saving product: " + e.getMessage());
         }
     }
 
@@ -273,14 +392,72 @@ public class EcommerceApplication2 {
             String fileSize = scanner.nextLine();
             System.out.print("Enter Format: ");
             String format = scanner.nextLine();
+            int stock = readStock(scanner);
 
-            DigitalProduct digitalProduct = new DigitalProduct(digitalProductId, digitalProductName, digitalPrice, fileSize, format);
+            DigitalProduct digitalProduct = new DigitalProduct(digitalProductId, digitalProductName, digitalPrice, fileSize, format, stock);
             productList.add(digitalProduct);
-            FileHandler.saveToFile("products.txt", digitalProduct.toFileFormat());
+            FileHandler.getStorage().putProduct("products.txt", digitalProduct);
             System.out.println("Digital product added and saved to file.");
         } catch (InputMismatchException e) {
             System.out.println("Invalid input for digital product details. Please enter the correct data.");
             scanner.nextLine(); // Clear invalid input
+        } catch (IOException e) {
+            System.out.println("Error saving product: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the stock of a new product, asking again until the answer is a
+     * whole number of zero or more. An empty answer leaves the stock
+     * untracked, so the product never sells out.
+     *
+     * @param scanner The Scanner object for reading user input.
+     * @return The stock, or {@link Product#UNTRACKED}.
+     */
+    private static int readStock(Scanner scanner) {
+        while (true) {
+            System.out.print("Enter Stock (leave empty for unlimited): ");
+            String stock = scanner.nextLine().trim();
+            if (stock.isEmpty()) {
+                return Product.UNTRACKED;
+            }
+            try {
+                int units = Integer.parseInt(stock);
+                if (units >= 0) {
+                    return units;
+                }
+            } catch (NumberFormatException e) {
+                // Asked again below
+            }
+            System.out.println("Invalid stock. Please enter a whole number of zero or more.");
+        }
+    }
+
+    /**
+     * Sets the number of units in stock of a product.
+     *
+     * @param scanner The Scanner object for reading user input.
+     */
+    private static void updateStock(Scanner scanner) {
+        try {
+            System.out.print("Enter Product ID: ");
+            String productId = scanner.nextLine();
+            int available = Inventory.forFile("products.txt").available(productId);
+            if (available != Product.UNTRACKED) {
+                System.out.println("Units available: " + available);
+            }
+            System.out.print("Enter New Stock: ");
+            int stock = scanner.nextInt();
+            scanner.nextLine();
+            Inventory.forFile("products.txt").setStock(productId, stock).join();
+            System.out.println("Stock updated.");
+        } catch (InputMismatchException e) {
+            System.out.println("Invalid input for stock. Please enter a whole number.");
+            scanner.nextLine(); // Clear invalid input
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            System.out.println("Error updating stock: " + e.getMessage());
+        } catch (CompletionException e) {
+            System.out.println("Error updating stock: " + e.getCause().getMessage());
         }
     }
 }
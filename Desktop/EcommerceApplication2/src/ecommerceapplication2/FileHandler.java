@@ -1,14 +1,81 @@
 package ecommerceapplication2;
 
 import java.io.*;
+import java.nio.file.NoSuchFileException;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class FileHandler {
 
+    /**
+     * The strategies available for answering product lookups.
+     */
+    public enum LookupMode {
+        /** Look products up in the shared in-memory {@link ProductCatalog}. */
+        CATALOG,
+        /**
+         * Scan the memory-mapped file and decode only the matching record.
+         * Products changed by the file's journal are taken from its
+         * {@link JournalOverlay} instead.
+         */
+        MAPPED
+    }
+
+    static final int RENDER_BATCH = 256; // Products rendered per console write
+
+    private static volatile FileHandlerInterface storage =
+            "btree".equalsIgnoreCase(System.getProperty("ecommerce.storage")) ? new BTreeFileStorage() : new TextFileStorage();
+
+    private static volatile LookupMode lookupMode =
+            "mapped".equalsIgnoreCase(System.getProperty("ecommerce.lookup")) ? LookupMode.MAPPED : LookupMode.CATALOG;
+
+    /**
+     * Returns the storage the application keeps its products in. The default
+     * is {@link TextFileStorage}, or {@link BTreeFileStorage} when the
+     * {@code ecommerce.storage} system property is set to {@code btree}.
+     *
+     * @return The product storage.
+     */
+    public static FileHandlerInterface getStorage() {
+        return storage;
+    }
+
+    /**
+     * Replaces the storage the application keeps its products in.
+     *
+     * @param newStorage The product storage to use.
+     */
+    public static void setStorage(FileHandlerInterface newStorage) {
+        storage = newStorage;
+    }
+
+    /**
+     * Selects how {@link TextFileStorage} locates products for {@link #productExists}
+     * and {@link #findProduct}. The default is {@link LookupMode#CATALOG}, or {@link LookupMode#MAPPED} when
+     * the {@code ecommerce.lookup} system property is set to {@code mapped}.
+     *
+     * @param mode The lookup mode to use.
+     */
+    public static void setLookupMode(LookupMode mode) {
+        lookupMode = mode;
+    }
+
+    /**
+     * Returns the lookup mode currently in use.
+     *
+     * @return The lookup mode.
+     */
+    public static LookupMode getLookupMode() {
+        return lookupMode;
+    }
+
     /**
      * Checks if a product with the specified product ID exists in the given
-     * file.
+     * file, as kept by the {@link #getStorage() storage} in use. For the text
+     * file, the lookup mode decides whether the check is answered from the
+     * shared {@link ProductCatalog} index or by scanning the memory-mapped file.
      *
      * @param fileName The name of the file to search in.
      * @param productId The product ID to look for.
@@ -16,195 +83,239 @@ public class FileHandler {
      * {@code false}.
      */
     public static boolean productExists(String fileName, String productId) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.split(",")[1].equals(productId)) {
-                    return true; // Product ID found
-                }
-            }
+        return storage.productExists(fileName, productId);
+    }
+
+    /**
+     * Finds the product with the specified product ID in the given file, as
+     * kept by the {@link #getStorage() storage} in use.
+     *
+     * @param fileName The name of the file to search in.
+     * @param productId The product ID to look for.
+     * @return The product, or {@code null} if no product has this ID or the
+     * file cannot be read.
+     */
+    public static Product findProduct(String fileName, String productId) {
+        try {
+            return storage.getProduct(fileName, productId);
         } catch (IOException e) {
-            e.printStackTrace();
+            System.out.println("Error reading products: " + e.getMessage());
+            return null;
         }
-        return false; // Product ID not found
     }
 
     /**
      * Saves the given product data to a specified file. The data is appended to
-     * the end of the file.
+     * the end of the file through the file's shared {@link BatchedFileWriter},
+     * and this method waits until the batch holding it has been written.
      *
      * @param filename The name of the file to save the data to.
      * @param productData The product data to write to the file.
      */
     public static void saveToFile(String filename, String productData) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename, true))) {
-            writer.write(productData);
-            writer.newLine();
-        } catch (IOException e) {
-            System.out.println("Error writing to file: " + e.getMessage());
+        try {
+            saveToFileAsync(filename, productData).join();
+        } catch (CompletionException e) {
+            System.out.println("Error writing to file: " + e.getCause().getMessage());
         }
     }
 
     /**
-     * Displays all the product data from the specified file.
+     * Queues the given product data to be appended to a specified file without
+     * waiting for it to be written. Suited to bulk imports, where many records
+     * can share one write.
+     *
+     * @param filename The name of the file to save the data to.
+     * @param productData The product data to write to the file.
+     * @return A future completed once the data is durable.
+     */
+    public static CompletableFuture<Void> saveToFileAsync(String filename, String productData) {
+        return BatchedFileWriter.forFile(filename).appendLine(productData);
+    }
+
+    /**
+     * Displays all the products stored for the specified file by the
+     * {@link #getStorage() storage} in use.
      *
      * @param filename The name of the file to read from.
      */
     public static void displayFromFile(String filename) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
-            String line;
-            System.out.println("\nList of Products:");
-
-            while ((line = reader.readLine()) != null) {
-                String[] productDetails = line.split(",");
-                if (productDetails.length >= 4) {
-                    String productType = productDetails[0];
-                    if (productType.equals("3")) {
-                        productType = "DigitalProduct";
-                    } else if (productType.equals("4")) {
-                        productType = "DigitalProduct";
-                    }
-
-                    String productId = productDetails[1];
-                    String name = productDetails[2];
-                    double price = Double.parseDouble(productDetails[3]);
-                    switch (productType) {
-                        case "PhysicalProduct":
-                            if (productDetails.length >= 6) {
-                                double weight = Double.parseDouble(productDetails[4]);
-                                String dimensions = productDetails[5];
-                                System.out.println("Physical Product - " + name);
-                                System.out.println("Product ID: " + productId);
-                                System.out.println("Price: $" + price);
-                                System.out.println("Weight: " + weight + " kg");
-                                System.out.println("Dimensions: " + dimensions);
-                            } else {
-                                System.out.println("Incomplete data for Physical Product.");
-                            }
-                            break;
-
-                        case "DigitalProduct":
-                            if (productDetails.length >= 6) {
-                                String fileSize = productDetails[4];
-                                String format = productDetails[5];
-                                System.out.println("Digital Product - " + name);
-                                System.out.println("Product ID: " + productId);
-                                System.out.println("Price: $" + price);
-                                System.out.println("File Size: " + fileSize);
-                                System.out.println("Format: " + format);
-                            } else {
-                                System.out.println("Incomplete data for Digital Product.");
-                            }
-                            break;
-
-                        default:
-                            System.out.println("Unknown product type: " + productType);
-                            break;
-                    }
-                    System.out.println(); // Blank line between products for readability
+        storage.displayFromFile(filename);
+    }
+
+    /**
+     * Prints the details of each product in a list. The products are rendered
+     * into a buffer that is written to the console once per
+     * {@value #RENDER_BATCH} products, instead of once per line.
+     *
+     * @param products The products to display.
+     */
+    static void displayProducts(List<Product> products) {
+        StringBuilder page = new StringBuilder("\nList of Products:\n");
+        try {
+            for (int i = 0; i < products.size(); i++) {
+                products.get(i).displayDetails(page);
+                if ((i + 1) % RENDER_BATCH == 0) {
+                    System.out.print(page);
+                    page.setLength(0);
                 }
             }
-        } catch (FileNotFoundException e) {
-            System.out.println("No product file found.");
         } catch (IOException e) {
-            System.out.println("Error reading products: " + e.getMessage());
+            page.append("Error displaying product details: ").append(e.getMessage()).append('\n');
+        }
+        System.out.print(page);
+        System.out.flush();
+    }
+
+    /**
+     * Prints one page of a catalog listing with a single write to the console.
+     *
+     * @param page The page to display.
+     */
+    public static void displayPage(CatalogCursor.Page page) {
+        StringBuilder out = new StringBuilder();
+        try {
+            if (page.getProducts().isEmpty()) {
+                out.append("No products available.\n");
+            }
+            for (Product product : page.getProducts()) {
+                product.displayDetails(out);
+            }
+        } catch (IOException e) {
+            out.append("Error displaying product details: ").append(e.getMessage()).append('\n');
         }
+        System.out.print(out);
+        System.out.flush();
     }
 
     /**
-     * Deletes the product with the specified product ID from the given file. A
-     * temporary file is used to rewrite the content, excluding the product to
-     * delete. The original file is replaced with the updated content.
+     * Deletes the product with the specified product ID from the given file
+     * through the {@link #getStorage() storage} in use. The text storage does
+     * not rewrite the file but appends a tombstone record to the file's
+     * {@link ProductJournal}; the file itself is cleaned up later by the
+     * journal's background compaction.
      *
      * @param filename The name of the file to delete the product from.
      * @param productId The product ID to delete.
      */
     public static void deleteFromFile(String filename, String productId) {
-        File inputFile = new File(filename);
-        File tempFile = new File("temp.txt");
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(inputFile)); BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile))) {
-
-            String currentLine;
-            boolean productFound = false;
-
-            while ((currentLine = reader.readLine()) != null) {
-                // Check if the current line contains the product ID
-                if (currentLine.split(",")[1].equals(productId)) {
-                    productFound = true;
-                    continue; // Skip this line to delete it
-                }
-                writer.write(currentLine);
-                writer.newLine();
-            }
-
-            if (productFound) {
-                System.out.println("Product deleted successfully.");
-            } else {
+        try {
+            if (!storage.deleteProduct(filename, productId)) {
                 System.out.println("Product ID not found.");
+                return;
             }
-
+            System.out.println("Product deleted successfully.");
         } catch (IOException e) {
             System.out.println("Error processing the file: " + e.getMessage());
         }
-
-        // Replace original file with temp file
-        if (!inputFile.delete()) {
-            System.out.println("Could not delete original file.");
-        } else if (!tempFile.renameTo(inputFile)) {
-            System.out.println("Could not rename temp file.");
-        }
     }
 
     /**
      * Loads products from a file and returns them as a list of Product objects.
+     * Large files are parsed in parallel by {@link ParallelProductLoader}.
+     * Records that cannot be loaded are summarized once instead of being
+     * reported line by line.
      *
      * @param filename The name of the file to load products from.
      * @return An ArrayList of Product objects.
      */
     public static ArrayList<Product> loadProductsFromFile(String filename) {
-    ArrayList<Product> products = new ArrayList<>();
-    try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
-        String currentLine;
-        while ((currentLine = reader.readLine()) != null) {
-            System.out.println("Reading line: " + currentLine); // Debug line to see each line
-            String[] productDetails = currentLine.split(",");
-            if (productDetails.length >= 4) {
-                String productType = productDetails[0].trim();
-                String productId = productDetails[1].trim();
-                String name = productDetails[2].trim();
-                double price = Double.parseDouble(productDetails[3].trim());
-
-                if (productType.equals("PhysicalProduct")) {
-                    if (productDetails.length >= 6) {
-                        double weight = Double.parseDouble(productDetails[4].trim());
-                        String dimensions = productDetails[5].trim();
-                        PhysicalProduct physicalProduct = new PhysicalProduct(productId, name, price, weight, dimensions);
-                        products.add(physicalProduct);
-                    } else {
-                        System.out.println("Incomplete data for PhysicalProduct with ID " + productId);
-                    }
-                } else if (productType.equals("DigitalProduct")) {
-                    if (productDetails.length >= 6) {
-                        String fileSize = productDetails[4].trim();  // Treat fileSize as a String
-                        String format = productDetails[5].trim();
-                        DigitalProduct digitalProduct = new DigitalProduct(productId, name, price, fileSize, format);
-                        products.add(digitalProduct);
-                    } else {
-                        System.out.println("Incomplete data for DigitalProduct with ID " + productId);
-                    }
-                } else {
-                    System.out.println("Unknown product type: " + productType);
-                }
+        try {
+            ProductLoadReport report = ParallelProductLoader.load(filename);
+            if (report.getErrorCount() > 0) {
+                System.out.println(report.getErrorCount() + " product record(s) in " + filename
+                        + " could not be loaded, first: " + report.getFirstError());
+            }
+            return report.getProducts();
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            System.out.println("No product file found.");
+        } catch (IOException e) {
+            System.out.println("Error reading products: " + e.getMessage());
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Builds a product from the record the cursor is positioned on, printing
+     * any problem with the record.
+     *
+     * @param cursor The cursor positioned on a product record.
+     * @return The product, or {@code null} if the record does not describe one.
+     * @throws NumberFormatException if the price or weight is not a number.
+     */
+    static Product parseProduct(CsvCursor cursor) {
+        return parseProduct(cursor, null);
+    }
+
+    /**
+     * Builds a product from the record the cursor is positioned on.
+     * Records with fewer than four fields are ignored; incomplete records and
+     * unknown product types are reported and skipped. A seventh field, when
+     * present, is the stock; records without one describe products whose
+     * stock is not tracked.
+     *
+     * @param cursor The cursor positioned on a product record.
+     * @param errors Collects problems with the record, or {@code null} to print them.
+     * @return The product, or {@code null} if the record does not describe one.
+     * @throws NumberFormatException if the price or weight is not a number.
+     */
+    static Product parseProduct(CsvCursor cursor, List<String> errors) {
+        int fieldCount = cursor.fieldCount();
+        if (fieldCount < 4) {
+            return null;
+        }
+        cursor.nextField();
+        boolean physical = cursor.trimmedFieldEquals("PhysicalProduct");
+        boolean digital = !physical && cursor.trimmedFieldEquals("DigitalProduct");
+        String productType = physical || digital ? null : cursor.trimmedFieldString();
+        cursor.nextField();
+        String productId = cursor.trimmedFieldString();
+        cursor.nextField();
+        String name = cursor.trimmedFieldString();
+        cursor.nextField();
+        double price = cursor.fieldDouble();
+
+        if (physical) {
+            if (fieldCount >= 6) {
+                cursor.nextField();
+                double weight = cursor.fieldDouble();
+                cursor.nextField();
+                String dimensions = cursor.trimmedFieldString();
+                return new PhysicalProduct(productId, name, price, weight, dimensions, parseStock(cursor, fieldCount));
             }
+            report(errors, "Incomplete data for PhysicalProduct with ID " + productId);
+        } else if (digital) {
+            if (fieldCount >= 6) {
+                cursor.nextField();
+                String fileSize = cursor.trimmedFieldString();  // Treat fileSize as a String
+                cursor.nextField();
+                String format = cursor.trimmedFieldString();
+                return new DigitalProduct(productId, name, price, fileSize, format, parseStock(cursor, fieldCount));
+            }
+            report(errors, "Incomplete data for DigitalProduct with ID " + productId);
+        } else {
+            report(errors, "Unknown product type: " + productType);
+        }
+        return null;
+    }
+
+    private static int parseStock(CsvCursor cursor, int fieldCount) {
+        if (fieldCount < 7) {
+            return Product.UNTRACKED;
+        }
+        cursor.nextField();
+        double stock = cursor.fieldDouble();
+        if (stock != Math.rint(stock) || stock > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Invalid stock: " + stock);
+        }
+        return (int) stock;
+    }
+
+    private static void report(List<String> errors, String message) {
+        if (errors == null) {
+            System.out.println(message);
+        } else {
+            errors.add(message);
         }
-    } catch (FileNotFoundException e) {
-        System.out.println("No product file found.");
-    } catch (IOException e) {
-        System.out.println("Error reading products: " + e.getMessage());
-    } catch (NumberFormatException e) {
-        System.out.println("Error in product data format: " + e.getMessage());
-    }
-    return products;
-}
+    }
 }
\ No newline at end of file
@@ -1,25 +1,32 @@
 package ecommerceapplication2;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 /**
- * The {@code FileHandlerInterface} defines methods for handling file-related operations 
- * within the e-commerce application, including checking product existence, saving data to a file, 
+ * The {@code FileHandlerInterface} defines methods for handling file-related operations
+ * within the e-commerce application, including checking product existence, saving data to a file,
  * displaying file contents, and loading products from a file.
- * 
- * <p>Classes implementing this interface should provide the necessary functionality 
- * for interacting with files to store and retrieve product data.
- * 
+ *
+ * <p>Classes implementing this interface should provide the necessary functionality
+ * for interacting with files to store and retrieve product data. It is the storage
+ * interface of the application: {@link FileHandler#getStorage()} returns the
+ * implementation in use, either {@link TextFileStorage} for the comma-separated
+ * product file or {@link BTreeFileStorage} for a single-file B+tree.
+ *
  * <p>Usage example:
  * <pre>
- *     public class FileHandler implements FileHandlerInterface {
- *         // Implementation of methods for file handling
- *     }
+ *     FileHandlerInterface storage = FileHandler.getStorage();
+ *     storage.putProduct("products.txt", product);
+ *     Product found = storage.getProduct("products.txt", product.getProductId());
  * </pre>
- * 
- * This interface serves as a contract for any class that aims to manage file operations 
+ *
+ * This interface serves as a contract for any class that aims to manage file operations
  * for products, ensuring consistency and reusability of file handling code.
- * 
+ *
  * @see ProductInterface
  */
 public interface FileHandlerInterface {
@@ -51,11 +58,110 @@ public interface FileHandlerInterface {
     void displayFromFile(String filename);
 
     /**
-     * Loads products from the specified file and returns them as a list of {@code ProductInterface} objects.
+     * Loads products from the specified file and returns them as a list of {@code Product} objects.
      * This method reads the product data from the file and instantiates the appropriate product objects.
      *
      * @param filename The name of the file to load products from.
-     * @return An {@code ArrayList} of {@code ProductInterface} objects representing the products loaded from the file.
+     * @return An {@code ArrayList} of {@code Product} objects representing the products loaded from the file.
      */
-    ArrayList<ProductInterface> loadProductsFromFile(String filename);
+    ArrayList<Product> loadProductsFromFile(String filename);
+
+    /**
+     * Looks up a single product by its ID.
+     *
+     * @param fileName  The name of the file to search in.
+     * @param productId The product ID to look for.
+     * @return The product, or {@code null} if no product has this ID.
+     * @throws IOException if the file cannot be read.
+     */
+    Product getProduct(String fileName, String productId) throws IOException;
+
+    /**
+     * Stores a product, replacing any product with the same ID.
+     *
+     * @param fileName The name of the file to store the product in.
+     * @param product  The product to store.
+     * @throws IOException if the product cannot be written.
+     */
+    void putProduct(String fileName, Product product) throws IOException;
+
+    /**
+     * Replaces all stored products with the given ones, as an import does.
+     * Listeners are given the new products through
+     * {@link ProductCatalog.Listener#catalogReplaced}.
+     *
+     * @param fileName The name of the file to store the products in.
+     * @param products The new products, each ID once.
+     * @throws IOException if the products cannot be written.
+     */
+    void replaceProducts(String fileName, List<Product> products) throws IOException;
+
+    /**
+     * Removes the product with the given ID.
+     *
+     * @param fileName  The name of the file to remove the product from.
+     * @param productId The product ID to remove.
+     * @return {@code true} if a product was removed, {@code false} if there was none.
+     * @throws IOException if the file cannot be updated.
+     */
+    boolean deleteProduct(String fileName, String productId) throws IOException;
+
+    /**
+     * Records units added to or taken from the stock of a product. Changes
+     * are recorded as differences rather than totals, so concurrent sales can
+     * be recorded in any order. A product whose stock was not tracked starts
+     * counting from zero; an unknown product is ignored.
+     *
+     * @param fileName  The name of the file the product is stored in.
+     * @param productId The ID of the product.
+     * @param delta     The units added, or taken if negative.
+     * @return A future completed once the change is written.
+     */
+    CompletableFuture<Void> adjustStock(String fileName, String productId, int delta);
+
+    /**
+     * Returns products whose IDs fall in a range, in ascending ID order.
+     *
+     * @param fileName The name of the file to read from.
+     * @param fromId   The smallest ID to include, or {@code null} to start at the first product.
+     * @param toId     The ID to stop before, or {@code null} to continue to the last product.
+     * @param limit    The maximum number of products to return.
+     * @return The products in the range.
+     * @throws IOException if the file cannot be read.
+     */
+    List<Product> scanProducts(String fileName, String fromId, String toId, int limit) throws IOException;
+
+    /**
+     * Passes every product to an action. Implementations may reuse a single
+     * object for all products, so the action must not keep the reference.
+     *
+     * @param fileName The name of the file to read from.
+     * @param action   The action to run for each product.
+     */
+    default void forEachProduct(String fileName, Consumer<? super ProductInterface> action) {
+        for (Product product : loadProductsFromFile(fileName)) {
+            action.accept(product);
+        }
+    }
+
+    /**
+     * Starts telling a listener of the changes to the products stored for a
+     * file, one at a time and in the order they are made. The listener is
+     * first given all current products through
+     * {@link ProductCatalog.Listener#catalogReplaced}.
+     *
+     * @param fileName The name of the file the products are stored in.
+     * @param listener The listener.
+     */
+    void addListener(String fileName, ProductCatalog.Listener listener);
+
+    /**
+     * Takes in the changes other processes made to the products stored for a
+     * file now, telling the listeners of them, instead of waiting for them to
+     * be noticed. Storage that is only changed by this process does nothing.
+     *
+     * @param fileName The name of the file the products are stored in.
+     */
+    default void refresh(String fileName) {
+    }
 }
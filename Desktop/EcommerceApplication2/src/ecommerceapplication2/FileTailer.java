@@ -0,0 +1,297 @@
+package ecommerceapplication2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows files that other processes append to and tells listeners what
+ * changed, so in-memory views can take in just the new records instead of
+ * re-reading whole files.
+ *
+ * <p>Each watched file is checked when its directory's {@link WatchService}
+ * reports an event, and in any case every {@code pollMillis}, so changes are
+ * still seen on file systems that do not deliver events (or deliver them
+ * late). A check compares the file's identity and size with the last check:
+ * <ul>
+ *     <li>{@link Change#APPENDED}: the same file has grown.</li>
+ *     <li>{@link Change#TRUNCATED}: the same file has shrunk.</li>
+ *     <li>{@link Change#REPLACED}: another file now has the name (rotation or
+ *         an atomic rewrite), the file was deleted, or it was modified without
+ *         changing size.</li>
+ * </ul>
+ *
+ * <p>Listeners are called one at a time on the tailer's thread. Whatever
+ * position a listener reads from is its own; {@link UserRepository} keeps it
+ * in its index file, so even a restarted process reads only what it has not
+ * indexed yet.
+ *
+ * <p>Usage example:
+ * <pre>
+ *     FileTailer.getDefault().watch(Paths.get("users.txt"), indexedLength,
+ *             (file, change, from, to) -> repository.refresh());
+ * </pre>
+ */
+public final class FileTailer implements Closeable {
+    /**
+     * How a file changed since it was last checked.
+     */
+    public enum Change {
+        APPENDED, TRUNCATED, REPLACED
+    }
+
+    /**
+     * Receives the changes of a watched file.
+     */
+    public interface Listener {
+        /**
+         * Called after a file changed.
+         *
+         * @param file   The file.
+         * @param change How it changed.
+         * @param from   The size the file had at the last check, or 0 if it was replaced.
+         * @param to     The size of the file now (0 if it no longer exists).
+         * @throws IOException if the listener cannot read the change.
+         */
+        void fileChanged(Path file, Change change, long from, long to) throws IOException;
+    }
+
+    private static FileTailer defaultTailer;
+
+    private final Map<Path, Tail> tails = new ConcurrentHashMap<>();          // Watched files
+    private final Map<Path, WatchKey> directories = new ConcurrentHashMap<>(); // Registered directories
+    private final WatchService watcher;  // null when the file system has none
+    private final long pollMillis;
+    private final Thread thread;
+    private volatile boolean closed;
+
+    /**
+     * Creates a tailer and starts its thread.
+     *
+     * @param pollMillis How often every watched file is checked, in milliseconds,
+     *                   whether or not an event was reported.
+     */
+    public FileTailer(long pollMillis) {
+        if (pollMillis <= 0) {
+            throw new IllegalArgumentException("The poll interval must be positive.");
+        }
+        this.pollMillis = pollMillis;
+        WatchService service;
+        try {
+            service = FileSystems.getDefault().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            service = null; // Polling alone still sees every change
+        }
+        this.watcher = service;
+        this.thread = new Thread(this::run, "file-tailer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns the tailer shared by the application, started on first use. It
+     * polls every {@code ecommerce.tail.pollMillis} milliseconds (default 250).
+     *
+     * @return The shared tailer.
+     */
+    public static synchronized FileTailer getDefault() {
+        if (defaultTailer == null) {
+            defaultTailer = new FileTailer(Math.max(1, Long.getLong("ecommerce.tail.pollMillis", 250)));
+        }
+        return defaultTailer;
+    }
+
+    /**
+     * Starts following a file. The first check compares the file with the
+     * given size, so anything appended after the listener last read it is
+     * reported even if it happened before this call.
+     *
+     * @param file     The file to follow. It does not have to exist yet.
+     * @param size     The size of the file the listener has already read.
+     * @param listener Receives the file's changes.
+     */
+    public void watch(Path file, long size, Listener listener) {
+        Path path = file.toAbsolutePath().normalize();
+        Object key = null;
+        try {
+            key = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            // Not created yet: the first check reports it as replaced
+        }
+        tails.put(path, new Tail(listener, key, size));
+        registerDirectory(path.getParent());
+    }
+
+    /**
+     * Stops following a file.
+     *
+     * @param file The file.
+     */
+    public void unwatch(Path file) {
+        tails.remove(file.toAbsolutePath().normalize());
+    }
+
+    /**
+     * Checks a file now instead of waiting for the next event or poll.
+     *
+     * @param file The file.
+     */
+    public void check(Path file) {
+        Path path = file.toAbsolutePath().normalize();
+        Tail tail = tails.get(path);
+        if (tail != null) {
+            check(path, tail);
+        }
+    }
+
+    /**
+     * Stops the tailer's thread. Listeners are not called again.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        thread.interrupt();
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                System.out.println("Error closing file watcher: " + e.getMessage());
+            }
+        }
+    }
+
+    private void registerDirectory(Path directory) {
+        if (watcher == null || directory == null) {
+            return;
+        }
+        directories.computeIfAbsent(directory, dir -> {
+            try {
+                return dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            } catch (IOException e) {
+                return null; // Left to polling
+            }
+        });
+    }
+
+    private void run() {
+        long nextPoll = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(pollMillis);
+        while (!closed) {
+            try {
+                long waitNanos = nextPoll - System.nanoTime();
+                if (waitNanos > 0) {
+                    WatchKey key = watcher != null ? watcher.poll(waitNanos, TimeUnit.NANOSECONDS) : null;
+                    if (watcher == null) {
+                        TimeUnit.NANOSECONDS.sleep(waitNanos);
+                    }
+                    if (key != null) {
+                        checkEvents(key);
+                        continue;
+                    }
+                }
+                tails.forEach(this::check);
+                nextPoll = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(pollMillis);
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Checks the watched files named by the events of a directory.
+     */
+    private void checkEvents(WatchKey key) {
+        Path directory = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                tails.forEach(this::check); // Events were lost
+            } else {
+                Path path = directory.resolve((Path) event.context());
+                Tail tail = tails.get(path);
+                if (tail != null) {
+                    check(path, tail);
+                }
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(directory); // The directory is gone; polling carries on
+        }
+    }
+
+    /**
+     * Compares a file with its last check and calls its listener if it changed.
+     */
+    private void check(Path path, Tail tail) {
+        synchronized (tail) {
+            Object key;
+            long size;
+            long modified;
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                key = attributes.fileKey();
+                size = attributes.size();
+                modified = attributes.lastModifiedTime().toMillis();
+            } catch (NoSuchFileException e) {
+                key = null;
+                size = 0;
+                modified = 0;
+            } catch (IOException e) {
+                return; // Try again at the next poll
+            }
+            Change change;
+            long from = tail.size;
+            if (!Objects.equals(key, tail.fileKey)) {
+                change = Change.REPLACED;
+                from = 0;
+            } else if (size > tail.size) {
+                change = Change.APPENDED;
+            } else if (size < tail.size) {
+                change = Change.TRUNCATED;
+                from = 0;
+            } else if (tail.modified != 0 && modified != tail.modified) {
+                change = Change.REPLACED; // Rewritten in place at the same size
+                from = 0;
+            } else {
+                tail.modified = modified;
+                return;
+            }
+            tail.fileKey = key;
+            tail.size = size;
+            tail.modified = modified;
+            try {
+                tail.listener.fileChanged(path, change, from, size);
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Error reading changes to " + path.getFileName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * What was known about a watched file at its last check.
+     */
+    private static final class Tail {
+        final Listener listener;
+        Object fileKey;   // Identity of the file, null if it did not exist or the file system has none
+        long size;        // Size at the last check
+        long modified;    // Modification time at the last check, 0 before the first check
+
+        Tail(Listener listener, Object fileKey, long size) {
+            this.listener = listener;
+            this.fileKey = fileKey;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,475 @@
+package ecommerceapplication2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live stock counts of the products in a product file, safe to use from any
+ * number of threads. Reserving, releasing and selling units and setting the
+ * stock never lock.
+ *
+ * <p>Each product has its own counter, a single {@link AtomicLong} packing the
+ * units on hand into the high 32 bits and the units reserved into the low 32
+ * bits, so both are always read and changed together by one compare-and-set.
+ * A sale goes through three steps:
+ * <ol>
+ *     <li>{@link #reserve} sets units aside if enough are still unreserved,
+ *     and fails otherwise, so a product can never be oversold;</li>
+ *     <li>{@link #commit} takes the reserved units off the stock once the
+ *     order is paid, and records the change in the product
+ *     {@link FileHandler#getStorage() storage};</li>
+ *     <li>{@link #release} returns reserved units if the order is abandoned.</li>
+ * </ol>
+ * Different products never contend with each other, and a reservation costs
+ * a few nanoseconds even with hundreds of threads buying the same product.
+ *
+ * <p>{@link #reserve(Cart)} reserves every line of a cart or none of them.
+ * Lines are reserved in product ID order, so two orders competing for the
+ * last units of the same products cannot each take half and both fail.
+ *
+ * <p>A counter starts from the stock recorded with the product in the
+ * storage the first time it is used. It then listens to the storage: stock
+ * changes recorded by other processes and products put again are taken in
+ * as the storage reports them, on top of this process's own changes it has
+ * not reported yet. Each counter keeps the balance last reported and those
+ * changes in atomic integers, so that the units on hand are the one plus the
+ * other. Every update adds its own effect on that sum to the packed counter
+ * instead of setting it, so a report, a sale and a delivery can interleave
+ * in any order without a lock and still leave the right count. Products
+ * whose stock is not tracked can always be reserved.
+ *
+ * <p>Usage example:
+ * <pre>
+ *     Inventory.Reservation reservation = Inventory.forFile("products.txt").reserve(cart);
+ *     if (paid) {
+ *         reservation.commit().join();
+ *     } else {
+ *         reservation.release();
+ *     }
+ * </pre>
+ */
+public final class Inventory {
+    private static final Map<String, Inventory> inventories = new ConcurrentHashMap<>(); // One inventory per file
+    private static final Counter UNLIMITED = new Counter(0); // Counter of every untracked product
+    private static final long RESERVED_MASK = 0xFFFFFFFFL;
+
+    private final String productFile;  // The product file holding the recorded stock
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>(); // Packed counters by product ID
+
+    /**
+     * The packed counter of one product, with the stock balance the storage
+     * last reported and this process's changes that the storage has not
+     * reported back yet, which the units on hand already include.
+     */
+    private static final class Counter extends AtomicLong {
+        final AtomicInteger reported;                        // Balance last reported by the storage
+        final AtomicInteger unapplied = new AtomicInteger(); // Units added by changes the storage has not reported back
+        final AtomicInteger unwritten = new AtomicInteger(); // Of those, the units added by changes not yet on disk
+
+        Counter(int onHand) {
+            super((long) onHand << 32);
+            reported = new AtomicInteger(onHand);
+        }
+    }
+
+    private Inventory(String productFile) {
+        this.productFile = productFile;
+    }
+
+    /**
+     * Returns the shared inventory of the given product file.
+     *
+     * @param productFile The name of the product file.
+     * @return The inventory.
+     */
+    public static Inventory forFile(String productFile) {
+        return inventories.computeIfAbsent(productFile, file -> {
+            Inventory inventory = new Inventory(file);
+            FileHandler.getStorage().addListener(file, inventory.new Resync());
+            return inventory;
+        });
+    }
+
+    /**
+     * Returns the units of a product that can still be reserved.
+     *
+     * @param productId The ID of the product.
+     * @return The units on hand and not reserved, {@link Product#UNTRACKED}
+     * if the stock is not tracked, or 0 if there is no such product.
+     */
+    public int available(String productId) {
+        Counter counter = counter(productId);
+        if (counter == null) {
+            return 0;
+        }
+        if (counter == UNLIMITED) {
+            return Product.UNTRACKED;
+        }
+        long packed = counter.get();
+        return Math.max(0, onHand(packed) - reserved(packed)); // Other processes may have sold reserved units
+    }
+
+    /**
+     * Sets units of a product aside, if enough of them are not reserved yet.
+     *
+     * @param productId The ID of the product.
+     * @param quantity  The units to reserve, greater than zero.
+     * @return {@code true} if the units were reserved.
+     * @throws IllegalArgumentException if the quantity is not positive.
+     */
+    public boolean reserve(String productId, int quantity) {
+        checkQuantity(quantity);
+        Counter counter = counter(productId);
+        if (counter == null) {
+            return false;
+        }
+        if (counter == UNLIMITED) {
+            return true;
+        }
+        while (true) {
+            long packed = counter.get();
+            int reserved = reserved(packed);
+            if (onHand(packed) - reserved < quantity) {
+                return false;
+            }
+            if (counter.compareAndSet(packed, packed + quantity)) {
+                return true;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Returns reserved units of a product, making them available again.
+     *
+     * @param productId The ID of the product.
+     * @param quantity  The units reserved earlier.
+     * @throws IllegalArgumentException if the quantity is not positive.
+     * @throws IllegalStateException if fewer units are reserved.
+     */
+    public void release(String productId, int quantity) {
+        checkQuantity(quantity);
+        Counter counter = counters.get(productId);
+        if (counter == null || counter == UNLIMITED) {
+            return;
+        }
+        while (true) {
+            long packed = counter.get();
+            if (reserved(packed) < quantity) {
+                throw new IllegalStateException("Only " + reserved(packed) + " units of " + productId + " are reserved.");
+            }
+            if (counter.compareAndSet(packed, packed - quantity)) {
+                return;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Takes reserved units of a product off its stock and records the sale
+     * in the storage.
+     *
+     * @param productId The ID of the product.
+     * @param quantity  The units reserved earlier.
+     * @return A future completed once the change is on disk.
+     * @throws IllegalArgumentException if the quantity is not positive.
+     * @throws IllegalStateException if fewer units are reserved.
+     */
+    public CompletableFuture<Void> commit(String productId, int quantity) {
+        checkQuantity(quantity);
+        Counter counter = counters.get(productId);
+        if (counter == null || counter == UNLIMITED) {
+            return CompletableFuture.completedFuture(null);
+        }
+        long sold = (long) quantity << 32 | quantity; // Taken off both the units on hand and the units reserved
+        while (true) {
+            long packed = counter.get();
+            if (reserved(packed) < quantity) {
+                throw new IllegalStateException("Only " + reserved(packed) + " units of " + productId + " are reserved.");
+            }
+            if (counter.compareAndSet(packed, packed - sold)) {
+                break;
+            }
+            Thread.onSpinWait();
+        }
+        return record(productId, counter, -quantity);
+    }
+
+    /**
+     * Reserves every line of a cart, or nothing if any line cannot be reserved.
+     *
+     * @param cart The cart to reserve.
+     * @return The reservation, to commit once the order is paid or to release.
+     * @throws IllegalStateException if a product is sold out or no longer available.
+     */
+    public Reservation reserve(Cart cart) {
+        return reserve(cart, null);
+    }
+
+    /**
+     * Reserves every line of a cart, or nothing if any line cannot be
+     * reserved, counting the units the cart already holds. Only the units
+     * beyond the holds are reserved here, and only those are released with
+     * the reservation; committing it sells the held units too.
+     *
+     * @param cart  The cart to reserve.
+     * @param holds The cart's holds, pinned by the caller, or {@code null}.
+     * @return The reservation, to commit once the order is paid or to release.
+     * @throws IllegalStateException if a product is sold out or no longer available.
+     */
+    public Reservation reserve(Cart cart, CartHolds holds) {
+        Integer[] lines = new Integer[cart.lineCount()];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = i;
+        }
+        Arrays.sort(lines, (a, b) -> cart.productId(a).compareTo(cart.productId(b)));
+        Reservation reservation = new Reservation(this);
+        for (int line : lines) {
+            String productId = cart.productId(line);
+            int quantity = cart.quantity(line);
+            int held = holds == null ? 0 : Math.min(quantity, holds.held(productId));
+            if (held < quantity && !reserve(productId, quantity - held)) {
+                reservation.release();
+                int available = available(productId);
+                throw new IllegalStateException(available == 0
+                        ? cart.name(line) + " is sold out."
+                        : "Only " + available + " of " + cart.name(line) + " left in stock.");
+            }
+            reservation.add(productId, quantity, quantity - held);
+        }
+        return reservation;
+    }
+
+    /**
+     * Sets the stock of a product, for example after a delivery, and records
+     * the change in the storage. Reserved units stay reserved,
+     * so the stock cannot be set below them.
+     *
+     * @param productId The ID of the product.
+     * @param stock     The units on hand, zero or more.
+     * @return A future completed once the change is on disk.
+     * @throws IllegalArgumentException if the stock is negative or the product does not exist.
+     * @throws IllegalStateException if more units than that are reserved.
+     */
+    public CompletableFuture<Void> setStock(String productId, int stock) {
+        if (stock < 0) {
+            throw new IllegalArgumentException("Stock cannot be negative.");
+        }
+        Counter counter = counter(productId);
+        if (counter == null) {
+            throw new IllegalArgumentException("Product ID not found.");
+        }
+        if (counter == UNLIMITED) {
+            counters.replace(productId, UNLIMITED, new Counter(0));
+            counter = counters.get(productId);
+        }
+        int delta;
+        while (true) {
+            long packed = counter.get();
+            if (reserved(packed) > stock) {
+                throw new IllegalStateException(reserved(packed) + " units of " + productId + " are reserved.");
+            }
+            if (counter.compareAndSet(packed, (long) stock << 32 | reserved(packed))) {
+                delta = stock - onHand(packed);
+                break;
+            }
+            Thread.onSpinWait();
+        }
+        return record(productId, counter, delta);
+    }
+
+    /**
+     * Counts a change already made to the units on hand as not yet reported
+     * back by the storage, and records it in the storage. If it cannot be
+     * written, it is taken out of the units on hand again.
+     */
+    private CompletableFuture<Void> record(String productId, Counter counter, int delta) {
+        counter.unapplied.addAndGet(delta); // Before the storage can report it back
+        counter.unwritten.addAndGet(delta);
+        CompletableFuture<Void> written = FileHandler.getStorage().adjustStock(productFile, productId, delta);
+        written.whenComplete((ignored, error) -> {
+            counter.unwritten.addAndGet(-delta);
+            if (error != null) {
+                counter.unapplied.addAndGet(-delta); // Never to be applied
+                counter.addAndGet(-(long) delta << 32);
+            }
+        });
+        return written;
+    }
+
+    /**
+     * Brings the counter of a product in line with the stock balance the
+     * storage reports, plus this process's changes it has not reported yet.
+     * The units on hand are moved by as much as that sum moves, so changes
+     * made to the counter meanwhile are kept. Reserved units stay reserved.
+     *
+     * @param delta    The units the storage just added to the balance.
+     * @param local    Whether that change was made by this process.
+     * @param reloaded Whether the storage was read again, taking in every change on disk.
+     */
+    private void resync(Product product, int balance, int delta, boolean local, boolean reloaded) {
+        String productId = product.getProductId();
+        Counter counter = counters.get(productId);
+        if (counter == null) {
+            return; // Started from the storage on first use
+        }
+        if (!product.isStockTracked()) {
+            counters.replace(productId, counter, UNLIMITED);
+            return;
+        }
+        if (counter == UNLIMITED) {
+            counters.replace(productId, UNLIMITED, new Counter(Math.max(0, balance)));
+            return;
+        }
+        int change = balance - counter.reported.getAndSet(balance);
+        if (reloaded) {
+            int unwritten = counter.unwritten.get();
+            change += unwritten - counter.unapplied.getAndSet(unwritten);
+        }
+        if (local) {
+            counter.unapplied.addAndGet(-delta);
+            change -= delta; // Already counted when it was made
+        }
+        if (change != 0) {
+            counter.addAndGet((long) change << 32);
+        }
+    }
+
+    /**
+     * Returns the counter of a product, starting it from the stored stock
+     * on first use.
+     *
+     * @return The counter, {@link #UNLIMITED}, or {@code null} if there is no such product.
+     */
+    private Counter counter(String productId) {
+        Counter counter = counters.get(productId);
+        if (counter != null) {
+            return counter;
+        }
+        Product product;
+        try {
+            product = FileHandler.getStorage().getProduct(productFile, productId);
+        } catch (IOException e) {
+            System.out.println("Error reading the stock of " + productId + ": " + e.getMessage());
+            return null;
+        }
+        if (product == null) {
+            return null;
+        }
+        Counter created = product.isStockTracked() ? new Counter(product.getStock()) : UNLIMITED;
+        counter = counters.putIfAbsent(productId, created);
+        return counter == null ? created : counter;
+    }
+
+    /**
+     * Follows the products the storage keeps for the product file, keeping
+     * the counters of products already in use in step with them.
+     */
+    private final class Resync implements ProductCatalog.Listener {
+        @Override
+        public void catalogReplaced(List<Product> products) {
+            for (Product product : products) {
+                if (counters.containsKey(product.getProductId())) {
+                    resync(product, product.getStock(), 0, false, true);
+                }
+            }
+        }
+
+        @Override
+        public void productAdded(Product product) {
+            // Stock changes arrive through stockChanged
+        }
+
+        @Override
+        public void productRemoved(Product product) {
+            // The counter is kept until the product is put again
+        }
+
+        @Override
+        public void stockChanged(Product product, int balance, int delta, boolean local) {
+            resync(product, balance, delta, local, false);
+        }
+    }
+
+    private static int onHand(long packed) {
+        return (int) (packed >>> 32);
+    }
+
+    private static int reserved(long packed) {
+        return (int) (packed & RESERVED_MASK);
+    }
+
+    private static void checkQuantity(int quantity) {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Quantity must be greater than zero.");
+        }
+    }
+
+    /**
+     * The units set aside for one order. It is committed or released once;
+     * later calls do nothing.
+     */
+    public static final class Reservation {
+        private final Inventory inventory;
+        private final List<String> productIds = new ArrayList<>(); // Reserved products
+        private final List<Integer> quantities = new ArrayList<>(); // Units sold of each on commit
+        private final List<Integer> reserved = new ArrayList<>();   // Units of each reserved here, given back on release
+        private boolean settled; // Committed or released
+
+        private Reservation(Inventory inventory) {
+            this.inventory = inventory;
+        }
+
+        private void add(String productId, int quantity, int reservedHere) {
+            productIds.add(productId);
+            quantities.add(quantity);
+            reserved.add(reservedHere);
+        }
+
+        /**
+         * Takes the reserved units off the stock. A product whose reserved
+         * units went missing, for example because its stock started being
+         * tracked during the checkout, does not stop the others from being
+         * committed; it fails the returned future instead.
+         *
+         * @return A future completed once every change is on disk.
+         */
+        public synchronized CompletableFuture<Void> commit() {
+            if (settled) {
+                return CompletableFuture.completedFuture(null);
+            }
+            settled = true;
+            CompletableFuture<?>[] written = new CompletableFuture<?>[productIds.size()];
+            for (int i = 0; i < written.length; i++) {
+                try {
+                    written[i] = inventory.commit(productIds.get(i), quantities.get(i));
+                } catch (IllegalStateException e) {
+                    written[i] = CompletableFuture.failedFuture(e);
+                }
+            }
+            return CompletableFuture.allOf(written);
+        }
+
+        /**
+         * Makes the reserved units available again.
+         */
+        public synchronized void release() {
+            if (settled) {
+                return;
+            }
+            settled = true;
+            for (int i = 0; i < productIds.size(); i++) {
+                if (reserved.get(i) > 0) {
+                    inventory.release(productIds.get(i), reserved.get(i));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package ecommerceapplication2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The latest state, per product ID, of the changes held in a product file's
+ * {@link ProductJournal}, laid over the product file for
+ * {@link FileHandler.LookupMode#MAPPED mapped} lookups. Only the IDs the
+ * journal mentions are kept, so memory stays bounded by the journal, which
+ * compaction keeps small; every other ID is looked up by scanning the mapped
+ * product file with {@link MappedProductScanner}.
+ *
+ * <p>Like {@link OffHeapProductStore}'s tracker, the overlay is brought up to
+ * date on each lookup: new journal records are replayed into it, and it is
+ * rebuilt when the product file or the journal is replaced.
+ */
+public class JournalOverlay implements ProductJournal.Visitor {
+    private static final Map<String, JournalOverlay> overlays = new ConcurrentHashMap<>(); // One overlay per product file
+
+    private final String fileName;
+    private final String journalFileName;
+    private final Map<String, Change> changes = new HashMap<>(); // Latest change by product ID
+    private Map<String, Integer> shortfalls = Map.of(); // Shortfalls in the product file's header
+    private long lastModified = -1;   // Product file modification time when read
+    private long length = -1;         // Product file size when read
+    private long journalOffset;       // End of the last journal record applied
+    private long journalSeen;         // Journal size when last read
+    private Object journalKey;        // Identity of the journal when read
+
+    private JournalOverlay(String fileName) {
+        this.fileName = fileName;
+        this.journalFileName = ProductJournal.journalFileName(fileName);
+    }
+
+    /**
+     * Returns the shared overlay of a product file.
+     *
+     * @param fileName The name of the product file.
+     * @return The overlay.
+     */
+    public static JournalOverlay forFile(String fileName) {
+        return overlays.computeIfAbsent(fileName, JournalOverlay::new);
+    }
+
+    /**
+     * Looks up a product, taking it from the journal if the journal changed
+     * it and from the mapped product file otherwise.
+     *
+     * @param productId The product ID to look for.
+     * @return The product, or {@code null} if no product has this ID.
+     * @throws IOException if a file cannot be read.
+     */
+    public synchronized Product getProduct(String productId) throws IOException {
+        update();
+        Change change = changes.get(productId);
+        if (change != null && change.deleted) {
+            return null;
+        }
+        if (change != null && change.product != null) {
+            return change.balance == Product.UNTRACKED ? change.product
+                    : change.product.withStock(Math.max(0, change.balance));
+        }
+        long offset = MappedProductScanner.findRecordOffset(fileName, productId);
+        Product product = offset < 0 ? null : MappedProductScanner.loadRecordAt(fileName, offset);
+        if (product == null || change == null) {
+            return product;
+        }
+        if (!Double.isNaN(change.price)) {
+            product = product.withPrice(change.price);
+        }
+        if (change.stockChanged) {
+            int stock = product.isStockTracked() ? product.getStock() : 0; // An untracked product starts counting at 0
+            product = product.withStock(Math.max(0, stock - shortfalls.getOrDefault(productId, 0) + change.delta));
+        }
+        return product;
+    }
+
+    /**
+     * Checks whether a product exists, decoding no record.
+     *
+     * @param productId The product ID to look for.
+     * @return {@code true} if the product is present.
+     * @throws IOException if a file cannot be read.
+     */
+    public synchronized boolean contains(String productId) throws IOException {
+        update();
+        Change change = changes.get(productId);
+        if (change != null && (change.deleted || change.product != null)) {
+            return !change.deleted;
+        }
+        return MappedProductScanner.findRecordOffset(fileName, productId) >= 0;
+    }
+
+    @Override
+    public void put(Product product) {
+        Change change = new Change();
+        change.product = product;
+        change.balance = product.isStockTracked() ? product.getStock() : Product.UNTRACKED;
+        changes.put(product.getProductId(), change);
+    }
+
+    @Override
+    public void delete(String productId) {
+        Change change = new Change();
+        change.deleted = true;
+        changes.put(productId, change);
+    }
+
+    @Override
+    public void updatePrice(String productId, double price) {
+        Change change = changes.computeIfAbsent(productId, id -> new Change());
+        if (change.product != null) {
+            change.product = change.product.withPrice(price);
+        } else if (!change.deleted) {
+            change.price = price;
+        }
+    }
+
+    @Override
+    public void adjustStock(String productId, int delta, boolean local) {
+        Change change = changes.computeIfAbsent(productId, id -> new Change());
+        if (change.product != null) {
+            change.balance = (change.balance == Product.UNTRACKED ? 0 : change.balance) + delta;
+        } else if (!change.deleted) {
+            change.delta += delta;
+            change.stockChanged = true;
+        }
+    }
+
+    /**
+     * Replays the journal records added since the last lookup, or rebuilds
+     * the overlay if the product file or the journal was replaced.
+     */
+    private void update() throws IOException {
+        File file = new File(fileName);
+        long modified = file.lastModified();
+        long size = file.length();
+        long journalLength = new File(journalFileName).length();
+        if (modified != lastModified || size != length || journalLength < journalSeen
+                || journalLength != journalSeen && !Objects.equals(journalKey(), journalKey)) {
+            ProductJournal.Header header = ProductJournal.Header.read(fileName);
+            changes.clear();
+            shortfalls = header.shortfalls;
+            lastModified = modified;
+            length = size;
+            journalKey = journalKey();
+            journalOffset = ProductJournal.replay(journalFileName, ProductJournal.replayStart(fileName, header), this);
+            journalSeen = journalLength;
+        } else if (journalLength != journalSeen) {
+            journalOffset = ProductJournal.replay(journalFileName, journalOffset, this);
+            journalSeen = journalLength;
+        }
+    }
+
+    private Object journalKey() throws IOException {
+        try {
+            return Files.readAttributes(Paths.get(journalFileName), BasicFileAttributes.class).fileKey();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * What the journal did to one product: replaced it with a full record,
+     * deleted it, or changed the price and stock of its record in the
+     * product file.
+     */
+    private static final class Change {
+        Product product;            // The product put by the journal, or null
+        int balance;                // Stock balance of the put product, or Product.UNTRACKED
+        boolean deleted;
+        double price = Double.NaN;  // New price of the file's record, or NaN if unchanged
+        int delta;                  // Stock added to the file's record
+        boolean stockChanged;
+    }
+}
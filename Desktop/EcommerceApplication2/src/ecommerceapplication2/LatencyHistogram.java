@@ -0,0 +1,119 @@
+package ecommerceapplication2;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative values, such as latencies in
+ * microseconds or batch sizes. Values below 16 are counted exactly; larger
+ * values share a bucket with others of the same power of two, split into 16
+ * sub-buckets, so a percentile is off by at most about 6%. Recording is a
+ * single atomic increment, and the histogram never grows.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(64 << SUB_BITS); // Count of each bucket
+    private final LongAdder total = new LongAdder();                            // Number of values recorded
+    private final LongAdder sum = new LongAdder();                              // Sum of values recorded
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);      // Largest value recorded
+
+    /**
+     * Records a value. Negative values are recorded as zero.
+     *
+     * @param value The value to record.
+     */
+    public void record(long value) {
+        long v = Math.max(0, value);
+        counts.incrementAndGet(bucket(v));
+        total.increment();
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+    /**
+     * Returns the number of values recorded.
+     *
+     * @return The count.
+     */
+    public long count() {
+        return total.sum();
+    }
+
+    /**
+     * Returns the mean of the values recorded.
+     *
+     * @return The mean, or 0 if nothing was recorded.
+     */
+    public double mean() {
+        long n = total.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * Returns the largest value recorded.
+     *
+     * @return The exact maximum, or 0 if nothing was recorded.
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * Returns an upper bound for the given percentile of the values recorded.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     * @return The largest value in the bucket holding the percentile, capped at the
+     *         largest value recorded, or 0 if nothing was recorded.
+     */
+    public long percentile(double percentile) {
+        long n = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            n += counts.get(i);
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(i + 1 < counts.length() ? lowest(i + 1) - 1 : Long.MAX_VALUE, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Forgets every value recorded.
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        total.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return ((exponent - SUB_BITS + 1) << SUB_BITS) + sub;
+    }
+
+    private static long lowest(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket >> SUB_BITS) + SUB_BITS - 1;
+        long sub = bucket & (SUB_BUCKETS - 1);
+        return (1L << exponent) | (sub << (exponent - SUB_BITS));
+    }
+}
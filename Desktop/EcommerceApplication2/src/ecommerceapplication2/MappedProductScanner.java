@@ -0,0 +1,317 @@
+package ecommerceapplication2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Looks up product records by scanning a memory-mapped product file.
+ * The file is never decoded into characters: record boundaries are found by
+ * testing eight bytes at a time for line breaks and quotes, and the ID field
+ * of each record is compared byte for byte with the encoded key, ignoring
+ * surrounding whitespace as the parser does. As in the catalog, a later record
+ * replaces an earlier one with the same ID, so the last match yields the
+ * record's byte offset, from which {@link #loadRecordAt} decodes just that
+ * one line. A compacted file holds each ID once up to the length recorded in
+ * its {@link ProductJournal.Header header}, so only the records appended after
+ * that are searched for a later match, and the compacted part is scanned only
+ * up to the first match.
+ *
+ * <p>The scanner reads only the product file: changes still in its
+ * {@link ProductJournal} are not seen, so lookups go through the file's
+ * {@link JournalOverlay}, which answers for the products the journal changed.
+ */
+public class MappedProductScanner {
+    private static final long MAP_WINDOW = 1L << 30; // Largest region mapped at once
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final long NEWLINES = ONES * '\n';
+    private static final long QUOTES = ONES * '"';
+
+    private static volatile LastMatch lastMatch; // The most recent successful lookup
+
+    /**
+     * Finds the byte offset of the last record with the given product ID.
+     * If the same ID was found last time and the file is unchanged, the cached
+     * offset is verified and returned without scanning.
+     *
+     * @param fileName  The name of the product file.
+     * @param productId The product ID to look for.
+     * @return The offset of the first byte of the record, or {@code -1} if not found.
+     * @throws IOException if the file cannot be read.
+     */
+    public static long findRecordOffset(String fileName, String productId) throws IOException {
+        Path path = Paths.get(fileName);
+        byte[] key = CsvCursor.quote(productId).getBytes(StandardCharsets.UTF_8);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long lastModified = path.toFile().lastModified();
+            LastMatch cached = lastMatch;
+            if (cached != null && cached.matches(fileName, productId, size, lastModified)
+                    && idMatchesAt(channel, cached.offset, key)) {
+                return cached.offset;
+            }
+            long compacted = compactedLength(channel, size);
+            long offset = scan(channel, compacted, size, key, false);
+            if (offset < 0 && compacted > 0) {
+                offset = scan(channel, 0, compacted, key, true);
+            }
+            if (offset >= 0) {
+                lastMatch = new LastMatch(fileName, productId, size, lastModified, offset);
+            }
+            return offset;
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Decodes the single record starting at the given byte offset.
+     *
+     * @param fileName The name of the product file.
+     * @param offset   The offset returned by {@link #findRecordOffset}.
+     * @return The product, or {@code null} if the record does not describe one.
+     * @throws IOException if the file cannot be read.
+     */
+    public static Product loadRecordAt(String fileName, long offset) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            ByteBuffer record = ByteBuffer.allocate(256);
+            long position = offset;
+            boolean inQuotes = false;
+            int end = -1;
+            while (end < 0) {
+                int checked = record.position();
+                if (!record.hasRemaining()) {
+                    ByteBuffer larger = ByteBuffer.allocate(record.capacity() * 2);
+                    record.flip();
+                    larger.put(record);
+                    record = larger;
+                }
+                int read = channel.read(record, position);
+                if (read < 0) {
+                    end = record.position();
+                    break;
+                }
+                position += read;
+                for (int i = checked; i < record.position(); i++) {
+                    byte b = record.get(i);
+                    if (b == '"') {
+                        inQuotes = !inQuotes;
+                    } else if (b == '\n' && !inQuotes) {
+                        end = i;
+                        break;
+                    }
+                }
+            }
+            record.limit(end).position(0);
+            CharBuffer chars = StandardCharsets.UTF_8.decode(record);
+            CsvCursor cursor = new CsvCursor(chars.array(), chars.arrayOffset(), chars.arrayOffset() + chars.limit());
+            return cursor.nextRecord() ? FileHandler.parseProduct(cursor) : null;
+        }
+    }
+
+    /**
+     * Reads the length of the part of the file written by compaction, in
+     * which no ID appears twice.
+     *
+     * @return The length, or 0 if the file was not compacted or has been rewritten since.
+     */
+    private static long compactedLength(FileChannel channel, long size) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate((int) Math.min(256, size));
+        while (head.hasRemaining() && channel.read(head, head.position()) > 0) {
+            // Keep reading until the first line is in
+        }
+        String first = new String(head.array(), 0, head.position(), StandardCharsets.UTF_8);
+        int end = first.indexOf('\n');
+        long length = ProductJournal.Header.compactedLength(end < 0 ? first : first.substring(0, end));
+        return length <= size ? length : 0;
+    }
+
+    /**
+     * Scans the records in {@code [from, to)} window by window for the last
+     * record whose ID field equals the key, or for the first if {@code first}.
+     * {@code from} must be the start of a record.
+     */
+    private static long scan(FileChannel channel, long from, long to, byte[] key, boolean first) throws IOException {
+        long found = -1;
+        long windowStart = from;
+        while (windowStart < to) {
+            long windowLength = Math.min(MAP_WINDOW, to - windowStart);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowLength);
+            window.order(ByteOrder.LITTLE_ENDIAN);
+            boolean lastWindow = windowStart + windowLength == to;
+            int limit = (int) windowLength;
+            int lineStart = 0;
+            while (lineStart < limit) {
+                int lineEnd = findRecordEnd(window, lineStart, limit);
+                if (lineEnd < 0) {
+                    if (lastWindow) {
+                        lineEnd = limit;
+                    } else if (lineStart == 0) {
+                        throw new IOException("Product record longer than " + MAP_WINDOW + " bytes.");
+                    } else {
+                        break; // Remap so that the partial record starts the next window
+                    }
+                }
+                if (idMatches(window, lineStart, lineEnd, key)) {
+                    found = windowStart + lineStart; // Later records win
+                    if (first) {
+                        return found;
+                    }
+                }
+                lineStart = lineEnd + 1;
+            }
+            windowStart += lineStart;
+        }
+        return found;
+    }
+
+    /**
+     * Finds the line break ending the record that starts at {@code from}.
+     * Eight bytes are tested per step for either a line break or a quote;
+     * only records containing quotes fall back to a byte-wise, quote-aware scan.
+     *
+     * @return The index of the line break, or {@code -1} if the window ends first.
+     */
+    private static int findRecordEnd(ByteBuffer buffer, int from, int limit) {
+        int i = from;
+        while (i + Long.BYTES <= limit) {
+            long word = buffer.getLong(i);
+            long found = matchBytes(word, NEWLINES) | matchBytes(word, QUOTES);
+            if (found != 0) {
+                int index = i + (Long.numberOfTrailingZeros(found) >>> 3);
+                if (buffer.get(index) == '\n') {
+                    return index;
+                }
+                return findQuotedRecordEnd(buffer, index, limit);
+            }
+            i += Long.BYTES;
+        }
+        for (; i < limit; i++) {
+            byte b = buffer.get(i);
+            if (b == '\n') {
+                return i;
+            }
+            if (b == '"') {
+                return findQuotedRecordEnd(buffer, i, limit);
+            }
+        }
+        return -1;
+    }
+
+    private static int findQuotedRecordEnd(ByteBuffer buffer, int from, int limit) {
+        boolean inQuotes = false;
+        for (int i = from; i < limit; i++) {
+            byte b = buffer.get(i);
+            if (b == '"') {
+                inQuotes = !inQuotes;
+            } else if (b == '\n' && !inQuotes) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Sets the high bit of every byte of {@code word} equal to the byte repeated in {@code pattern}.
+     * The lowest set bit always marks a genuine match.
+     */
+    private static long matchBytes(long word, long pattern) {
+        long x = word ^ pattern;
+        return (x - ONES) & ~x & HIGH_BITS;
+    }
+
+    /**
+     * Checks whether the second field of the record in {@code [start, end)}
+     * equals the key, ignoring whitespace around the field and quotes the
+     * key does not need.
+     */
+    private static boolean idMatches(ByteBuffer buffer, int start, int end, byte[] key) {
+        int field = start;
+        while (field < end && buffer.get(field) != ',') {
+            field++;
+        }
+        field = skipWhitespace(buffer, field + 1, end);
+        boolean quoted = field < end && buffer.get(field) == '"' && key.length > 0 && key[0] != '"';
+        if (quoted) {
+            field++;
+        }
+        int fieldEnd = field + key.length;
+        if (fieldEnd > end) {
+            return false;
+        }
+        for (int k = 0; k < key.length; k++) {
+            if (buffer.get(field + k) != key[k]) {
+                return false;
+            }
+        }
+        if (quoted) {
+            if (fieldEnd == end || buffer.get(fieldEnd) != '"') {
+                return false;
+            }
+            fieldEnd++;
+        }
+        fieldEnd = skipWhitespace(buffer, fieldEnd, end);
+        return fieldEnd == end || buffer.get(fieldEnd) == ',';
+    }
+
+    /**
+     * Returns the index of the first byte from {@code from} on that is not a
+     * space or control character, as trimmed by the parser.
+     */
+    private static int skipWhitespace(ByteBuffer buffer, int from, int end) {
+        int i = from;
+        while (i < end && buffer.get(i) >= 0 && buffer.get(i) <= ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Re-checks a cached offset by reading only the start of the record.
+     */
+    private static boolean idMatchesAt(FileChannel channel, long offset, byte[] key) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(256 + key.length);
+        int read = channel.read(head, offset);
+        if (read <= 0) {
+            return false;
+        }
+        int end = 0;
+        while (end < read && head.get(end) != '\n') {
+            end++;
+        }
+        return idMatches(head, 0, end, key);
+    }
+
+    /**
+     * The location of the most recently found record, valid while the file is unchanged.
+     */
+    private static final class LastMatch {
+        final String fileName;
+        final String productId;
+        final long size;
+        final long lastModified;
+        final long offset;
+
+        LastMatch(String fileName, String productId, long size, long lastModified, long offset) {
+            this.fileName = fileName;
+            this.productId = productId;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.offset = offset;
+        }
+
+        boolean matches(String fileName, String productId, long size, long lastModified) {
+            return this.fileName.equals(fileName) && this.productId.equals(productId)
+                    && this.size == size && this.lastModified == lastModified;
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package ecommerceapplication2;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Counters and latency histograms for the application's hot paths, exported
+ * as JMX MBeans under {@code ecommerceapplication2:type=Timer,name=...} and
+ * {@code ecommerceapplication2:type=Counter,name=...}, and as a text
+ * {@link #snapshot()}.
+ *
+ * <p>A {@link Timer} records durations in a {@link LatencyHistogram}, so
+ * recording is a few atomic increments and never takes a lock; its MBean
+ * reports the count, mean, p50, p99, p99.9 and maximum in microseconds. A
+ * {@link Counter} is a {@link LongAdder}.
+ *
+ * <p>Metrics are on unless the {@code ecommerce.metrics} system property is
+ * {@code false}, and can be switched at run time through
+ * {@link #setEnabled(boolean)} or the {@code ecommerceapplication2:type=Metrics}
+ * MBean. While they are off, timing an operation costs one volatile read.
+ * When {@code ecommerce.metrics.reportSeconds} is set, a snapshot is appended
+ * to the file named by {@code ecommerce.metrics.file} (default
+ * {@code metrics.log}) at that interval.
+ *
+ * <p>Usage example:
+ * <pre>
+ *     private static final Metrics.Timer LOOKUP = Metrics.timer("catalog.lookup");
+ *
+ *     long start = LOOKUP.start();
+ *     try {
+ *         ...
+ *     } finally {
+ *         LOOKUP.stop(start);
+ *     }
+ * </pre>
+ */
+public final class Metrics {
+    private static final String DOMAIN = "ecommerceapplication2";
+
+    private static volatile boolean enabled = !"false".equalsIgnoreCase(System.getProperty("ecommerce.metrics"));
+    private static final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private static final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    static {
+        register("type=Metrics", new StandardMBean(new Control(), ControlMBean.class, false));
+        long reportSeconds = Long.getLong("ecommerce.metrics.reportSeconds", 0);
+        if (reportSeconds > 0) {
+            startReporting(System.getProperty("ecommerce.metrics.file", "metrics.log"), reportSeconds);
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns the timer with the given name, creating and registering it on first use.
+     *
+     * @param name The operation, such as {@code catalog.lookup}.
+     * @return The shared timer.
+     */
+    public static Timer timer(String name) {
+        return timers.computeIfAbsent(name, key -> {
+            Timer timer = new Timer();
+            register("type=Timer,name=" + sanitize(key), new StandardMBean(timer, TimerMBean.class, false));
+            return timer;
+        });
+    }
+
+    /**
+     * Returns the counter with the given name, creating and registering it on first use.
+     *
+     * @param name The quantity counted, such as {@code file.bytesWritten}.
+     * @return The shared counter.
+     */
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> {
+            Counter counter = new Counter();
+            register("type=Counter,name=" + sanitize(key), new StandardMBean(counter, CounterMBean.class, false));
+            return counter;
+        });
+    }
+
+    /**
+     * Tells whether metrics are being recorded.
+     *
+     * @return {@code true} if they are on.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Switches recording on or off. What was recorded is kept.
+     *
+     * @param on {@code true} to record.
+     */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /**
+     * Forgets everything recorded by every timer and counter.
+     */
+    public static void reset() {
+        timers.values().forEach(Timer::reset);
+        counters.values().forEach(Counter::reset);
+    }
+
+    /**
+     * Returns a table of every timer and counter, one per line, sorted by name.
+     *
+     * @return The snapshot text.
+     */
+    public static String snapshot() {
+        StringBuilder out = new StringBuilder();
+        out.append("Metrics at ").append(Instant.now()).append(enabled ? "" : " (recording is off)").append('\n');
+        out.append(String.format("%-32s %10s %10s %10s %10s %10s %10s%n",
+                "operation (microseconds)", "count", "mean", "p50", "p99", "p99.9", "max"));
+        for (Map.Entry<String, Timer> entry : new TreeMap<>(timers).entrySet()) {
+            Timer timer = entry.getValue();
+            out.append(String.format("%-32s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n", entry.getKey(),
+                    timer.getCount(), timer.getMeanMicros(), timer.getP50Micros(), timer.getP99Micros(),
+                    timer.getP999Micros(), timer.getMaxMicros()));
+        }
+        for (Map.Entry<String, Counter> entry : new TreeMap<>(counters).entrySet()) {
+            out.append(String.format("%-32s %10d%n", entry.getKey(), entry.getValue().getCount()));
+        }
+        return out.toString();
+    }
+
+    /**
+     * Appends a snapshot to a file at a fixed interval on a daemon thread.
+     *
+     * @param fileName      The file to append to.
+     * @param periodSeconds The interval in seconds.
+     */
+    public static void startReporting(String fileName, long periodSeconds) {
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> {
+            try {
+                Files.write(Paths.get(fileName), (snapshot() + "\n").getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                System.out.println("Error writing metrics: " + e.getMessage());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    private static void register(String properties, StandardMBean bean) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(DOMAIN + ":" + properties);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(bean, name);
+            }
+        } catch (JMException | SecurityException e) {
+            // Still recorded and shown in snapshots, just not over JMX
+        }
+    }
+
+    private static String sanitize(String name) {
+        return name.replaceAll("[,=:\"*?\\s]", "_");
+    }
+
+    /**
+     * The JMX view of a {@link Timer}.
+     */
+    public interface TimerMBean {
+        long getCount();
+
+        double getMeanMicros();
+
+        double getP50Micros();
+
+        double getP99Micros();
+
+        double getP999Micros();
+
+        double getMaxMicros();
+
+        void reset();
+    }
+
+    /**
+     * Times one kind of operation.
+     */
+    public static final class Timer implements TimerMBean {
+        private final LatencyHistogram nanos = new LatencyHistogram();
+
+        private Timer() {
+        }
+
+        /**
+         * Starts timing an operation.
+         *
+         * @return The start time to pass to {@link #stop}, or 0 if metrics are off.
+         */
+        public long start() {
+            return enabled ? System.nanoTime() : 0;
+        }
+
+        /**
+         * Records the duration of an operation.
+         *
+         * @param start The value {@link #start()} returned.
+         */
+        public void stop(long start) {
+            if (start != 0) {
+                nanos.record(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public long getCount() {
+            return nanos.count();
+        }
+
+        @Override
+        public double getMeanMicros() {
+            return nanos.mean() / 1000;
+        }
+
+        @Override
+        public double getP50Micros() {
+            return nanos.percentile(50) / 1000.0;
+        }
+
+        @Override
+        public double getP99Micros() {
+            return nanos.percentile(99) / 1000.0;
+        }
+
+        @Override
+        public double getP999Micros() {
+            return nanos.percentile(99.9) / 1000.0;
+        }
+
+        @Override
+        public double getMaxMicros() {
+            return nanos.max() / 1000.0;
+        }
+
+        @Override
+        public void reset() {
+            nanos.reset();
+        }
+    }
+
+    /**
+     * The JMX view of a {@link Counter}.
+     */
+    public interface CounterMBean {
+        long getCount();
+
+        void reset();
+    }
+
+    /**
+     * Counts something, such as bytes written.
+     */
+    public static final class Counter implements CounterMBean {
+        private final LongAdder count = new LongAdder();
+
+        private Counter() {
+        }
+
+        /**
+         * Adds to the count if metrics are on.
+         *
+         * @param amount The amount to add.
+         */
+        public void add(long amount) {
+            if (enabled) {
+                count.add(amount);
+            }
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public void reset() {
+            count.reset();
+        }
+    }
+
+    /**
+     * The JMX switch and snapshot for all metrics.
+     */
+    public interface ControlMBean {
+        boolean isEnabled();
+
+        void setEnabled(boolean enabled);
+
+        String getSnapshot();
+
+        void reset();
+    }
+
+    private static final class Control implements ControlMBean {
+        @Override
+        public boolean isEnabled() {
+            return Metrics.isEnabled();
+        }
+
+        @Override
+        public void setEnabled(boolean on) {
+            Metrics.setEnabled(on);
+        }
+
+        @Override
+        public String getSnapshot() {
+            return Metrics.snapshot();
+        }
+
+        @Override
+        public void reset() {
+            Metrics.reset();
+        }
+    }
+}
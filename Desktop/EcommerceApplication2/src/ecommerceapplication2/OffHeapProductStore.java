@@ -0,0 +1,1029 @@
+package ecommerceapplication2;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Keeps products outside the Java heap, packed one after another in direct
+ * byte buffers ("slabs"). The heap only holds a few primitive arrays: the
+ * location of every record, the hash of its ID, an open-addressing table
+ * from ID to record and, once {@link #scan} has been used, the records in ID
+ * order. A catalog of millions of products therefore adds almost
+ * nothing for the garbage collector to trace.
+ *
+ * <p>Products are read through {@link ProductView} flyweights, which point at a
+ * record instead of copying it. {@link #forEach} moves a single view across the
+ * whole store, so scans such as {@link #countInPriceRange} allocate nothing.
+ *
+ * <p>Record layout:
+ * <pre>
+ *     byte   type (1 = physical, 2 = digital)
+ *     double price
+ *     double weight (physical products only)
+ *     short  byte lengths of the ID, name, dimensions/file size and format
+ *     int    stock balance, or {@code Integer.MIN_VALUE} if the stock is not tracked
+ *     bytes  the four strings in UTF-8
+ * </pre>
+ * Replacing a product appends a new record; the old bytes stay in the slab
+ * until the store is rebuilt. Price and stock changes are written in place.
+ * The stock balance is the sum of the recorded changes and may dip below
+ * zero while they are replayed; views report such a product as out of stock.
+ */
+public class OffHeapProductStore implements ProductJournal.Visitor {
+    private static final byte PHYSICAL = 1;
+    private static final byte DIGITAL = 2;
+    private static final int HEADER_SIZE = 29;
+    private static final int FIRST_SLAB_SIZE = 1 << 20;     // Slabs double from 1 MB...
+    private static final int MAX_SLAB_SIZE = 64 << 20;      // ...up to 64 MB
+    private static final long DELETED = -1;
+    private static final int NOT_TRACKED = Integer.MIN_VALUE; // Stock balance of a product whose stock is not tracked
+
+    private static final Map<String, Tracker> stores = new ConcurrentHashMap<>(); // One store per product file
+
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+    private ByteBuffer slab;            // The slab records are appended to
+    private long[] locations = new long[1024]; // Slab index << 32 | position, or DELETED
+    private int[] hashes = new int[1024];      // Hash code of each record's ID
+    private int records;                // Records ever added, including deleted ones
+    private int live;                   // Records not deleted
+    private int[] table = new int[2048];       // Record index + 1 by ID hash, 0 when empty
+    private int tableEntries;           // Occupied table slots, including deleted records
+    private long garbageBytes;          // Bytes held by replaced records
+    private long applied;               // Records read from the product file and journal, including superseded ones
+    private int[] sorted;               // Live record indexes in ID order (the first live entries), built by the first scan, or null
+
+    /**
+     * Returns the store for a product file, with the changes recorded in its
+     * journal applied. The store is rebuilt when the product file changes and
+     * brought up to date when the journal grows.
+     *
+     * @param fileName The name of the product file.
+     * @return The up-to-date store.
+     */
+    public static OffHeapProductStore forFile(String fileName) {
+        return tracker(fileName).current();
+    }
+
+    /**
+     * Starts telling a listener of the changes to the store of a product file,
+     * like {@link ProductCatalog#addListener}. The listener is first given all
+     * current products through {@link ProductCatalog.Listener#catalogReplaced};
+     * that list copies each product onto the heap only when it is read, and
+     * only during the call.
+     *
+     * @param fileName The name of the product file.
+     * @param listener The listener.
+     */
+    public static void addListener(String fileName, ProductCatalog.Listener listener) {
+        Tracker tracker = tracker(fileName);
+        synchronized (tracker) {
+            OffHeapProductStore store = tracker.current();
+            tracker.listeners.add(listener);
+            listener.catalogReplaced(store.products());
+        }
+    }
+
+    /**
+     * Returns the view of a product file that {@link ProductJournal} compacts
+     * from when products are kept off the heap.
+     *
+     * @param fileName The name of the product file.
+     * @return The compaction source.
+     */
+    static ProductJournal.Source compactionSource(String fileName) {
+        return tracker(fileName);
+    }
+
+    private static Tracker tracker(String fileName) {
+        return stores.computeIfAbsent(fileName, name -> {
+            Tracker tracker = new Tracker(name);
+            FileTailer.Listener refresh = (file, change, from, to) -> tracker.current();
+            FileTailer.getDefault().watch(Paths.get(name), new File(name).length(), refresh);
+            FileTailer.getDefault().watch(Paths.get(tracker.journalFileName),
+                    new File(tracker.journalFileName).length(), refresh);
+            return tracker;
+        });
+    }
+
+    /**
+     * Loads a product file and its journal into a new store.
+     * Records that cannot be loaded are skipped and summarized once.
+     *
+     * @param fileName The name of the product file.
+     * @return The store.
+     * @throws IOException if the file cannot be read.
+     */
+    public static OffHeapProductStore load(String fileName) throws IOException {
+        ProductJournal.Header header = ProductJournal.Header.read(fileName);
+        OffHeapProductStore store = readProductFile(fileName, header);
+        ProductJournal.replay(ProductJournal.journalFileName(fileName), ProductJournal.replayStart(fileName, header), store);
+        return store;
+    }
+
+    /**
+     * Loads a product file, without its journal, into a new store, taking
+     * the stock balances below zero from its header.
+     */
+    private static OffHeapProductStore readProductFile(String fileName, ProductJournal.Header header) throws IOException {
+        OffHeapProductStore store = new OffHeapProductStore();
+        List<String> errors = new ArrayList<>();
+        long fileRecords = 0;
+        try (Reader reader = new BufferedReader(new FileReader(fileName), 1 << 16)) {
+            CsvCursor cursor = new CsvCursor(reader);
+            while (cursor.nextRecord()) {
+                try {
+                    Product product = FileHandler.parseProduct(cursor, errors);
+                    if (product != null) {
+                        store.put(product);
+                        fileRecords++;
+                    }
+                } catch (IllegalArgumentException e) {
+                    errors.add("Error in product data format: " + e.getMessage());
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // No products yet; the journal may still hold some
+        }
+        if (!errors.isEmpty()) {
+            System.out.println(errors.size() + " product record(s) in " + fileName
+                    + " could not be loaded, first: " + errors.get(0));
+        }
+        for (Map.Entry<String, Integer> shortfall : header.shortfalls.entrySet()) {
+            store.adjustStock(shortfall.getKey(), -shortfall.getValue(), false); // Recorded with no stock
+        }
+        store.applied = fileRecords;
+        return store;
+    }
+
+    /**
+     * Returns the number of products in the store.
+     *
+     * @return The product count.
+     */
+    public synchronized int size() {
+        return live;
+    }
+
+    /**
+     * Returns the number of bytes reserved outside the heap.
+     *
+     * @return The total slab capacity.
+     */
+    public synchronized long offHeapBytes() {
+        long bytes = 0;
+        for (ByteBuffer buffer : slabs) {
+            bytes += buffer.capacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the number of slab bytes held by records that have been replaced or deleted.
+     *
+     * @return The wasted byte count.
+     */
+    public synchronized long garbageBytes() {
+        return garbageBytes;
+    }
+
+    /**
+     * Adds a product. A product with the same ID is replaced but keeps its position.
+     *
+     * @param product The product to store.
+     * @throws IllegalArgumentException if a field is longer than 65535 bytes.
+     */
+    @Override
+    public synchronized void put(Product product) {
+        String productId = product.getProductId();
+        byte[] id = utf8(productId);
+        byte[] name = utf8(product.getName());
+        byte[] detail;
+        byte[] format;
+        double weight = 0;
+        byte type;
+        if (product instanceof PhysicalProduct) {
+            PhysicalProduct physical = (PhysicalProduct) product;
+            type = PHYSICAL;
+            weight = physical.getWeight();
+            detail = utf8(physical.getDimensions());
+            format = new byte[0];
+        } else {
+            DigitalProduct digital = (DigitalProduct) product;
+            type = DIGITAL;
+            detail = utf8(digital.getFileSize());
+            format = utf8(digital.getFormat());
+        }
+        int size = HEADER_SIZE + id.length + name.length + detail.length + format.length;
+        if (slab == null || slab.remaining() < size) {
+            newSlab(size);
+        }
+        long location = (long) (slabs.size() - 1) << 32 | slab.position();
+        slab.put(type).putDouble(product.getPrice()).putDouble(weight);
+        slab.putShort((short) id.length).putShort((short) name.length)
+                .putShort((short) detail.length).putShort((short) format.length);
+        slab.putInt(product.isStockTracked() ? product.getStock() : NOT_TRACKED);
+        slab.put(id).put(name).put(detail).put(format);
+        applied++;
+
+        int existing = indexOf(productId);
+        if (existing >= 0) {
+            garbageBytes += recordSize(existing);
+            locations[existing] = location;
+            return;
+        }
+        if (records == locations.length) {
+            locations = Arrays.copyOf(locations, records * 2);
+            hashes = Arrays.copyOf(hashes, records * 2);
+        }
+        locations[records] = location;
+        hashes[records] = productId.hashCode();
+        insertIntoTable(records);
+        if (sorted != null) {
+            int position = -sortedPosition(productId) - 1;
+            if (live == sorted.length) {
+                sorted = Arrays.copyOf(sorted, Math.max(16, live * 2));
+            }
+            System.arraycopy(sorted, position, sorted, position + 1, live - position);
+            sorted[position] = records;
+        }
+        records++;
+        live++;
+        if (tableEntries * 2 > table.length) {
+            rehash();
+        }
+    }
+
+    /**
+     * Removes the product with the given ID, if present.
+     *
+     * @param productId The ID of the product to remove.
+     */
+    @Override
+    public synchronized void delete(String productId) {
+        applied++;
+        int index = indexOf(productId);
+        if (index >= 0) {
+            if (sorted != null) {
+                int position = sortedPosition(productId);
+                System.arraycopy(sorted, position + 1, sorted, position, live - position - 1);
+            }
+            garbageBytes += recordSize(index);
+            locations[index] = DELETED;
+            live--;
+        }
+    }
+
+    /**
+     * Changes the price of a product by overwriting it in its record.
+     *
+     * @param productId The ID of the product.
+     * @param price     The new price.
+     */
+    @Override
+    public synchronized void updatePrice(String productId, double price) {
+        applied++;
+        int index = indexOf(productId);
+        if (index >= 0) {
+            long location = locations[index];
+            slabs.get((int) (location >>> 32)).putDouble((int) location + 1, price);
+        }
+    }
+
+    /**
+     * Changes the stock of a product by overwriting it in its record. The
+     * balance is not held at zero, so the result does not depend on the
+     * order in which concurrent changes were recorded.
+     *
+     * @param productId The ID of the product.
+     * @param delta     The units added, or taken if negative.
+     * @param local     Whether the change was recorded by this process.
+     */
+    @Override
+    public synchronized void adjustStock(String productId, int delta, boolean local) {
+        applied++;
+        int index = indexOf(productId);
+        if (index >= 0) {
+            long location = locations[index];
+            ByteBuffer buffer = slabs.get((int) (location >>> 32));
+            int balance = buffer.getInt((int) location + 25);
+            buffer.putInt((int) location + 25, (balance == NOT_TRACKED ? 0 : balance) + delta); // An untracked product starts counting at 0
+        }
+    }
+
+    /**
+     * Returns the stock balance of a product, which may be below zero.
+     *
+     * @param productId The ID of the product.
+     * @return The balance, or {@link Product#UNTRACKED} if the product is
+     *         missing or its stock is not tracked.
+     */
+    synchronized int stockBalance(String productId) {
+        int index = indexOf(productId);
+        if (index < 0) {
+            return Product.UNTRACKED;
+        }
+        long location = locations[index];
+        int balance = slabs.get((int) (location >>> 32)).getInt((int) location + 25);
+        return balance == NOT_TRACKED ? Product.UNTRACKED : balance;
+    }
+
+    /**
+     * Returns the products whose stock balance is below zero, with the units missing.
+     *
+     * @return The missing units by product ID.
+     */
+    synchronized Map<String, Integer> shortfalls() {
+        Map<String, Integer> shortfalls = new HashMap<>();
+        for (int i = 0; i < records; i++) {
+            long location = locations[i];
+            if (location != DELETED) {
+                int balance = slabs.get((int) (location >>> 32)).getInt((int) location + 25);
+                if (balance != NOT_TRACKED && balance < 0) {
+                    ProductView view = new ProductView(this);
+                    view.moveTo(i);
+                    shortfalls.put(view.getProductId(), -balance);
+                }
+            }
+        }
+        return shortfalls;
+    }
+
+    /**
+     * Checks whether a product with the given ID is in the store.
+     *
+     * @param productId The product ID to look for.
+     * @return {@code true} if the product is present.
+     */
+    public synchronized boolean contains(String productId) {
+        return indexOf(productId) >= 0;
+    }
+
+    /**
+     * Returns a new view of the product with the given ID.
+     *
+     * @param productId The product ID to look for.
+     * @return A view of the product, or {@code null} if it is not in the store.
+     */
+    public synchronized ProductView find(String productId) {
+        int index = indexOf(productId);
+        if (index < 0) {
+            return null;
+        }
+        ProductView view = new ProductView(this);
+        view.moveTo(index);
+        return view;
+    }
+
+    /**
+     * Copies the product with the given ID onto the heap.
+     *
+     * @param productId The product ID to look for.
+     * @return The product, or {@code null} if it is not in the store.
+     */
+    public synchronized Product getProduct(String productId) {
+        ProductView view = find(productId);
+        return view == null ? null : view.toProduct();
+    }
+
+    /**
+     * Passes every product, in the order first added, to an action. The same
+     * view is moved from record to record, so the action must not keep it.
+     * The store cannot be changed while the iteration runs.
+     *
+     * @param action The action to run for each product.
+     */
+    public synchronized void forEach(Consumer<? super ProductView> action) {
+        ProductView view = new ProductView(this);
+        for (int i = 0; i < records; i++) {
+            if (locations[i] != DELETED) {
+                view.moveTo(i);
+                action.accept(view);
+            }
+        }
+    }
+
+    /**
+     * Counts the products priced within a range, reading only the price of each record.
+     *
+     * @param min The lowest price to count.
+     * @param max The highest price to count.
+     * @return The number of products with {@code min <= price <= max}.
+     */
+    public synchronized int countInPriceRange(double min, double max) {
+        int count = 0;
+        for (int i = 0; i < records; i++) {
+            long location = locations[i];
+            if (location != DELETED) {
+                double price = slabs.get((int) (location >>> 32)).getDouble((int) location + 1);
+                if (price >= min && price <= max) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns products whose IDs fall in a range, in ascending ID order, like
+     * {@link ProductCatalog#scan}. Only the returned products are copied onto
+     * the heap. The first scan sorts the store by ID; the order is then kept
+     * as products are added and deleted.
+     *
+     * @param fromId The smallest ID to include, or {@code null} to start at the first product.
+     * @param toId   The ID to stop before, or {@code null} to continue to the last product.
+     * @param limit  The maximum number of products to return.
+     * @return The products in the range.
+     */
+    public synchronized List<Product> scan(String fromId, String toId, int limit) {
+        if (sorted == null) {
+            sortById();
+        }
+        int position = 0;
+        if (fromId != null) {
+            position = sortedPosition(fromId);
+            if (position < 0) {
+                position = -position - 1;
+            }
+        }
+        List<Product> products = new ArrayList<>(Math.min(limit, 64));
+        ProductView view = new ProductView(this);
+        for (; position < live && products.size() < limit; position++) {
+            view.moveTo(sorted[position]);
+            if (toId != null && view.getProductId().compareTo(toId) >= 0) {
+                break;
+            }
+            products.add(view.toProduct());
+        }
+        return products;
+    }
+
+    /**
+     * Copies every product onto the heap, in the order first added.
+     *
+     * @return The products.
+     */
+    public synchronized ArrayList<Product> toProducts() {
+        ArrayList<Product> products = new ArrayList<>(live);
+        forEach(view -> products.add(view.toProduct()));
+        return products;
+    }
+
+    /**
+     * Returns the products, in the order first added, as a list that copies
+     * each one onto the heap only when it is read. The list is only valid
+     * while the store is not being changed.
+     *
+     * @return The products.
+     */
+    synchronized List<Product> products() {
+        int[] indexes = new int[live];
+        int count = 0;
+        for (int i = 0; i < records; i++) {
+            if (locations[i] != DELETED) {
+                indexes[count++] = i;
+            }
+        }
+        return new AbstractList<Product>() {
+            @Override
+            public Product get(int i) {
+                synchronized (OffHeapProductStore.this) {
+                    ProductView view = new ProductView(OffHeapProductStore.this);
+                    view.moveTo(indexes[i]);
+                    return view.toProduct();
+                }
+            }
+
+            @Override
+            public int size() {
+                return indexes.length;
+            }
+        };
+    }
+
+    private void sortById() {
+        String[] ids = new String[records];
+        Integer[] order = new Integer[live];
+        ProductView view = new ProductView(this);
+        int count = 0;
+        for (int i = 0; i < records; i++) {
+            if (locations[i] != DELETED) {
+                view.moveTo(i);
+                ids[i] = view.getProductId();
+                order[count++] = i;
+            }
+        }
+        Arrays.sort(order, (a, b) -> ids[a].compareTo(ids[b]));
+        sorted = new int[live];
+        for (int i = 0; i < live; i++) {
+            sorted[i] = order[i];
+        }
+    }
+
+    /**
+     * Finds an ID in the sorted records by binary search.
+     *
+     * @return The position of the ID, or {@code -(insertion point) - 1} if it is not there.
+     */
+    private int sortedPosition(String productId) {
+        int low = 0;
+        int high = live - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long location = locations[sorted[middle]];
+            ByteBuffer buffer = slabs.get((int) (location >>> 32));
+            int cmp = decode(buffer, (int) location + HEADER_SIZE, buffer.getShort((int) location + 17) & 0xffff)
+                    .compareTo(productId);
+            if (cmp < 0) {
+                low = middle + 1;
+            } else if (cmp > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -low - 1;
+    }
+
+    private void newSlab(int minimum) {
+        int size = slab == null ? FIRST_SLAB_SIZE : Math.min(MAX_SLAB_SIZE, slab.capacity() * 2);
+        slab = ByteBuffer.allocateDirect(Math.max(size, minimum));
+        slabs.add(slab);
+    }
+
+    private int recordSize(int index) {
+        long location = locations[index];
+        ByteBuffer buffer = slabs.get((int) (location >>> 32));
+        int position = (int) location;
+        return HEADER_SIZE + (buffer.getShort(position + 17) & 0xffff) + (buffer.getShort(position + 19) & 0xffff)
+                + (buffer.getShort(position + 21) & 0xffff) + (buffer.getShort(position + 23) & 0xffff);
+    }
+
+    /**
+     * Finds the live record holding the given ID by probing the hash table.
+     *
+     * @return The record index, or -1 if there is none.
+     */
+    private int indexOf(String productId) {
+        int hash = productId.hashCode();
+        int mask = table.length - 1;
+        for (int slot = mix(hash) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int index = table[slot] - 1;
+            if (hashes[index] == hash && locations[index] != DELETED && idEquals(index, productId)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private void insertIntoTable(int index) {
+        int mask = table.length - 1;
+        int slot = mix(hashes[index]) & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = index + 1;
+        tableEntries++;
+    }
+
+    /**
+     * Rebuilds the table from the live records, dropping entries of deleted ones.
+     */
+    private void rehash() {
+        int capacity = Integer.highestOneBit(Math.max(live, 512) * 4 - 1) << 1;
+        table = new int[capacity];
+        tableEntries = 0;
+        for (int i = 0; i < records; i++) {
+            if (locations[i] != DELETED) {
+                insertIntoTable(i);
+            }
+        }
+    }
+
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Compares a record's ID with a string without decoding the record.
+     */
+    private boolean idEquals(int index, String productId) {
+        long location = locations[index];
+        ByteBuffer buffer = slabs.get((int) (location >>> 32));
+        int position = (int) location;
+        int length = buffer.getShort(position + 17) & 0xffff;
+        int offset = position + HEADER_SIZE;
+        if (length != productId.length()) {
+            return length == utf8Length(productId) && decode(buffer, offset, length).equals(productId);
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(offset + i) != productId.charAt(i)) {
+                return decode(buffer, offset, length).equals(productId); // Not plain ASCII
+            }
+        }
+        return true;
+    }
+
+    private static int utf8Length(String value) {
+        return value.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static byte[] utf8(String value) {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xffff) {
+            throw new IllegalArgumentException("Product field longer than 65535 bytes.");
+        }
+        return bytes;
+    }
+
+    private static String decode(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A reusable view of one record in an {@link OffHeapProductStore}.
+     * Numeric getters read straight from the record; string getters decode it.
+     * A view is only valid while the store is not being changed.
+     */
+    public static final class ProductView implements ProductInterface {
+        private final OffHeapProductStore store;
+        private ByteBuffer buffer;  // Slab holding the record
+        private int position;       // Start of the record in the slab
+        private byte[] scratch = new byte[64]; // Reused when printing strings
+
+        private ProductView(OffHeapProductStore store) {
+            this.store = store;
+        }
+
+        private void moveTo(int index) {
+            long location = store.locations[index];
+            buffer = store.slabs.get((int) (location >>> 32));
+            position = (int) location;
+        }
+
+        public boolean isPhysical() {
+            return buffer.get(position) == PHYSICAL;
+        }
+
+        @Override
+        public double getPrice() {
+            return buffer.getDouble(position + 1);
+        }
+
+        /**
+         * Returns the weight of a physical product.
+         *
+         * @return The weight in kilograms, or 0 for a digital product.
+         */
+        public double getWeight() {
+            return buffer.getDouble(position + 9);
+        }
+
+        @Override
+        public String getProductId() {
+            return field(0);
+        }
+
+        @Override
+        public String getName() {
+            return field(1);
+        }
+
+        /**
+         * Returns the units in stock.
+         *
+         * @return The stock, or {@link Product#UNTRACKED}.
+         */
+        public int getStock() {
+            int balance = buffer.getInt(position + 25);
+            return balance == NOT_TRACKED ? Product.UNTRACKED : Math.max(0, balance);
+        }
+
+        /**
+         * Returns the dimensions of a physical product or the file size of a digital one.
+         *
+         * @return The third string field.
+         */
+        public String getDetail() {
+            return field(2);
+        }
+
+        /**
+         * Returns the format of a digital product.
+         *
+         * @return The format, or an empty string for a physical product.
+         */
+        public String getFormat() {
+            return field(3);
+        }
+
+        /**
+         * Copies the record onto the heap as a regular product.
+         *
+         * @return A {@link PhysicalProduct} or {@link DigitalProduct}.
+         */
+        public Product toProduct() {
+            if (isPhysical()) {
+                return new PhysicalProduct(getProductId(), getName(), getPrice(), getWeight(), getDetail(), getStock());
+            }
+            return new DigitalProduct(getProductId(), getName(), getPrice(), getDetail(), getFormat(), getStock());
+        }
+
+        @Override
+        public String toFileFormat() {
+            return toProduct().toFileFormat();
+        }
+
+        /**
+         * Prints the product like {@link PhysicalProduct#displayDetails()} or
+         * {@link DigitalProduct#displayDetails()}. When the console uses UTF-8,
+         * the strings are copied to it without being decoded.
+         */
+        @Override
+        public void displayDetails() {
+            PrintStream out = System.out;
+            boolean physical = isPhysical();
+            out.print(physical ? "\nPhysical Product - " : "\nDigital Product - ");
+            printField(out, 1);
+            out.print("\n  Product ID: ");
+            printField(out, 0);
+            out.print("\n  Price: $");
+            out.println(getPrice());
+            if (physical) {
+                out.print("  Weight: ");
+                out.print(getWeight());
+                out.print(" kg\n  Dimensions: ");
+                printField(out, 2);
+            } else {
+                out.print("  File Size: ");
+                printField(out, 2);
+                out.print("\n  Format: ");
+                printField(out, 3);
+            }
+            out.println();
+            if (getStock() != Product.UNTRACKED) {
+                out.print("  In Stock: ");
+                out.println(getStock());
+            }
+        }
+
+        @Override
+        public void displayDetails(Appendable out) throws IOException {
+            boolean physical = isPhysical();
+            out.append(physical ? "\nPhysical Product - " : "\nDigital Product - ").append(getName())
+                    .append("\n  Product ID: ").append(getProductId())
+                    .append("\n  Price: $").append(Double.toString(getPrice()));
+            if (physical) {
+                out.append("\n  Weight: ").append(Double.toString(getWeight()))
+                        .append(" kg\n  Dimensions: ").append(getDetail());
+            } else {
+                out.append("\n  File Size: ").append(getDetail()).append("\n  Format: ").append(getFormat());
+            }
+            out.append('\n');
+            if (getStock() != Product.UNTRACKED) {
+                out.append("  In Stock: ").append(Integer.toString(getStock())).append('\n');
+            }
+        }
+
+        @Override
+        public void saveProductToFile() {
+            toProduct().saveProductToFile();
+        }
+
+        private int fieldOffset(int field) {
+            int offset = position + HEADER_SIZE;
+            for (int i = 0; i < field; i++) {
+                offset += buffer.getShort(position + 17 + 2 * i) & 0xffff;
+            }
+            return offset;
+        }
+
+        private int fieldLength(int field) {
+            return buffer.getShort(position + 17 + 2 * field) & 0xffff;
+        }
+
+        private String field(int field) {
+            return decode(buffer, fieldOffset(field), fieldLength(field));
+        }
+
+        private void printField(PrintStream out, int field) {
+            if (!out.charset().equals(StandardCharsets.UTF_8)) {
+                out.print(field(field));
+                return;
+            }
+            int length = fieldLength(field);
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            buffer.get(fieldOffset(field), scratch, 0, length);
+            out.write(scratch, 0, length);
+        }
+    }
+
+    /**
+     * Keeps the store of one product file in step with the file and its
+     * journal, telling its listeners of every change applied. It is also the
+     * source that compaction writes the product file from.
+     */
+    private static final class Tracker implements ProductJournal.Source {
+        private final String fileName;
+        private final String journalFileName;
+        private final List<ProductCatalog.Listener> listeners = new CopyOnWriteArrayList<>(); // Told of every change
+        private final Notifier notifier = new Notifier();
+        private OffHeapProductStore store;
+        private long lastModified = -1;   // Product file modification time when loaded
+        private long length = -1;         // Product file size when loaded
+        private long journalOffset;       // End of the last journal record applied
+        private long journalSeen;         // Journal size when last read
+        private Object journalKey;        // Identity of the journal when read
+
+        Tracker(String fileName) {
+            this.fileName = fileName;
+            this.journalFileName = ProductJournal.journalFileName(fileName);
+        }
+
+        synchronized OffHeapProductStore current() {
+            File file = new File(fileName);
+            long modified = file.lastModified();
+            long size = file.length();
+            long journalLength = new File(journalFileName).length();
+            try {
+                if (store == null || modified != lastModified || size != length || journalLength < journalSeen
+                        || journalLength != journalSeen && !Objects.equals(journalKey(), journalKey)) {
+                    ProductJournal.Header header = ProductJournal.Header.read(fileName);
+                    store = readProductFile(fileName, header);
+                    lastModified = modified;
+                    length = size;
+                    journalKey = journalKey();
+                    journalOffset = ProductJournal.replay(journalFileName,
+                            ProductJournal.replayStart(fileName, header), store);
+                    journalSeen = journalLength;
+                    for (ProductCatalog.Listener listener : listeners) {
+                        listener.catalogReplaced(store.products());
+                    }
+                } else if (journalLength != journalSeen) {
+                    journalOffset = ProductJournal.replay(journalFileName, journalOffset, notifier);
+                    journalSeen = journalLength;
+                }
+            } catch (IOException e) {
+                System.out.println("Error reading products: " + e.getMessage());
+                if (store == null) {
+                    store = new OffHeapProductStore();
+                }
+            }
+            return store;
+        }
+
+        private Object journalKey() throws IOException {
+            try {
+                return Files.readAttributes(Paths.get(journalFileName), BasicFileAttributes.class).fileKey();
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public synchronized long recordCount() {
+            OffHeapProductStore current = current();
+            synchronized (current) {
+                return current.applied;
+            }
+        }
+
+        @Override
+        public synchronized double garbageRatio() {
+            OffHeapProductStore current = current();
+            synchronized (current) {
+                return current.applied == 0 ? 0 : 1.0 - (double) current.live / current.applied;
+            }
+        }
+
+        @Override
+        public synchronized Map<String, Integer> shortfalls() {
+            return current().shortfalls();
+        }
+
+        /**
+         * Writes the products straight from the slabs, copying one product at
+         * a time onto the heap.
+         */
+        @Override
+        public synchronized void writeProducts(Writer out) throws IOException {
+            IOException[] failure = new IOException[1];
+            current().forEach(view -> {
+                if (failure[0] == null) {
+                    try {
+                        out.write(view.toFileFormat());
+                        out.write(System.lineSeparator());
+                    } catch (IOException e) {
+                        failure[0] = e;
+                    }
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        }
+
+        @Override
+        public synchronized void compacted(long journalLength, int journalRecords) {
+            File file = new File(fileName);
+            lastModified = file.lastModified();
+            length = file.length();
+            try {
+                journalKey = journalKey();
+            } catch (IOException e) {
+                store = null; // The next change reloads the files
+            }
+            journalOffset = journalLength;
+            journalSeen = journalLength;
+            if (store != null) {
+                synchronized (store) {
+                    store.applied = store.live + journalRecords;
+                }
+            }
+        }
+
+        /**
+         * Applies journal records to the store and tells the listeners of
+         * each change, like {@link ProductCatalog}'s state does. Products are
+         * only copied onto the heap when someone is listening.
+         */
+        private final class Notifier implements ProductJournal.Visitor {
+            @Override
+            public void put(Product product) {
+                Product old = listeners.isEmpty() ? null : store.getProduct(product.getProductId());
+                store.put(product);
+                replaced(old, product);
+                for (ProductCatalog.Listener listener : listeners) {
+                    listener.stockChanged(product, product.getStock(), 0, false);
+                }
+            }
+
+            @Override
+            public void delete(String productId) {
+                Product old = listeners.isEmpty() ? null : store.getProduct(productId);
+                store.delete(productId);
+                replaced(old, null);
+            }
+
+            @Override
+            public void updatePrice(String productId, double price) {
+                Product old = listeners.isEmpty() ? null : store.getProduct(productId);
+                store.updatePrice(productId, price);
+                if (old != null) {
+                    replaced(old, store.getProduct(productId));
+                }
+            }
+
+            @Override
+            public void adjustStock(String productId, int delta, boolean local) {
+                Product old = listeners.isEmpty() ? null : store.getProduct(productId);
+                store.adjustStock(productId, delta, local);
+                if (old != null) {
+                    Product restocked = store.getProduct(productId);
+                    replaced(old, restocked);
+                    int balance = store.stockBalance(productId);
+                    for (ProductCatalog.Listener listener : listeners) {
+                        listener.stockChanged(restocked, balance, delta, local);
+                    }
+                }
+            }
+
+            private void replaced(Product old, Product product) {
+                for (ProductCatalog.Listener listener : listeners) {
+                    if (old != null) {
+                        listener.productRemoved(old);
+                    }
+                    if (product != null) {
+                        listener.productAdded(product);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package ecommerceapplication2;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A paid order: who bought what, for how much and when. Orders are recorded
+ * in the {@link OrderJournal} at checkout and never change afterwards.
+ *
+ * <p>The order is identified by the ID of the payment that paid for it.
+ * Prices are kept in cents, as in the {@link Cart} the order was placed from.
+ */
+public final class Order {
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm").withZone(ZoneId.systemDefault());
+
+    private final String paymentId;      // ID of the payment, which is also the order number
+    private final String buyerId;        // User ID of the buyer
+    private final String paymentMethod;  // Payment method (e.g., Credit Card, PayPal)
+    private final long placedAt;         // System.currentTimeMillis() when the order was paid
+    private final long totalCents;       // Sum of the line totals
+    private final List<Line> lines;      // Products bought, in cart order
+
+    /**
+     * One product of an order.
+     */
+    public static final class Line {
+        private final String productId;
+        private final String name;
+        private final long unitCents;
+        private final int quantity;
+
+        Line(String productId, String name, long unitCents, int quantity) {
+            this.productId = productId;
+            this.name = name;
+            this.unitCents = unitCents;
+            this.quantity = quantity;
+        }
+
+        // Getters
+        public String getProductId() {
+            return productId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getUnitPrice() {
+            return unitCents / 100.0;
+        }
+
+        public int getQuantity() {
+            return quantity;
+        }
+
+        public double getTotal() {
+            return unitCents * quantity / 100.0;
+        }
+    }
+
+    private Order(String paymentId, String buyerId, String paymentMethod, long placedAt, long totalCents,
+                  List<Line> lines) {
+        this.paymentId = paymentId;
+        this.buyerId = buyerId;
+        this.paymentMethod = paymentMethod;
+        this.placedAt = placedAt;
+        this.totalCents = totalCents;
+        this.lines = Collections.unmodifiableList(lines);
+    }
+
+    /**
+     * Creates the order for a cart that has just been paid for.
+     *
+     * @param payment The successful payment.
+     * @param buyerId The user ID of the buyer.
+     * @param cart    The cart that was paid for.
+     * @return The order.
+     */
+    public static Order of(Payment payment, String buyerId, Cart cart) {
+        List<Line> lines = new ArrayList<>(cart.lineCount());
+        for (int i = 0; i < cart.lineCount(); i++) {
+            lines.add(new Line(cart.productId(i), cart.name(i), Math.round(cart.unitPrice(i) * 100), cart.quantity(i)));
+        }
+        return new Order(payment.getPaymentId(), buyerId, payment.getPaymentMethod(), System.currentTimeMillis(),
+                cart.totalCents(), lines);
+    }
+
+    /**
+     * Displays the order, one product per line.
+     */
+    public void displayDetails() {
+        System.out.println("\nOrder " + paymentId + " - " + DATE_FORMAT.format(Instant.ofEpochMilli(placedAt)));
+        for (Line line : lines) {
+            if (line.quantity == 1) {
+                System.out.println("  " + line.name + " - $" + line.getUnitPrice());
+            } else {
+                System.out.println("  " + line.name + " - " + line.quantity + " x $" + line.getUnitPrice()
+                        + " = $" + line.getTotal());
+            }
+        }
+        System.out.println("  Total: $" + getTotal() + " (" + paymentMethod + ")");
+    }
+
+    /**
+     * Encodes the order as a journal record payload: the time placed and the
+     * total as longs, the payment ID, buyer ID and payment method as strings,
+     * then the line count and each line's product ID, name, unit price in
+     * cents and quantity. Strings are UTF-8 prefixed by their byte length.
+     */
+    byte[] toBytes() {
+        List<byte[]> strings = new ArrayList<>();
+        int size = Long.BYTES * 2 + Integer.BYTES;
+        size += addString(strings, paymentId) + addString(strings, buyerId) + addString(strings, paymentMethod);
+        for (Line line : lines) {
+            size += addString(strings, line.productId) + addString(strings, line.name) + Long.BYTES + Integer.BYTES;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putLong(placedAt).putLong(totalCents);
+        buffer.put(strings.get(0)).put(strings.get(1)).put(strings.get(2));
+        buffer.putInt(lines.size());
+        int string = 3;
+        for (Line line : lines) {
+            buffer.put(strings.get(string++)).put(strings.get(string++));
+            buffer.putLong(line.unitCents).putInt(line.quantity);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Decodes a payload written by {@link #toBytes()}.
+     *
+     * @param payload The payload, positioned at its start.
+     * @return The order.
+     * @throws IllegalArgumentException if the payload is malformed.
+     */
+    static Order fromBytes(ByteBuffer payload) {
+        try {
+            long placedAt = payload.getLong();
+            long totalCents = payload.getLong();
+            String paymentId = getString(payload);
+            String buyerId = getString(payload);
+            String paymentMethod = getString(payload);
+            int lineCount = payload.getInt();
+            if (lineCount < 0 || lineCount > payload.remaining()) {
+                throw new IllegalArgumentException("Invalid line count " + lineCount);
+            }
+            List<Line> lines = new ArrayList<>(lineCount);
+            for (int i = 0; i < lineCount; i++) {
+                lines.add(new Line(getString(payload), getString(payload), payload.getLong(), payload.getInt()));
+            }
+            return new Order(paymentId, buyerId, paymentMethod, placedAt, totalCents, lines);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated order record");
+        }
+    }
+
+    private static int addString(List<byte[]> strings, String value) {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        byte[] prefixed = ByteBuffer.allocate(Integer.BYTES + bytes.length).putInt(bytes.length).put(bytes).array();
+        strings.add(prefixed);
+        return prefixed.length;
+    }
+
+    private static String getString(ByteBuffer payload) {
+        int length = payload.getInt();
+        if (length < 0 || length > payload.remaining()) {
+            throw new IllegalArgumentException("Invalid string length " + length);
+        }
+        String value = new String(payload.array(), payload.arrayOffset() + payload.position(), length, StandardCharsets.UTF_8);
+        payload.position(payload.position() + length);
+        return value;
+    }
+
+    // Getters
+    public String getPaymentId() {
+        return paymentId;
+    }
+
+    public String getBuyerId() {
+        return buyerId;
+    }
+
+    public String getPaymentMethod() {
+        return paymentMethod;
+    }
+
+    public long getPlacedAt() {
+        return placedAt;
+    }
+
+    public double getTotal() {
+        return totalCents / 100.0;
+    }
+
+    public List<Line> getLines() {
+        return lines;
+    }
+}
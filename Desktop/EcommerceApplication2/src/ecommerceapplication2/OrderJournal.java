@@ -0,0 +1,297 @@
+package ecommerceapplication2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of the orders placed in the shop.
+ * Every paid order is appended as a single checksummed binary record to the
+ * journal file and never rewritten.
+ *
+ * <p>Records are written through the file's {@link BatchedFileWriter} with
+ * {@link BatchedFileWriter.Durability#FSYNC}, so orders placed together share
+ * one write and one fsync; each order's future completes once its record is
+ * on disk.
+ *
+ * <p>The journal keeps an index from each buyer to the file offsets of their
+ * orders, so {@link #ordersOf} reads only that buyer's records. The index is
+ * built by scanning the file when the journal is first opened and then kept
+ * up to date by scanning only what was appended since, including records
+ * written by other processes.
+ *
+ * <p>The opening scan also recovers from a crash in the middle of a write: an
+ * incomplete or corrupt record at the end of the file is cut off, so new
+ * orders are never appended behind it. A damaged record followed by valid
+ * ones, which another process may have appended after crashing, is skipped
+ * rather than cut off, so no acknowledged order is lost.
+ *
+ * <p>Record layout: {@code [int length][byte type][payload][int crc32(type, payload)]},
+ * where the payload is described in {@link Order}.
+ */
+public final class OrderJournal {
+    static final byte ORDER = 1; // Payload: one order
+
+    private static final int MAX_RECORD_LENGTH = 1 << 24;
+    private static final int FRAME_BYTES = Integer.BYTES + 1 + Integer.BYTES; // Length, type and checksum
+
+    private static final Map<String, OrderJournal> journals = new ConcurrentHashMap<>();
+    private static final Metrics.Timer RECORD_TIMER = Metrics.timer("orders.record");
+    private static final Metrics.Counter RECORDED_COUNTER = Metrics.counter("orders.recorded");
+
+    private final String fileName;            // The journal file
+    private final BatchedFileWriter writer;   // Group-commits records to the journal file
+    private final Map<String, Offsets> byBuyer = new HashMap<>(); // Record offsets by buyer ID, guarded by this
+    private long indexedTo;                   // End of the last indexed record, guarded by this
+    private int orderCount;                   // Orders indexed, guarded by this
+
+    /**
+     * The offsets of one buyer's records, oldest first.
+     */
+    private static final class Offsets {
+        long[] offsets = new long[4];
+        int size;
+
+        void add(long offset) {
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            offsets[size++] = offset;
+        }
+    }
+
+    private OrderJournal(String fileName) {
+        this.fileName = fileName;
+        this.writer = BatchedFileWriter.forFile(fileName);
+        try {
+            recover();
+        } catch (IOException e) {
+            System.out.println("Error reading orders from " + fileName + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the shared journal for the given file, opening and recovering
+     * it on first use.
+     *
+     * @param fileName The name of the journal file.
+     * @return The journal.
+     */
+    public static OrderJournal forFile(String fileName) {
+        return journals.computeIfAbsent(fileName, OrderJournal::new);
+    }
+
+    /**
+     * Records a paid order.
+     *
+     * @param order The order.
+     * @return A future completed once the record is on disk.
+     */
+    public CompletableFuture<Void> record(Order order) {
+        byte[] payload = order.toBytes();
+        ByteBuffer record = ByteBuffer.allocate(FRAME_BYTES + payload.length);
+        record.putInt(payload.length).put(ORDER).put(payload).putInt(checksum(ORDER, payload, 0, payload.length));
+        long start = RECORD_TIMER.start();
+        CompletableFuture<Void> written = writer.append(record.array(), BatchedFileWriter.Durability.FSYNC);
+        written.whenComplete((ignored, error) -> {
+            RECORD_TIMER.stop(start);
+            if (error == null) {
+                RECORDED_COUNTER.add(1);
+            }
+        });
+        return written;
+    }
+
+    /**
+     * Returns the orders of a buyer, newest first.
+     *
+     * @param buyerId The user ID of the buyer.
+     * @return The orders, possibly none.
+     * @throws IOException if the journal cannot be read.
+     */
+    public synchronized List<Order> ordersOf(String buyerId) throws IOException {
+        catchUp();
+        Offsets offsets = byBuyer.get(buyerId);
+        if (offsets == null) {
+            return List.of();
+        }
+        List<Order> orders = new ArrayList<>(offsets.size);
+        try (FileChannel in = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(Integer.BYTES + 1);
+            for (int i = offsets.size - 1; i >= 0; i--) {
+                orders.add(readOrder(in, offsets.offsets[i], header));
+            }
+        }
+        return orders;
+    }
+
+    /**
+     * Returns the number of orders in the journal.
+     *
+     * @return The order count.
+     * @throws IOException if the journal cannot be read.
+     */
+    public synchronized int orderCount() throws IOException {
+        catchUp();
+        return orderCount;
+    }
+
+    /**
+     * Indexes the whole file under the writer's file lock and cuts off an
+     * incomplete or corrupt record at its end, left by a crash during a write.
+     */
+    private void recover() throws IOException {
+        writer.runExclusive(channel -> {
+            synchronized (this) {
+                long end;
+                try (FileChannel in = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+                    end = scan(in, 0);
+                }
+                long size = channel.size();
+                if (end < size) {
+                    channel.truncate(end);
+                    channel.force(true);
+                    System.out.println("Discarded " + (size - end) + " bytes of an incomplete order record at the end of "
+                            + fileName + ".");
+                }
+            }
+        });
+    }
+
+    /**
+     * Indexes the records appended since the last scan. A record still being
+     * written by another process is left for the next scan.
+     */
+    private void catchUp() throws IOException {
+        try (FileChannel in = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            if (in.size() > indexedTo) {
+                scan(in, indexedTo);
+            }
+        } catch (NoSuchFileException e) {
+            // Nothing recorded yet
+        }
+    }
+
+    /**
+     * Indexes the valid records from the given offset on. A frame that is
+     * damaged in the middle of the file, for example by a crash of another
+     * process during its write, is skipped by searching for the next valid
+     * frame; only damage that runs to the end of the file stops the scan.
+     *
+     * @return The offset just after the last valid record.
+     */
+    private long scan(FileChannel in, long from) throws IOException {
+        long offset = from;
+        long size = in.size();
+        Frame frame = new Frame();
+        while (offset + FRAME_BYTES <= size) {
+            if (!frame.read(in, offset, size)) {
+                long next = offset + 1;
+                while (next + FRAME_BYTES <= size && !frame.read(in, next, size)) {
+                    next++;
+                }
+                if (next + FRAME_BYTES > size) {
+                    break; // Nothing valid follows: an incomplete or torn tail
+                }
+                System.out.println("Skipped " + (next - offset) + " bytes of a damaged order record at offset "
+                        + offset + " of " + fileName + ".");
+                offset = next;
+            }
+            if (frame.type == ORDER) {
+                try {
+                    Order order = Order.fromBytes(ByteBuffer.wrap(frame.body.array(), 0, frame.length));
+                    byBuyer.computeIfAbsent(order.getBuyerId(), id -> new Offsets()).add(offset);
+                    orderCount++;
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Skipping order record at offset " + offset + " of " + fileName + ": "
+                            + e.getMessage());
+                }
+            } else {
+                System.out.println("Unknown order journal record type: " + frame.type);
+            }
+            offset += FRAME_BYTES + frame.length;
+        }
+        indexedTo = offset;
+        return offset;
+    }
+
+    /**
+     * Reads and checks one record frame, reusing its buffers between records.
+     */
+    private static final class Frame {
+        final ByteBuffer header = ByteBuffer.allocate(Integer.BYTES + 1);
+        ByteBuffer body = ByteBuffer.allocate(256); // Payload followed by the checksum
+        int length;
+        byte type;
+
+        /**
+         * Reads the frame at the given offset.
+         *
+         * @return {@code true} if a complete frame with a matching checksum starts there.
+         */
+        boolean read(FileChannel in, long offset, long size) throws IOException {
+            header.clear();
+            if (!readFully(in, header, offset)) {
+                return false;
+            }
+            length = header.getInt(0);
+            type = header.get(Integer.BYTES);
+            if (length < 0 || length > MAX_RECORD_LENGTH || offset + FRAME_BYTES + length > size) {
+                return false;
+            }
+            if (body.capacity() < length + Integer.BYTES) {
+                body = ByteBuffer.allocate(Math.max(length + Integer.BYTES, body.capacity() * 2));
+            }
+            body.clear().limit(length + Integer.BYTES);
+            return readFully(in, body, offset + Integer.BYTES + 1)
+                    && body.getInt(length) == checksum(type, body.array(), 0, length);
+        }
+    }
+
+    private static Order readOrder(FileChannel in, long offset, ByteBuffer header) throws IOException {
+        header.clear();
+        if (!readFully(in, header, offset)) {
+            throw new IOException("Order record at offset " + offset + " is missing");
+        }
+        int length = header.getInt(0);
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        if (!readFully(in, payload, offset + Integer.BYTES + 1)) {
+            throw new IOException("Order record at offset " + offset + " is truncated");
+        }
+        return Order.fromBytes(payload.flip());
+    }
+
+    /**
+     * Fills the buffer from the given file position.
+     *
+     * @return {@code false} if the file ends first.
+     */
+    private static boolean readFully(FileChannel in, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = in.read(buffer, position);
+            if (read < 0) {
+                return false;
+            }
+            position += read;
+        }
+        return true;
+    }
+
+    private static int checksum(byte type, byte[] payload, int from, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload, from, length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,249 @@
+package ecommerceapplication2;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Loads a product file by parsing byte ranges of it in parallel.
+ * The file is split into chunks whose boundaries are moved forward to the next
+ * line break, so every chunk holds whole records. The chunks are parsed on the
+ * common {@link ForkJoinPool} and their products are joined back together in
+ * file order. Problems are collected per chunk instead of being printed.
+ *
+ * <p>If a chunk boundary turns out to fall inside a quoted field that spans
+ * lines, the boundaries are recomputed with a quote-aware scan of the bytes
+ * and the chunks are parsed again.
+ */
+public class ParallelProductLoader {
+    private static final int CHUNK_SIZE = 8 * 1024 * 1024;  // Target bytes per chunk
+    private static final int BOUNDARY_PROBE = 64 * 1024;    // Bytes read at a time when aligning a boundary
+
+    /**
+     * Loads all products from the given file.
+     *
+     * @param fileName The name of the product file.
+     * @return The loaded products with the chunk reports.
+     * @throws IOException if the file cannot be read.
+     */
+    public static ProductLoadReport load(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            long size = channel.size();
+            List<ChunkResult> results = parseChunks(channel, chunkBoundaries(channel, size, CHUNK_SIZE));
+            for (int i = 0; i < results.size() - 1; i++) {
+                if (results.get(i).splitQuotedField) {
+                    // A boundary cut a multi-line record
+                    results = parseChunks(channel, quoteAwareChunkBoundaries(channel, size, CHUNK_SIZE));
+                    break;
+                }
+            }
+            return merge(results);
+        }
+    }
+
+    /**
+     * Splits {@code [0, size)} into ranges of about {@code chunkSize} bytes,
+     * each starting right after a line break.
+     *
+     * @return The chunk boundaries, starting with 0 and ending with {@code size}.
+     */
+    static long[] chunkBoundaries(FileChannel channel, long size, int chunkSize) throws IOException {
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        ByteBuffer probe = ByteBuffer.allocate(BOUNDARY_PROBE);
+        long next = chunkSize;
+        while (next < size) {
+            long lineBreak = -1;
+            long position = next;
+            while (lineBreak < 0 && position < size) {
+                probe.clear();
+                int read = channel.read(probe, position);
+                if (read <= 0) {
+                    break;
+                }
+                for (int i = 0; i < read; i++) {
+                    if (probe.get(i) == '\n') {
+                        lineBreak = position + i;
+                        break;
+                    }
+                }
+                position += read;
+            }
+            if (lineBreak < 0 || lineBreak + 1 >= size) {
+                break;
+            }
+            boundaries.add(lineBreak + 1);
+            next = lineBreak + 1 + chunkSize;
+        }
+        boundaries.add(size);
+        long[] result = new long[boundaries.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = boundaries.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Like {@link #chunkBoundaries}, but only places boundaries after line breaks
+     * that are outside quoted fields. This needs one sequential pass over the file.
+     */
+    static long[] quoteAwareChunkBoundaries(FileChannel channel, long size, int chunkSize) throws IOException {
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        ByteBuffer block = ByteBuffer.allocate(BOUNDARY_PROBE);
+        boolean inQuotes = false;
+        long next = chunkSize;
+        long position = 0;
+        while (position < size) {
+            block.clear();
+            int read = channel.read(block, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                byte b = block.get(i);
+                if (b == '"') {
+                    inQuotes = !inQuotes;
+                } else if (b == '\n' && !inQuotes && position + i >= next && position + i + 1 < size) {
+                    boundaries.add(position + i + 1);
+                    next = position + i + 1 + chunkSize;
+                }
+            }
+            position += read;
+        }
+        boundaries.add(size);
+        long[] result = new long[boundaries.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = boundaries.get(i);
+        }
+        return result;
+    }
+
+    private static List<ChunkResult> parseChunks(FileChannel channel, long[] boundaries) throws IOException {
+        try {
+            return ForkJoinPool.commonPool().invoke(new ParseTask(channel, boundaries, 0, boundaries.length - 1));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Reads and parses the records in one byte range.
+     */
+    private static ChunkResult parseChunk(FileChannel channel, long start, long end) throws IOException {
+        long length = end - start;
+        if (length > Integer.MAX_VALUE - 16) {
+            throw new IOException("Product file chunk too large: " + length + " bytes.");
+        }
+        ByteBuffer bytes = ByteBuffer.allocate((int) length);
+        while (bytes.hasRemaining()) {
+            if (channel.read(bytes, start + bytes.position()) < 0) {
+                break;
+            }
+        }
+        bytes.flip();
+        CharBuffer chars = StandardCharsets.UTF_8.decode(bytes);
+        CsvCursor cursor = new CsvCursor(chars.array(), chars.arrayOffset(), chars.arrayOffset() + chars.limit());
+
+        ArrayList<Product> products = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+        List<String> recordErrors = new ArrayList<>();
+        int records = 0;
+        while (cursor.nextRecord()) {
+            records++;
+            try {
+                Product product = FileHandler.parseProduct(cursor, recordErrors);
+                if (product != null) {
+                    products.add(product);
+                }
+            } catch (IllegalArgumentException e) { // Includes NumberFormatException
+                recordErrors.add("Error in product data format: " + e.getMessage());
+            }
+            for (String error : recordErrors) {
+                errors.add("Record " + records + " of chunk at byte " + start + ": " + error);
+            }
+            recordErrors.clear();
+        }
+        ProductLoadReport.ChunkReport report = new ProductLoadReport.ChunkReport(start, end, records, errors);
+        return new ChunkResult(products, report, cursor.endedInsideQuotes());
+    }
+
+    private static ProductLoadReport merge(List<ChunkResult> results) {
+        int total = 0;
+        for (ChunkResult result : results) {
+            total += result.products.size();
+        }
+        ArrayList<Product> products = new ArrayList<>(total);
+        List<ProductLoadReport.ChunkReport> reports = new ArrayList<>(results.size());
+        for (ChunkResult result : results) {
+            products.addAll(result.products);
+            reports.add(result.report);
+        }
+        return new ProductLoadReport(products, reports);
+    }
+
+    /**
+     * Parses the chunks {@code [from, to)} by splitting the range in half
+     * until a single chunk remains, returning the results in file order.
+     */
+    private static final class ParseTask extends RecursiveTask<List<ChunkResult>> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient FileChannel channel; // Tasks are never serialized
+        private final long[] boundaries;
+        private final int from;
+        private final int to;
+
+        ParseTask(FileChannel channel, long[] boundaries, int from, int to) {
+            this.channel = channel;
+            this.boundaries = boundaries;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<ChunkResult> compute() {
+            if (to - from <= 1) {
+                try {
+                    List<ChunkResult> single = new ArrayList<>(1);
+                    single.add(parseChunk(channel, boundaries[from], boundaries[to]));
+                    return single;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            int middle = (from + to) >>> 1;
+            ParseTask left = new ParseTask(channel, boundaries, from, middle);
+            ParseTask right = new ParseTask(channel, boundaries, middle, to);
+            left.fork();
+            List<ChunkResult> rightResults = right.compute();
+            List<ChunkResult> results = left.join();
+            results.addAll(rightResults);
+            return results;
+        }
+    }
+
+    /**
+     * The products and report of one parsed chunk.
+     */
+    private static final class ChunkResult {
+        final ArrayList<Product> products;
+        final ProductLoadReport.ChunkReport report;
+        final boolean splitQuotedField;  // The chunk ended inside a quoted field
+
+        ChunkResult(ArrayList<Product> products, ProductLoadReport.ChunkReport report, boolean splitQuotedField) {
+            this.products = products;
+            this.report = report;
+            this.splitQuotedField = splitQuotedField;
+        }
+    }
+}
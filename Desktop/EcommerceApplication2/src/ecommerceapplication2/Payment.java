@@ -1,6 +1,7 @@
 package ecommerceapplication2;
 
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * The {@code Payment} class represents a payment transaction in the e-commerce application.
@@ -16,14 +17,15 @@ import java.util.Scanner;
  * @since 2024-11-10
  */
 public class Payment {
+    private static final Metrics.Timer PROCESS_TIMER = Metrics.timer("payment.process");
+    private static final Metrics.Counter DECLINED = Metrics.counter("payment.declined");
+
     private String paymentId;       // Unique identifier for the payment
     private double amount;          // Payment amount
     private String paymentMethod;   // Payment method (e.g., Credit Card, PayPal)
-    private boolean paymentStatus;  // Indicates if payment was successful
-    private String cardNumber;      // Card number used for payment
-    private String expiryDate;      // Expiry date of the card
-    private String cvv;             // CVV of the card
-    private boolean isProcessed;    // Indicates if payment has been processed
+    private volatile boolean paymentStatus;  // Indicates if payment was successful
+    private volatile boolean isProcessed;    // Indicates if payment has been processed
+    private volatile PaymentResult result;   // Outcome of the authorization, once known
 
     /**
      * Constructs a {@code Payment} object with the specified details.
@@ -78,88 +80,93 @@ public class Payment {
 
     /**
      * Processes the payment by collecting and validating card details from the user.
-     * Validates the card number, expiry date, and CVV, and simulates payment processing.
+     * Validates the card number, expiry date, and CVV, then waits for the payment
+     * to be authorized.
      * Sets {@code isProcessed} to {@code true} upon successful processing.
      */
     public void processPayment() {
         Scanner scanner = new Scanner(System.in);
         try {
             System.out.println("\nProcessing Payment...");
-            System.out.print("Enter card number (16 digits): ");
-            this.cardNumber = scanner.nextLine();
-
-            if (!isValidCardNumber(this.cardNumber)) {
-                throw new IllegalArgumentException("Invalid card number. Please enter a 16-digit card number.");
-            }
-
-            System.out.print("Enter expiry date (MM/YY): ");
-            this.expiryDate = scanner.nextLine();
-
-            if (!isValidExpiryDate(this.expiryDate)) {
-                throw new IllegalArgumentException("Invalid expiry date. Please enter in MM/YY format.");
-            }
-
-            System.out.print("Enter CVV (3 digits): ");
-            this.cvv = scanner.nextLine();
-
-            if (!isValidCVV(this.cvv)) {
-                throw new IllegalArgumentException("Invalid CVV. Please enter a 3-digit CVV.");
-            }
-
-            System.out.println("Processing your payment of $" + amount + "...");
-            Thread.sleep(2000); // Simulate delay
-            isProcessed = true;
-            System.out.println("Payment processed successfully!");
-
+            processPayment(CardDetails.read(scanner));
         } catch (IllegalArgumentException e) {
             System.out.println("Payment Error: " + e.getMessage());
-        } catch (InterruptedException e) {
-            System.out.println("Payment processing interrupted.");
         } catch (Exception e) {
             System.out.println("An unexpected error occurred during payment: " + e.getMessage());
         }
     }
 
     /**
-     * Cancels the payment if it has not been processed.
-     * If the payment has already been processed, it cannot be cancelled.
+     * Processes the payment with card details that were collected elsewhere,
+     * for example from a request to the shop server.
+     * Sets {@code isProcessed} to {@code true} upon successful processing.
+     *
+     * @param cardNumber The card number (16 digits).
+     * @param expiryDate The expiry date (MM/YY).
+     * @param cvv        The CVV (3 digits).
      */
-    public void cancelPayment() {
-        if (isProcessed) {
-            System.out.println("Payment has already been processed. Cannot cancel.");
-        } else {
-            System.out.println("Payment cancelled successfully.");
+    public void processPayment(String cardNumber, String expiryDate, String cvv) {
+        try {
+            processPayment(new CardDetails(cardNumber, expiryDate, cvv));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Payment Error: " + e.getMessage());
         }
     }
 
     /**
-     * Validates the card number to ensure it has exactly 16 digits.
+     * Authorizes the payment and waits for the outcome. The calling thread
+     * only waits; the gateway call itself is made by {@link PaymentProcessor}.
      *
-     * @param cardNumber The card number to validate.
-     * @return {@code true} if the card number is valid; {@code false} otherwise.
+     * @param card The card to charge.
      */
-    private boolean isValidCardNumber(String cardNumber) {
-        return cardNumber.matches("\\d{16}");
+    public void processPayment(CardDetails card) {
+        System.out.println("Processing your payment of $" + amount + "...");
+        long start = PROCESS_TIMER.start();
+        PaymentResult result;
+        try {
+            result = authorize(card).join();
+        } finally {
+            PROCESS_TIMER.stop(start);
+        }
+        if (result.isApproved()) {
+            System.out.println(result.getMessage());
+        } else {
+            DECLINED.add(1);
+            System.out.println("Payment Error: " + result.getMessage());
+        }
     }
 
     /**
-     * Validates the expiry date to ensure it is in MM/YY format.
+     * Starts authorizing the payment with the default {@link PaymentProcessor}
+     * and returns without waiting. The payment's status is updated before the
+     * returned future completes.
      *
-     * @param expiryDate The expiry date to validate.
-     * @return {@code true} if the expiry date is valid; {@code false} otherwise.
+     * @param card The card to charge.
+     * @return A future completed with the outcome.
+     * @throws IllegalStateException if the payment has already been processed.
      */
-    private boolean isValidExpiryDate(String expiryDate) {
-        return expiryDate.matches("(0[1-9]|1[0-2])/\\d{2}");
+    public CompletableFuture<PaymentResult> authorize(CardDetails card) {
+        if (isProcessed) {
+            throw new IllegalStateException("Payment has already been processed.");
+        }
+        return PaymentProcessor.getDefault().authorize(paymentId, amount, card).thenApply(result -> {
+            this.result = result;
+            paymentStatus = result.isApproved();
+            isProcessed = result.isApproved();
+            return result;
+        });
     }
 
     /**
-     * Validates the CVV to ensure it has exactly 3 digits.
-     *
-     * @param cvv The CVV to validate.
-     * @return {@code true} if the CVV is valid; {@code false} otherwise.
+     * Cancels the payment if it has not been processed.
+     * If the payment has already been processed, it cannot be cancelled.
      */
-    private boolean isValidCVV(String cvv) {
-        return cvv.matches("\\d{3}");
+    public void cancelPayment() {
+        if (isProcessed) {
+            System.out.println("Payment has already been processed. Cannot cancel.");
+        } else {
+            System.out.println("Payment cancelled successfully.");
+        }
     }
 
     /**
@@ -170,4 +177,13 @@ public class Payment {
     public boolean isProcessed() {
         return isProcessed;
     }
+
+    /**
+     * Returns the outcome of the authorization.
+     *
+     * @return The result, or {@code null} if the payment has not been authorized yet.
+     */
+    public PaymentResult getResult() {
+        return result;
+    }
 }
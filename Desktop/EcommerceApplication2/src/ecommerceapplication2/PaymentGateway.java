@@ -0,0 +1,30 @@
+package ecommerceapplication2;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A service that authorizes card payments. {@link PaymentProcessor} calls it
+ * and takes care of limiting concurrent calls, timeouts and retries, so
+ * implementations only need to talk to the provider.
+ *
+ * <p>Implementations must not block the calling thread: the returned future
+ * completes when the provider answers. Because timed-out payments are
+ * retried, the payment ID must be treated as an idempotency key, so a
+ * payment that reaches the provider twice is only charged once.
+ *
+ * @see SimulatedPaymentGateway
+ */
+public interface PaymentGateway {
+
+    /**
+     * Asks the provider to authorize a payment.
+     *
+     * @param paymentId The unique ID of the payment.
+     * @param amount    The amount to charge.
+     * @param card      The card to charge.
+     * @return A future completed with the provider's answer. It may complete
+     *         with a {@link PaymentResult.Status#FAILED} result or exceptionally
+     *         when the provider cannot be reached.
+     */
+    CompletableFuture<PaymentResult> authorize(String paymentId, double amount, CardDetails card);
+}
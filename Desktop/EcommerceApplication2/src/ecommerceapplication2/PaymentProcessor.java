@@ -0,0 +1,205 @@
+package ecommerceapplication2;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Authorizes payments with a {@link PaymentGateway} without blocking the
+ * caller. At most {@code maxConcurrent} gateway calls are in flight at once;
+ * further payments wait in a queue and are sent as earlier calls finish, so
+ * checkout throughput follows the gateway's capacity instead of the number of
+ * waiting threads. Each call is given {@code timeoutMillis} to answer, and
+ * failed or timed-out calls are retried with a growing delay until
+ * {@code maxAttempts} calls have been made. Declines are never retried.
+ *
+ * <p>Usage example:
+ * <pre>
+ *     PaymentProcessor.getDefault().authorize(paymentId, amount, card)
+ *             .thenAccept(result -&gt; System.out.println(result.getMessage()));
+ * </pre>
+ */
+public class PaymentProcessor {
+    private static volatile PaymentProcessor defaultProcessor;
+
+    private final PaymentGateway gateway;
+    private final Semaphore permits;                 // One permit per gateway call allowed in flight
+    private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>(); // Calls waiting for a permit
+    private final ThreadLocal<Boolean> sending = ThreadLocal.withInitial(() -> false); // Inside sendWaiting
+    private final long timeoutMillis;                // Time each call is given to answer
+    private final int maxAttempts;                   // Gateway calls allowed per payment
+    private final long retryDelayMillis;             // Delay before the first retry, doubled for each later one
+
+    /**
+     * Creates a processor for the given gateway.
+     *
+     * @param gateway          The gateway to authorize payments with.
+     * @param maxConcurrent    The most gateway calls allowed in flight at once.
+     * @param timeoutMillis    The time each call is given to answer, in milliseconds.
+     * @param maxAttempts      The number of gateway calls allowed per payment, at least 1.
+     * @param retryDelayMillis The delay before the first retry, in milliseconds.
+     * @throws IllegalArgumentException if a limit is not positive.
+     */
+    public PaymentProcessor(PaymentGateway gateway, int maxConcurrent, long timeoutMillis, int maxAttempts,
+                            long retryDelayMillis) {
+        if (maxConcurrent <= 0 || timeoutMillis <= 0 || maxAttempts <= 0 || retryDelayMillis < 0) {
+            throw new IllegalArgumentException("Invalid payment processor settings.");
+        }
+        this.gateway = gateway;
+        this.permits = new Semaphore(maxConcurrent);
+        this.timeoutMillis = timeoutMillis;
+        this.maxAttempts = maxAttempts;
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    /**
+     * Returns the processor the application pays with. Unless replaced with
+     * {@link #setDefault}, it uses a {@link SimulatedPaymentGateway} and is
+     * configured by the {@code ecommerce.payment.maxConcurrent} (default 64),
+     * {@code ecommerce.payment.timeoutMillis} (default 5000),
+     * {@code ecommerce.payment.maxAttempts} (default 3) and
+     * {@code ecommerce.payment.retryDelayMillis} (default 250) system properties.
+     *
+     * <p>When {@code ecommerce.payment.batching} is {@code true}, payments go
+     * through an {@link AuthorizationBatcher} that sends batches of up to
+     * {@code ecommerce.payment.batchSize} (default 50) payments after at most
+     * {@code ecommerce.payment.batchWindowMillis} (default 5). The gateway then
+     * sees at most {@code maxConcurrent} round trips at once, as without batching.
+     *
+     * @return The payment processor.
+     */
+    public static PaymentProcessor getDefault() {
+        PaymentProcessor processor = defaultProcessor;
+        if (processor == null) {
+            synchronized (PaymentProcessor.class) {
+                processor = defaultProcessor;
+                if (processor == null) {
+                    processor = fromSystemProperties();
+                    defaultProcessor = processor;
+                }
+            }
+        }
+        return processor;
+    }
+
+    private static PaymentProcessor fromSystemProperties() {
+        SimulatedPaymentGateway simulated = SimulatedPaymentGateway.fromSystemProperties();
+        int maxConcurrent = Integer.getInteger("ecommerce.payment.maxConcurrent", 64);
+        long timeoutMillis = Long.getLong("ecommerce.payment.timeoutMillis", 5000);
+        int maxAttempts = Integer.getInteger("ecommerce.payment.maxAttempts", 3);
+        long retryDelayMillis = Long.getLong("ecommerce.payment.retryDelayMillis", 250);
+        if (!Boolean.getBoolean("ecommerce.payment.batching")) {
+            return new PaymentProcessor(simulated, maxConcurrent, timeoutMillis, maxAttempts, retryDelayMillis);
+        }
+        int batchSize = Integer.getInteger("ecommerce.payment.batchSize", 50);
+        AuthorizationBatcher batcher = new AuthorizationBatcher(simulated,
+                Long.getLong("ecommerce.payment.batchWindowMillis", 5), batchSize, maxConcurrent, timeoutMillis);
+        return new PaymentProcessor(batcher, maxConcurrent * batchSize, timeoutMillis, maxAttempts, retryDelayMillis);
+    }
+
+    /**
+     * Returns the gateway this processor authorizes payments with.
+     *
+     * @return The gateway, for example to read an {@link AuthorizationBatcher}'s metrics.
+     */
+    public PaymentGateway getGateway() {
+        return gateway;
+    }
+
+    /**
+     * Replaces the processor the application pays with.
+     *
+     * @param processor The payment processor to use.
+     */
+    public static void setDefault(PaymentProcessor processor) {
+        defaultProcessor = processor;
+    }
+
+    /**
+     * Authorizes a payment. The future always completes normally: errors and
+     * timeouts that remain after the last retry are reported as results.
+     *
+     * @param paymentId The unique ID of the payment.
+     * @param amount    The amount to charge.
+     * @param card      The card to charge.
+     * @return A future completed with the outcome.
+     */
+    public CompletableFuture<PaymentResult> authorize(String paymentId, double amount, CardDetails card) {
+        CompletableFuture<PaymentResult> outcome = new CompletableFuture<>();
+        attempt(paymentId, amount, card, 1, outcome);
+        return outcome;
+    }
+
+    /**
+     * Returns the number of payments waiting for a free gateway call.
+     *
+     * @return The queue length.
+     */
+    public int queuedCount() {
+        return waiting.size();
+    }
+
+    private void attempt(String paymentId, double amount, CardDetails card, int attempt,
+                         CompletableFuture<PaymentResult> outcome) {
+        waiting.add(() -> call(paymentId, amount, card).whenComplete((answer, error) -> {
+            permits.release();
+            sendWaiting();
+            PaymentResult result = answer != null ? answer : errorResult(paymentId, error);
+            if (result.isRetryable() && attempt < maxAttempts) {
+                long delay = retryDelayMillis << Math.min(attempt - 1, 16);
+                CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS)
+                        .execute(() -> attempt(paymentId, amount, card, attempt + 1, outcome));
+            } else {
+                outcome.complete(result.withAttempts(attempt));
+            }
+        }));
+        sendWaiting();
+    }
+
+    /**
+     * Starts queued calls while permits are free. A call queued while another
+     * thread releases a permit is never stranded: whichever thread acts last
+     * sees both the call and the permit. A gateway that answers at once
+     * would re-enter this method from its callback; the outer loop then
+     * carries on instead, so the stack does not grow with the queue.
+     */
+    private void sendWaiting() {
+        if (sending.get()) {
+            return;
+        }
+        sending.set(true);
+        try {
+            while (!waiting.isEmpty() && permits.tryAcquire()) {
+                Runnable call = waiting.poll();
+                if (call == null) {
+                    permits.release();
+                } else {
+                    call.run();
+                }
+            }
+        } finally {
+            sending.set(false);
+        }
+    }
+
+    private CompletableFuture<PaymentResult> call(String paymentId, double amount, CardDetails card) {
+        try {
+            // A copy, so the timeout does not complete the gateway's own future
+            return gateway.authorize(paymentId, amount, card).copy().orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private static PaymentResult errorResult(String paymentId, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof TimeoutException) {
+            return PaymentResult.timedOut(paymentId);
+        }
+        return PaymentResult.failed(paymentId, "Payment gateway error: " + cause.getMessage());
+    }
+}
@@ -0,0 +1,107 @@
+package ecommerceapplication2;
+
+/**
+ * The outcome of authorizing a payment with a {@link PaymentGateway}.
+ */
+public final class PaymentResult {
+
+    /**
+     * How an authorization ended.
+     */
+    public enum Status {
+        /** The gateway accepted the payment. */
+        APPROVED,
+        /** The gateway refused the payment; retrying will not help. */
+        DECLINED,
+        /** The gateway reported an error; the payment may be retried. */
+        FAILED,
+        /** The gateway did not answer in time; the payment may be retried. */
+        TIMED_OUT
+    }
+
+    private final String paymentId;          // ID of the payment this result is for
+    private final Status status;             // How the authorization ended
+    private final String authorizationCode;  // Code issued by the gateway, or null unless approved
+    private final String message;            // Explanation for the buyer
+    private final int attempts;              // Number of times the gateway was called
+
+    private PaymentResult(String paymentId, Status status, String authorizationCode, String message, int attempts) {
+        this.paymentId = paymentId;
+        this.status = status;
+        this.authorizationCode = authorizationCode;
+        this.message = message;
+        this.attempts = attempts;
+    }
+
+    // Factory methods for each outcome
+    public static PaymentResult approved(String paymentId, String authorizationCode) {
+        return new PaymentResult(paymentId, Status.APPROVED, authorizationCode, "Payment processed successfully!", 1);
+    }
+
+    public static PaymentResult declined(String paymentId, String message) {
+        return new PaymentResult(paymentId, Status.DECLINED, null, message, 1);
+    }
+
+    public static PaymentResult failed(String paymentId, String message) {
+        return new PaymentResult(paymentId, Status.FAILED, null, message, 1);
+    }
+
+    public static PaymentResult timedOut(String paymentId) {
+        return new PaymentResult(paymentId, Status.TIMED_OUT, null, "The payment gateway did not respond in time.", 1);
+    }
+
+    /**
+     * Returns a copy of this result recording how many attempts were made.
+     *
+     * @param attempts The number of gateway calls.
+     * @return The updated result.
+     */
+    public PaymentResult withAttempts(int attempts) {
+        return new PaymentResult(paymentId, status, authorizationCode, message, attempts);
+    }
+
+    /**
+     * Checks whether the payment went through.
+     *
+     * @return {@code true} if the gateway approved the payment.
+     */
+    public boolean isApproved() {
+        return status == Status.APPROVED;
+    }
+
+    /**
+     * Checks whether calling the gateway again might succeed.
+     *
+     * @return {@code true} for errors and timeouts, {@code false} for approvals and declines.
+     */
+    public boolean isRetryable() {
+        return status == Status.FAILED || status == Status.TIMED_OUT;
+    }
+
+    // Getters
+    public String getPaymentId() {
+        return paymentId;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getAuthorizationCode() {
+        return authorizationCode;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    @Override
+    public String toString() {
+        return status + " " + paymentId + (authorizationCode != null ? " (" + authorizationCode + ")" : "")
+                + ": " + message + " after " + attempts + (attempts == 1 ? " attempt" : " attempts");
+    }
+}
@@ -1,5 +1,7 @@
 package ecommerceapplication2;
 
+import java.io.IOException;
+
 /**
  * Represents a physical product in the e-commerce application.
  * This class extends the {@code Product} class and adds attributes specific to physical products,
@@ -19,7 +21,21 @@ public class PhysicalProduct extends Product {
      * @param dimensions The dimensions of the physical product.
      */
     public PhysicalProduct(String productId, String name, double price, double weight, String dimensions) {
-        super(productId, name, price);
+        this(productId, name, price, weight, dimensions, UNTRACKED);
+    }
+
+    /**
+     * Constructs a {@code PhysicalProduct} object with a stock quantity.
+     *
+     * @param productId  The unique identifier for the product.
+     * @param name       The name of the product.
+     * @param price      The price of the product.
+     * @param weight     The weight of the physical product.
+     * @param dimensions The dimensions of the physical product.
+     * @param stock      The units in stock, or {@link #UNTRACKED}.
+     */
+    public PhysicalProduct(String productId, String name, double price, double weight, String dimensions, int stock) {
+        super(productId, name, price, stock);
         this.weight = weight;
         this.dimensions = dimensions;
     }
@@ -27,24 +43,54 @@ public class PhysicalProduct extends Product {
     /**
      * Returns a string representation of the physical product's details in a format suitable for file storage.
      *
-     * @return A comma-separated string containing the product type, product ID, name, price, weight, and dimensions.
+     * @return A comma-separated string containing the product type, product ID, name, price, weight, dimensions,
+     * and the stock if it is tracked.
      */
     @Override
     public String toFileFormat() {
-        return "PhysicalProduct," + getProductId() + "," + getName() + "," + getPrice() + "," + weight + "," + dimensions;
+        return "PhysicalProduct," + CsvCursor.quote(getProductId()) + "," + CsvCursor.quote(getName()) + "," + getPrice()
+                + "," + weight + "," + CsvCursor.quote(dimensions) + stockField();
+    }
+
+    /**
+     * Writes the details of the physical product.
+     * The information includes the product's ID, name, price, weight, dimensions, and stock.
+     *
+     * @param out The output to write to.
+     * @throws IOException if the output cannot be written.
+     */
+    @Override
+    public void displayDetails(Appendable out) throws IOException {
+        out.append("\nPhysical Product - ").append(getName())
+                .append("\n  Product ID: ").append(getProductId())
+                .append("\n  Price: $").append(Double.toString(getPrice()))
+                .append("\n  Weight: ").append(Double.toString(weight))
+                .append(" kg\n  Dimensions: ").append(dimensions).append('\n');
+        if (isStockTracked()) {
+            out.append("  In Stock: ").append(Integer.toString(getStock())).append('\n');
+        }
+    }
+
+    /**
+     * Creates a copy of this physical product with a different price.
+     *
+     * @param newPrice The price of the copy.
+     * @return A new {@code PhysicalProduct} with the same details and the new price.
+     */
+    @Override
+    public PhysicalProduct withPrice(double newPrice) {
+        return new PhysicalProduct(getProductId(), getName(), newPrice, weight, dimensions, getStock());
     }
 
     /**
-     * Displays the details of the physical product.
-     * The information includes the product's ID, name, price, weight, and dimensions.
+     * Creates a copy of this physical product with a different stock quantity.
+     *
+     * @param newStock The stock of the copy.
+     * @return A new {@code PhysicalProduct} with the same details and the new stock.
      */
     @Override
-    public void displayDetails() {
-        System.out.println("\nPhysical Product - " + getName());
-        System.out.println("  Product ID: " + getProductId());
-        System.out.println("  Price: $" + getPrice());
-        System.out.println("  Weight: " + weight + " kg");
-        System.out.println("  Dimensions: " + dimensions);
+    public PhysicalProduct withStock(int newStock) {
+        return new PhysicalProduct(getProductId(), getName(), getPrice(), weight, dimensions, newStock);
     }
 
     // Getters
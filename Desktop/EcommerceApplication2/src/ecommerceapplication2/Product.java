@@ -1,7 +1,5 @@
 package ecommerceapplication2;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Serializable;
 
@@ -9,6 +7,8 @@ public abstract class Product implements ProductInterface, Serializable  {
     private String productId; // Unique identifier for the product
     private String name; // Name of the product
     private double price; // Price of the product
+    private int stock; // Units in stock, or UNTRACKED
+    public static final int UNTRACKED = -1; // Stock of a product that is never sold out
     protected static final String FILE_PATH = "products.txt"; // File path for saving products
 
     /**
@@ -20,6 +20,19 @@ public abstract class Product implements ProductInterface, Serializable  {
      * @throws IllegalArgumentException if any of the parameters are invalid
      */
     public Product(String productId, String name, double price) {
+        this(productId, name, price, UNTRACKED);
+    }
+
+    /**
+     * Constructor for creating a new Product with a stock quantity.
+     *
+     * @param productId Unique identifier of the product (cannot be null or empty)
+     * @param name      Name of the product (cannot be null or empty)
+     * @param price     Price of the product (must be greater than zero)
+     * @param stock     Units in stock, or {@link #UNTRACKED} if the stock is not counted
+     * @throws IllegalArgumentException if any of the parameters are invalid
+     */
+    public Product(String productId, String name, double price, int stock) {
         if (productId == null || productId.isEmpty()) {
             throw new IllegalArgumentException("Product ID cannot be null or empty.");
         }
@@ -29,18 +42,33 @@ public abstract class Product implements ProductInterface, Serializable  {
         if (price <= 0) {
             throw new IllegalArgumentException("Product price must be greater than zero.");
         }
+        if (stock < UNTRACKED) {
+            throw new IllegalArgumentException("Product stock cannot be negative.");
+        }
         this.productId = productId;
         this.name = name;
         this.price = price;
+        this.stock = stock;
     }
 
     /**
      * Formats the product details into a comma-separated string for file saving.
+     * Text values containing commas or quotes are quoted.
      *
      * @return A string in the format: "ProductType,productId,name,price"
      */
     public String toFileFormat() {
-        return this.getClass().getSimpleName() + "," + this.productId + "," + this.name + "," + this.price;
+        return this.getClass().getSimpleName() + "," + CsvCursor.quote(this.productId) + "," + CsvCursor.quote(this.name) + "," + this.price;
+    }
+
+    /**
+     * Returns the stock column that ends a product record: empty for products
+     * whose stock is not tracked, so their records keep the old layout.
+     *
+     * @return The stock column with its leading comma, or an empty string.
+     */
+    protected String stockField() {
+        return isStockTracked() ? "," + stock : "";
     }
 
     /**
@@ -71,18 +99,69 @@ public abstract class Product implements ProductInterface, Serializable  {
     }
 
     /**
-     * Abstract method to display product details, implemented by subclasses.
+     * Retrieves the number of units in stock as recorded with the product.
+     * While the application runs, {@link Inventory} holds the live count.
+     *
+     * @return The units in stock, or {@link #UNTRACKED}
+     */
+    public int getStock() {
+        return this.stock;
+    }
+
+    /**
+     * Tells whether the stock of the product is counted. Products saved before
+     * stock was tracked can be sold without limit.
+     *
+     * @return {@code true} if the product can sell out
+     */
+    public boolean isStockTracked() {
+        return this.stock != UNTRACKED;
+    }
+
+    /**
+     * Prints the product details to the console.
+     */
+    @Override
+    public void displayDetails() {
+        try {
+            displayDetails(System.out);
+        } catch (IOException e) {
+            System.out.println("Error displaying product details: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Abstract method to write product details, implemented by subclasses.
+     *
+     * @param out The output to write to.
+     * @throws IOException if the output cannot be written.
+     */
+    @Override
+    public abstract void displayDetails(Appendable out) throws IOException;
+
+    /**
+     * Creates a copy of this product with a different price.
+     *
+     * @param newPrice The price of the copy (must be greater than zero)
+     * @return A new product identical to this one except for its price
+     */
+    public abstract Product withPrice(double newPrice);
+
+    /**
+     * Creates a copy of this product with a different stock quantity.
+     *
+     * @param newStock The stock of the copy, or {@link #UNTRACKED}
+     * @return A new product identical to this one except for its stock
      */
-    public abstract void displayDetails();
+    public abstract Product withStock(int newStock);
 
     /**
-     * Saves the product details to a file.
-     * If the file does not exist, it is created.
+     * Saves the product details to the configured {@link FileHandler#getStorage() storage}
+     * and waits until the record is on disk.
      */
     public void saveProductToFile() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(FILE_PATH, true))) {
-            writer.write(toFileFormat());
-            writer.newLine();
+        try {
+            FileHandler.getStorage().putProduct(FILE_PATH, this);
             System.out.println("Product saved successfully!");
         } catch (IOException e) {
             System.out.println("Error saving product: " + e.getMessage());
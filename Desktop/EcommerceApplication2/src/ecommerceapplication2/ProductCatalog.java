@@ -0,0 +1,618 @@
+package ecommerceapplication2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * Shared in-memory view of a product file.
+ * The catalog holds the products of the file, with the changes recorded in its
+ * {@link ProductJournal} applied on top, together with a hash index by product
+ * ID, so lookups no longer re-read and re-parse the file. A second index
+ * keeps the products in ID order for range scans.
+ *
+ * <p>When the product file itself changes on disk (detected by modification
+ * time and size) or the journal is replaced by a compaction, a new state is
+ * loaded and swapped in atomically, unless
+ * records were only appended to it: then, as when the journal grows, just the
+ * new records are applied. The catalog follows both files with the shared
+ * {@link FileTailer}, so changes made by other processes are taken in as they
+ * happen rather than on the next lookup.
+ *
+ * <p>Secondary indexes such as {@link ProductSearchIndex} register a
+ * {@link Listener}, through {@link TextFileStorage#addListener}, to be told of
+ * every product added, replaced or removed.
+ */
+public class ProductCatalog implements ProductJournal.Source {
+    private static final Map<String, ProductCatalog> catalogs = new ConcurrentHashMap<>(); // One catalog per file
+    private static final int TAIL_CHECK_BYTES = 64; // Bytes compared to tell an append from a rewrite
+    private static final Metrics.Timer LOAD_TIMER = Metrics.timer("catalog.load");
+    private static final Metrics.Timer LOOKUP_TIMER = Metrics.timer("catalog.lookup");
+
+    private final String fileName;         // The product file backing this catalog
+    private final String journalFileName;  // The journal of changes to the product file
+    private volatile State state;          // The current view of the files
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>(); // Told of every change
+
+    /**
+     * Receives the changes to a catalog. Calls are made one at a time, in the
+     * order the changes are applied, while the catalog is locked, so listeners
+     * must be quick and must not call back into the catalog.
+     */
+    public interface Listener {
+        /**
+         * Called when the whole catalog was read again, for example because
+         * the product file was rewritten, and when the listener is added.
+         *
+         * @param products All products now in the catalog.
+         */
+        void catalogReplaced(List<Product> products);
+
+        /**
+         * Called for a product added to the catalog, including the new version
+         * of a replaced, repriced or restocked product.
+         *
+         * @param product The product.
+         */
+        void productAdded(Product product);
+
+        /**
+         * Called for a product removed from the catalog, including the old
+         * version of a replaced, repriced or restocked product. The product
+         * may be an equal copy of the one passed to {@link #productAdded},
+         * so listeners should find it by its ID.
+         *
+         * @param product The product.
+         */
+        void productRemoved(Product product);
+
+        /**
+         * Called after a product was added or replaced, or its stock changed,
+         * with its stock balance: the sum of the recorded changes, which
+         * unlike the product's stock can be below zero while changes recorded
+         * out of order are applied.
+         *
+         * @param product The product as it is now.
+         * @param balance The stock balance, meaningful only if the product's stock is tracked.
+         * @param delta   The units added by a stock change, or 0 when the product was put.
+         * @param local   Whether the stock change was recorded by this process.
+         */
+        default void stockChanged(Product product, int balance, int delta, boolean local) {
+        }
+    }
+
+    /**
+     * Constructs a catalog for the given product file. The file is read lazily
+     * on first access.
+     *
+     * @param fileName The name of the product file.
+     */
+    private ProductCatalog(String fileName) {
+        this.fileName = fileName;
+        this.journalFileName = ProductJournal.journalFileName(fileName);
+        this.state = new State(-1, -1);
+        this.state.listeners = listeners;
+    }
+
+    /**
+     * Returns the shared catalog for the given product file, creating it if needed.
+     *
+     * @param fileName The name of the product file.
+     * @return The catalog backed by the file.
+     */
+    public static ProductCatalog forFile(String fileName) {
+        return catalogs.computeIfAbsent(fileName, name -> {
+            ProductCatalog catalog = new ProductCatalog(name);
+            FileTailer.Listener refresh = (file, change, from, to) -> catalog.currentState();
+            FileTailer.getDefault().watch(Paths.get(name), new File(name).length(), refresh);
+            FileTailer.getDefault().watch(Paths.get(catalog.journalFileName),
+                    new File(catalog.journalFileName).length(), refresh);
+            return catalog;
+        });
+    }
+
+    /**
+     * Starts telling a listener of the changes to the catalog. The listener is
+     * first given all current products through {@link Listener#catalogReplaced}.
+     *
+     * @param listener The listener.
+     */
+    public void addListener(Listener listener) {
+        synchronized (this) {
+            State current = currentState();
+            synchronized (current) {
+                listeners.add(listener);
+                listener.catalogReplaced(current.products());
+            }
+        }
+    }
+
+    /**
+     * Stops telling a listener of changes.
+     *
+     * @param listener The listener.
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Looks up a product by its ID.
+     *
+     * @param productId The product ID to look for.
+     * @return The product, or {@code null} if no product has this ID.
+     */
+    public Product getProduct(String productId) {
+        long start = LOOKUP_TIMER.start();
+        try {
+            return currentState().byId.get(productId);
+        } finally {
+            LOOKUP_TIMER.stop(start);
+        }
+    }
+
+    /**
+     * Checks if a product with the specified ID exists in the catalog.
+     *
+     * @param productId The product ID to look for.
+     * @return {@code true} if the product exists, otherwise {@code false}.
+     */
+    public boolean contains(String productId) {
+        return currentState().byId.containsKey(productId);
+    }
+
+    /**
+     * Returns all products, in the order they were first added. The returned list is read-only.
+     *
+     * @return The products currently in the catalog.
+     */
+    public List<Product> getProducts() {
+        return currentState().products();
+    }
+
+    /**
+     * Returns products whose IDs fall in a range, in ascending ID order,
+     * without copying the rest of the catalog.
+     *
+     * @param fromId The smallest ID to include, or {@code null} to start at the first product.
+     * @param toId   The ID to stop before, or {@code null} to continue to the last product.
+     * @param limit  The maximum number of products to return.
+     * @return The products in the range.
+     */
+    public List<Product> scan(String fromId, String toId, int limit) {
+        NavigableMap<String, Product> range = currentState().sorted;
+        if (fromId != null) {
+            range = range.tailMap(fromId, true);
+        }
+        if (toId != null) {
+            range = range.headMap(toId, false);
+        }
+        List<Product> products = new ArrayList<>(Math.min(limit, 64));
+        for (Product product : range.values()) {
+            if (products.size() == limit) {
+                break;
+            }
+            products.add(product);
+        }
+        return products;
+    }
+
+    /**
+     * Returns the number of products in the catalog.
+     *
+     * @return The product count.
+     */
+    public int size() {
+        return currentState().byId.size();
+    }
+
+    /**
+     * Returns the number of records stored in the product file and its journal,
+     * including records that have been superseded or deleted.
+     *
+     * @return The stored record count.
+     */
+    @Override
+    public long recordCount() {
+        State current = currentState();
+        return current.fileRecords + current.journalRecords;
+    }
+
+    /**
+     * Returns the share of stored records that no longer describe a live product.
+     *
+     * @return A ratio between 0 and 1.
+     */
+    @Override
+    public double garbageRatio() {
+        State current = currentState();
+        long records = current.fileRecords + current.journalRecords;
+        return records == 0 ? 0 : 1.0 - (double) current.byId.size() / records;
+    }
+
+    /**
+     * Brings the catalog up to date with its files now, telling the listeners
+     * of any changes, instead of waiting for the file tailer.
+     */
+    public void refresh() {
+        currentState();
+    }
+
+    /**
+     * Returns the current state, bringing it up to date with the files first.
+     *
+     * @return The up-to-date state.
+     */
+    private State currentState() {
+        State current = state;
+        File file = new File(fileName);
+        if (current.isCurrent(file.lastModified(), file.length(), new File(journalFileName).length())) {
+            return current;
+        }
+        synchronized (this) {
+            long lastModified = file.lastModified();
+            long length = file.length();
+            long journalLength = new File(journalFileName).length();
+            current = state;
+            if (current.isCurrent(lastModified, length, journalLength)) {
+                return current;
+            }
+            try {
+                boolean fileChanged = current.lastModified != lastModified || current.length != length;
+                if (journalLength < current.journalSeen
+                        || !Objects.equals(State.fileKey(Paths.get(journalFileName)), current.journalKey)
+                        || (fileChanged && !current.isAppendedTo(Paths.get(fileName), length))) {
+                    current = load(lastModified, length);
+                    state = current;
+                    synchronized (current) {
+                        current.listeners = listeners;
+                        for (Listener listener : listeners) {
+                            listener.catalogReplaced(current.products());
+                        }
+                    }
+                } else {
+                    if (fileChanged) {
+                        current.applyAppended(Paths.get(fileName), lastModified, length);
+                    }
+                    if (journalLength != current.journalSeen) {
+                        current.applyJournal(journalFileName, journalLength);
+                    }
+                }
+            } catch (IOException e) {
+                System.out.println("Error reading product journal: " + e.getMessage());
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Reads the product file and its journal into a new state.
+     */
+    private State load(long lastModified, long length) throws IOException {
+        long start = LOAD_TIMER.start();
+        try {
+            State loaded = new State(lastModified, length);
+            loaded.markFile(Paths.get(fileName));
+            ProductJournal.Header header = ProductJournal.Header.read(fileName);
+            for (Product product : FileHandler.loadProductsFromFile(fileName)) {
+                loaded.put(product);
+            }
+            loaded.shortfalls.putAll(header.shortfalls);
+            loaded.fileRecords = loaded.journalRecords; // Everything counted so far came from the product file
+            loaded.journalRecords = 0;
+            loaded.journalKey = State.fileKey(Paths.get(journalFileName));
+            loaded.journalOffset = ProductJournal.replayStart(fileName, header);
+            loaded.applyJournal(journalFileName, new File(journalFileName).length());
+            return loaded;
+        } finally {
+            LOAD_TIMER.stop(start);
+        }
+    }
+
+    /**
+     * Returns the products whose stock balance is below zero, with the units
+     * missing. The product records give their stock as zero.
+     *
+     * @return The missing units by product ID.
+     */
+    @Override
+    public Map<String, Integer> shortfalls() {
+        State current = currentState();
+        synchronized (current) {
+            return new HashMap<>(current.shortfalls);
+        }
+    }
+
+    /**
+     * Writes every product, in the order first added, in the product file
+     * format, one per line.
+     *
+     * @param out The writer to write to.
+     * @throws IOException if writing fails.
+     */
+    @Override
+    public void writeProducts(Writer out) throws IOException {
+        for (Product product : getProducts()) {
+            out.write(product.toFileFormat());
+            out.write(System.lineSeparator());
+        }
+    }
+
+    /**
+     * Tells the catalog that its journal has just been compacted into the
+     * product file and replaced, so the new files do not have to be read again.
+     * Must be called while holding the catalog's lock.
+     *
+     * @param journalLength  The size of the new journal.
+     * @param journalRecords The records in it, which the catalog has already applied.
+     */
+    @Override
+    public void compacted(long journalLength, int journalRecords) {
+        File file = new File(fileName);
+        State current = state;
+        synchronized (current) {
+            current.lastModified = file.lastModified();
+            current.length = file.length();
+            try {
+                current.markFile(file.toPath());
+                current.journalKey = State.fileKey(Paths.get(journalFileName));
+            } catch (IOException e) {
+                current.fileKey = null; // The next change reloads the file
+            }
+            current.fileRecords = current.byId.size();
+            current.journalRecords = journalRecords;
+            current.journalOffset = journalLength;
+            current.journalSeen = journalLength;
+        }
+    }
+
+    /**
+     * The products of the file and journal as of the last check.
+     * Lookups read {@link #byId} without locking; changes are made while
+     * holding the state's lock.
+     */
+    private static final class State implements ProductJournal.Visitor {
+        final Map<String, Product> byId = new ConcurrentHashMap<>();        // Index of the products by ID
+        final NavigableMap<String, Product> sorted = new ConcurrentSkipListMap<>(); // The same products in ID order
+        private final Map<String, Product> ordered = new LinkedHashMap<>(); // Products in insertion order
+        private volatile List<Product> productsView;                        // Cached read-only list
+        final Map<String, Integer> shortfalls = new HashMap<>();            // Units sold beyond zero stock by product ID
+
+        volatile long lastModified;   // Product file modification time when read
+        volatile long length;         // Product file size when read
+        volatile long journalOffset;  // End of the last journal record applied
+        volatile long journalSeen;    // Journal size when last read
+        Object fileKey;               // Identity of the product file when read
+        Object journalKey;            // Identity of the journal when read
+        long tailCrc;                 // Checksum of the last bytes read from the product file
+        long fileRecords;             // Records read from the product file
+        long journalRecords;          // Records applied from the journal
+        List<Listener> listeners = List.of(); // Told of changes once the state is in use
+
+        State(long lastModified, long length) {
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        boolean isCurrent(long lastModified, long length, long journalLength) {
+            return this.lastModified == lastModified && this.length == length && this.journalSeen == journalLength;
+        }
+
+        /**
+         * Remembers which file was read and how it ends, to recognise appends later.
+         */
+        void markFile(Path path) throws IOException {
+            try {
+                fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+                tailCrc = tailCrc(path, length);
+            } catch (NoSuchFileException e) {
+                fileKey = null;
+            }
+        }
+
+        /**
+         * Returns the identity of a file, which changes when the file is replaced.
+         *
+         * @return The file key, or {@code null} if the file does not exist.
+         */
+        static Object fileKey(Path path) throws IOException {
+            try {
+                return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Checks whether the product file is still the one that was read, with
+         * records appended to it: the same file, longer, and ending where it did.
+         */
+        synchronized boolean isAppendedTo(Path path, long newLength) throws IOException {
+            if (fileKey == null || newLength <= length) {
+                return false;
+            }
+            try {
+                return Objects.equals(fileKey, Files.readAttributes(path, BasicFileAttributes.class).fileKey())
+                        && tailCrc(path, length) == tailCrc;
+            } catch (NoSuchFileException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Reads the records appended to the product file. A last record without
+         * a line break is left for the next call.
+         */
+        synchronized void applyAppended(Path path, long newLastModified, long newLength) throws IOException {
+            byte[] bytes = new byte[(int) Math.min(Integer.MAX_VALUE - 8, newLength - length)];
+            try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining() && in.read(buffer, length + buffer.position()) > 0) {
+                    // Keep reading until the appended bytes are in
+                }
+            }
+            int end = 0;
+            boolean inQuotes = false;
+            for (int i = 0; i < bytes.length; i++) {
+                if (bytes[i] == '"') {
+                    inQuotes = !inQuotes;
+                } else if (bytes[i] == '\n' && !inQuotes) {
+                    end = i + 1;
+                }
+            }
+            String text = new String(bytes, 0, end, StandardCharsets.UTF_8);
+            CsvCursor cursor = new CsvCursor(text.toCharArray(), 0, text.length());
+            List<String> errors = new ArrayList<>();
+            long before = journalRecords;
+            while (cursor.nextRecord()) {
+                try {
+                    Product product = FileHandler.parseProduct(cursor, errors);
+                    if (product != null) {
+                        put(product);
+                    }
+                } catch (IllegalArgumentException e) {
+                    errors.add("Error in product data format: " + e.getMessage());
+                }
+            }
+            if (!errors.isEmpty()) {
+                System.out.println(errors.size() + " product record(s) in " + path.getFileName()
+                        + " could not be loaded, first: " + errors.get(0));
+            }
+            fileRecords += journalRecords - before; // put() counted them as journal records
+            journalRecords = before;
+            length += end;
+            lastModified = end == bytes.length ? newLastModified : -1; // Checked again until the last record is complete
+            tailCrc = tailCrc(path, length);
+        }
+
+        synchronized void applyJournal(String journalFileName, long journalLength) throws IOException {
+            journalOffset = ProductJournal.replay(journalFileName, journalOffset, this);
+            journalSeen = journalLength;
+        }
+
+        synchronized List<Product> products() {
+            List<Product> view = productsView;
+            if (view == null) {
+                view = Collections.unmodifiableList(new ArrayList<>(ordered.values()));
+                productsView = view;
+            }
+            return view;
+        }
+
+        private static long tailCrc(Path path, long length) throws IOException {
+            int size = (int) Math.min(TAIL_CHECK_BYTES, length);
+            ByteBuffer tail = ByteBuffer.allocate(size);
+            try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+                while (tail.hasRemaining() && in.read(tail, length - size + tail.position()) > 0) {
+                    // Keep reading until the tail is complete
+                }
+            }
+            CRC32 crc = new CRC32();
+            crc.update(tail.array(), 0, tail.position());
+            return crc.getValue();
+        }
+
+        @Override
+        public synchronized void put(Product product) {
+            Product old = byId.put(product.getProductId(), product); // Later records win
+            sorted.put(product.getProductId(), product);
+            ordered.put(product.getProductId(), product);
+            shortfalls.remove(product.getProductId());
+            journalRecords++;
+            productsView = null;
+            replaced(old, product);
+            stockChanged(product, product.getStock(), 0, false);
+        }
+
+        @Override
+        public synchronized void delete(String productId) {
+            Product old = byId.remove(productId);
+            sorted.remove(productId);
+            ordered.remove(productId);
+            shortfalls.remove(productId);
+            journalRecords++;
+            productsView = null;
+            replaced(old, null);
+        }
+
+        @Override
+        public synchronized void updatePrice(String productId, double price) {
+            Product product = byId.get(productId);
+            if (product != null) {
+                Product repriced = product.withPrice(price);
+                byId.put(productId, repriced);
+                sorted.put(productId, repriced);
+                ordered.put(productId, repriced);
+                productsView = null;
+                replaced(product, repriced);
+            }
+            journalRecords++;
+        }
+
+        /**
+         * Adds a stock change to the product's balance. The balance is not
+         * held at zero, so concurrent changes give the same stock whatever
+         * order they were recorded in; while it is below zero the product
+         * shows no stock and the missing units are kept in {@link #shortfalls}.
+         */
+        @Override
+        public synchronized void adjustStock(String productId, int delta, boolean local) {
+            Product product = byId.get(productId);
+            if (product != null) {
+                int stock = product.isStockTracked() ? product.getStock() : 0; // An untracked product starts counting at 0
+                int balance = stock - shortfalls.getOrDefault(productId, 0) + delta;
+                if (balance < 0) {
+                    shortfalls.put(productId, -balance);
+                } else {
+                    shortfalls.remove(productId);
+                }
+                Product restocked = product.withStock(Math.max(0, balance));
+                byId.put(productId, restocked);
+                sorted.put(productId, restocked);
+                ordered.put(productId, restocked);
+                productsView = null;
+                replaced(product, restocked);
+                stockChanged(restocked, balance, delta, local);
+            }
+            journalRecords++;
+        }
+
+        private void stockChanged(Product product, int balance, int delta, boolean local) {
+            for (Listener listener : listeners) {
+                listener.stockChanged(product, balance, delta, local);
+            }
+        }
+
+        private void replaced(Product old, Product product) {
+            for (Listener listener : listeners) {
+                if (old != null) {
+                    listener.productRemoved(old);
+                }
+                if (product != null) {
+                    listener.productAdded(product);
+                }
+            }
+        }
+    }
+}
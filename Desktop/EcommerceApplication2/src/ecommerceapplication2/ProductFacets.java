@@ -0,0 +1,392 @@
+package ecommerceapplication2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Faceted filtering over the products of a product file. Every
+ * product is given a value for each facet:
+ * <ul>
+ *     <li>{@code type}: {@code physical} or {@code digital}.</li>
+ *     <li>{@code format}: the format of a digital product, such as {@code mp3}.</li>
+ *     <li>{@code size}: the size class of a physical product by its longest
+ *         side: {@code small} (up to 20), {@code medium} (up to 50),
+ *         {@code large}, or {@code unknown} if the dimensions cannot be read.</li>
+ *     <li>{@code price}: a price bucket such as {@code 0-5}, {@code 5-10} or {@code 500+}.
+ *         A bucket holds prices from its lower bound up to, but not including,
+ *         its upper bound.</li>
+ * </ul>
+ *
+ * <p>Each facet value has a {@link RoaringBitmap} of the documents that have
+ * it, so a filter such as {@code type=digital AND format=mp3 AND price=0-5}
+ * is a few bitmap operations, and the number of matches for every facet value
+ * within a result is an intersection count. The bitmaps listen to the
+ * storage, so every change is reflected in the next filter.
+ *
+ * <p>Filters combine {@code facet=value} terms with {@code AND}, {@code OR},
+ * {@code NOT} and parentheses; {@code AND} binds tighter than {@code OR}.
+ * An empty filter matches every product.
+ *
+ * <p>Usage example:
+ * <pre>
+ *     ProductFacets.Result result = ProductFacets.forFile("products.txt")
+ *             .filter("type=digital AND (format=mp3 OR format=flac) AND NOT price=500+", 20);
+ *     int cheapMatches = result.getCounts().get("price").get("0-5");
+ * </pre>
+ */
+public final class ProductFacets implements ProductCatalog.Listener {
+    private static final double[] PRICE_BOUNDS = {5, 10, 25, 50, 100, 250, 500}; // Upper bounds of the price buckets
+    private static final List<String> FACETS = List.of("type", "format", "size", "price");
+
+    private static final Map<String, ProductFacets> facets = new ConcurrentHashMap<>();
+
+    private final FileHandlerInterface storage; // The storage the products are kept in
+    private final String fileName;              // The product file
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(); // Catalog changes write, filters read
+    private final Map<String, Map<String, RoaringBitmap>> bitmaps = new LinkedHashMap<>(); // Documents by facet and value
+    private final Map<String, Integer> documentByProduct = new HashMap<>();               // Live document of each product ID
+    private RoaringBitmap live = new RoaringBitmap(); // Documents not deleted
+    private Product[] products = new Product[1024];   // Product of each document
+    private int documents;                            // Documents ever numbered, including deleted ones
+
+    /**
+     * The outcome of a filter: how many products matched, how many of them
+     * have each facet value, and the first matching products.
+     */
+    public static final class Result {
+        private final int count;
+        private final Map<String, Map<String, Integer>> counts;
+        private final List<Product> products;
+
+        Result(int count, Map<String, Map<String, Integer>> counts, List<Product> products) {
+            this.count = count;
+            this.counts = counts;
+            this.products = products;
+        }
+
+        // Getters
+        public int getCount() {
+            return count;
+        }
+
+        public Map<String, Map<String, Integer>> getCounts() {
+            return counts;
+        }
+
+        public List<Product> getProducts() {
+            return products;
+        }
+    }
+
+    /**
+     * Returns the facets of a product file, building them on first use and
+     * keeping them in step with the products the {@link FileHandler#getStorage()
+     * storage} keeps for the file.
+     *
+     * @param fileName The name of the product file.
+     * @return The shared facets.
+     */
+    public static ProductFacets forFile(String fileName) {
+        return facets.computeIfAbsent(fileName, name -> {
+            ProductFacets index = new ProductFacets(FileHandler.getStorage(), name);
+            index.storage.addListener(name, index);
+            return index;
+        });
+    }
+
+    private ProductFacets(FileHandlerInterface storage, String fileName) {
+        this.storage = storage;
+        this.fileName = fileName;
+        for (String facet : FACETS) {
+            bitmaps.put(facet, new TreeMap<>());
+        }
+    }
+
+    /**
+     * Finds the products matching a filter and counts them by facet value.
+     *
+     * @param filter The filter, such as {@code type=digital AND NOT format=pdf}.
+     * @param limit  The most products to return, in catalog order.
+     * @return The matches.
+     * @throws IllegalArgumentException if the filter cannot be read or names an unknown facet.
+     */
+    public Result filter(String filter, int limit) {
+        storage.refresh(fileName); // Take in changes not reported yet
+        lock.readLock().lock();
+        try {
+            RoaringBitmap matches = new Parser(filter).parse();
+            Map<String, Map<String, Integer>> counts = new LinkedHashMap<>();
+            for (Map.Entry<String, Map<String, RoaringBitmap>> facet : bitmaps.entrySet()) {
+                Map<String, Integer> valueCounts = new LinkedHashMap<>();
+                for (Map.Entry<String, RoaringBitmap> value : facet.getValue().entrySet()) {
+                    int count = value.getValue().andCardinality(matches);
+                    if (count > 0) {
+                        valueCounts.put(value.getKey(), count);
+                    }
+                }
+                counts.put(facet.getKey(), Collections.unmodifiableMap(valueCounts));
+            }
+            List<Product> found = new ArrayList<>(Math.min(Math.max(limit, 0), 256));
+            matches.forEach(limit, document -> found.add(products[document]));
+            return new Result(matches.cardinality(), Collections.unmodifiableMap(counts), found);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the value a product has for each facet.
+     *
+     * @param product The product.
+     * @return The values by facet, leaving out facets that do not apply.
+     */
+    public static Map<String, String> valuesOf(Product product) {
+        Map<String, String> values = new LinkedHashMap<>();
+        if (product instanceof PhysicalProduct physical) {
+            values.put("type", "physical");
+            values.put("size", sizeClass(physical.getDimensions()));
+        } else if (product instanceof DigitalProduct digital) {
+            values.put("type", "digital");
+            if (digital.getFormat() != null && !digital.getFormat().isBlank()) {
+                values.put("format", digital.getFormat().trim().toLowerCase());
+            }
+        }
+        values.put("price", priceBucket(product.getPrice()));
+        return values;
+    }
+
+    private static String sizeClass(String dimensions) {
+        double longest = 0;
+        int start = 0;
+        String text = dimensions == null ? "" : dimensions.toLowerCase();
+        for (int i = 0; i <= text.length(); i++) {
+            if (i == text.length() || text.charAt(i) == 'x' || text.charAt(i) == '*'
+                    || Character.isWhitespace(text.charAt(i))) {
+                if (i > start) {
+                    try {
+                        longest = Math.max(longest, Double.parseDouble(text.substring(start, i)));
+                    } catch (NumberFormatException e) {
+                        return "unknown";
+                    }
+                }
+                start = i + 1;
+            }
+        }
+        return longest <= 0 ? "unknown" : longest <= 20 ? "small" : longest <= 50 ? "medium" : "large";
+    }
+
+    private static String priceBucket(double price) {
+        double lower = 0;
+        for (double upper : PRICE_BOUNDS) {
+            if (price < upper) {
+                return format(lower) + "-" + format(upper);
+            }
+            lower = upper;
+        }
+        return format(lower) + "+";
+    }
+
+    private static String format(double bound) {
+        return bound == Math.rint(bound) ? Long.toString((long) bound) : Double.toString(bound);
+    }
+
+    // Catalog changes
+
+    @Override
+    public void catalogReplaced(List<Product> all) {
+        lock.writeLock().lock();
+        try {
+            rebuild(all);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void productAdded(Product product) {
+        lock.writeLock().lock();
+        try {
+            add(product);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void productRemoved(Product product) {
+        lock.writeLock().lock();
+        try {
+            Integer document = documentByProduct.get(product.getProductId());
+            if (document != null) {
+                remove(document);
+                int liveCount = documentByProduct.size();
+                if (documents - liveCount > 1024 && documents - liveCount > liveCount) {
+                    rebuild(liveProducts());
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Indexing, under the write lock
+
+    private void rebuild(List<Product> all) {
+        for (Map<String, RoaringBitmap> values : bitmaps.values()) {
+            values.clear();
+        }
+        documentByProduct.clear();
+        live = new RoaringBitmap();
+        products = new Product[Math.max(1024, all.size())];
+        documents = 0;
+        for (Product product : all) {
+            add(product);
+        }
+    }
+
+    private void add(Product product) {
+        Integer previous = documentByProduct.get(product.getProductId());
+        if (previous != null) {
+            remove(previous); // A replacement whose removal was not reported
+        }
+        if (documents == products.length) {
+            products = Arrays.copyOf(products, documents * 2);
+        }
+        int document = documents++;
+        products[document] = product;
+        documentByProduct.put(product.getProductId(), document);
+        live.add(document);
+        for (Map.Entry<String, String> value : valuesOf(product).entrySet()) {
+            bitmaps.get(value.getKey()).computeIfAbsent(value.getValue(), key -> new RoaringBitmap()).add(document);
+        }
+    }
+
+    private void remove(int document) {
+        Product product = products[document];
+        documentByProduct.remove(product.getProductId());
+        products[document] = null;
+        live.remove(document);
+        for (Map.Entry<String, String> value : valuesOf(product).entrySet()) {
+            Map<String, RoaringBitmap> values = bitmaps.get(value.getKey());
+            RoaringBitmap bitmap = values.get(value.getValue());
+            bitmap.remove(document);
+            if (bitmap.cardinality() == 0) {
+                values.remove(value.getValue());
+            }
+        }
+    }
+
+    private List<Product> liveProducts() {
+        List<Product> all = new ArrayList<>(documentByProduct.size());
+        live.forEach(Integer.MAX_VALUE, document -> all.add(products[document]));
+        return all;
+    }
+
+    /**
+     * Evaluates a filter against the bitmaps, by recursive descent:
+     * <pre>
+     *     or     := and ("OR" and)*
+     *     and    := not ("AND" not)*
+     *     not    := "NOT" not | "(" or ")" | facet "=" value
+     * </pre>
+     */
+    private final class Parser {
+        private final List<String> tokens = new ArrayList<>();
+        private int position;
+
+        Parser(String filter) {
+            int i = 0;
+            while (i < filter.length()) {
+                char c = filter.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '(' || c == ')') {
+                    tokens.add(String.valueOf(c));
+                    i++;
+                } else {
+                    int start = i;
+                    while (i < filter.length() && !Character.isWhitespace(filter.charAt(i))
+                            && filter.charAt(i) != '(' && filter.charAt(i) != ')') {
+                        i++;
+                    }
+                    tokens.add(filter.substring(start, i));
+                }
+            }
+        }
+
+        RoaringBitmap parse() {
+            if (tokens.isEmpty()) {
+                return live;
+            }
+            RoaringBitmap result = or();
+            if (position < tokens.size()) {
+                throw new IllegalArgumentException("Unexpected '" + tokens.get(position) + "' in filter.");
+            }
+            return result;
+        }
+
+        private RoaringBitmap or() {
+            RoaringBitmap result = and();
+            while (accept("OR")) {
+                result = result.or(and());
+            }
+            return result;
+        }
+
+        private RoaringBitmap and() {
+            RoaringBitmap result = not();
+            while (accept("AND")) {
+                result = result.and(not());
+            }
+            return result;
+        }
+
+        private RoaringBitmap not() {
+            if (accept("NOT")) {
+                return live.andNot(not());
+            }
+            if (accept("(")) {
+                RoaringBitmap result = or();
+                if (!accept(")")) {
+                    throw new IllegalArgumentException("Missing ')' in filter.");
+                }
+                return result;
+            }
+            if (position == tokens.size()) {
+                throw new IllegalArgumentException("Filter ends too early.");
+            }
+            String term = tokens.get(position++);
+            int equals = term.indexOf('=');
+            if (equals <= 0) {
+                throw new IllegalArgumentException("Expected facet=value but found '" + term + "'.");
+            }
+            String facet = term.substring(0, equals).toLowerCase();
+            String value = term.substring(equals + 1).toLowerCase();
+            Map<String, RoaringBitmap> values = bitmaps.get(facet);
+            if (values == null) {
+                throw new IllegalArgumentException("Unknown facet '" + facet + "'. Use one of " + FACETS + ".");
+            }
+            if (facet.equals("type") && value.endsWith("product")) {
+                value = value.substring(0, value.length() - "product".length()); // PhysicalProduct, as in the file
+            }
+            RoaringBitmap bitmap = values.get(value);
+            return bitmap != null ? bitmap : new RoaringBitmap();
+        }
+
+        private boolean accept(String token) {
+            if (position < tokens.size() && tokens.get(position).equalsIgnoreCase(token)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+    }
+}
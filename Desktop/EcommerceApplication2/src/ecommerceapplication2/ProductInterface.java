@@ -1,5 +1,7 @@
 package ecommerceapplication2;
 
+import java.io.IOException;
+
 /**
  * The {@code ProductInterface} interface defines the basic contract that any
  * product class in the e-commerce application must adhere to. It includes methods
@@ -56,6 +58,16 @@ public interface ProductInterface {
      */
     void displayDetails();
 
+    /**
+     * Writes the details of the product, as {@link #displayDetails()} prints
+     * them, to the given output. Lets a caller collect many products in one
+     * buffer and write them at once.
+     *
+     * @param out The output to write to.
+     * @throws IOException if the output cannot be written.
+     */
+    void displayDetails(Appendable out) throws IOException;
+
     /**
      * Saves the product information to a specified file.
      * Implementing classes should define how and where the product data is saved.
@@ -0,0 +1,701 @@
+package ecommerceapplication2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of changes to a product file.
+ * Adding a product, deleting one (a tombstone), changing its price or its stock
+ * appends a single checksummed record to {@code <product file>.journal} instead of
+ * rewriting the product file. {@link ProductCatalog} replays the journal on
+ * top of the product file to resolve the latest state.
+ *
+ * <p>Records are written through the journal file's {@link BatchedFileWriter}
+ * with {@link BatchedFileWriter.Durability#FSYNC}, so concurrent changes share
+ * one fsync; each change returns a future that completes once its record is
+ * on disk.
+ *
+ * <p>When too much of the product file and journal is made of superseded
+ * records, a background compactor writes a clean product file, atomically
+ * replaces the old one and then replaces the journal with one that holds
+ * only the new generation's record.
+ * Appends and compaction take a file lock on the journal, so several
+ * processes can share the same files.
+ *
+ * <p>Every compaction starts a new generation. The compacted product file
+ * begins with a {@link Header} naming its generation and how much of which
+ * journal it already holds, and the new journal begins with a
+ * {@link #GENERATION} record naming the generation it applies to. Replay
+ * starts after the records the product file already holds, so stock changes,
+ * which are recorded as differences, are never counted twice, even if the
+ * process stops between replacing the two files.
+ *
+ * <p>Record layout: {@code [int length][byte op][payload][int crc32(op, payload)]},
+ * where the payload is UTF-8 text.
+ */
+public class ProductJournal {
+    static final byte PUT = 1;     // Payload: the product's file format line
+    static final byte DELETE = 2;  // Payload: the product ID
+    static final byte PRICE = 3;   // Payload: product ID and new price as a record
+    static final byte STOCK = 4;   // Payload: product ID, units added (negative when sold) and origin as a record
+    static final byte GENERATION = 5; // Payload: the generation of the product file; only ever the first record
+
+    private static final int MAX_RECORD_LENGTH = 1 << 24;
+    private static final double COMPACTION_GARBAGE_RATIO = 0.5; // Share of dead records that triggers compaction
+    private static final int COMPACTION_MIN_RECORDS = 1024;     // Never compact smaller files
+
+    private static final Map<String, ProductJournal> journals = new ConcurrentHashMap<>();
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final String ORIGIN = Long.toHexString(RANDOM.nextLong()); // Tags this process's stock records
+    private static final Metrics.Timer COMPACT_TIMER = Metrics.timer("journal.compact");
+    private static final Metrics.Counter BYTES_WRITTEN = Metrics.counter("file.bytesWritten");
+    private static final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "product-journal-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String productFile;        // The product file this journal applies to
+    private final BatchedFileWriter writer;  // Group-commits records to the journal file
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+
+    /**
+     * Receives the records of a journal during replay.
+     */
+    interface Visitor {
+        /**
+         * Called for a product that was added or replaced.
+         *
+         * @param product The product.
+         */
+        void put(Product product);
+
+        /**
+         * Called for a product that was deleted.
+         *
+         * @param productId The ID of the deleted product.
+         */
+        void delete(String productId);
+
+        /**
+         * Called for a price change.
+         *
+         * @param productId The ID of the product.
+         * @param price     The new price.
+         */
+        void updatePrice(String productId, double price);
+
+        /**
+         * Called for a change in stock. A product whose stock was not tracked
+         * starts counting from zero.
+         *
+         * @param productId The ID of the product.
+         * @param delta     The units added, or taken if negative.
+         * @param local     Whether the change was recorded by this process.
+         */
+        void adjustStock(String productId, int delta, boolean local);
+    }
+
+    /**
+     * The up-to-date view of a product file and its journal that compaction
+     * writes the live products from: the {@link ProductCatalog}, or the
+     * {@link OffHeapProductStore} when products are kept off the heap.
+     * Compaction holds the source's lock while it runs.
+     */
+    interface Source {
+        /**
+         * Returns the number of records stored in the product file and its
+         * journal, including superseded ones.
+         *
+         * @return The stored record count.
+         */
+        long recordCount();
+
+        /**
+         * Returns the share of stored records that no longer describe a live product.
+         *
+         * @return A ratio between 0 and 1.
+         */
+        double garbageRatio();
+
+        /**
+         * Returns the products whose stock balance is below zero, with the
+         * units missing, bringing the source up to date first.
+         *
+         * @return The missing units by product ID.
+         */
+        Map<String, Integer> shortfalls();
+
+        /**
+         * Writes every live product in the product file format, one per line.
+         *
+         * @param out The writer to write to.
+         * @throws IOException if writing fails.
+         */
+        void writeProducts(Writer out) throws IOException;
+
+        /**
+         * Tells the source that the files have just been compacted and
+         * replaced, so it does not have to read them again.
+         *
+         * @param journalLength  The size of the new journal.
+         * @param journalRecords The records in it, which the source has already applied.
+         */
+        void compacted(long journalLength, int journalRecords);
+    }
+
+    /**
+     * The first lines of a compacted product file, which start with {@code #}
+     * and so are skipped as products:
+     * <pre>
+     *     #compacted &lt;generation&gt; &lt;journal generation, or -&gt; &lt;journal bytes&gt; &lt;compacted bytes&gt;
+     *     #shortfall &lt;units&gt; &lt;product ID as hexadecimal UTF-8&gt;
+     * </pre>
+     * The first line names the file's generation, the part of the journal
+     * the file already holds and the length of the file as compaction wrote
+     * it, within which no product ID appears twice; each further line gives
+     * a stock balance below zero, which the product records cannot hold. A
+     * product file that was never compacted has no header.
+     */
+    static final class Header {
+        private static final String COMPACTED = "#compacted ";
+        private static final String SHORTFALL = "#shortfall ";
+        private static final int LENGTH_DIGITS = 19; // Compacted bytes are zero-padded, so they can be filled in last
+
+        final String generation;          // Generation of the product file, empty if never compacted
+        final String foldedGeneration;    // Generation of the journal compacted into the file
+        final long foldedLength;          // Bytes of that journal already held by the file
+        final long compactedLength;       // Bytes of the file holding each product once, 0 if unknown
+        final Map<String, Integer> shortfalls; // Units missing below zero stock by product ID
+
+        Header(String generation, String foldedGeneration, long foldedLength, long compactedLength,
+                Map<String, Integer> shortfalls) {
+            this.generation = generation;
+            this.foldedGeneration = foldedGeneration;
+            this.foldedLength = foldedLength;
+            this.compactedLength = compactedLength;
+            this.shortfalls = shortfalls;
+        }
+
+        /**
+         * Reads the header of a product file.
+         *
+         * @param productFile The name of the product file.
+         * @return The header, empty if the file was never compacted or does not exist.
+         * @throws IOException if the file cannot be read.
+         */
+        static Header read(String productFile) throws IOException {
+            String generation = "";
+            String foldedGeneration = "";
+            long foldedLength = 0;
+            long compactedLength = 0;
+            Map<String, Integer> shortfalls = new HashMap<>();
+            try (BufferedReader in = Files.newBufferedReader(Paths.get(productFile), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = in.readLine()) != null && line.startsWith("#")) {
+                    String[] fields = line.split(" ");
+                    try {
+                        if (line.startsWith(COMPACTED) && fields.length >= 4) {
+                            generation = fields[1];
+                            foldedGeneration = fields[2].equals("-") ? "" : fields[2];
+                            foldedLength = Long.parseLong(fields[3]);
+                            compactedLength = compactedLength(line);
+                        } else if (line.startsWith(SHORTFALL) && fields.length >= 3) {
+                            byte[] id = new byte[fields[2].length() / 2];
+                            for (int i = 0; i < id.length; i++) {
+                                id[i] = (byte) Integer.parseInt(fields[2], 2 * i, 2 * i + 2, 16);
+                            }
+                            shortfalls.put(new String(id, StandardCharsets.UTF_8), Integer.parseInt(fields[1]));
+                        }
+                    } catch (IllegalArgumentException e) {
+                        System.out.println("Skipping header line of " + productFile + ": " + line);
+                    }
+                }
+            } catch (NoSuchFileException e) {
+                // Nothing compacted yet
+            }
+            return new Header(generation, foldedGeneration, foldedLength, compactedLength, shortfalls);
+        }
+
+        /**
+         * Reads the length of the compacted part of a product file from its
+         * first line. Headers written before the length was recorded give 0.
+         *
+         * @param firstLine The first line of the product file.
+         * @return The length, or 0 if the file has no such header.
+         */
+        static long compactedLength(String firstLine) {
+            String[] fields = firstLine.trim().split(" ");
+            if (!firstLine.startsWith(COMPACTED) || fields.length < 5) {
+                return 0;
+            }
+            try {
+                return Long.parseLong(fields[4]);
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        /**
+         * Writes the header lines, with the compacted length left at zero
+         * for {@link #fillCompactedLength} to fill in.
+         */
+        void write(Writer out) throws IOException {
+            out.write(firstLinePrefix() + "0".repeat(LENGTH_DIGITS) + System.lineSeparator());
+            for (Map.Entry<String, Integer> shortfall : shortfalls.entrySet()) {
+                StringBuilder hex = new StringBuilder();
+                for (byte b : shortfall.getKey().getBytes(StandardCharsets.UTF_8)) {
+                    hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+                }
+                out.write(SHORTFALL + shortfall.getValue() + " " + hex + System.lineSeparator());
+            }
+        }
+
+        /**
+         * Overwrites the compacted length in a header written by {@link #write}
+         * with the current size of the file.
+         */
+        void fillCompactedLength(FileChannel file) throws IOException {
+            ByteBuffer digits = ByteBuffer.wrap(String.format("%0" + LENGTH_DIGITS + "d", file.size())
+                    .getBytes(StandardCharsets.US_ASCII));
+            long position = firstLinePrefix().getBytes(StandardCharsets.UTF_8).length;
+            while (digits.hasRemaining()) {
+                position += file.write(digits, position);
+            }
+        }
+
+        private String firstLinePrefix() {
+            return COMPACTED + generation + " " + (foldedGeneration.isEmpty() ? "-" : foldedGeneration) + " "
+                    + foldedLength + " ";
+        }
+    }
+
+    private ProductJournal(String productFile) {
+        this.productFile = productFile;
+        this.writer = BatchedFileWriter.forFile(journalFileName(productFile));
+        try {
+            startGeneration();
+        } catch (IOException e) {
+            System.out.println("Error opening " + journalFileName(productFile) + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts an empty journal with the generation of a compacted product
+     * file, so that the records appended to it are replayed on top of that
+     * file. This matters only if the journal was removed after a compaction.
+     */
+    private void startGeneration() throws IOException {
+        String generation = Header.read(productFile).generation;
+        if (generation.isEmpty() || new File(journalFileName(productFile)).length() > 0) {
+            return;
+        }
+        writer.runExclusive(journal -> {
+            if (journal.size() == 0) {
+                ByteBuffer record = record(GENERATION, generation);
+                while (record.hasRemaining()) {
+                    journal.write(record);
+                }
+                journal.force(true);
+            }
+        });
+    }
+
+    /**
+     * Returns the shared journal for the given product file.
+     *
+     * @param productFile The name of the product file.
+     * @return The journal for the file.
+     */
+    public static ProductJournal forFile(String productFile) {
+        return journals.computeIfAbsent(productFile, ProductJournal::new);
+    }
+
+    /**
+     * Returns the name of the journal file belonging to a product file.
+     *
+     * @param productFile The name of the product file.
+     * @return The name of the journal file.
+     */
+    public static String journalFileName(String productFile) {
+        return productFile + ".journal";
+    }
+
+    /**
+     * Records that a product was added, replacing any product with the same ID.
+     *
+     * @param product The product to add.
+     * @return A future completed once the record is on disk.
+     */
+    public CompletableFuture<Void> put(Product product) {
+        return append(PUT, product.toFileFormat());
+    }
+
+    /**
+     * Records that the product with the given ID was deleted.
+     *
+     * @param productId The ID of the product to delete.
+     * @return A future completed once the record is on disk.
+     */
+    public CompletableFuture<Void> delete(String productId) {
+        return append(DELETE, productId);
+    }
+
+    /**
+     * Records a new price for the product with the given ID.
+     *
+     * @param productId The ID of the product.
+     * @param price     The new price.
+     * @return A future completed once the record is on disk.
+     */
+    public CompletableFuture<Void> updatePrice(String productId, double price) {
+        return append(PRICE, CsvCursor.quote(productId) + "," + price);
+    }
+
+    /**
+     * Records units added to or taken from the stock of the product with the
+     * given ID. Changes are recorded as differences rather than totals, so
+     * concurrent sales can be appended in any order.
+     *
+     * @param productId The ID of the product.
+     * @param delta     The units added, or taken if negative.
+     * @return A future completed once the record is on disk.
+     */
+    public CompletableFuture<Void> adjustStock(String productId, int delta) {
+        return append(STOCK, CsvCursor.quote(productId) + "," + delta + "," + ORIGIN);
+    }
+
+    /**
+     * Queues one record for a group-committed, fsynced append. Once it is on
+     * disk, a compaction is scheduled if the catalog has too many dead records.
+     */
+    private CompletableFuture<Void> append(byte op, String payload) {
+        CompletableFuture<Void> written = writer.append(record(op, payload).array(), BatchedFileWriter.Durability.FSYNC);
+        written.thenRunAsync(this::scheduleCompactionIfNeeded, compactor);
+        return written;
+    }
+
+    private static ByteBuffer record(byte op, String payload) {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + 1 + bytes.length + Integer.BYTES);
+        record.putInt(bytes.length).put(op).put(bytes).putInt(checksum(op, bytes, bytes.length));
+        return record.flip();
+    }
+
+    /**
+     * Returns the view compaction writes the products from, which is the one
+     * {@link TextFileStorage} reads from.
+     */
+    private Source source() {
+        return TextFileStorage.OFF_HEAP ? OffHeapProductStore.compactionSource(productFile)
+                : ProductCatalog.forFile(productFile);
+    }
+
+    private void scheduleCompactionIfNeeded() {
+        Source source = source();
+        if (source.recordCount() < COMPACTION_MIN_RECORDS || source.garbageRatio() < COMPACTION_GARBAGE_RATIO) {
+            return;
+        }
+        if (compactionScheduled.compareAndSet(false, true)) {
+            compactor.execute(() -> {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    System.out.println("Error compacting products: " + e.getMessage());
+                } finally {
+                    compactionScheduled.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Rewrites the product file with only the live products and empties the journal.
+     * The new product file is written next to the old one, forced to disk and
+     * moved into place atomically; its {@link Header} records that it holds
+     * the whole journal as it stands. The journal is then replaced, also
+     * atomically, by one holding only the new generation. A crash before the
+     * first move leaves the old files; a crash between the moves leaves a
+     * journal whose records replay skips, except any appended after the
+     * compaction. Stock balances below zero, which the product records cannot
+     * hold, are kept in the header.
+     *
+     * @throws IOException if the files cannot be rewritten.
+     */
+    public void compact() throws IOException {
+        Path productPath = Paths.get(productFile).toAbsolutePath();
+        long start = COMPACT_TIMER.start();
+        try {
+            compact(source(), productPath);
+        } finally {
+            COMPACT_TIMER.stop(start);
+        }
+    }
+
+    private void compact(Source source, Path productPath) throws IOException {
+        writer.runExclusive(journal -> {
+            synchronized (source) {
+                Map<String, Integer> shortfalls = source.shortfalls(); // Brings the source up to date first
+                source.compacted(rewrite(journal, productPath, shortfalls, source::writeProducts), 0);
+            }
+        });
+    }
+
+    /**
+     * Replaces all products of the file with the given ones, as an import
+     * does. The product file and the journal are replaced the same way
+     * compaction replaces them, under the journal's lock, so the journal's
+     * earlier records are never replayed on top of the new products. Readers
+     * load the new files the next time they look.
+     *
+     * @param products The new products, each ID once.
+     * @throws IOException if the files cannot be rewritten.
+     */
+    public void replaceAll(List<? extends Product> products) throws IOException {
+        Path productPath = Paths.get(productFile).toAbsolutePath();
+        writer.runExclusive(journal -> rewrite(journal, productPath, Map.of(), out -> {
+            for (Product product : products) {
+                out.write(product.toFileFormat());
+                out.write(System.lineSeparator());
+            }
+        }));
+    }
+
+    /**
+     * Writes the product file of a new generation and replaces the journal
+     * with one holding only its {@link #GENERATION} record. Must be called
+     * while holding the journal's exclusive lock.
+     *
+     * @return The size of the new journal.
+     */
+    private long rewrite(FileChannel journal, Path productPath, Map<String, Integer> shortfalls, ProductWriter products)
+            throws IOException {
+        Metrics.Timer writeTimer = Metrics.timer("file.write." + productPath.getFileName());
+        Path journalPath = Paths.get(journalFileName(productFile)).toAbsolutePath();
+        Header header = new Header(Long.toHexString(RANDOM.nextLong()), generationOf(journalPath.toString()),
+                journal.size(), 0, shortfalls);
+        long start = writeTimer.start();
+        try {
+            replaceFile(productPath, target -> {
+                Writer out = Channels.newWriter(target, StandardCharsets.UTF_8);
+                header.write(out);
+                products.write(out);
+                out.flush();
+                header.fillCompactedLength(target);
+            });
+        } finally {
+            writeTimer.stop(start);
+        }
+        ByteBuffer generation = record(GENERATION, header.generation);
+        replaceFile(journalPath, target -> {
+            while (generation.hasRemaining()) {
+                target.write(generation);
+            }
+        });
+        return generation.limit();
+    }
+
+    /**
+     * Writes the products of a new product file.
+     */
+    private interface ProductWriter {
+        void write(Writer out) throws IOException;
+    }
+
+    /**
+     * Writes new contents for a file next to it, forces them to disk and
+     * moves them into place atomically.
+     */
+    private static void replaceFile(Path path, BatchedFileWriter.ChannelAction contents) throws IOException {
+        Path replacement = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".compact");
+        try {
+            try (FileChannel target = FileChannel.open(replacement, StandardOpenOption.WRITE)) {
+                contents.run(target);
+                target.force(true);
+                BYTES_WRITTEN.add(target.size());
+            }
+            Files.move(replacement, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(replacement);
+        }
+    }
+
+    /**
+     * Returns the offset at which replaying a product file's journal starts:
+     * after the {@link #GENERATION} record if the journal belongs to the
+     * file's generation, after the records the file already holds if the
+     * file was compacted from it, or at its end if the journal belongs to
+     * another product file altogether.
+     *
+     * @param productFile The name of the product file.
+     * @param header      The header of the product file.
+     * @return The offset of the first record to replay.
+     * @throws IOException if the journal cannot be read.
+     */
+    static long replayStart(String productFile, Header header) throws IOException {
+        String journalFileName = journalFileName(productFile);
+        String generation = generationOf(journalFileName);
+        if (generation.equals(header.generation)) {
+            return 0;
+        }
+        if (generation.equals(header.foldedGeneration)) {
+            return header.foldedLength;
+        }
+        System.out.println("Ignoring " + journalFileName + ", which does not belong to " + productFile + ".");
+        return new File(journalFileName).length();
+    }
+
+    /**
+     * Reads the generation a journal applies to from its first record.
+     *
+     * @return The generation, or an empty string for a journal without one.
+     */
+    private static String generationOf(String journalFileName) throws IOException {
+        try (FileChannel in = FileChannel.open(Paths.get(journalFileName), StandardOpenOption.READ)) {
+            DataInputStream data = new DataInputStream(new BufferedInputStream(Channels.newInputStream(in), 256));
+            int length = data.readInt();
+            byte op = data.readByte();
+            if (op != GENERATION || length < 0 || length > 256) {
+                return "";
+            }
+            byte[] payload = new byte[length];
+            data.readFully(payload);
+            return data.readInt() == checksum(op, payload, length) ? new String(payload, StandardCharsets.UTF_8) : "";
+        } catch (NoSuchFileException | EOFException e) {
+            return "";
+        }
+    }
+
+    /**
+     * Replays the journal records from the given offset.
+     * Replay stops at the first incomplete or corrupt record, which is treated
+     * as the end of the journal. A record that is intact but does not describe
+     * a valid change, such as a product with a malformed price, is reported
+     * and skipped.
+     *
+     * @param journalFileName The name of the journal file.
+     * @param from            The offset of the first record to replay.
+     * @param visitor         Receives the records.
+     * @return The offset just after the last valid record.
+     * @throws IOException if the journal cannot be read.
+     */
+    static long replay(String journalFileName, long from, Visitor visitor) throws IOException {
+        if (!new File(journalFileName).exists()) {
+            return from;
+        }
+        long offset = from;
+        try (FileChannel in = FileChannel.open(Paths.get(journalFileName), StandardOpenOption.READ)) {
+            in.position(from);
+            InputStream stream = Channels.newInputStream(in);
+            DataInputStream data = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+            byte[] payload = new byte[256];
+            while (true) {
+                int length;
+                byte op;
+                int crc;
+                try {
+                    length = data.readInt();
+                    if (length < 0 || length > MAX_RECORD_LENGTH) {
+                        break;
+                    }
+                    op = data.readByte();
+                    if (payload.length < length) {
+                        payload = new byte[Math.max(length, payload.length * 2)];
+                    }
+                    data.readFully(payload, 0, length);
+                    crc = data.readInt();
+                } catch (EOFException e) {
+                    break; // Incomplete record at the tail
+                }
+                if (crc != checksum(op, payload, length)) {
+                    break;
+                }
+                try {
+                    apply(op, new String(payload, 0, length, StandardCharsets.UTF_8), visitor);
+                } catch (IllegalArgumentException e) { // Includes NumberFormatException
+                    System.out.println("Skipping journal record in " + journalFileName + ": " + e.getMessage());
+                }
+                offset += Integer.BYTES + 1 + length + Integer.BYTES;
+            }
+        } catch (NoSuchFileException e) {
+            return from;
+        }
+        return offset;
+    }
+
+    private static void apply(byte op, String payload, Visitor visitor) throws IOException {
+        switch (op) {
+            case PUT: {
+                CsvCursor cursor = new CsvCursor(payload.toCharArray(), 0, payload.length());
+                if (cursor.nextRecord()) {
+                    Product product = FileHandler.parseProduct(cursor);
+                    if (product != null) {
+                        visitor.put(product);
+                    }
+                }
+                break;
+            }
+            case DELETE:
+                visitor.delete(payload);
+                break;
+            case GENERATION:
+                break; // Read by replayStart
+            case PRICE: {
+                CsvCursor cursor = new CsvCursor(payload.toCharArray(), 0, payload.length());
+                if (cursor.nextRecord() && cursor.nextField()) {
+                    String productId = cursor.fieldString();
+                    if (cursor.nextField()) {
+                        visitor.updatePrice(productId, cursor.fieldDouble());
+                    }
+                }
+                break;
+            }
+            case STOCK: {
+                CsvCursor cursor = new CsvCursor(payload.toCharArray(), 0, payload.length());
+                if (cursor.nextRecord() && cursor.nextField()) {
+                    String productId = cursor.fieldString();
+                    if (cursor.nextField()) {
+                        int delta = (int) cursor.fieldDouble();
+                        visitor.adjustStock(productId, delta, cursor.nextField() && cursor.fieldEquals(ORIGIN));
+                    }
+                }
+                break;
+            }
+            default:
+                System.out.println("Unknown journal record type: " + op);
+        }
+    }
+
+    private static int checksum(byte op, byte[] payload, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(op);
+        crc.update(payload, 0, length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,112 @@
+package ecommerceapplication2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of loading a product file: the products that were read, in file
+ * order, and a report for every chunk of the file listing the records that
+ * could not be turned into products.
+ */
+public class ProductLoadReport {
+    private final ArrayList<Product> products;  // Products in file order
+    private final List<ChunkReport> chunks;     // One report per parsed chunk
+
+    /**
+     * Constructs a report.
+     *
+     * @param products The products that were loaded.
+     * @param chunks   The reports of the chunks the file was split into.
+     */
+    public ProductLoadReport(ArrayList<Product> products, List<ChunkReport> chunks) {
+        this.products = products;
+        this.chunks = Collections.unmodifiableList(chunks);
+    }
+
+    /**
+     * Returns the products that were loaded, in file order.
+     *
+     * @return The loaded products.
+     */
+    public ArrayList<Product> getProducts() {
+        return products;
+    }
+
+    /**
+     * Returns the reports of the individual chunks, in file order.
+     *
+     * @return The chunk reports.
+     */
+    public List<ChunkReport> getChunks() {
+        return chunks;
+    }
+
+    /**
+     * Returns the number of records that could not be loaded.
+     *
+     * @return The error count over all chunks.
+     */
+    public int getErrorCount() {
+        int count = 0;
+        for (ChunkReport chunk : chunks) {
+            count += chunk.getErrors().size();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the first error in file order.
+     *
+     * @return The first error message, or {@code null} if there were none.
+     */
+    public String getFirstError() {
+        for (ChunkReport chunk : chunks) {
+            if (!chunk.getErrors().isEmpty()) {
+                return chunk.getErrors().get(0);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * What happened while parsing one byte range of the file.
+     */
+    public static class ChunkReport {
+        private final long startOffset;     // First byte of the chunk
+        private final long endOffset;       // Byte after the last byte of the chunk
+        private final int records;          // Records found in the chunk
+        private final List<String> errors;  // Problems, each prefixed with the record number
+
+        /**
+         * Constructs a chunk report.
+         *
+         * @param startOffset The offset of the first byte of the chunk.
+         * @param endOffset   The offset just past the chunk.
+         * @param records     The number of records in the chunk.
+         * @param errors      The problems found in the chunk.
+         */
+        public ChunkReport(long startOffset, long endOffset, int records, List<String> errors) {
+            this.startOffset = startOffset;
+            this.endOffset = endOffset;
+            this.records = records;
+            this.errors = Collections.unmodifiableList(errors);
+        }
+
+        public long getStartOffset() {
+            return startOffset;
+        }
+
+        public long getEndOffset() {
+            return endOffset;
+        }
+
+        public int getRecords() {
+            return records;
+        }
+
+        public List<String> getErrors() {
+            return errors;
+        }
+    }
+}
@@ -0,0 +1,447 @@
+package ecommerceapplication2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Sorted indexes over the numeric attributes of the products of a product
+ * file: the price of every product, the weight of physical
+ * products and the file size, in bytes, of digital products. They answer
+ * range queries ("under $20", "under 2 kg"), the cheapest products and
+ * price-ordered pages in O(log n + k) time, without reading the storage.
+ *
+ * <p>Each attribute is a column of two parallel primitive arrays, the sort
+ * key and the product's document number, in (value, product ID) order. New
+ * entries go into a small sorted buffer that is merged into the column once
+ * it fills up, so adding a product costs O(log n) plus a short array copy.
+ * Removing a product only marks its document deleted; its entries are
+ * dropped at the next merge. The index listens to the storage, so every
+ * change is reflected in the next query.
+ *
+ * <p>Usage example:
+ * <pre>
+ *     ProductRangeIndex index = ProductRangeIndex.forFile("products.txt");
+ *     List&lt;Product&gt; cheap = index.range(ProductRangeIndex.Field.PRICE, 0, 20, 50);
+ *     Product last = cheap.get(cheap.size() - 1);
+ *     List&lt;Product&gt; next = index.pageAfter(ProductRangeIndex.Field.PRICE, last.getPrice(), last.getProductId(), 50);
+ * </pre>
+ */
+public final class ProductRangeIndex implements ProductCatalog.Listener {
+    private static final int BUFFER_LIMIT = 4096; // Buffered entries before a merge into the column
+
+    /**
+     * The numeric attributes that are indexed.
+     */
+    public enum Field {
+        /** The price of every product. */
+        PRICE,
+        /** The weight in kilograms of physical products. */
+        WEIGHT,
+        /** The file size in bytes of digital products. */
+        FILE_SIZE;
+
+        /**
+         * Returns the value of this attribute for a product.
+         *
+         * @param product The product.
+         * @return The value, or NaN if the product does not have this attribute.
+         */
+        public double valueOf(Product product) {
+            switch (this) {
+                case PRICE:
+                    return product.getPrice();
+                case WEIGHT:
+                    return product instanceof PhysicalProduct physical ? physical.getWeight() : Double.NaN;
+                default:
+                    long bytes = product instanceof DigitalProduct digital ? digital.getFileSizeBytes() : -1;
+                    return bytes < 0 ? Double.NaN : bytes;
+            }
+        }
+    }
+
+    private static final Map<String, ProductRangeIndex> indexes = new ConcurrentHashMap<>();
+
+    private final FileHandlerInterface storage; // The storage the products are kept in
+    private final String fileName;              // The product file
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(); // Catalog changes write, queries read
+    private final Column[] columns = new Column[Field.values().length];       // One column per field
+    private final Map<String, Integer> documentByProduct = new HashMap<>();   // Live document of each product ID
+    private final BitSet deleted = new BitSet();
+    private Product[] products = new Product[1024]; // Product of each document, kept after deletion until a rebuild
+    private int documents;                          // Documents ever numbered, including deleted ones
+    private int live;                               // Documents not deleted
+
+    /**
+     * Returns the index of a product file, building it on first use and
+     * keeping it in step with the products the {@link FileHandler#getStorage()
+     * storage} keeps for the file.
+     *
+     * @param fileName The name of the product file.
+     * @return The shared index.
+     */
+    public static ProductRangeIndex forFile(String fileName) {
+        return indexes.computeIfAbsent(fileName, name -> {
+            ProductRangeIndex index = new ProductRangeIndex(FileHandler.getStorage(), name);
+            index.storage.addListener(name, index);
+            return index;
+        });
+    }
+
+    private ProductRangeIndex(FileHandlerInterface storage, String fileName) {
+        this.storage = storage;
+        this.fileName = fileName;
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new Column();
+        }
+    }
+
+    /**
+     * Finds the products whose attribute lies in a range, smallest value first.
+     *
+     * @param field The attribute.
+     * @param min   The smallest value to include.
+     * @param max   The largest value to include.
+     * @param limit The most products to return.
+     * @return The products in the range, ordered by value, then by product ID.
+     */
+    public List<Product> range(Field field, double min, double max, int limit) {
+        if (!(min <= max) || limit <= 0) {
+            return List.of();
+        }
+        storage.refresh(fileName); // Take in changes not reported yet
+        lock.readLock().lock();
+        try {
+            Column column = columns[field.ordinal()];
+            return column.collect(column.lowerBound(sortable(min), null), sortable(max), limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the cheapest products.
+     *
+     * @param limit The most products to return.
+     * @return The products, cheapest first.
+     */
+    public List<Product> cheapest(int limit) {
+        return range(Field.PRICE, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, limit);
+    }
+
+    /**
+     * Returns the page of products that follows a given product in the order
+     * of an attribute. Pages stay consistent while products are added or
+     * removed, because they continue from a value rather than a position.
+     *
+     * @param field     The attribute to order by.
+     * @param value     The attribute value of the last product of the previous page.
+     * @param productId The ID of the last product of the previous page, or
+     *                  {@code null} to start at the first product with the value.
+     * @param limit     The most products to return.
+     * @return The next products, ordered by value, then by product ID.
+     */
+    public List<Product> pageAfter(Field field, double value, String productId, int limit) {
+        if (Double.isNaN(value) || limit <= 0) {
+            return List.of();
+        }
+        storage.refresh(fileName);
+        lock.readLock().lock();
+        try {
+            Column column = columns[field.ordinal()];
+            return column.collect(column.lowerBound(sortable(value), productId), Long.MAX_VALUE, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of products in the index.
+     *
+     * @return The live document count.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return live;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Catalog changes
+
+    @Override
+    public void catalogReplaced(List<Product> all) {
+        lock.writeLock().lock();
+        try {
+            rebuild(all);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void productAdded(Product product) {
+        lock.writeLock().lock();
+        try {
+            Integer previous = documentByProduct.get(product.getProductId());
+            if (previous != null) {
+                remove(previous); // A replacement whose removal was not reported
+            }
+            int document = number(product);
+            for (Field field : Field.values()) {
+                double value = field.valueOf(product);
+                if (!Double.isNaN(value)) {
+                    columns[field.ordinal()].insert(sortable(value), document);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void productRemoved(Product product) {
+        lock.writeLock().lock();
+        try {
+            Integer document = documentByProduct.get(product.getProductId());
+            if (document != null) {
+                remove(document);
+                if (documents - live > 1024 && documents - live > live) {
+                    rebuild(liveProducts());
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Indexing, under the write lock
+
+    /**
+     * Indexes the given products from scratch. Documents are numbered in
+     * product ID order, so each column can be sorted as packed (rank of the
+     * key, document) longs with no string comparisons.
+     */
+    private void rebuild(List<Product> all) {
+        List<Product> byId = new ArrayList<>(all);
+        byId.sort(Comparator.comparing(Product::getProductId));
+        documentByProduct.clear();
+        deleted.clear();
+        products = new Product[Math.max(1024, byId.size())];
+        documents = 0;
+        live = 0;
+        for (Product product : byId) {
+            number(product);
+        }
+        for (Field field : Field.values()) {
+            long[] keys = new long[documents];
+            int count = 0;
+            for (int document = 0; document < documents; document++) {
+                double value = field.valueOf(products[document]);
+                if (!Double.isNaN(value)) {
+                    keys[count++] = sortable(value);
+                }
+            }
+            long[] distinct = Arrays.copyOf(keys, count);
+            Arrays.sort(distinct);
+            int distinctCount = 0;
+            for (int i = 0; i < count; i++) {
+                if (i == 0 || distinct[i] != distinct[i - 1]) {
+                    distinct[distinctCount++] = distinct[i];
+                }
+            }
+            long[] packed = new long[count];
+            count = 0;
+            for (int document = 0; document < documents; document++) {
+                double value = field.valueOf(products[document]);
+                if (!Double.isNaN(value)) {
+                    long rank = Arrays.binarySearch(distinct, 0, distinctCount, sortable(value));
+                    packed[count++] = rank << 32 | document;
+                }
+            }
+            Arrays.sort(packed);
+            Column column = new Column();
+            column.keys = new long[Math.max(16, count)];
+            column.documents = new int[column.keys.length];
+            for (int i = 0; i < count; i++) {
+                column.keys[i] = distinct[(int) (packed[i] >>> 32)];
+                column.documents[i] = (int) packed[i];
+            }
+            column.size = count;
+            columns[field.ordinal()] = column;
+        }
+    }
+
+    /**
+     * Gives a product the next document number.
+     */
+    private int number(Product product) {
+        if (documents == products.length) {
+            products = Arrays.copyOf(products, documents * 2);
+        }
+        int document = documents++;
+        products[document] = product;
+        documentByProduct.put(product.getProductId(), document);
+        live++;
+        return document;
+    }
+
+    /**
+     * Marks a document deleted. Its column entries stay until the next merge.
+     */
+    private void remove(int document) {
+        Product product = products[document];
+        documentByProduct.remove(product.getProductId());
+        deleted.set(document);
+        live--;
+        for (Field field : Field.values()) {
+            if (!Double.isNaN(field.valueOf(product))) {
+                columns[field.ordinal()].dead++;
+            }
+        }
+    }
+
+    private List<Product> liveProducts() {
+        List<Product> all = new ArrayList<>(live);
+        for (int document = 0; document < documents; document++) {
+            if (!deleted.get(document)) {
+                all.add(products[document]);
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Maps a double to a long with the same order, so keys compare as longs.
+     */
+    static long sortable(double value) {
+        long bits = Double.doubleToLongBits(value == 0 ? 0.0 : value); // -0.0 sorts as 0.0
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+
+    /**
+     * The entries of one attribute: a sorted column plus a small sorted buffer
+     * of recent entries, both as parallel key and document arrays.
+     */
+    private final class Column {
+        long[] keys = new long[16];
+        int[] documents = new int[16];
+        int size;
+        long[] bufferKeys = new long[16];
+        int[] bufferDocuments = new int[16];
+        int bufferSize;
+        int dead; // Entries of deleted documents in the column and buffer
+
+        void insert(long key, int document) {
+            if (bufferSize == BUFFER_LIMIT || (dead > 1024 && dead > (size + bufferSize) / 2)) {
+                merge();
+            }
+            int at = position(bufferKeys, bufferDocuments, bufferSize, key, products[document].getProductId(), true);
+            if (bufferSize == bufferKeys.length) {
+                bufferKeys = Arrays.copyOf(bufferKeys, bufferSize * 2);
+                bufferDocuments = Arrays.copyOf(bufferDocuments, bufferSize * 2);
+            }
+            System.arraycopy(bufferKeys, at, bufferKeys, at + 1, bufferSize - at);
+            System.arraycopy(bufferDocuments, at, bufferDocuments, at + 1, bufferSize - at);
+            bufferKeys[at] = key;
+            bufferDocuments[at] = document;
+            bufferSize++;
+        }
+
+        /**
+         * Merges the buffer into the column, dropping the entries of deleted documents.
+         */
+        void merge() {
+            int capacity = Math.max(16, size + bufferSize - dead);
+            long[] mergedKeys = new long[capacity];
+            int[] mergedDocuments = new int[capacity];
+            int count = 0;
+            int i = 0;
+            int j = 0;
+            while (i < size || j < bufferSize) {
+                boolean fromColumn = j == bufferSize || (i < size
+                        && compare(keys[i], documents[i], bufferKeys[j], bufferDocuments[j]) <= 0);
+                long key = fromColumn ? keys[i] : bufferKeys[j];
+                int document = fromColumn ? documents[i++] : bufferDocuments[j++];
+                if (!deleted.get(document)) {
+                    mergedKeys[count] = key;
+                    mergedDocuments[count++] = document;
+                }
+            }
+            keys = mergedKeys;
+            documents = mergedDocuments;
+            size = count;
+            bufferSize = 0;
+            dead = 0;
+        }
+
+        /**
+         * Returns where a query starts in the column and in the buffer: the
+         * first entries after (key, productId), or at the key if productId is null.
+         */
+        int[] lowerBound(long key, String productId) {
+            return new int[] {
+                    position(keys, documents, size, key, productId, productId != null),
+                    position(bufferKeys, bufferDocuments, bufferSize, key, productId, productId != null)
+            };
+        }
+
+        /**
+         * Walks the column and the buffer together from the given positions,
+         * collecting live products up to a largest key.
+         */
+        List<Product> collect(int[] start, long maxKey, int limit) {
+            List<Product> results = new ArrayList<>(Math.min(limit, 256));
+            int i = start[0];
+            int j = start[1];
+            while (results.size() < limit && (i < size || j < bufferSize)) {
+                boolean fromColumn = j == bufferSize || (i < size
+                        && compare(keys[i], documents[i], bufferKeys[j], bufferDocuments[j]) <= 0);
+                long key = fromColumn ? keys[i] : bufferKeys[j];
+                int document = fromColumn ? documents[i++] : bufferDocuments[j++];
+                if (key > maxKey) {
+                    break;
+                }
+                if (!deleted.get(document)) {
+                    results.add(products[document]);
+                }
+            }
+            return results;
+        }
+
+        /**
+         * Binary search for the first entry after (key, productId) when after is
+         * true, or at or after it otherwise. A null productId sorts before every ID.
+         */
+        private int position(long[] keys, int[] documents, int size, long key, String productId, boolean after) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                int order = Long.compare(keys[middle], key);
+                if (order == 0 && productId != null) {
+                    order = products[documents[middle]].getProductId().compareTo(productId);
+                }
+                if (order < 0 || (order == 0 && after)) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        private int compare(long keyA, int documentA, long keyB, int documentB) {
+            int order = Long.compare(keyA, keyB);
+            return order != 0 ? order : products[documentA].getProductId().compareTo(products[documentB].getProductId());
+        }
+    }
+}
@@ -0,0 +1,533 @@
+package ecommerceapplication2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Full-text search over the products of a product file. Every
+ * product is split into terms, from its name and its type, dimensions, file
+ * size and format, and an inverted index maps each term to the products that
+ * contain it. The index listens to the storage, so adding, replacing or
+ * deleting a product is reflected in the next search.
+ *
+ * <p>A query matches the products that contain all of its terms; the last
+ * term also matches as a prefix, so results appear while a word is still
+ * being typed. Results are ranked with BM25, counting words of the name twice.
+ *
+ * <p>Each product gets a document number in the order it was indexed. A
+ * term's posting list holds, for each document containing it, the gap to the
+ * previous document number and the term frequency, both as variable-length
+ * integers, with a skip entry every {@value #SKIP_INTERVAL} postings so that
+ * intersecting a rare term with a common one jumps over most of the common
+ * term's list. Removing a product only marks its document deleted; the
+ * postings are rebuilt once most documents are deleted.
+ *
+ * <p>Usage example:
+ * <pre>
+ *     List&lt;Product&gt; hits = ProductSearchIndex.forFile("products.txt").search("usb cab", 10);
+ * </pre>
+ */
+public final class ProductSearchIndex implements ProductCatalog.Listener {
+    static final int SKIP_INTERVAL = 128;          // Postings between skip entries
+    private static final int NAME_BOOST = 2;       // Name words count this many times
+    private static final int MAX_EXPANSIONS = 64;  // Most terms a prefix stands for
+    private static final int MAX_PREFIX_SCAN = 4096; // Most dictionary terms looked at for one prefix
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private static final Map<String, ProductSearchIndex> indexes = new ConcurrentHashMap<>();
+
+    private final FileHandlerInterface storage; // The storage the products are kept in
+    private final String fileName;              // The product file
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(); // Catalog changes write, searches read
+    private final TreeMap<String, Postings> terms = new TreeMap<>();          // Dictionary, sorted for prefixes
+    private final Map<String, Integer> documentByProduct = new HashMap<>();   // Live document of each product ID
+    private final BitSet deleted = new BitSet();
+    private Product[] products = new Product[1024]; // Product of each document
+    private int[] lengths = new int[1024];          // Weighted term count of each document
+    private int documents;                          // Documents ever numbered, including deleted ones
+    private int live;                               // Documents not deleted
+    private long liveLength;                        // Sum of the lengths of live documents
+
+    /**
+     * Returns the index of a product file, building it on first use and
+     * keeping it in step with the products the {@link FileHandler#getStorage()
+     * storage} keeps for the file.
+     *
+     * @param fileName The name of the product file.
+     * @return The shared index.
+     */
+    public static ProductSearchIndex forFile(String fileName) {
+        return indexes.computeIfAbsent(fileName, name -> {
+            ProductSearchIndex index = new ProductSearchIndex(FileHandler.getStorage(), name);
+            index.storage.addListener(name, index);
+            return index;
+        });
+    }
+
+    private ProductSearchIndex(FileHandlerInterface storage, String fileName) {
+        this.storage = storage;
+        this.fileName = fileName;
+    }
+
+    /**
+     * Splits text into lowercase terms of letters and digits.
+     *
+     * @param text The text.
+     * @return The terms, in order, with repeats.
+     */
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Finds the products matching a query, best first.
+     *
+     * @param query The words to look for. The last word also matches longer
+     *              words it is a prefix of, unless the query ends with a space.
+     * @param limit The most products to return.
+     * @return The matching products, best first.
+     */
+    public List<Product> search(String query, int limit) {
+        List<String> words = tokenize(query);
+        if (words.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        boolean lastIsPrefix = !Character.isWhitespace(query.charAt(query.length() - 1));
+        storage.refresh(fileName); // Take in changes not reported yet
+        lock.readLock().lock();
+        try {
+            List<QueryTerm> required = new ArrayList<>();
+            for (int i = 0; i < words.size(); i++) {
+                String word = words.get(i);
+                if (words.indexOf(word) < i) {
+                    continue; // Repeated word
+                }
+                QueryTerm term = lookUp(word, lastIsPrefix && i == words.size() - 1);
+                if (term.cursors.isEmpty()) {
+                    return List.of();
+                }
+                required.add(term);
+            }
+            required.sort((a, b) -> Long.compare(a.postings, b.postings));
+            return rank(required, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of products in the index.
+     *
+     * @return The live document count.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return live;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of distinct terms in the dictionary.
+     *
+     * @return The term count.
+     */
+    public int termCount() {
+        lock.readLock().lock();
+        try {
+            return terms.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Catalog changes
+
+    @Override
+    public void catalogReplaced(List<Product> all) {
+        lock.writeLock().lock();
+        try {
+            rebuild(all);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void productAdded(Product product) {
+        lock.writeLock().lock();
+        try {
+            add(product);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void productRemoved(Product product) {
+        lock.writeLock().lock();
+        try {
+            Integer document = documentByProduct.get(product.getProductId());
+            if (document != null) {
+                remove(document);
+                if (documents - live > 1024 && documents - live > live) {
+                    rebuild(liveProducts());
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Indexing, under the write lock
+
+    private void rebuild(List<Product> all) {
+        terms.clear();
+        documentByProduct.clear();
+        deleted.clear();
+        products = new Product[Math.max(1024, all.size())];
+        lengths = new int[products.length];
+        documents = 0;
+        live = 0;
+        liveLength = 0;
+        for (Product product : all) {
+            add(product);
+        }
+    }
+
+    private void add(Product product) {
+        Integer previous = documentByProduct.get(product.getProductId());
+        if (previous != null) {
+            remove(previous); // A replacement whose removal was not reported
+        }
+        if (documents == products.length) {
+            products = Arrays.copyOf(products, documents * 2);
+            lengths = Arrays.copyOf(lengths, documents * 2);
+        }
+        int document = documents++;
+        documentByProduct.put(product.getProductId(), document);
+        int length = 0;
+        for (Map.Entry<String, Integer> term : termFrequencies(product).entrySet()) {
+            terms.computeIfAbsent(term.getKey(), key -> new Postings()).add(document, term.getValue());
+            length += term.getValue();
+        }
+        products[document] = product;
+        lengths[document] = length;
+        live++;
+        liveLength += length;
+    }
+
+    /**
+     * Marks a document deleted. Its postings stay until the next rebuild.
+     */
+    private void remove(int document) {
+        Product product = products[document];
+        documentByProduct.remove(product.getProductId());
+        deleted.set(document);
+        products[document] = null;
+        live--;
+        liveLength -= lengths[document];
+        for (String term : termFrequencies(product).keySet()) {
+            Postings postings = terms.get(term);
+            if (postings != null && --postings.liveDocuments == 0) {
+                terms.remove(term);
+            }
+        }
+    }
+
+    private List<Product> liveProducts() {
+        List<Product> all = new ArrayList<>(live);
+        for (int document = 0; document < documents; document++) {
+            if (!deleted.get(document)) {
+                all.add(products[document]);
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Counts the terms of a product, with name words weighted by {@link #NAME_BOOST}.
+     */
+    private static Map<String, Integer> termFrequencies(Product product) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (String token : tokenize(product.getName())) {
+            frequencies.merge(token, NAME_BOOST, Integer::sum);
+        }
+        StringBuilder attributes = new StringBuilder();
+        if (product instanceof PhysicalProduct physical) {
+            attributes.append("physical ").append(physical.getDimensions());
+        } else if (product instanceof DigitalProduct digital) {
+            attributes.append("digital ").append(digital.getFileSize()).append(' ').append(digital.getFormat());
+        }
+        for (String token : tokenize(attributes.toString())) {
+            frequencies.merge(token, 1, Integer::sum);
+        }
+        return frequencies;
+    }
+
+    // Searching, under the read lock
+
+    /**
+     * Collects the posting lists a query word stands for: the word itself,
+     * and, for a prefix, up to {@link #MAX_EXPANSIONS} of the most common
+     * terms starting with it.
+     */
+    private QueryTerm lookUp(String word, boolean prefix) {
+        QueryTerm term = new QueryTerm();
+        Postings exact = terms.get(word);
+        if (exact != null) {
+            term.add(exact);
+        }
+        if (prefix) {
+            NavigableMap<String, Postings> matches = terms.subMap(word, false, word + Character.MAX_VALUE, false);
+            PriorityQueue<Postings> common = new PriorityQueue<>((a, b) -> Integer.compare(a.liveDocuments, b.liveDocuments));
+            int scanned = 0;
+            for (Postings postings : matches.values()) {
+                if (scanned++ == MAX_PREFIX_SCAN) {
+                    break;
+                }
+                common.add(postings);
+                if (common.size() > MAX_EXPANSIONS) {
+                    common.poll();
+                }
+            }
+            for (Postings postings : common) {
+                term.add(postings);
+            }
+        }
+        return term;
+    }
+
+    /**
+     * Walks the documents of the rarest word and keeps those that contain the
+     * other words too, scoring each word by its best-scoring term in the document.
+     */
+    private List<Product> rank(List<QueryTerm> required, int limit) {
+        double averageLength = live == 0 ? 1 : (double) liveLength / live;
+        PriorityQueue<Hit> best = new PriorityQueue<>(); // Worst hit first
+        QueryTerm lead = required.get(0);
+        PriorityQueue<Cursor> merge = new PriorityQueue<>((a, b) -> Integer.compare(a.document, b.document));
+        for (Cursor cursor : lead.cursors) {
+            if (cursor.next()) {
+                merge.add(cursor);
+            }
+        }
+        while (!merge.isEmpty()) {
+            int document = merge.peek().document;
+            double score = 0;
+            while (!merge.isEmpty() && merge.peek().document == document) {
+                Cursor cursor = merge.poll();
+                score = Math.max(score, bm25(cursor, document, averageLength));
+                if (cursor.next()) {
+                    merge.add(cursor);
+                }
+            }
+            if (deleted.get(document)) {
+                continue;
+            }
+            for (int i = 1; i < required.size() && score > 0; i++) {
+                double termScore = 0;
+                for (Cursor cursor : required.get(i).cursors) {
+                    if (cursor.advance(document) && cursor.document == document) {
+                        termScore = Math.max(termScore, bm25(cursor, document, averageLength));
+                    }
+                }
+                score = termScore == 0 ? 0 : score + termScore;
+            }
+            if (score > 0 && (best.size() < limit || score > best.peek().score)) {
+                best.add(new Hit(document, score));
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+        }
+        Hit[] hits = best.toArray(new Hit[0]);
+        Arrays.sort(hits, (a, b) -> b.compareTo(a));
+        List<Product> results = new ArrayList<>(hits.length);
+        for (Hit hit : hits) {
+            results.add(products[hit.document]);
+        }
+        return results;
+    }
+
+    private double bm25(Cursor cursor, int document, double averageLength) {
+        double idf = Math.log(1 + (live - cursor.postings.liveDocuments + 0.5) / (cursor.postings.liveDocuments + 0.5));
+        double tf = cursor.frequency;
+        return idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * lengths[document] / averageLength));
+    }
+
+    /**
+     * The posting lists standing for one word of a query.
+     */
+    private static final class QueryTerm {
+        final List<Cursor> cursors = new ArrayList<>();
+        long postings; // Total postings, to process the rarest word first
+
+        void add(Postings list) {
+            cursors.add(new Cursor(list));
+            postings += list.count;
+        }
+    }
+
+    /**
+     * A document and its score during ranking, ordered worst first.
+     */
+    private static final class Hit implements Comparable<Hit> {
+        final int document;
+        final double score;
+
+        Hit(int document, double score) {
+            this.document = document;
+            this.score = score;
+        }
+
+        @Override
+        public int compareTo(Hit other) {
+            int byScore = Double.compare(score, other.score);
+            return byScore != 0 ? byScore : Integer.compare(other.document, document); // Earlier products win ties
+        }
+    }
+
+    /**
+     * The compressed posting list of one term: (document gap, frequency) pairs
+     * as variable-length integers, in increasing document order.
+     */
+    static final class Postings {
+        byte[] data = new byte[8];
+        int size;              // Bytes used in data
+        int count;             // Postings, including those of deleted documents
+        int lastDocument = -1;
+        int liveDocuments;     // Postings of documents not deleted
+        int[] skips = new int[0]; // Per skip entry: document before it, byte offset of it
+        int skipCount;
+
+        void add(int document, int frequency) {
+            if (count % SKIP_INTERVAL == 0 && count > 0) {
+                if (skipCount * 2 == skips.length) {
+                    skips = Arrays.copyOf(skips, Math.max(8, skips.length * 2));
+                }
+                skips[skipCount * 2] = lastDocument;
+                skips[skipCount * 2 + 1] = size;
+                skipCount++;
+            }
+            if (size + 10 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            writeVarint(document - lastDocument);
+            writeVarint(frequency);
+            lastDocument = document;
+            count++;
+            liveDocuments++;
+        }
+
+        private void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                data[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[size++] = (byte) value;
+        }
+    }
+
+    /**
+     * Reads one posting list in document order.
+     */
+    static final class Cursor {
+        final Postings postings;
+        int position;       // Byte offset of the next posting
+        int read;           // Postings read so far
+        int document = -1;  // Current document
+        int frequency;      // Frequency of the term in the current document
+
+        Cursor(Postings postings) {
+            this.postings = postings;
+        }
+
+        /**
+         * Moves to the next posting.
+         *
+         * @return {@code false} at the end of the list.
+         */
+        boolean next() {
+            if (read == postings.count) {
+                document = Integer.MAX_VALUE;
+                return false;
+            }
+            document += readVarint();
+            frequency = readVarint();
+            read++;
+            return true;
+        }
+
+        /**
+         * Moves to the first posting at or after a document, using the skip
+         * entries to pass over whole blocks.
+         *
+         * @return {@code false} if there is no such posting.
+         */
+        boolean advance(int target) {
+            if (document >= target) {
+                return document != Integer.MAX_VALUE;
+            }
+            int[] skips = postings.skips;
+            int low = read / SKIP_INTERVAL;  // Skip entries before this one are behind the cursor
+            int high = postings.skipCount - 1;
+            int found = -1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (skips[middle * 2] < target) {
+                    found = middle;
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            if (found >= 0 && (found + 1) * SKIP_INTERVAL > read) {
+                document = skips[found * 2];
+                position = skips[found * 2 + 1];
+                read = (found + 1) * SKIP_INTERVAL;
+            }
+            while (document < target) {
+                if (!next()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int readVarint() {
+            byte[] data = postings.data;
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = data[position++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+    }
+}
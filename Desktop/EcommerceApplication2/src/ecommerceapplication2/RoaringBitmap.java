@@ -0,0 +1,457 @@
+package ecommerceapplication2;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A compressed set of non-negative ints, in the style of Roaring bitmaps.
+ * The values are split by their upper 16 bits into chunks of 65536. A chunk
+ * holding at most {@value #ARRAY_LIMIT} values keeps them as a sorted char
+ * array; a fuller chunk is a 65536-bit bitmap. Sparse sets therefore cost
+ * about two bytes per value and dense sets one bit per value, and
+ * intersections, unions and differences work a chunk at a time.
+ *
+ * <p>{@link #and}, {@link #or} and {@link #andNot} return new bitmaps that may
+ * share chunks with their arguments, so a bitmap that has been combined must
+ * not be changed while the result is still in use. Not thread-safe.
+ *
+ * <p>Usage example:
+ * <pre>
+ *     RoaringBitmap digital = new RoaringBitmap();
+ *     digital.add(42);
+ *     int both = digital.andCardinality(cheap);
+ * </pre>
+ */
+public final class RoaringBitmap {
+    static final int ARRAY_LIMIT = 4096; // Most values of an array chunk
+    private static final int WORDS = 1024; // Longs in a bitmap chunk
+
+    private char[] keys = new char[4];            // Upper 16 bits of each chunk, ascending
+    private Chunk[] chunks = new Chunk[4];
+    private int size;                             // Chunks in use
+
+    /**
+     * Adds a value.
+     *
+     * @param value The value, not negative.
+     */
+    public void add(int value) {
+        char key = (char) (value >>> 16);
+        int at = Arrays.binarySearch(keys, 0, size, key);
+        if (at < 0) {
+            at = -at - 1;
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                chunks = Arrays.copyOf(chunks, size * 2);
+            }
+            System.arraycopy(keys, at, keys, at + 1, size - at);
+            System.arraycopy(chunks, at, chunks, at + 1, size - at);
+            keys[at] = key;
+            chunks[at] = new Chunk(new char[4], 0);
+            size++;
+        }
+        chunks[at].add((char) value);
+    }
+
+    /**
+     * Removes a value.
+     *
+     * @param value The value.
+     */
+    public void remove(int value) {
+        int at = Arrays.binarySearch(keys, 0, size, (char) (value >>> 16));
+        if (at >= 0) {
+            chunks[at].remove((char) value);
+            if (chunks[at].cardinality == 0) {
+                System.arraycopy(keys, at + 1, keys, at, size - at - 1);
+                System.arraycopy(chunks, at + 1, chunks, at, size - at - 1);
+                chunks[--size] = null;
+            }
+        }
+    }
+
+    /**
+     * Tells whether a value is in the set.
+     *
+     * @param value The value.
+     * @return {@code true} if the value is in the set.
+     */
+    public boolean contains(int value) {
+        int at = Arrays.binarySearch(keys, 0, size, (char) (value >>> 16));
+        return at >= 0 && chunks[at].contains((char) value);
+    }
+
+    /**
+     * Returns the number of values in the set.
+     *
+     * @return The cardinality.
+     */
+    public int cardinality() {
+        int total = 0;
+        for (int i = 0; i < size; i++) {
+            total += chunks[i].cardinality;
+        }
+        return total;
+    }
+
+    /**
+     * Returns the values in both sets.
+     *
+     * @param other The other set.
+     * @return A new set.
+     */
+    public RoaringBitmap and(RoaringBitmap other) {
+        RoaringBitmap result = new RoaringBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                result.append(keys[i], chunks[i++].and(other.chunks[j++]));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the values in either set.
+     *
+     * @param other The other set.
+     * @return A new set.
+     */
+    public RoaringBitmap or(RoaringBitmap other) {
+        RoaringBitmap result = new RoaringBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            if (j == other.size || (i < size && keys[i] < other.keys[j])) {
+                result.append(keys[i], chunks[i++]);
+            } else if (i == size || keys[i] > other.keys[j]) {
+                result.append(other.keys[j], other.chunks[j++]);
+            } else {
+                result.append(keys[i], chunks[i++].or(other.chunks[j++]));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the values in this set that are not in the other.
+     *
+     * @param other The set of values to leave out.
+     * @return A new set.
+     */
+    public RoaringBitmap andNot(RoaringBitmap other) {
+        RoaringBitmap result = new RoaringBitmap();
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            while (j < other.size && other.keys[j] < keys[i]) {
+                j++;
+            }
+            if (j < other.size && other.keys[j] == keys[i]) {
+                result.append(keys[i], chunks[i].andNot(other.chunks[j]));
+            } else {
+                result.append(keys[i], chunks[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Counts the values in both sets without building the intersection.
+     *
+     * @param other The other set.
+     * @return The size of the intersection.
+     */
+    public int andCardinality(RoaringBitmap other) {
+        int total = 0;
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                total += chunks[i++].andCardinality(other.chunks[j++]);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Calls an action for each value, in increasing order, until it has been
+     * called {@code limit} times.
+     *
+     * @param limit  The most values to visit.
+     * @param action The action.
+     */
+    public void forEach(int limit, IntConsumer action) {
+        int remaining = limit;
+        for (int i = 0; i < size && remaining > 0; i++) {
+            remaining = chunks[i].forEach(keys[i] << 16, remaining, action);
+        }
+    }
+
+    /**
+     * Adds a chunk with a key above all current keys, skipping empty ones.
+     */
+    private void append(char key, Chunk chunk) {
+        if (chunk.cardinality == 0) {
+            return;
+        }
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            chunks = Arrays.copyOf(chunks, size * 2);
+        }
+        keys[size] = key;
+        chunks[size++] = chunk;
+    }
+
+    /**
+     * The values of one chunk: a sorted array while there are at most
+     * {@link #ARRAY_LIMIT} of them, a bitmap after that.
+     */
+    private static final class Chunk {
+        char[] values; // Sorted values, or null for a bitmap chunk
+        long[] words;  // Bits of a bitmap chunk, or null for an array chunk
+        int cardinality;
+
+        Chunk(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        Chunk(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        /**
+         * Returns a chunk for the given bits, as an array if it is sparse enough.
+         */
+        static Chunk of(long[] words) {
+            int count = 0;
+            for (long word : words) {
+                count += Long.bitCount(word);
+            }
+            if (count > ARRAY_LIMIT) {
+                return new Chunk(words, count);
+            }
+            char[] values = new char[count];
+            int n = 0;
+            for (int w = 0; w < WORDS; w++) {
+                for (long word = words[w]; word != 0; word &= word - 1) {
+                    values[n++] = (char) (w << 6 | Long.numberOfTrailingZeros(word));
+                }
+            }
+            return new Chunk(values, count);
+        }
+
+        boolean contains(char value) {
+            return words != null
+                    ? (words[value >>> 6] & 1L << value) != 0
+                    : Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        void add(char value) {
+            if (words != null) {
+                long before = words[value >>> 6];
+                words[value >>> 6] = before | 1L << value;
+                if (words[value >>> 6] != before) {
+                    cardinality++;
+                }
+                return;
+            }
+            int at = Arrays.binarySearch(values, 0, cardinality, value);
+            if (at >= 0) {
+                return;
+            }
+            if (cardinality == ARRAY_LIMIT) {
+                words = toWords();
+                values = null;
+                add(value);
+                return;
+            }
+            at = -at - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, cardinality * 2));
+            }
+            System.arraycopy(values, at, values, at + 1, cardinality - at);
+            values[at] = value;
+            cardinality++;
+        }
+
+        void remove(char value) {
+            if (words != null) {
+                long before = words[value >>> 6];
+                words[value >>> 6] = before & ~(1L << value);
+                if (words[value >>> 6] != before && --cardinality == ARRAY_LIMIT) {
+                    Chunk array = of(words);
+                    values = array.values;
+                    words = null;
+                }
+                return;
+            }
+            int at = Arrays.binarySearch(values, 0, cardinality, value);
+            if (at >= 0) {
+                System.arraycopy(values, at + 1, values, at, cardinality - at - 1);
+                cardinality--;
+            }
+        }
+
+        Chunk and(Chunk other) {
+            if (words != null && other.words != null) {
+                long[] result = new long[WORDS];
+                for (int w = 0; w < WORDS; w++) {
+                    result[w] = words[w] & other.words[w];
+                }
+                return of(result);
+            }
+            Chunk array = words == null ? this : other;
+            Chunk probe = array == this ? other : this;
+            char[] result = new char[Math.min(cardinality, other.cardinality)];
+            int n = 0;
+            if (probe.words != null) {
+                for (int i = 0; i < array.cardinality; i++) {
+                    if (probe.contains(array.values[i])) {
+                        result[n++] = array.values[i];
+                    }
+                }
+            } else {
+                int i = 0;
+                int j = 0;
+                while (i < cardinality && j < other.cardinality) {
+                    if (values[i] < other.values[j]) {
+                        i++;
+                    } else if (values[i] > other.values[j]) {
+                        j++;
+                    } else {
+                        result[n++] = values[i++];
+                        j++;
+                    }
+                }
+            }
+            return new Chunk(result, n);
+        }
+
+        Chunk or(Chunk other) {
+            if (words == null && other.words == null && cardinality + other.cardinality <= ARRAY_LIMIT) {
+                char[] result = new char[cardinality + other.cardinality];
+                int n = 0;
+                int i = 0;
+                int j = 0;
+                while (i < cardinality || j < other.cardinality) {
+                    if (j == other.cardinality || (i < cardinality && values[i] < other.values[j])) {
+                        result[n++] = values[i++];
+                    } else if (i == cardinality || values[i] > other.values[j]) {
+                        result[n++] = other.values[j++];
+                    } else {
+                        result[n++] = values[i++];
+                        j++;
+                    }
+                }
+                return new Chunk(result, n);
+            }
+            long[] result = toWords();
+            if (other.words != null) {
+                for (int w = 0; w < WORDS; w++) {
+                    result[w] |= other.words[w];
+                }
+            } else {
+                for (int i = 0; i < other.cardinality; i++) {
+                    result[other.values[i] >>> 6] |= 1L << other.values[i];
+                }
+            }
+            return of(result);
+        }
+
+        Chunk andNot(Chunk other) {
+            if (words == null) {
+                char[] result = new char[cardinality];
+                int n = 0;
+                for (int i = 0; i < cardinality; i++) {
+                    if (!other.contains(values[i])) {
+                        result[n++] = values[i];
+                    }
+                }
+                return new Chunk(result, n);
+            }
+            long[] result = words.clone();
+            if (other.words != null) {
+                for (int w = 0; w < WORDS; w++) {
+                    result[w] &= ~other.words[w];
+                }
+            } else {
+                for (int i = 0; i < other.cardinality; i++) {
+                    result[other.values[i] >>> 6] &= ~(1L << other.values[i]);
+                }
+            }
+            return of(result);
+        }
+
+        int andCardinality(Chunk other) {
+            int count = 0;
+            if (words != null && other.words != null) {
+                for (int w = 0; w < WORDS; w++) {
+                    count += Long.bitCount(words[w] & other.words[w]);
+                }
+            } else if (words != null || other.words != null) {
+                Chunk array = words == null ? this : other;
+                Chunk probe = array == this ? other : this;
+                for (int i = 0; i < array.cardinality; i++) {
+                    if ((probe.words[array.values[i] >>> 6] & 1L << array.values[i]) != 0) {
+                        count++;
+                    }
+                }
+            } else {
+                int i = 0;
+                int j = 0;
+                while (i < cardinality && j < other.cardinality) {
+                    if (values[i] < other.values[j]) {
+                        i++;
+                    } else if (values[i] > other.values[j]) {
+                        j++;
+                    } else {
+                        count++;
+                        i++;
+                        j++;
+                    }
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Visits up to {@code remaining} values and returns how many may still be visited.
+         */
+        int forEach(int high, int remaining, IntConsumer action) {
+            if (words == null) {
+                for (int i = 0; i < cardinality && remaining > 0; i++, remaining--) {
+                    action.accept(high | values[i]);
+                }
+                return remaining;
+            }
+            for (int w = 0; w < WORDS && remaining > 0; w++) {
+                for (long word = words[w]; word != 0 && remaining > 0; word &= word - 1, remaining--) {
+                    action.accept(high | w << 6 | Long.numberOfTrailingZeros(word));
+                }
+            }
+            return remaining;
+        }
+
+        private long[] toWords() {
+            if (words != null) {
+                return words.clone();
+            }
+            long[] result = new long[WORDS];
+            for (int i = 0; i < cardinality; i++) {
+                result[values[i] >>> 6] |= 1L << values[i];
+            }
+            return result;
+        }
+    }
+}
@@ -71,27 +71,34 @@ public class Seller extends User {
 
     /**
      * Displays the list of products managed by the seller. If no products are available,
-     * it prints a message indicating an empty product list.
+     * it prints a message indicating an empty product list. The details are
+     * collected in a buffer and written to the console in batches.
      */
     public void displayProducts() {
         try {
-            ArrayList<Product> productsFromFile = FileHandler.loadProductsFromFile("products.txt");
-
-            if (productsFromFile.isEmpty()) {
-                System.out.println("No products available.");
-                return;
-            }
-
-            System.out.println("\nList of Products:");
-            for (Product product : productsFromFile) {
+            int[] shown = {0};
+            StringBuilder page = new StringBuilder(); // Written to the console once per batch of products
+            FileHandler.getStorage().forEachProduct("products.txt", product -> {
+                if (shown[0]++ == 0) {
+                    page.append("\nList of Products:\n");
+                }
                 try {
-                    product.displayDetails();
-                    System.out.println(); // Line break between products
+                    product.displayDetails(page);
+                    page.append('\n'); // Line break between products
                 } catch (NullPointerException e) {
-                    System.out.println("Error: Product details are missing.");
+                    page.append("Error: Product details are missing.\n");
                 } catch (Exception e) {
-                    System.out.println("Error displaying product details: " + e.getMessage());
+                    page.append("Error displaying product details: ").append(e.getMessage()).append('\n');
+                }
+                if (shown[0] % FileHandler.RENDER_BATCH == 0) {
+                    System.out.print(page);
+                    page.setLength(0);
                 }
+            });
+            System.out.print(page);
+
+            if (shown[0] == 0) {
+                System.out.println("No products available.");
             }
         } catch (Exception e) {
             System.out.println("Unexpected Error while displaying products: " + e.getMessage());
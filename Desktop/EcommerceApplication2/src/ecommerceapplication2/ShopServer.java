@@ -0,0 +1,564 @@
+package ecommerceapplication2;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serves the shop to many clients at once over HTTP on the loopback interface.
+ * Every request runs on its own virtual thread, so thousands of sessions can
+ * wait on payments or disk writes without tying up platform threads.
+ *
+ * <p>A client logs in with {@code POST /login} and receives a session token,
+ * which it sends back in the {@code X-Session} header (or a {@code session}
+ * parameter). Each session holds its own {@link Buyer} or {@link Seller}, so
+ * carts are never shared. Requests of one session are handled one at a time.
+ * Logging out, or leaving a session unused for 30 minutes, gives back the
+ * stock its cart holds.
+ *
+ * <p>The handlers call the same Buyer, Seller and storage methods as the
+ * console menu. What those methods print is captured for the current thread
+ * and returned as the plain-text response body.
+ *
+ * <p>Parameters are read from the query string and from form-encoded bodies:
+ * <pre>
+ *     POST /signup          userId, firstName, lastName, email, password, phoneNumber, address, role
+ *     POST /login           email, password, as (buyer or seller, default buyer)
+ *     POST /logout
+ *     GET  /products        sort (catalog, price, weight or fileSize, default catalog),
+ *                           pageSize (default 50), page (token from the previous page)
+ *     GET  /product         id
+ *     GET  /search          q, limit (default 20)
+ *     GET  /products/range  field (price, weight or fileSize, default price),
+ *                           min, max, limit (default 20)
+ *     GET  /products/filter q (e.g. type=digital AND format=mp3), limit (default 20)
+ *     GET  /cart                                              (buyer)
+ *     POST /cart/add        id, quantity (default 1)          (buyer)
+ *     POST /cart/quantity   id, quantity                      (buyer)
+ *     POST /checkout        method, cardNumber, expiry, cvv   (buyer)
+ *     GET  /orders                                            (buyer)
+ *     GET  /seller/products                                   (seller)
+ *     POST /seller/products type (physical or digital), id, name, price,
+ *                           weight and dimensions, or fileSize and format,
+ *                           stock (default unlimited)             (seller)
+ *     POST /seller/stock    id, stock                         (seller)
+ *     GET  /metrics         latency percentiles and counters, see {@link Metrics}
+ * </pre>
+ */
+public class ShopServer {
+    private static final String PRODUCT_FILE = "products.txt";
+    private static final long SESSION_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>(); // Sessions by token
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Creates a server listening on the given port of the loopback interface.
+     *
+     * @param port The port to listen on, or 0 for any free port.
+     * @throws IOException if the port cannot be bound.
+     */
+    public ShopServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        server.setExecutor(executor);
+        route("/signup", "POST", false, this::signup);
+        route("/login", "POST", false, this::login);
+        route("/logout", "POST", true, this::logout);
+        route("/products", "GET", false, this::listProducts);
+        route("/product", "GET", false, this::showProduct);
+        route("/search", "GET", false, (session, params) ->
+                Buyer.searchProducts(params.getOrDefault("q", ""), intParam(params, "limit", 20)));
+        route("/products/range", "GET", false, this::productRange);
+        route("/products/filter", "GET", false, (session, params) ->
+                Buyer.filterProducts(params.getOrDefault("q", ""), intParam(params, "limit", 20)));
+        route("/cart", "GET", true, (session, params) -> buyer(session).viewCart());
+        route("/cart/add", "POST", true, (session, params) ->
+                buyer(session).addProductToCart(params.get("id"), intParam(params, "quantity", 1)));
+        route("/cart/quantity", "POST", true, (session, params) ->
+                buyer(session).setCartQuantity(params.get("id"), intParam(params, "quantity", -1)));
+        route("/checkout", "POST", true, (session, params) -> buyer(session).checkout(
+                params.getOrDefault("method", "Credit Card"), params.get("cardNumber"),
+                params.get("expiry"), params.get("cvv")));
+        route("/orders", "GET", true, (session, params) -> buyer(session).viewOrders());
+        route("/seller/products", null, true, this::sellerProducts);
+        route("/seller/stock", "POST", true, this::sellerStock);
+        route("/metrics", "GET", false, (session, params) -> System.out.print(Metrics.snapshot()));
+    }
+
+    /**
+     * Starts accepting requests, installing the per-thread console capture first.
+     */
+    public void start() {
+        SessionOutput.install();
+        Thread sweeper = new Thread(this::sweepSessions, "session-sweeper");
+        sweeper.setDaemon(true);
+        sweeper.start();
+        server.start();
+    }
+
+    /**
+     * Stops the server, waiting up to the given number of seconds for running requests.
+     *
+     * @param delaySeconds The longest time to wait for running requests.
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    /**
+     * Returns the port the server is listening on.
+     *
+     * @return The local port.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Returns the number of open sessions.
+     *
+     * @return The session count.
+     */
+    public int sessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * A request handler built from console flows.
+     */
+    private interface Action {
+        /**
+         * Handles a request. Anything printed becomes the response body.
+         *
+         * @param session The caller's session, or {@code null} for anonymous requests.
+         * @param params  The request parameters.
+         * @throws IOException if the storage fails.
+         */
+        void run(Session session, Map<String, String> params) throws IOException;
+    }
+
+    /**
+     * Thrown by handlers to end a request with an error status.
+     */
+    private static final class RequestException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        RequestException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private void route(String path, String method, boolean needsSession, Action action) {
+        server.createContext(path, exact(path, exchange -> {
+            int status = 200;
+            String body;
+            ByteArrayOutputStream captured = new ByteArrayOutputStream();
+            SessionOutput.capture(captured);
+            try {
+                if (method != null && !method.equals(exchange.getRequestMethod())) {
+                    throw new RequestException(405, "Use " + method + " for " + path + ".");
+                }
+                Map<String, String> params = parameters(exchange);
+                Session session = session(exchange, params);
+                if (needsSession && session == null) {
+                    throw new RequestException(401, "Please log in first.");
+                }
+                if (session == null) {
+                    action.run(null, params);
+                } else {
+                    // One request at a time per session. A lock rather than synchronized,
+                    // so a virtual thread waiting on a payment does not pin its carrier.
+                    session.lock.lock();
+                    try {
+                        session.touch();
+                        params.put(":method", exchange.getRequestMethod());
+                        action.run(session, params);
+                    } finally {
+                        session.lock.unlock();
+                    }
+                }
+            } catch (RequestException e) {
+                status = e.status;
+                System.out.println(e.getMessage());
+            } catch (IOException | RuntimeException e) {
+                status = 500;
+                System.out.println("Error handling request: " + e.getMessage());
+            } finally {
+                SessionOutput.release();
+            }
+            body = captured.toString(StandardCharsets.UTF_8);
+            respond(exchange, status, body);
+        }));
+    }
+
+    /**
+     * Only lets a context handle its own path, not every path below it.
+     */
+    private static HttpHandler exact(String path, HttpHandler handler) {
+        return exchange -> {
+            if (!exchange.getRequestURI().getPath().equals(path)) {
+                respond(exchange, 404, "Not found.\n");
+                return;
+            }
+            handler.handle(exchange);
+        };
+    }
+
+    private void signup(Session session, Map<String, String> params) {
+        User.signup(params.get("userId"), params.get("firstName"), params.get("lastName"), params.get("email"),
+                params.get("password"), params.get("phoneNumber"), params.get("address"), params.get("role"));
+    }
+
+    private void login(Session session, Map<String, String> params) {
+        String email = params.getOrDefault("email", "");
+        String password = params.getOrDefault("password", "");
+        if (!User.login(email, password)) {
+            throw new RequestException(401, "Login failed.");
+        }
+        User user = User.findByEmail(email);
+        boolean asSeller = "seller".equalsIgnoreCase(params.get("as"));
+        User role = asSeller
+                ? new Seller(user.getUserId(), user.getFirstName(), user.getLastName(), user.getEmail(),
+                        user.password, user.getPhoneNumber(), user.getAddress(), "Seller")
+                : new Buyer(user.getUserId(), user.getFirstName(), user.getLastName(), user.getEmail(),
+                        user.password, user.getPhoneNumber(), user.getAddress());
+        byte[] bytes = new byte[24];
+        random.nextBytes(bytes);
+        String token = HexFormat.of().formatHex(bytes);
+        sessions.put(token, new Session(role));
+        System.out.println("Session: " + token);
+    }
+
+    private void logout(Session session, Map<String, String> params) {
+        sessions.values().remove(session);
+        session.end();
+        System.out.println("Logged out.");
+    }
+
+    private void showProduct(Session session, Map<String, String> params) throws IOException {
+        Product product = FileHandler.getStorage().getProduct(PRODUCT_FILE, params.getOrDefault("id", ""));
+        if (product == null) {
+            throw new RequestException(404, "Product not found in catalog.");
+        }
+        product.displayDetails();
+    }
+
+    private void sellerProducts(Session session, Map<String, String> params) throws IOException {
+        if (!(session.user instanceof Seller)) {
+            throw new RequestException(403, "Log in as a seller to manage products.");
+        }
+        Seller seller = (Seller) session.user;
+        if ("GET".equals(params.get(":method"))) {
+            seller.displayProducts();
+            return;
+        }
+        if (!"POST".equals(params.get(":method"))) {
+            throw new RequestException(405, "Use GET or POST for /seller/products.");
+        }
+        Product product;
+        try {
+            String id = params.getOrDefault("id", "");
+            String name = params.getOrDefault("name", "");
+            double price = Double.parseDouble(params.getOrDefault("price", ""));
+            int stock = params.containsKey("stock") ? Integer.parseInt(params.get("stock")) : Product.UNTRACKED;
+            if ("digital".equalsIgnoreCase(params.get("type"))) {
+                product = new DigitalProduct(id, name, price, params.get("fileSize"), params.get("format"), stock);
+            } else {
+                product = new PhysicalProduct(id, name, price, Double.parseDouble(params.getOrDefault("weight", "")),
+                        params.get("dimensions"), stock);
+            }
+        } catch (IllegalArgumentException e) { // Includes NumberFormatException
+            throw new RequestException(400, "Invalid input for product details: " + e.getMessage());
+        }
+        FileHandler.getStorage().putProduct(PRODUCT_FILE, product);
+        System.out.println(product instanceof DigitalProduct
+                ? "Digital product added and saved to file." : "Physical product added and saved to file.");
+    }
+
+    private void sellerStock(Session session, Map<String, String> params) {
+        if (!(session.user instanceof Seller)) {
+            throw new RequestException(403, "Log in as a seller to manage products.");
+        }
+        try {
+            Inventory.forFile(PRODUCT_FILE).setStock(params.getOrDefault("id", ""), intParam(params, "stock", -1)).join();
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            throw new RequestException(400, e.getMessage());
+        }
+        System.out.println("Stock updated.");
+    }
+
+    private static Buyer buyer(Session session) {
+        if (!(session.user instanceof Buyer)) {
+            throw new RequestException(403, "Log in as a buyer to use the cart.");
+        }
+        return (Buyer) session.user;
+    }
+
+    private void listProducts(Session session, Map<String, String> params) throws IOException {
+        CatalogCursor.SortKey sortKey;
+        switch (params.getOrDefault("sort", "catalog")) {
+            case "catalog":
+                sortKey = CatalogCursor.SortKey.CATALOG;
+                break;
+            case "price":
+                sortKey = CatalogCursor.SortKey.PRICE;
+                break;
+            case "weight":
+                sortKey = CatalogCursor.SortKey.WEIGHT;
+                break;
+            case "fileSize":
+                sortKey = CatalogCursor.SortKey.FILE_SIZE;
+                break;
+            default:
+                throw new RequestException(400, "Unknown sort: " + params.get("sort"));
+        }
+        int pageSize = intParam(params, "pageSize", 50);
+        if (pageSize <= 0 || pageSize > 1000) {
+            throw new RequestException(400, "The page size must be between 1 and 1000.");
+        }
+        CatalogCursor.Page page;
+        try {
+            page = new CatalogCursor(PRODUCT_FILE, sortKey, pageSize).page(params.get("page"));
+        } catch (IllegalArgumentException e) {
+            throw new RequestException(400, e.getMessage());
+        }
+        FileHandler.displayPage(page);
+        if (page.getNextToken() != null) {
+            System.out.println("\nNext page: " + page.getNextToken());
+        }
+    }
+
+    private void productRange(Session session, Map<String, String> params) {
+        ProductRangeIndex.Field field;
+        switch (params.getOrDefault("field", "price")) {
+            case "price":
+                field = ProductRangeIndex.Field.PRICE;
+                break;
+            case "weight":
+                field = ProductRangeIndex.Field.WEIGHT;
+                break;
+            case "fileSize":
+                field = ProductRangeIndex.Field.FILE_SIZE;
+                break;
+            default:
+                throw new RequestException(400, "Unknown field: " + params.get("field"));
+        }
+        Buyer.browseProducts(field, doubleParam(params, "min", Double.NEGATIVE_INFINITY),
+                doubleParam(params, "max", Double.POSITIVE_INFINITY), intParam(params, "limit", 20));
+    }
+
+    private static double doubleParam(Map<String, String> params, String name, double defaultValue) {
+        String value = params.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new RequestException(400, "Not a number: " + name);
+        }
+    }
+
+    private static int intParam(Map<String, String> params, String name, int defaultValue) {
+        String value = params.get(name);
+        if (value == null) {
+            if (defaultValue < 0) {
+                throw new RequestException(400, "Missing parameter: " + name);
+            }
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new RequestException(400, "Not a number: " + name);
+        }
+    }
+
+    private Session session(HttpExchange exchange, Map<String, String> params) {
+        String token = exchange.getRequestHeaders().getFirst("X-Session");
+        if (token == null) {
+            token = params.get("session");
+        }
+        if (token == null) {
+            return null;
+        }
+        Session session = sessions.get(token);
+        if (session != null && session.expired(System.currentTimeMillis())) {
+            sessions.remove(token, session);
+            return null;
+        }
+        return session;
+    }
+
+    private void sweepSessions() {
+        while (true) {
+            try {
+                Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            sessions.values().removeIf(session -> {
+                if (!session.expired(now)) {
+                    return false;
+                }
+                session.end();
+                return true;
+            });
+        }
+    }
+
+    /**
+     * Reads the query string and, for form posts, the body into one map.
+     */
+    private static Map<String, String> parameters(HttpExchange exchange) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        parseForm(exchange.getRequestURI().getRawQuery(), params);
+        try (InputStream body = exchange.getRequestBody()) {
+            byte[] bytes = body.readNBytes(64 * 1024);
+            if (bytes.length > 0) {
+                parseForm(new String(bytes, StandardCharsets.UTF_8), params);
+            }
+        }
+        return params;
+    }
+
+    private static void parseForm(String form, Map<String, String> params) {
+        if (form == null || form.isEmpty()) {
+            return;
+        }
+        for (String pair : form.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            if (!name.isEmpty() && !name.startsWith(":")) {
+                params.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * A logged-in client.
+     */
+    private static final class Session {
+        final User user;              // The Buyer or Seller acting for this client
+        final ReentrantLock lock = new ReentrantLock();
+        private volatile long lastUsed;
+
+        Session(User user) {
+            this.user = user;
+            touch();
+        }
+
+        void touch() {
+            lastUsed = System.currentTimeMillis();
+        }
+
+        boolean expired(long now) {
+            return now - lastUsed > SESSION_TIMEOUT_MILLIS;
+        }
+
+        /**
+         * Gives back the stock a buyer's cart still holds.
+         */
+        void end() {
+            if (user instanceof Buyer buyer) {
+                buyer.releaseHolds();
+            }
+        }
+    }
+
+    /**
+     * Replaces {@code System.out} with a stream that sends the output of a
+     * thread handling a request to that request's buffer, and everything else
+     * to the original console.
+     */
+    static final class SessionOutput extends OutputStream {
+        private static final ThreadLocal<OutputStream> target = new ThreadLocal<>();
+        private static PrintStream console;
+
+        static synchronized void install() {
+            if (console == null) {
+                console = System.out;
+                System.setOut(new PrintStream(new SessionOutput(), true, StandardCharsets.UTF_8));
+            }
+        }
+
+        static void capture(OutputStream buffer) {
+            target.set(buffer);
+        }
+
+        static void release() {
+            System.out.flush();
+            target.remove();
+        }
+
+        private OutputStream current() {
+            OutputStream buffer = target.get();
+            return buffer != null ? buffer : console;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            current().write(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            current().write(bytes, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            current().flush();
+        }
+    }
+
+    /**
+     * Runs the server until the JVM is stopped.
+     *
+     * @param port The port to listen on.
+     */
+    public static void run(int port) {
+        try {
+            ShopServer shop = new ShopServer(port);
+            shop.start();
+            System.out.println("Shop server listening on http://localhost:" + shop.getPort() + "/");
+        } catch (IOException e) {
+            System.out.println("Could not start the shop server: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package ecommerceapplication2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A payment gateway that runs in the application, for development and load
+ * testing. Answers are scheduled on a timer after the configured latency, so
+ * thousands of payments can be in flight without a thread waiting for each.
+ *
+ * <p>A configurable share of calls fails: half of the failures answer with an
+ * error and the other half never answer, which exercises the processor's
+ * timeouts. Another share is declined. Approvals are remembered by payment ID,
+ * so authorizing the same payment again returns the same authorization code.
+ *
+ * <p>It also serves as the stand-in for a {@link BatchPaymentGateway}: a
+ * batch costs one round trip of the configured latency, whatever its size.
+ */
+public class SimulatedPaymentGateway implements PaymentGateway, BatchPaymentGateway {
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "simulated-payment-gateway");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long latencyMillis;     // Time before each answer
+    private final double failureRate;     // Share of calls that fail, between 0 and 1
+    private final double declineRate;     // Share of calls that are declined, between 0 and 1
+    private final Map<String, PaymentResult> approvals = new ConcurrentHashMap<>(); // Approved payments by ID
+
+    /**
+     * Creates a gateway with the given behaviour.
+     *
+     * @param latencyMillis The time before each answer, in milliseconds.
+     * @param failureRate   The share of calls that fail, between 0 and 1.
+     * @param declineRate   The share of calls that are declined, between 0 and 1.
+     * @throws IllegalArgumentException if a value is out of range.
+     */
+    public SimulatedPaymentGateway(long latencyMillis, double failureRate, double declineRate) {
+        if (latencyMillis < 0 || failureRate < 0 || declineRate < 0 || failureRate + declineRate > 1) {
+            throw new IllegalArgumentException("Invalid gateway settings.");
+        }
+        this.latencyMillis = latencyMillis;
+        this.failureRate = failureRate;
+        this.declineRate = declineRate;
+    }
+
+    /**
+     * Creates a gateway configured by the {@code ecommerce.gateway.latencyMillis}
+     * (default 2000), {@code ecommerce.gateway.failureRate} (default 0) and
+     * {@code ecommerce.gateway.declineRate} (default 0) system properties.
+     *
+     * @return The gateway.
+     */
+    public static SimulatedPaymentGateway fromSystemProperties() {
+        return new SimulatedPaymentGateway(Long.getLong("ecommerce.gateway.latencyMillis", 2000),
+                Double.parseDouble(System.getProperty("ecommerce.gateway.failureRate", "0")),
+                Double.parseDouble(System.getProperty("ecommerce.gateway.declineRate", "0")));
+    }
+
+    @Override
+    public CompletableFuture<PaymentResult> authorize(String paymentId, double amount, CardDetails card) {
+        CompletableFuture<PaymentResult> answer = new CompletableFuture<>();
+        PaymentResult previous = approvals.get(paymentId);
+        if (previous != null) {
+            answer.complete(previous);
+            return answer;
+        }
+        double roll = ThreadLocalRandom.current().nextDouble();
+        if (roll < failureRate / 2) {
+            return answer; // Lost in the network: never answered
+        }
+        timer.schedule(() -> answer.complete(decide(paymentId, amount, roll)), latencyMillis, TimeUnit.MILLISECONDS);
+        return answer;
+    }
+
+    /**
+     * Answers a whole batch after a single round trip. A share of
+     * {@code failureRate / 2} of the batches is never answered; in the others
+     * each payment fails, is declined or is approved as for {@link #authorize}.
+     */
+    @Override
+    public CompletableFuture<List<PaymentResult>> authorizeBatch(List<Request> requests) {
+        CompletableFuture<List<PaymentResult>> answer = new CompletableFuture<>();
+        if (ThreadLocalRandom.current().nextDouble() < failureRate / 2) {
+            return answer; // Lost in the network: never answered
+        }
+        List<Request> batch = List.copyOf(requests);
+        timer.schedule(() -> {
+            List<PaymentResult> results = new ArrayList<>(batch.size());
+            for (Request request : batch) {
+                PaymentResult previous = approvals.get(request.getPaymentId());
+                results.add(previous != null ? previous : decide(request.getPaymentId(), request.getAmount(),
+                        ThreadLocalRandom.current().nextDouble()));
+            }
+            answer.complete(results);
+        }, latencyMillis, TimeUnit.MILLISECONDS);
+        return answer;
+    }
+
+    private PaymentResult decide(String paymentId, double amount, double roll) {
+        if (roll < failureRate) {
+            return PaymentResult.failed(paymentId, "The payment gateway is unavailable.");
+        } else if (roll < failureRate + declineRate) {
+            return PaymentResult.declined(paymentId, "The card was declined.");
+        } else if (amount <= 0) {
+            return PaymentResult.declined(paymentId, "The amount must be greater than zero.");
+        }
+        String code = Long.toString(ThreadLocalRandom.current().nextLong(1L << 40, 1L << 41), 36).toUpperCase();
+        return approvals.computeIfAbsent(paymentId, id -> PaymentResult.approved(id, code));
+    }
+}
@@ -0,0 +1,183 @@
+package ecommerceapplication2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+/**
+ * Stores products in the comma-separated product file.
+ * Reads are answered by the file's {@link ProductCatalog} (or, depending on
+ * {@link FileHandler#getLookupMode()}, the mapped scanner with the journal's
+ * changes laid over it by a {@link JournalOverlay}), and changes are
+ * appended to its {@link ProductJournal}. Listeners are told of changes by
+ * the catalog, which follows the files for changes made by other processes.
+ *
+ * <p>When the {@code ecommerce.offheap} system property is {@code true}, reads
+ * are answered by the file's {@link OffHeapProductStore} instead, so the
+ * products are kept outside the Java heap and {@link #forEachProduct} walks
+ * them with a single reusable view. The store then also tells the listeners
+ * of changes and is what the journal compacts from, so the catalog is never
+ * loaded.
+ */
+public class TextFileStorage implements FileHandlerInterface {
+    static final boolean OFF_HEAP = Boolean.getBoolean("ecommerce.offheap"); // Also read by ProductJournal
+
+    @Override
+    public boolean productExists(String fileName, String productId) {
+        if (OFF_HEAP) {
+            return OffHeapProductStore.forFile(fileName).contains(productId);
+        }
+        if (scansMappedFile()) {
+            try {
+                return JournalOverlay.forFile(fileName).contains(productId);
+            } catch (IOException e) {
+                System.out.println("Error reading products: " + e.getMessage());
+                return false;
+            }
+        }
+        return ProductCatalog.forFile(fileName).contains(productId);
+    }
+
+    @Override
+    public void saveToFile(String filename, String productData) {
+        FileHandler.saveToFile(filename, productData);
+    }
+
+    @Override
+    public void displayFromFile(String filename) {
+        if (OFF_HEAP) {
+            FileHandler.displayProducts(OffHeapProductStore.forFile(filename).toProducts());
+            return;
+        }
+        FileHandler.displayProducts(ProductCatalog.forFile(filename).getProducts());
+    }
+
+    /**
+     * Returns the products of the file, including the changes in its journal,
+     * in the order they were added.
+     *
+     * @param filename The name of the file to load products from.
+     * @return The products.
+     */
+    @Override
+    public ArrayList<Product> loadProductsFromFile(String filename) {
+        if (OFF_HEAP) {
+            return OffHeapProductStore.forFile(filename).toProducts();
+        }
+        return new ArrayList<>(ProductCatalog.forFile(filename).getProducts());
+    }
+
+    /**
+     * Looks up a single product by its ID. In mapped mode only the matching
+     * record is decoded, unless the journal changed the product.
+     *
+     * @param fileName  The name of the file to search in.
+     * @param productId The product ID to look for.
+     * @return The product, or {@code null} if no product has this ID.
+     * @throws IOException if the mapped file cannot be read.
+     */
+    @Override
+    public Product getProduct(String fileName, String productId) throws IOException {
+        if (OFF_HEAP) {
+            return OffHeapProductStore.forFile(fileName).getProduct(productId);
+        }
+        if (scansMappedFile()) {
+            return JournalOverlay.forFile(fileName).getProduct(productId);
+        }
+        return ProductCatalog.forFile(fileName).getProduct(productId);
+    }
+
+    @Override
+    public void putProduct(String fileName, Product product) throws IOException {
+        try {
+            ProductJournal.forFile(fileName).put(product).join();
+        } catch (CompletionException e) {
+            throw asIOException(e);
+        }
+    }
+
+    /**
+     * Rewrites the product file and replaces its journal, under the journal's
+     * lock, through {@link ProductJournal#replaceAll}.
+     */
+    @Override
+    public void replaceProducts(String fileName, List<Product> products) throws IOException {
+        ProductJournal.forFile(fileName).replaceAll(products);
+        refresh(fileName);
+    }
+
+    @Override
+    public boolean deleteProduct(String fileName, String productId) throws IOException {
+        if (!productExists(fileName, productId)) {
+            return false;
+        }
+        try {
+            ProductJournal.forFile(fileName).delete(productId).join();
+            return true;
+        } catch (CompletionException e) {
+            throw asIOException(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> adjustStock(String fileName, String productId, int delta) {
+        return ProductJournal.forFile(fileName).adjustStock(productId, delta);
+    }
+
+    /**
+     * Reads the range from the ID-ordered index of the catalog, or of the
+     * off-heap store.
+     */
+    @Override
+    public List<Product> scanProducts(String fileName, String fromId, String toId, int limit) {
+        if (OFF_HEAP) {
+            return OffHeapProductStore.forFile(fileName).scan(fromId, toId, limit);
+        }
+        return ProductCatalog.forFile(fileName).scan(fromId, toId, limit);
+    }
+
+    @Override
+    public void forEachProduct(String fileName, Consumer<? super ProductInterface> action) {
+        if (OFF_HEAP) {
+            OffHeapProductStore.forFile(fileName).forEach(action);
+            return;
+        }
+        for (Product product : ProductCatalog.forFile(fileName).getProducts()) {
+            action.accept(product);
+        }
+    }
+
+    @Override
+    public void addListener(String fileName, ProductCatalog.Listener listener) {
+        if (OFF_HEAP) {
+            OffHeapProductStore.addListener(fileName, listener);
+            return;
+        }
+        ProductCatalog.forFile(fileName).addListener(listener);
+    }
+
+    @Override
+    public void refresh(String fileName) {
+        if (OFF_HEAP) {
+            OffHeapProductStore.forFile(fileName);
+            return;
+        }
+        ProductCatalog.forFile(fileName).refresh();
+    }
+
+    /**
+     * Tells whether a lookup should scan the memory-mapped file, through the
+     * {@link JournalOverlay} that lays the journal's changes over it.
+     */
+    private static boolean scansMappedFile() {
+        return FileHandler.getLookupMode() == FileHandler.LookupMode.MAPPED;
+    }
+
+    private static IOException asIOException(CompletionException e) {
+        Throwable cause = e.getCause();
+        return cause instanceof IOException ? (IOException) cause : new IOException(cause);
+    }
+}
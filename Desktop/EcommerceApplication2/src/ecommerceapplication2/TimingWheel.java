@@ -0,0 +1,289 @@
+package ecommerceapplication2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs tasks after a delay, for very large numbers of timers that are mostly
+ * cancelled before they fire, such as cart holds.
+ *
+ * <p>Time is cut into ticks of a fixed length. Timers due within 64 ticks sit
+ * in one of the 64 slots of the first wheel; timers due later sit in the
+ * coarser wheels above it, where each slot spans 64 slots of the wheel below,
+ * and move down a wheel each time their slot comes up. Four wheels cover
+ * 64<sup>4</sup> ticks (about 19 days with 100 ms ticks); timers beyond
+ * that are placed in the last slot of the top wheel and placed again once it
+ * comes round.
+ *
+ * <p>Scheduling and cancelling are O(1) and never block: a new timer is put
+ * on a queue, and a cancelled one is marked and queued for removal. A single
+ * ticker thread takes both queues in at every tick, links and unlinks timers
+ * in the slots' doubly linked lists, and runs the tasks that are due, one
+ * after another. Tasks must therefore be quick; an exception from one is
+ * printed and does not stop the others.
+ *
+ * <p>A task never runs before its delay has passed, and normally runs within
+ * one tick after it.
+ *
+ * <p>Usage example:
+ * <pre>
+ *     TimingWheel wheel = new TimingWheel("hold-expiry", 100, TimeUnit.MILLISECONDS);
+ *     TimingWheel.Timeout timeout = wheel.schedule(() -&gt; expire(hold), 15, TimeUnit.MINUTES);
+ *     timeout.cancel();
+ * </pre>
+ */
+public final class TimingWheel {
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS; // Slots per wheel
+    private static final int SLOT_MASK = WHEEL_SIZE - 1;
+    private static final int WHEELS = 4;
+
+    private final long tickNanos;   // Length of a tick
+    private final long startNanos;  // Time of tick 0
+    private final Timeout[][] slots = new Timeout[WHEELS][WHEEL_SIZE]; // First timer of each slot, ticker only
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();     // Scheduled, not yet in a slot
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>(); // Cancelled, maybe still in a slot
+    private final LongAdder pending = new LongAdder(); // Timers neither run nor cancelled
+    private final Thread ticker;
+    private long tick;                // The next tick to process, ticker only
+    private volatile boolean stopped;
+
+    /**
+     * Creates a timing wheel and starts its ticker thread, a daemon.
+     *
+     * @param name The name of the ticker thread.
+     * @param tick The length of a tick, the precision of the timers.
+     * @param unit The unit of the tick length.
+     */
+    public TimingWheel(String name, long tick, TimeUnit unit) {
+        if (tick <= 0) {
+            throw new IllegalArgumentException("The tick must be positive.");
+        }
+        this.tickNanos = unit.toNanos(tick);
+        this.startNanos = System.nanoTime();
+        this.ticker = new Thread(this::run, name);
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+    /**
+     * Runs a task on the ticker thread once a delay has passed.
+     *
+     * @param task  The task.
+     * @param delay The delay; zero or less runs the task at the next tick.
+     * @param unit  The unit of the delay.
+     * @return The timer, which can be cancelled until the task runs.
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        long elapsed = System.nanoTime() - startNanos + Math.max(0, unit.toNanos(delay));
+        Timeout timeout = new Timeout(this, task, (elapsed + tickNanos - 1) / tickNanos);
+        pending.increment();
+        added.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Returns the number of timers that have neither run nor been cancelled.
+     *
+     * @return The pending timer count.
+     */
+    public long size() {
+        return pending.sum();
+    }
+
+    /**
+     * Stops the ticker thread. Pending tasks are not run.
+     */
+    public void stop() {
+        stopped = true;
+        LockSupport.unpark(ticker);
+    }
+
+    private void run() {
+        List<Timeout> due = new ArrayList<>();
+        while (!stopped) {
+            long wait = startNanos + tick * tickNanos - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+            takeQueued();
+            advance(due);
+            tick++;
+            for (Timeout timeout : due) {
+                timeout.expire();
+            }
+            due.clear();
+        }
+    }
+
+    /**
+     * Puts newly scheduled timers into their slots and unlinks cancelled ones.
+     */
+    private void takeQueued() {
+        for (Timeout timeout = added.poll(); timeout != null; timeout = added.poll()) {
+            if (timeout.state == Timeout.PENDING) {
+                place(timeout);
+            }
+        }
+        for (Timeout timeout = cancelled.poll(); timeout != null; timeout = cancelled.poll()) {
+            unlink(timeout);
+        }
+    }
+
+    /**
+     * Moves the timers of the slots that come up at this tick down a wheel,
+     * top wheel first, then collects those of the first wheel that are due.
+     */
+    private void advance(List<Timeout> due) {
+        for (int wheel = WHEELS - 1; wheel > 0; wheel--) {
+            int shift = WHEEL_BITS * wheel;
+            if ((tick & ((1L << shift) - 1)) == 0) {
+                Timeout timeout = take(wheel, (int) (tick >>> shift) & SLOT_MASK);
+                while (timeout != null) {
+                    Timeout next = timeout.next;
+                    timeout.next = null;
+                    if (timeout.state == Timeout.PENDING) {
+                        place(timeout);
+                    }
+                    timeout = next;
+                }
+            }
+        }
+        Timeout timeout = take(0, (int) tick & SLOT_MASK);
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            timeout.next = null;
+            if (timeout.state != Timeout.PENDING) {
+                // Cancelled since the queue was taken in
+            } else if (timeout.deadlineTick <= tick) {
+                due.add(timeout);
+            } else {
+                place(timeout); // Not due in this round of the wheel
+            }
+            timeout = next;
+        }
+    }
+
+    private void place(Timeout timeout) {
+        long delta = Math.max(0, timeout.deadlineTick - tick);
+        int wheel = 0;
+        while (wheel < WHEELS - 1 && delta >= 1L << (WHEEL_BITS * (wheel + 1))) {
+            wheel++;
+        }
+        long deadline = Math.max(timeout.deadlineTick, tick);
+        int shift = WHEEL_BITS * wheel;
+        int slot;
+        if (delta >= 1L << (WHEEL_BITS * WHEELS)) {
+            slot = (int) ((tick >>> shift) + SLOT_MASK) & SLOT_MASK; // Beyond the wheels: the last slot to come up
+        } else {
+            slot = (int) (deadline >>> shift) & SLOT_MASK;
+        }
+        Timeout head = slots[wheel][slot];
+        timeout.wheel = wheel;
+        timeout.slot = slot;
+        timeout.prev = null;
+        timeout.next = head;
+        if (head != null) {
+            head.prev = timeout;
+        }
+        slots[wheel][slot] = timeout;
+    }
+
+    /**
+     * Empties a slot and returns its first timer; the rest follow through {@code next}.
+     */
+    private Timeout take(int wheel, int slot) {
+        Timeout head = slots[wheel][slot];
+        slots[wheel][slot] = null;
+        for (Timeout timeout = head; timeout != null; timeout = timeout.next) {
+            timeout.wheel = -1;
+            timeout.prev = null;
+        }
+        return head;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.wheel < 0) {
+            return; // Never placed, or already taken out of its slot
+        }
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            slots[timeout.wheel][timeout.slot] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.wheel = -1;
+    }
+
+    /**
+     * A task waiting in a {@link TimingWheel}.
+     */
+    public static final class Timeout {
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final TimingWheel timingWheel;
+        private final Runnable task;
+        private final long deadlineTick; // First tick the task may run at
+        private volatile int state;      // PENDING, CANCELLED or EXPIRED
+        private Timeout prev;            // Neighbours in the slot, ticker only
+        private Timeout next;
+        private int wheel = -1;          // Wheel of the slot holding the timer, or -1
+        private int slot;
+
+        private Timeout(TimingWheel timingWheel, Runnable task, long deadlineTick) {
+            this.timingWheel = timingWheel;
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * Stops the task from running.
+         *
+         * @return {@code true} if the task had not run and will not; {@code false}
+         * if it already ran, is running, or was cancelled before.
+         */
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, PENDING, CANCELLED)) {
+                return false;
+            }
+            timingWheel.pending.decrement();
+            timingWheel.cancelled.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        private void expire() {
+            if (!STATE.compareAndSet(this, PENDING, EXPIRED)) {
+                return;
+            }
+            timingWheel.pending.decrement();
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.out.println("Error running timer task: " + e.getMessage());
+            }
+        }
+    }
+}
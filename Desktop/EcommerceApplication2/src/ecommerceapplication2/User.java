@@ -1,8 +1,9 @@
 package ecommerceapplication2;
 
-import java.io.*;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class User {
 
@@ -17,8 +18,10 @@ public class User {
     private String role;
 
     // Static Variables
-    private static Map<String, User> userDatabase = new HashMap<>();
     private static final String FILE_PATH = "users.txt";
+    private static final Set<String> pendingSignups = ConcurrentHashMap.newKeySet(); // Emails being signed up
+    private static final Metrics.Timer SIGNUP_TIMER = Metrics.timer("user.signup");
+    private static final Metrics.Timer LOGIN_TIMER = Metrics.timer("user.login");
 
     /**
      * Constructor for creating a new User object.
@@ -44,77 +47,6 @@ public class User {
         this.role = role;
     }
 
-    /**
-     * Static block to load users from file at the start of the program.
-     */
-    static {
-        loadUsersFromFile();
-    }
-
-    /**
-     * Validates if the given email is in the correct format.
-     *
-     * @param email The email to be validated.
-     * @return True if the email format is valid, false otherwise.
-     */
-    private static boolean isValidEmail(String email) {
-        String emailRegex = "^[A-Za-z0-9+_.-]+@[A-Za-z0-9.-]+$";
-        return email.matches(emailRegex);
-    }
-
-    /**
-     * Validates if the given password meets the complexity requirements.
-     *
-     * @param password The password to be validated.
-     * @return True if the password is valid, false otherwise.
-     */
-    private static boolean isValidPassword(String password) {
-        String passwordRegex = "^(?=.*[a-z])(?=.*[A-Z])(?=.*\\d)(?=.*[@$!%*?&])[A-Za-z\\d@$!%*?&]{8,}$";
-        return password.matches(passwordRegex);
-    }
-
-    /**
-     * Validates if the given user ID is exactly three unique digits.
-     *
-     * @param userId The user ID to be validated.
-     * @return True if the user ID is valid, throws an exception otherwise.
-     */
-    private static boolean isValidUserId(String userId) {
-        if (!userId.matches("\\d{3}")) {
-            throw new IllegalArgumentException("User ID must be exactly three digits.");
-        }
-        if (userId.charAt(0) == userId.charAt(1) || userId.charAt(0) == userId.charAt(2) || userId.charAt(1) == userId.charAt(2)) {
-            throw new IllegalArgumentException("User ID must contain three unique digits.");
-        }
-        return true;
-    }
-
-    /**
-     * Validates if the given phone number starts with '0' and is exactly 10 digits long.
-     *
-     * @param phoneNumber The phone number to be validated.
-     * @return True if the phone number is valid, throws an exception otherwise.
-     */
-    private static boolean isValidPhoneNumber(String phoneNumber) {
-        if (!phoneNumber.matches("0\\d{9}")) {
-            throw new IllegalArgumentException("Phone number must start with '0' and be exactly 10 digits long.");
-        }
-        return true;
-    }
-
-    /**
-     * Validates if the role is either 'buyer' or 'seller'.
-     *
-     * @param role The role to be validated.
-     * @return True if the role is valid, throws an exception otherwise.
-     */
-    private static boolean isValidRole(String role) {
-        if (!role.equalsIgnoreCase("buyer") && !role.equalsIgnoreCase("seller")) {
-            throw new IllegalArgumentException("Invalid role. Please enter 'buyer' or 'seller' only.");
-        }
-        return true;
-    }
-
     /**
      * Registers a new user by validating inputs and saving to the database.
      *
@@ -130,75 +62,86 @@ public class User {
      */
     public static boolean signup(String userId, String firstName, String lastName, String email,
                                  String password, String phoneNumber, String address, String role) {
+        long start = SIGNUP_TIMER.start();
         try {
-            // Validate user ID
-            isValidUserId(userId);
+            return register(userId, firstName, lastName, email, password, phoneNumber, address, role);
+        } finally {
+            SIGNUP_TIMER.stop(start);
+        }
+    }
 
-            // Validate email and check if it already exists
-            if (!isValidEmail(email)) {
-                System.out.println("Invalid email format. Please enter a valid email address.");
-                return false;
-            }
-            if (userDatabase.containsKey(email)) {
+    private static boolean register(String userId, String firstName, String lastName, String email,
+                                    String password, String phoneNumber, String address, String role) {
+        ValidationResult result = validateSignup(userId, email, password, phoneNumber, role);
+        if (!result.isValid()) {
+            System.out.println(result.getMessage());
+            return false;
+        }
+
+        // Create and save the user if all validations pass and the email is free
+        if (!pendingSignups.add(email)) {
+            System.out.println("Email already exists. Please log in or use a different email.");
+            return false;
+        }
+        try {
+            UserRepository users = UserRepository.forFile(FILE_PATH);
+            if (users.findByEmail(email) != null) {
                 System.out.println("Email already exists. Please log in or use a different email.");
                 return false;
             }
-
-            // Validate password
-            if (!isValidPassword(password)) {
-                System.out.println("Invalid password. Password must be at least 8 characters, include uppercase, lowercase, digit, and special character.");
+            if (!saveUserToFile(new User(userId, firstName, lastName, email, password, phoneNumber, address, role))) {
                 return false;
             }
-
-            // Validate phone number
-            isValidPhoneNumber(phoneNumber);
-
-            // Validate role
-            isValidRole(role);
-
-            // Create and save the user if all validations pass
-            User user = new User(userId, firstName, lastName, email, password, phoneNumber, address, role);
-            userDatabase.put(email, user);
-            saveUserToFile(user);
-            System.out.println("Signup successful! You can now log in.");
-            return true;
-        } catch (IllegalArgumentException e) {
-            System.out.println("Input Error: " + e.getMessage());
+            users.refresh();
+        } catch (IOException e) {
+            System.out.println("Error reading from file.");
+            return false;
+        } finally {
+            pendingSignups.remove(email);
         }
-        return false;
+        System.out.println("Signup successful! You can now log in.");
+        return true;
     }
 
     /**
-     * Saves the user data to a file.
+     * Checks the signup details in the order the user entered them.
      *
-     * @param user The user object to be saved.
+     * @return {@link ValidationResult#VALID}, or the problem with the first invalid field.
      */
-    private static void saveUserToFile(User user) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(FILE_PATH, true))) {
-            writer.write(user.userId + "," + user.firstName + "," + user.lastName + "," +
-                         user.email + "," + user.password + "," + user.phoneNumber + "," + 
-                         user.address + "," + user.role);
-            writer.newLine();
-        } catch (IOException e) {
-            System.out.println("Error saving user: " + e.getMessage());
+    private static ValidationResult validateSignup(String userId, String email, String password,
+                                                   String phoneNumber, String role) {
+        ValidationResult result = Validators.userId(userId);
+        if (result.isValid()) {
+            result = Validators.email(email);
+        }
+        if (result.isValid()) {
+            result = Validators.password(password);
+        }
+        if (result.isValid()) {
+            result = Validators.phoneNumber(phoneNumber);
         }
+        return result.isValid() ? Validators.role(role) : result;
     }
 
     /**
-     * Loads users from a file into the user database.
+     * Saves the user data to a file. The record is group-committed with other
+     * signups through the file's shared {@link BatchedFileWriter}; this method
+     * waits until it has been written.
+     *
+     * @param user The user object to be saved.
+     * @return True if the user was written, false otherwise.
      */
-    private static void loadUsersFromFile() {
-        try (BufferedReader reader = new BufferedReader(new FileReader(FILE_PATH))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",");
-                if (parts.length == 8) {
-                    User user = new User(parts[0], parts[1], parts[2], parts[3], parts[4], parts[5], parts[6], parts[7]);
-                    userDatabase.put(parts[3], user);
-                }
-            }
-        } catch (IOException e) {
-            System.out.println("Error reading from file.");
+    private static boolean saveUserToFile(User user) {
+        try {
+            BatchedFileWriter.forFile(FILE_PATH).appendLine(
+                    CsvCursor.quote(user.userId) + "," + CsvCursor.quote(user.firstName) + "," +
+                    CsvCursor.quote(user.lastName) + "," + CsvCursor.quote(user.email) + "," +
+                    CsvCursor.quote(user.password) + "," + CsvCursor.quote(user.phoneNumber) + "," +
+                    CsvCursor.quote(user.address) + "," + CsvCursor.quote(user.role)).join();
+            return true;
+        } catch (CompletionException e) {
+            System.out.println("Error saving user: " + e.getCause().getMessage());
+            return false;
         }
     }
 
@@ -210,7 +153,16 @@ public class User {
      * @return True if login is successful, false otherwise.
      */
     public static boolean login(String email, String password) {
-        if (!isValidEmail(email)) {
+        long start = LOGIN_TIMER.start();
+        try {
+            return authenticate(email, password);
+        } finally {
+            LOGIN_TIMER.stop(start);
+        }
+    }
+
+    private static boolean authenticate(String email, String password) {
+        if (!Validators.email(email).isValid()) {
             System.out.println("Invalid email format. Please enter a valid email.");
             return false;
         }
@@ -220,7 +172,7 @@ public class User {
             return false;
         }
 
-        User user = userDatabase.get(email);
+        User user = findByEmail(email);
         if (user == null) {
             System.out.println("No account found with this email. Please sign up or try again.");
             return false;
@@ -234,4 +186,49 @@ public class User {
         System.out.println("Login successful. Welcome " + user.firstName + "!");
         return true;
     }
+
+    /**
+     * Looks up a registered user by email. Users are read from the user file
+     * on demand through its {@link UserRepository}.
+     *
+     * @param email The user's email address.
+     * @return The user, or {@code null} if no account uses this email.
+     */
+    public static User findByEmail(String email) {
+        try {
+            return UserRepository.forFile(FILE_PATH).findByEmail(email);
+        } catch (IOException e) {
+            System.out.println("Error reading from file.");
+            return null;
+        }
+    }
+
+    // Getters
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getFirstName() {
+        return firstName;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public String getPhoneNumber() {
+        return phoneNumber;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public String getRole() {
+        return role;
+    }
 }
@@ -0,0 +1,759 @@
+package ecommerceapplication2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Looks users up in the user file without loading it. Next to the file, in
+ * {@code <file>.idx}, it keeps a memory-mapped hash index from each email to
+ * the offset of the user's record, plus chains linking the users that share
+ * a user ID or a role. A lookup probes the index and reads the one record it
+ * points to; recently used accounts are kept in a small LRU cache.
+ *
+ * <p>The index is built once, by scanning the file, and afterwards only the
+ * records appended since the last scan are indexed, so opening the repository
+ * costs the same however many users there are. The index lives outside the
+ * Java heap, so heap use is bounded by the cache size (the
+ * {@code ecommerce.users.cacheSize} system property, default 10000), not by
+ * the number of accounts. If the file was rewritten, truncated or replaced by
+ * another file, the index is rebuilt.
+ *
+ * <p>Several processes can share the file and its index. The shared
+ * {@link FileTailer} reports records appended by other processes, which are
+ * then indexed within a poll interval. Changes to the index are made under a
+ * file lock and bracketed by a generation counter that is odd while a change
+ * is in progress; a lookup that sees the counter move retries, and one that
+ * finds it odd with no process holding the lock rebuilds the index.
+ *
+ * <p>Records without exactly 8 fields are skipped and reported once, with the
+ * number of the first such line.
+ *
+ * <p>Index layout (all integers big-endian):
+ * <pre>
+ *     header     64 bytes   magic "EUSR", version, capacity, entry count,
+ *                           indexed length, lines scanned, CRC of the last indexed bytes,
+ *                           entry + 1 of an unterminated last record, generation,
+ *                           number of entries retired so far
+ *     user IDs   4096 ints  first entry + 1 of the chain of each user ID bucket, 0 if none
+ *     roles      16 ints    first entry + 1 of the chain of each role bucket
+ *     slots      capacity ints         entry + 1 by email hash, 0 when free
+ *     entries    capacity / 2 entries  email hash (8), record offset (8, -1 once retired),
+ *                                      next entry + 1 with the same user ID bucket (4),
+ *                                      next entry + 1 with the same role bucket (4)
+ * </pre>
+ * The index grows in place, so every process keeps mapping the same file.
+ */
+public class UserRepository implements Closeable {
+    private static final int MAGIC = 0x45555352; // "EUSR"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int USER_ID_BUCKETS = 4096;
+    private static final int ROLE_BUCKETS = 16;
+    private static final int ENTRY_SIZE = 24;
+    private static final int MIN_CAPACITY = 1024;
+    private static final int MAX_CAPACITY = 1 << 26;   // Keeps the index under the 2 GB mapping limit
+    private static final int TAIL_CHECK_BYTES = 64;
+    private static final int FIELDS = 8;
+
+    // Header fields
+    private static final int CAPACITY_AT = 8;
+    private static final int ENTRY_COUNT_AT = 12;
+    private static final int INDEXED_LENGTH_AT = 16;
+    private static final int LINES_SCANNED_AT = 24;
+    private static final int TAIL_CRC_AT = 32;
+    private static final int TAIL_ENTRY_AT = 40;
+    private static final int GENERATION_AT = 48;
+    private static final int RETIRED_AT = 56;
+
+    private static final Map<String, UserRepository> repositories = new ConcurrentHashMap<>();
+    private static final Metrics.Counter BYTES_WRITTEN = Metrics.counter("file.bytesWritten");
+
+    private final Path file;
+    private final FileChannel indexChannel;
+    private final Metrics.Timer indexWriteTimer;    // Times each change to the index
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(); // Writers index, readers look up
+    private final Map<String, User> cache;          // Recently used users by email, access-ordered
+    private final int cacheSize;
+
+    private FileChannel data;                       // The user file, for reading records
+    private Object dataKey;                         // Identity of the file data is open on
+    private MappedByteBuffer index;
+    private int capacity;                           // Number of hash slots, a power of two
+    private int slotsAt;                            // Position of the slots in the index
+    private int entriesAt;                          // Position of the entries in the index
+    private long retiredSeen;                       // Retired entry count when the cache was last valid
+
+    /**
+     * A read of the index, retried if the index changes while it runs.
+     */
+    private interface IndexRead<T> {
+        T read() throws IOException;
+    }
+
+    private UserRepository(Path file) throws IOException {
+        this.file = file;
+        this.cacheSize = Math.max(16, Integer.getInteger("ecommerce.users.cacheSize", 10_000));
+        this.cache = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, User> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        openData();
+        this.indexWriteTimer = Metrics.timer("file.write." + file.getFileName() + ".idx");
+        this.indexChannel = FileChannel.open(file.resolveSibling(file.getFileName() + ".idx"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        openIndex();
+        refresh();
+    }
+
+    /**
+     * Returns the repository of a user file, opening it on first use. Opening
+     * maps the index, indexes any records appended since it was last used and
+     * starts following the file with the shared {@link FileTailer}.
+     *
+     * @param fileName The user file.
+     * @return The shared repository of the file.
+     * @throws IOException if the file or its index cannot be opened.
+     */
+    public static UserRepository forFile(String fileName) throws IOException {
+        String key = Paths.get(fileName).toAbsolutePath().normalize().toString();
+        UserRepository repository = repositories.get(key);
+        if (repository != null) {
+            return repository;
+        }
+        synchronized (repositories) {
+            repository = repositories.get(key);
+            if (repository == null) {
+                UserRepository opened = new UserRepository(Paths.get(key));
+                FileTailer.getDefault().watch(opened.file, opened.indexedLength(),
+                        (file, change, from, to) -> opened.refresh());
+                repositories.put(key, opened);
+                repository = opened;
+            }
+            return repository;
+        }
+    }
+
+    /**
+     * Looks a user up by email.
+     *
+     * @param email The email address.
+     * @return The user, or {@code null} if no account uses this email.
+     * @throws IOException if the file cannot be read.
+     */
+    public User findByEmail(String email) throws IOException {
+        if (index.getLong(RETIRED_AT) != retiredSeen) {
+            refresh(); // Another process rebuilt the index or replaced a record
+        }
+        synchronized (cache) {
+            User cached = cache.get(email);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        User user = read(() -> {
+            int entry = findEntry(email, hash(email));
+            return entry < 0 ? null : readUser(entryOffset(entry));
+        });
+        if (user != null) {
+            synchronized (cache) {
+                cache.put(email, user);
+            }
+        }
+        return user;
+    }
+
+    /**
+     * Returns the users with a given user ID. User IDs are not unique.
+     *
+     * @param userId The user ID.
+     * @return The users, newest first.
+     * @throws IOException if the file cannot be read.
+     */
+    public List<User> findByUserId(String userId) throws IOException {
+        return read(() -> {
+            List<User> users = new ArrayList<>();
+            int entry = index.getInt(HEADER_SIZE + bucket(userId, USER_ID_BUCKETS) * 4) - 1;
+            for (int steps = 0; entry >= 0 && steps < capacity; steps++) {
+                User user = liveUser(entry);
+                if (user != null && user.getUserId().equals(userId)) {
+                    users.add(user);
+                }
+                entry = index.getInt(entryAt(entry) + 16) - 1;
+            }
+            return users;
+        });
+    }
+
+    /**
+     * Returns users with a given role, ignoring case.
+     *
+     * @param role  The role, such as {@code buyer} or {@code seller}.
+     * @param limit The most users to return.
+     * @return The users, newest first.
+     * @throws IOException if the file cannot be read.
+     */
+    public List<User> findByRole(String role, int limit) throws IOException {
+        return read(() -> {
+            List<User> users = new ArrayList<>();
+            int entry = index.getInt(HEADER_SIZE + USER_ID_BUCKETS * 4
+                    + bucket(role.toLowerCase(), ROLE_BUCKETS) * 4) - 1;
+            for (int steps = 0; entry >= 0 && users.size() < limit && steps < capacity; steps++) {
+                User user = liveUser(entry);
+                if (user != null && user.getRole().equalsIgnoreCase(role)) {
+                    users.add(user);
+                }
+                entry = index.getInt(entryAt(entry) + 20) - 1;
+            }
+            return users;
+        });
+    }
+
+    /**
+     * Returns the number of records indexed, including records later replaced
+     * by another with the same email.
+     *
+     * @return The entry count.
+     * @throws IOException if the index has to be rebuilt and cannot be.
+     */
+    public int entryCount() throws IOException {
+        return read(() -> index.getInt(ENTRY_COUNT_AT));
+    }
+
+    /**
+     * Returns how much of the file has been indexed.
+     *
+     * @return The offset just after the last complete record indexed.
+     * @throws IOException if the index has to be rebuilt and cannot be.
+     */
+    public long indexedLength() throws IOException {
+        return read(() -> index.getLong(INDEXED_LENGTH_AT));
+    }
+
+    /**
+     * Indexes the records appended to the file since the index was last
+     * brought up to date, by this process or another. Rebuilds the index if
+     * the file no longer starts with what was indexed, or if a process died
+     * while changing the index.
+     *
+     * @throws IOException if the file or the index cannot be accessed.
+     */
+    public void refresh() throws IOException {
+        lock.writeLock().lock();
+        try {
+            FileLock fileLock = indexChannel.lock();
+            try {
+                remapIfGrown();
+                reopenDataIfReplaced();
+                long size = data.size();
+                long generation = index.getLong(GENERATION_AT);
+                long indexedLength = index.getLong(INDEXED_LENGTH_AT);
+                boolean rebuild = (generation & 1) != 0 || indexedLength > size
+                        || index.getLong(TAIL_CRC_AT) != tailCrc(indexedLength);
+                if (rebuild || size > indexedLength) {
+                    long start = indexWriteTimer.start();
+                    int entriesBefore = rebuild ? 0 : index.getInt(ENTRY_COUNT_AT);
+                    index.putLong(GENERATION_AT, generation | 1);
+                    try {
+                        if (rebuild) {
+                            clearIndex();
+                            indexedLength = 0;
+                        }
+                        scan(indexedLength, size);
+                    } finally {
+                        index.putLong(GENERATION_AT, (generation | 1) + 1);
+                        BYTES_WRITTEN.add((long) (index.getInt(ENTRY_COUNT_AT) - entriesBefore) * ENTRY_SIZE);
+                        indexWriteTimer.stop(start);
+                    }
+                }
+                long retired = index.getLong(RETIRED_AT);
+                if (retired != retiredSeen) {
+                    synchronized (cache) {
+                        cache.clear(); // A cached user may have been replaced or may no longer be indexed
+                    }
+                    retiredSeen = retired;
+                }
+            } finally {
+                fileLock.release();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            FileTailer.getDefault().unwatch(file);
+            repositories.values().remove(this);
+            long start = indexWriteTimer.start();
+            try {
+                index.force();
+            } finally {
+                indexWriteTimer.stop(start);
+            }
+            indexChannel.close();
+            data.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Runs a read of the index under the read lock. If another process changed
+     * the index meanwhile, the read is repeated; if the index was left half
+     * changed, or has grown, it is brought up to date first.
+     */
+    private <T> T read(IndexRead<T> action) throws IOException {
+        while (true) {
+            lock.readLock().lock();
+            try {
+                long generation = index.getLong(GENERATION_AT);
+                if ((generation & 1) == 0 && index.getInt(CAPACITY_AT) == capacity) {
+                    try {
+                        T result = action.read();
+                        if (index.getLong(GENERATION_AT) == generation) {
+                            return result;
+                        }
+                    } catch (RuntimeException e) {
+                        if (index.getLong(GENERATION_AT) == generation) {
+                            throw e;
+                        }
+                        // Read a half-changed index; try again
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            refresh(); // Waits for the process changing the index, or repairs what it left
+        }
+    }
+
+    // Scanning and indexing, under the write lock and the file lock
+
+    /**
+     * Indexes the records between two offsets. A last record without a line
+     * break is indexed but not counted as scanned: the next refresh retires
+     * its entry and reads it again, with whatever was appended to it.
+     */
+    private void scan(long from, long to) throws IOException {
+        int tailEntry = index.getInt(TAIL_ENTRY_AT) - 1;
+        if (tailEntry >= 0) {
+            retire(tailEntry);
+            index.putInt(TAIL_ENTRY_AT, 0);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        byte[] record = new byte[256];
+        int recordLength = 0;
+        long recordStart = from;
+        long position = from;
+        long line = index.getLong(LINES_SCANNED_AT);
+        boolean inQuotes = false;
+        int malformed = 0;
+        String firstMalformed = null;
+        while (position < to) {
+            buffer.clear();
+            if (to - position < buffer.capacity()) {
+                buffer.limit((int) (to - position));
+            }
+            int read = data.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            buffer.flip();
+            for (int i = 0; i < read; i++) {
+                byte b = buffer.get(i);
+                if (b == '"') {
+                    inQuotes = !inQuotes;
+                } else if (b == '\n' && !inQuotes) {
+                    line++;
+                    String problem = indexRecord(recordStart, record, recordLength);
+                    if (problem != null && malformed++ == 0) {
+                        firstMalformed = "line " + line + ": " + problem;
+                    }
+                    recordStart = position + i + 1;
+                    recordLength = 0;
+                    continue;
+                }
+                if (recordLength == record.length) {
+                    record = Arrays.copyOf(record, record.length * 2);
+                }
+                record[recordLength++] = b;
+            }
+            position += read;
+        }
+        if (recordLength > 0) {
+            int count = index.getInt(ENTRY_COUNT_AT);
+            indexRecord(recordStart, record, recordLength);
+            if (index.getInt(ENTRY_COUNT_AT) > count) {
+                index.putInt(TAIL_ENTRY_AT, count + 1);
+            }
+        }
+        index.putLong(LINES_SCANNED_AT, line);
+        index.putLong(INDEXED_LENGTH_AT, recordStart);
+        index.putLong(TAIL_CRC_AT, tailCrc(recordStart));
+        if (malformed > 0) {
+            System.out.println(malformed + " user record(s) in " + file.getFileName()
+                    + " could not be loaded, first: " + firstMalformed);
+        }
+    }
+
+    /**
+     * Adds one record to the index.
+     *
+     * @return {@code null} if the record was indexed or is blank, otherwise what is wrong with it.
+     */
+    private String indexRecord(long offset, byte[] bytes, int length) throws IOException {
+        if (length > 0 && bytes[length - 1] == '\r') {
+            length--;
+        }
+        if (length == 0) {
+            return null;
+        }
+        String[] fields = parseFields(new String(bytes, 0, length, StandardCharsets.UTF_8));
+        if (fields == null) {
+            return "expected " + FIELDS + " fields";
+        }
+        String email = fields[3];
+        long hash = hash(email);
+        int existing = findEntry(email, hash);
+        if (existing >= 0) {
+            retire(existing); // The later record for an email wins
+        }
+        addEntry(hash, offset, fields[0], fields[7]);
+        return null;
+    }
+
+    private void retire(int entry) {
+        index.putLong(entryAt(entry) + 8, -1);
+        index.putLong(RETIRED_AT, index.getLong(RETIRED_AT) + 1);
+    }
+
+    private void addEntry(long hash, long offset, String userId, String role) throws IOException {
+        int count = index.getInt(ENTRY_COUNT_AT);
+        if (count >= capacity / 2) {
+            grow();
+        }
+        int at = entryAt(count);
+        int userIdHead = HEADER_SIZE + bucket(userId, USER_ID_BUCKETS) * 4;
+        int roleHead = HEADER_SIZE + USER_ID_BUCKETS * 4 + bucket(role.toLowerCase(), ROLE_BUCKETS) * 4;
+        index.putLong(at, hash);
+        index.putLong(at + 8, offset);
+        index.putInt(at + 16, index.getInt(userIdHead));
+        index.putInt(at + 20, index.getInt(roleHead));
+        index.putInt(userIdHead, count + 1);
+        index.putInt(roleHead, count + 1);
+        putSlot(hash, count);
+        index.putInt(ENTRY_COUNT_AT, count + 1);
+    }
+
+    /**
+     * Points the slot of an email hash at an entry, taking the first slot
+     * that is free or holds a retired entry.
+     */
+    private void putSlot(long hash, int entry) {
+        int mask = capacity - 1;
+        int slot = spread(hash) & mask;
+        while (true) {
+            int at = slotsAt + slot * 4;
+            int current = index.getInt(at) - 1;
+            if (current < 0 || (index.getLong(entryAt(current)) == hash && entryOffset(current) < 0)) {
+                index.putInt(at, entry + 1);
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Doubles the number of slots. The file is extended, the entries are
+     * moved up past the larger slot table, and the slots are filled again
+     * from the live entries. Chains refer to entries by number, so they are
+     * unchanged.
+     */
+    private void grow() throws IOException {
+        if (capacity >= MAX_CAPACITY) {
+            throw new IOException("Too many user records for the index of " + file.getFileName());
+        }
+        int count = index.getInt(ENTRY_COUNT_AT);
+        int oldEntriesAt = entriesAt;
+        map(capacity * 2);
+        BYTES_WRITTEN.add((long) count * ENTRY_SIZE + (entriesAt - slotsAt)); // Entries moved, slots refilled
+        for (int i = count * ENTRY_SIZE - 8; i >= 0; i -= 8) {
+            index.putLong(entriesAt + i, index.getLong(oldEntriesAt + i)); // Regions overlap: copy from the end
+        }
+        for (int i = slotsAt; i < entriesAt; i += 8) {
+            index.putLong(i, 0);
+        }
+        index.putInt(CAPACITY_AT, capacity);
+        for (int entry = 0; entry < count; entry++) {
+            if (entryOffset(entry) >= 0) {
+                putSlot(index.getLong(entryAt(entry)), entry);
+            }
+        }
+    }
+
+    // Lookups, under either lock
+
+    /**
+     * Finds the live entry of an email, reading candidate records to rule out
+     * hash collisions.
+     *
+     * @return The entry, or -1 if the email is not indexed.
+     */
+    private int findEntry(String email, long hash) throws IOException {
+        int mask = capacity - 1;
+        int count = index.getInt(ENTRY_COUNT_AT);
+        int slot = spread(hash) & mask;
+        for (int probes = 0; probes < capacity; probes++) {
+            int entry = index.getInt(slotsAt + slot * 4) - 1;
+            if (entry < 0) {
+                return -1;
+            }
+            if (entry < count && index.getLong(entryAt(entry)) == hash) {
+                long offset = entryOffset(entry);
+                if (offset >= 0) {
+                    String[] fields = readFields(offset);
+                    if (fields != null && fields[3].equals(email)) {
+                        return entry;
+                    }
+                }
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1; // Only reached while another process is changing the index
+    }
+
+    private User liveUser(int entry) throws IOException {
+        long offset = entryOffset(entry);
+        return offset < 0 ? null : readUser(offset);
+    }
+
+    private User readUser(long offset) throws IOException {
+        String[] f = readFields(offset);
+        return f == null ? null : new User(f[0], f[1], f[2], f[3], f[4], f[5], f[6], f[7]);
+    }
+
+    /**
+     * Reads the record starting at an offset, stopping at the first line
+     * break outside quotes.
+     *
+     * @return The fields, or {@code null} if the record does not have 8 of them.
+     */
+    private String[] readFields(long offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        boolean inQuotes = false;
+        int scanned = 0;
+        while (true) {
+            int read = data.read(buffer, offset + buffer.position());
+            for (; scanned < buffer.position(); scanned++) {
+                byte b = buffer.get(scanned);
+                if (b == '"') {
+                    inQuotes = !inQuotes;
+                } else if (b == '\n' && !inQuotes) {
+                    return decode(buffer, scanned);
+                }
+            }
+            if (read < 0) {
+                return decode(buffer, scanned);
+            }
+            if (!buffer.hasRemaining()) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip());
+            }
+        }
+    }
+
+    private static String[] decode(ByteBuffer buffer, int length) {
+        if (length > 0 && buffer.get(length - 1) == '\r') {
+            length--;
+        }
+        return parseFields(new String(buffer.array(), 0, length, StandardCharsets.UTF_8));
+    }
+
+    private static String[] parseFields(String record) {
+        CsvCursor cursor = new CsvCursor(record.toCharArray(), 0, record.length());
+        try {
+            if (!cursor.nextRecord() || cursor.fieldCount() != FIELDS) {
+                return null;
+            }
+        } catch (IOException e) {
+            return null; // Not possible for a fixed buffer
+        }
+        String[] fields = new String[FIELDS];
+        for (int i = 0; i < FIELDS; i++) {
+            cursor.nextField();
+            fields[i] = cursor.fieldString();
+        }
+        return fields;
+    }
+
+    // Files
+
+    private void openData() throws IOException {
+        try {
+            Files.createFile(file);
+        } catch (FileAlreadyExistsException e) {
+            // The usual case
+        }
+        data = FileChannel.open(file, StandardOpenOption.READ);
+        dataKey = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+    }
+
+    /**
+     * Reopens the user file if another file has taken its name, as after a
+     * rotation. The tail checksum then no longer matches and the index is rebuilt.
+     */
+    private void reopenDataIfReplaced() throws IOException {
+        Object key;
+        try {
+            key = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+        } catch (NoSuchFileException e) {
+            key = null; // Deleted: reopening creates an empty file
+        }
+        if (!Objects.equals(key, dataKey)) {
+            data.close();
+            openData();
+        }
+    }
+
+    /**
+     * Maps the index, creating it if the file is new or not a valid index.
+     */
+    private void openIndex() throws IOException {
+        FileLock fileLock = indexChannel.lock();
+        try {
+            if (indexChannel.size() >= HEADER_SIZE) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                indexChannel.read(header, 0);
+                int storedCapacity = header.getInt(CAPACITY_AT);
+                if (header.getInt(0) == MAGIC && header.getInt(4) == VERSION && Integer.bitCount(storedCapacity) == 1
+                        && storedCapacity >= MIN_CAPACITY && storedCapacity <= MAX_CAPACITY
+                        && indexChannel.size() >= indexSize(storedCapacity)) {
+                    map(storedCapacity);
+                    retiredSeen = index.getLong(RETIRED_AT);
+                    return;
+                }
+            }
+            long start = indexWriteTimer.start();
+            map(MIN_CAPACITY);
+            for (int i = 0; i < index.capacity(); i += 8) {
+                index.putLong(i, 0);
+            }
+            BYTES_WRITTEN.add(index.capacity());
+            indexWriteTimer.stop(start);
+            index.putInt(0, MAGIC);
+            index.putInt(4, VERSION);
+            index.putInt(CAPACITY_AT, capacity);
+            index.putLong(TAIL_CRC_AT, tailCrc(0));
+        } finally {
+            fileLock.release();
+        }
+    }
+
+    /**
+     * Empties the index, keeping its size, so it can be rebuilt. Counts as
+     * retiring every entry, which clears the caches of all processes.
+     */
+    private void clearIndex() throws IOException {
+        for (int i = HEADER_SIZE; i < indexSize(capacity); i += 8) {
+            index.putLong(i, 0);
+        }
+        BYTES_WRITTEN.add(indexSize(capacity) - HEADER_SIZE);
+        index.putInt(ENTRY_COUNT_AT, 0);
+        index.putLong(INDEXED_LENGTH_AT, 0);
+        index.putLong(LINES_SCANNED_AT, 0);
+        index.putLong(TAIL_CRC_AT, tailCrc(0));
+        index.putInt(TAIL_ENTRY_AT, 0);
+        index.putLong(RETIRED_AT, index.getLong(RETIRED_AT) + 1);
+    }
+
+    /**
+     * Maps the index again if another process has grown it.
+     */
+    private void remapIfGrown() throws IOException {
+        int stored = index.getInt(CAPACITY_AT);
+        if (stored != capacity) {
+            map(stored);
+        }
+    }
+
+    private void map(int newCapacity) throws IOException {
+        capacity = newCapacity;
+        slotsAt = slotsAtFor();
+        entriesAt = slotsAt + capacity * 4;
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexSize(capacity));
+    }
+
+    private static int slotsAtFor() {
+        return HEADER_SIZE + (USER_ID_BUCKETS + ROLE_BUCKETS) * 4;
+    }
+
+    private static long indexSize(int capacity) {
+        return slotsAtFor() + (long) capacity * 4 + (long) (capacity / 2) * ENTRY_SIZE;
+    }
+
+    private int entryAt(int entry) {
+        return entriesAt + entry * ENTRY_SIZE;
+    }
+
+    private long entryOffset(int entry) {
+        return index.getLong(entryAt(entry) + 8);
+    }
+
+    /**
+     * Checksums the bytes just before the indexed length, to notice a file
+     * that was replaced rather than appended to.
+     */
+    private long tailCrc(long indexedLength) throws IOException {
+        int length = (int) Math.min(TAIL_CHECK_BYTES, indexedLength);
+        ByteBuffer tail = ByteBuffer.allocate(length);
+        while (tail.hasRemaining() && data.read(tail, indexedLength - length + tail.position()) > 0) {
+            // Keep reading until the tail is complete
+        }
+        CRC32 crc = new CRC32();
+        crc.update(tail.array(), 0, tail.position());
+        return crc.getValue();
+    }
+
+    /**
+     * A 64-bit FNV-1a hash of the characters, stable across runs so it can be stored.
+     */
+    private static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h = (h ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static int spread(long hash) {
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    private static int bucket(String value, int buckets) {
+        return spread(hash(value)) & (buckets - 1);
+    }
+}
@@ -0,0 +1,53 @@
+package ecommerceapplication2;
+
+/**
+ * The outcome of checking a field with {@link Validators}: {@link #VALID},
+ * or a code saying what is wrong, with a message that can be shown to the user.
+ */
+public enum ValidationResult {
+    VALID("Valid."),
+
+    // User details
+    EMAIL_INVALID("Invalid email format. Please enter a valid email address."),
+    PASSWORD_TOO_SHORT("Invalid password. Password must be at least 8 characters long."),
+    PASSWORD_INVALID_CHARACTER("Invalid password. Password may only contain letters, digits and @$!%*?&."),
+    PASSWORD_NO_LOWERCASE("Invalid password. Password must include a lowercase letter."),
+    PASSWORD_NO_UPPERCASE("Invalid password. Password must include an uppercase letter."),
+    PASSWORD_NO_DIGIT("Invalid password. Password must include a digit."),
+    PASSWORD_NO_SPECIAL("Invalid password. Password must include one of @$!%*?&."),
+    USER_ID_NOT_THREE_DIGITS("User ID must be exactly three digits."),
+    USER_ID_REPEATED_DIGIT("User ID must contain three unique digits."),
+    PHONE_NUMBER_INVALID("Phone number must start with '0' and be exactly 10 digits long."),
+    ROLE_INVALID("Invalid role. Please enter 'buyer' or 'seller' only."),
+
+    // Card details
+    CARD_NUMBER_INVALID("Invalid card number. Please enter a 16-digit card number."),
+    CARD_NUMBER_CHECKSUM("Invalid card number. Please check the digits and try again."),
+    EXPIRY_DATE_INVALID("Invalid expiry date. Please enter in MM/YY format."),
+    CARD_EXPIRED("The card has expired. Please use another card."),
+    CVV_INVALID("Invalid CVV. Please enter a 3-digit CVV.");
+
+    private final String message;
+
+    ValidationResult(String message) {
+        this.message = message;
+    }
+
+    /**
+     * Checks whether the field passed validation.
+     *
+     * @return {@code true} for {@link #VALID}.
+     */
+    public boolean isValid() {
+        return this == VALID;
+    }
+
+    /**
+     * Returns a description of the problem for the user.
+     *
+     * @return The message.
+     */
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,247 @@
+package ecommerceapplication2;
+
+import java.time.YearMonth;
+import java.time.ZoneId;
+
+/**
+ * Validates user and card details. Each check is a single pass over the
+ * characters, with no regular expressions and no allocation, and reports what
+ * is wrong as a {@link ValidationResult} instead of throwing.
+ *
+ * <p>The rules match the patterns the application used before, so every
+ * value accepted then is accepted now, except that card numbers must also
+ * pass the Luhn checksum and expiry dates must not be in the past.
+ *
+ * <p>Usage example:
+ * <pre>
+ *     ValidationResult result = Validators.email(email);
+ *     if (!result.isValid()) {
+ *         System.out.println(result.getMessage());
+ *     }
+ * </pre>
+ */
+public final class Validators {
+    private static final String PASSWORD_SPECIALS = "@$!%*?&";
+
+    private static volatile CurrentMonth currentMonth = new CurrentMonth(); // Refreshed when the month changes
+
+    private Validators() {
+    }
+
+    /**
+     * Checks an email address: a local part of letters, digits and {@code +_.-},
+     * an {@code @}, and a domain of letters, digits and {@code .-}.
+     *
+     * @param email The email address.
+     * @return {@link ValidationResult#VALID} or {@link ValidationResult#EMAIL_INVALID}.
+     */
+    public static ValidationResult email(CharSequence email) {
+        if (email == null) {
+            return ValidationResult.EMAIL_INVALID;
+        }
+        int at = -1;
+        for (int i = 0; i < email.length(); i++) {
+            char c = email.charAt(i);
+            if (c == '@') {
+                if (at >= 0) {
+                    return ValidationResult.EMAIL_INVALID;
+                }
+                at = i;
+            } else if (!isAsciiLetterOrDigit(c) && c != '.' && c != '-' && (at >= 0 || (c != '+' && c != '_'))) {
+                return ValidationResult.EMAIL_INVALID;
+            }
+        }
+        return at > 0 && at < email.length() - 1 ? ValidationResult.VALID : ValidationResult.EMAIL_INVALID;
+    }
+
+    /**
+     * Checks a password: at least 8 characters from letters, digits and
+     * {@code @$!%*?&}, with at least one lowercase letter, uppercase letter,
+     * digit and special character.
+     *
+     * @param password The password.
+     * @return {@link ValidationResult#VALID} or the first rule the password breaks.
+     */
+    public static ValidationResult password(CharSequence password) {
+        if (password == null) {
+            return ValidationResult.PASSWORD_TOO_SHORT;
+        }
+        boolean lower = false;
+        boolean upper = false;
+        boolean digit = false;
+        boolean special = false;
+        for (int i = 0; i < password.length(); i++) {
+            char c = password.charAt(i);
+            if (c >= 'a' && c <= 'z') {
+                lower = true;
+            } else if (c >= 'A' && c <= 'Z') {
+                upper = true;
+            } else if (c >= '0' && c <= '9') {
+                digit = true;
+            } else if (PASSWORD_SPECIALS.indexOf(c) >= 0) {
+                special = true;
+            } else {
+                return ValidationResult.PASSWORD_INVALID_CHARACTER;
+            }
+        }
+        if (password.length() < 8) {
+            return ValidationResult.PASSWORD_TOO_SHORT;
+        } else if (!lower) {
+            return ValidationResult.PASSWORD_NO_LOWERCASE;
+        } else if (!upper) {
+            return ValidationResult.PASSWORD_NO_UPPERCASE;
+        } else if (!digit) {
+            return ValidationResult.PASSWORD_NO_DIGIT;
+        } else if (!special) {
+            return ValidationResult.PASSWORD_NO_SPECIAL;
+        }
+        return ValidationResult.VALID;
+    }
+
+    /**
+     * Checks a user ID: exactly three different digits.
+     *
+     * @param userId The user ID.
+     * @return {@link ValidationResult#VALID} or what is wrong with the ID.
+     */
+    public static ValidationResult userId(CharSequence userId) {
+        if (userId == null || userId.length() != 3 || !isDigits(userId, 0, 3)) {
+            return ValidationResult.USER_ID_NOT_THREE_DIGITS;
+        }
+        char a = userId.charAt(0);
+        char b = userId.charAt(1);
+        char c = userId.charAt(2);
+        return a != b && a != c && b != c ? ValidationResult.VALID : ValidationResult.USER_ID_REPEATED_DIGIT;
+    }
+
+    /**
+     * Checks a phone number: {@code 0} followed by nine digits.
+     *
+     * @param phoneNumber The phone number.
+     * @return {@link ValidationResult#VALID} or {@link ValidationResult#PHONE_NUMBER_INVALID}.
+     */
+    public static ValidationResult phoneNumber(CharSequence phoneNumber) {
+        return phoneNumber != null && phoneNumber.length() == 10 && phoneNumber.charAt(0) == '0'
+                && isDigits(phoneNumber, 1, 10) ? ValidationResult.VALID : ValidationResult.PHONE_NUMBER_INVALID;
+    }
+
+    /**
+     * Checks a role: {@code buyer} or {@code seller}, in any case.
+     *
+     * @param role The role.
+     * @return {@link ValidationResult#VALID} or {@link ValidationResult#ROLE_INVALID}.
+     */
+    public static ValidationResult role(String role) {
+        return "buyer".equalsIgnoreCase(role) || "seller".equalsIgnoreCase(role)
+                ? ValidationResult.VALID : ValidationResult.ROLE_INVALID;
+    }
+
+    /**
+     * Checks a card number: 16 digits that pass the Luhn checksum.
+     *
+     * @param cardNumber The card number.
+     * @return {@link ValidationResult#VALID} or what is wrong with the number.
+     */
+    public static ValidationResult cardNumber(CharSequence cardNumber) {
+        if (cardNumber == null || cardNumber.length() != 16 || !isDigits(cardNumber, 0, 16)) {
+            return ValidationResult.CARD_NUMBER_INVALID;
+        }
+        int sum = 0;
+        for (int i = 0; i < 16; i++) {
+            int d = cardNumber.charAt(15 - i) - '0';
+            if ((i & 1) == 1) {
+                d = d < 5 ? d * 2 : d * 2 - 9;
+            }
+            sum += d;
+        }
+        return sum % 10 == 0 ? ValidationResult.VALID : ValidationResult.CARD_NUMBER_CHECKSUM;
+    }
+
+    /**
+     * Checks an expiry date in MM/YY format that is not before the current month.
+     * A card is valid until the end of its expiry month.
+     *
+     * @param expiryDate The expiry date.
+     * @return {@link ValidationResult#VALID} or what is wrong with the date.
+     */
+    public static ValidationResult expiryDate(CharSequence expiryDate) {
+        return expiryDate(expiryDate, currentMonthIndex());
+    }
+
+    /**
+     * Checks an expiry date in MM/YY format against a given month.
+     *
+     * @param expiryDate The expiry date.
+     * @param today      The month to compare with.
+     * @return {@link ValidationResult#VALID} or what is wrong with the date.
+     */
+    public static ValidationResult expiryDate(CharSequence expiryDate, YearMonth today) {
+        return expiryDate(expiryDate, today.getYear() * 12 + today.getMonthValue() - 1);
+    }
+
+    /**
+     * Checks a CVV: exactly three digits.
+     *
+     * @param cvv The CVV.
+     * @return {@link ValidationResult#VALID} or {@link ValidationResult#CVV_INVALID}.
+     */
+    public static ValidationResult cvv(CharSequence cvv) {
+        return cvv != null && cvv.length() == 3 && isDigits(cvv, 0, 3)
+                ? ValidationResult.VALID : ValidationResult.CVV_INVALID;
+    }
+
+    private static ValidationResult expiryDate(CharSequence expiryDate, int todayIndex) {
+        if (expiryDate == null || expiryDate.length() != 5 || expiryDate.charAt(2) != '/'
+                || !isDigits(expiryDate, 0, 2) || !isDigits(expiryDate, 3, 5)) {
+            return ValidationResult.EXPIRY_DATE_INVALID;
+        }
+        int month = (expiryDate.charAt(0) - '0') * 10 + (expiryDate.charAt(1) - '0');
+        if (month < 1 || month > 12) {
+            return ValidationResult.EXPIRY_DATE_INVALID;
+        }
+        int year = 2000 + (expiryDate.charAt(3) - '0') * 10 + (expiryDate.charAt(4) - '0');
+        return year * 12 + month - 1 >= todayIndex ? ValidationResult.VALID : ValidationResult.CARD_EXPIRED;
+    }
+
+    private static boolean isDigits(CharSequence s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAsciiLetterOrDigit(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+    /**
+     * Returns the current month as {@code year * 12 + month - 1}, working out
+     * the calendar only when the month has changed.
+     */
+    private static int currentMonthIndex() {
+        CurrentMonth month = currentMonth;
+        if (System.currentTimeMillis() >= month.endMillis) {
+            month = new CurrentMonth();
+            currentMonth = month;
+        }
+        return month.index;
+    }
+
+    /**
+     * The current month and the time it ends, in the system time zone.
+     */
+    private static final class CurrentMonth {
+        final int index;
+        final long endMillis;
+
+        CurrentMonth() {
+            ZoneId zone = ZoneId.systemDefault();
+            YearMonth now = YearMonth.now(zone);
+            index = now.getYear() * 12 + now.getMonthValue() - 1;
+            endMillis = now.plusMonths(1).atDay(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        }
+    }
+}